@@ -224,12 +224,20 @@ function Test-ConfluentKafkaIsolation {
         "KafkaEventDataHeader.cs",
         # Serialization
         "SerializationHelper.cs",
+        "DeserializationPipeline.cs",
+        "DeferredDeserializer.cs",
+        "SizeCapturingDeserializer.cs",
         "ProtobufDeserializer.cs",
         "ProtobufSerializer.cs",
         "LocalSchemaRegistry.cs",
         # Offset commit (consumer.StoreOffset)
         "AsyncCommitStrategy.cs",
         "ICommitStrategy.cs",
+        "OffsetTrackingCommitStrategy.cs",
+        "CoalescingCommitStrategy.cs",
+        "LaneTransaction.cs",
+        # Dead letters (raw records of undeserializable messages)
+        "UndecodedKafkaEventData.cs",
         # Config & Enums (maps to Confluent types)
         "KafkaListenerConfiguration.cs",
         "BrokerAuthenticationMode.cs",
@@ -488,6 +496,14 @@ function Test-ChannelContract {
         return
     }
     
+    # Lane channels are created by PartitionLane, one per assigned partition
+    $laneFile = Join-Path $Path "Trigger" "PartitionLane.cs"
+    if (-not (Test-Path $laneFile)) {
+        Write-LintError "CHN-001" $laneFile 0 "PartitionLane.cs is missing."
+        return
+    }
+    
+    $executorFile = $laneFile
     $content = Get-Content $executorFile -Raw
     
     # Verify Channel configuration
@@ -515,7 +531,7 @@ function Test-InternalsVisibleTo {
         for ($i = 0; $i -lt $lines.Count; $i++) {
             $line = $lines[$i]
             if ($line -match "\[assembly:\s*InternalsVisibleTo\s*\(") {
-                if ($line -notmatch "UnitTests|EndToEndTests|Tests\.Common|DynamicProxyGenAssembly2") {
+                if ($line -notmatch "UnitTests|EndToEndTests|Benchmarks|Tests\.Common|DynamicProxyGenAssembly2") {
                     Write-LintWarning "IVT-001" $file.FullName ($i + 1) "InternalsVisibleTo for non-test assembly detected. Internal APIs exposed to external assemblies become hard to change."
                 }
             }
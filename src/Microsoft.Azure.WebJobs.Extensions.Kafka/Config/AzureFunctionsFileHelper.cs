@@ -31,6 +31,8 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         internal const string Linux64ArchFolderName = "linux-x64";
         internal const string OSEnvVarName = "OS";
         internal const string SiteBitnessEnvVarName = "SITE_BITNESS";
+        internal const string WebsiteInstanceIdEnvVarName = "WEBSITE_INSTANCE_ID";
+        internal const string ContainerNameEnvVarName = "CONTAINER_NAME";
 
         /// <summary>
         /// Indicates if the current excecution environment is either a function hosted in Azure or 
@@ -74,6 +76,22 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             return null;
         }
 
+        /// <summary>
+        /// Gets the identity of the instance hosting the function, stable across host restarts.
+        /// Uses WEBSITE_INSTANCE_ID (App Service / Premium plans), then CONTAINER_NAME (containers).
+        /// Returns null if none is available (e.g. running locally).
+        /// </summary>
+        internal static string GetHostInstanceId()
+        {
+            var instanceId = Environment.GetEnvironmentVariable(WebsiteInstanceIdEnvVarName, EnvironmentVariableTarget.Process);
+            if (string.IsNullOrWhiteSpace(instanceId))
+            {
+                instanceId = Environment.GetEnvironmentVariable(ContainerNameEnvVarName, EnvironmentVariableTarget.Process);
+            }
+
+            return string.IsNullOrWhiteSpace(instanceId) ? null : instanceId.Trim();
+        }
+
         // Holds whether or not librdkafka has been initialized
         static bool librdkafkaInitialized;
 
@@ -0,0 +1,16 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Defines how trigger offsets are stored for commit
+    /// </summary>
+    public enum CommitStrategyType
+    {
+        // Stores every offset as soon as its execution completes
+        Async,
+        // Keeps the highest pending offset per partition and stores them on an interval or count threshold
+        Coalescing
+    }
+}
@@ -0,0 +1,16 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Defines when the output of a function invocation is considered sent
+    /// </summary>
+    public enum DeliveryMode
+    {
+        // Messages are handed to the producer, delivery failures are only logged
+        FireAndForget,
+        // Messages of a flush are produced together and the flush completes once the broker acknowledged all of them
+        Confirmed
+    }
+}
@@ -60,7 +60,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             configuration.ConfigurationSection.Bind(options);
 
             // register our trigger binding provider
-            var triggerBindingProvider = new KafkaTriggerAttributeBindingProvider(config, options, converterManager, nameResolver, loggerFactory, drainModeManager);
+            var triggerBindingProvider = new KafkaTriggerAttributeBindingProvider(config, options, converterManager, nameResolver, loggerFactory, drainModeManager, kafkaProducerFactory);
             context.AddBindingRule<KafkaTriggerAttribute>()
                 .BindToTrigger(triggerBindingProvider);
 
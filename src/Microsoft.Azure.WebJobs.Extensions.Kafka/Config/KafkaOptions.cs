@@ -124,6 +124,80 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             }
         }
 
+        int maxBatchBytes = 0;
+        /// <summary>
+        /// Max batch size in bytes when calling a Kafka trigger function, measured as the sum of the key, value and header sizes of the messages.
+        /// A batch is released once it reaches either <see cref="MaxBatchSize"/> or <see cref="MaxBatchBytes"/>.
+        /// A single message larger than the limit is sent in a batch of its own.
+        /// 
+        /// default: 0 (no limit)
+        /// </summary>
+        public int MaxBatchBytes
+        {
+            get => this.maxBatchBytes;
+            set
+            {
+                if (value < 0)
+                {
+                    throw new InvalidOperationException("Maximum batch bytes must be 0 or a positive integer.");
+                }
+
+                this.maxBatchBytes = value;
+            }
+        }
+
+        /// <summary>
+        /// Enables adaptive batch sizing for batch (cardinality many) triggers.
+        /// The batch size is tuned between <see cref="MinBatchSize"/> and <see cref="MaxBatchSize"/>, and the release interval
+        /// up to <see cref="SubscriberIntervalInSeconds"/>, using the measured function execution time, whether batches fill up
+        /// (consumer lag) and whether the partition lanes are congested.
+        /// Aims for <see cref="TargetBatchLatencyMs"/> if set, otherwise for the highest throughput.
+        /// 
+        /// default: false
+        /// </summary>
+        public bool AdaptiveBatchSize { get; set; }
+
+        int minBatchSize = 1;
+        /// <summary>
+        /// Min batch size used by adaptive batch sizing, see <see cref="AdaptiveBatchSize"/>
+        /// 
+        /// default: 1
+        /// </summary>
+        public int MinBatchSize
+        {
+            get => this.minBatchSize;
+            set
+            {
+                if (value <= 0)
+                {
+                    throw new InvalidOperationException("Minimum batch size must be larger than 0.");
+                }
+
+                this.minBatchSize = value;
+            }
+        }
+
+        int targetBatchLatencyMs = 0;
+        /// <summary>
+        /// Target function execution time in milliseconds of a batch, used by adaptive batch sizing (see <see cref="AdaptiveBatchSize"/>).
+        /// 0 tunes the batch size for the highest throughput instead.
+        /// 
+        /// default: 0
+        /// </summary>
+        public int TargetBatchLatencyMs
+        {
+            get => this.targetBatchLatencyMs;
+            set
+            {
+                if (value < 0)
+                {
+                    throw new InvalidOperationException("Target batch latency must be 0 or a positive integer.");
+                }
+
+                this.targetBatchLatencyMs = value;
+            }
+        }
+
         /// <summary>
         /// Gets or sets the auto commit interval ms.
         /// Default = 200ms
@@ -190,8 +264,8 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         int executorChannelCapacity = 1;
         /// <summary>
-        /// Defines the channel capacity in which messages will be sent to functions
-        /// Once the capacity is reached the Kafka subscriber will pause until the function catches up
+        /// Defines the channel capacity (per partition) in which messages will be sent to functions
+        /// Once the capacity is reached the partition is paused until the function catches up
         /// 
         /// default: 1
         /// </summary>
@@ -212,7 +286,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         /// <summary>
         /// Gets or sets whether to commit offsets when function execution fails.
         /// When true (default), offsets are always committed regardless of function result (at-most-once).
-        /// When false, failed messages will be retried in-place up to MaxRetries times (at-least-once).
+        /// When false, failed messages will be retried with an exponential backoff up to MaxRetries times (at-least-once).
         /// Default: true
         /// </summary>
         public bool CommitOnFailure { get; set; } = true;
@@ -239,9 +313,72 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             }
         }
 
+        int retryInitialDelayMs = 100;
+        /// <summary>
+        /// Defines the delay (ms) before the first retry of a failed execution when CommitOnFailure is false.
+        /// The delay doubles on every further attempt up to <see cref="RetryMaxDelayMs"/>. The partition is paused while waiting.
+        /// Set to 0 to retry immediately.
+        ///
+        /// default: 100
+        /// </summary>
+        public int RetryInitialDelayMs
+        {
+            get => this.retryInitialDelayMs;
+            set
+            {
+                if (value < 0)
+                {
+                    throw new InvalidOperationException("RetryInitialDelayMs must be a non-negative integer.");
+                }
+
+                this.retryInitialDelayMs = value;
+            }
+        }
+
+        int retryMaxDelayMs = 10000;
+        /// <summary>
+        /// Defines the maximum delay (ms) between two retries of a failed execution when CommitOnFailure is false.
+        ///
+        /// default: 10000
+        /// </summary>
+        public int RetryMaxDelayMs
+        {
+            get => this.retryMaxDelayMs;
+            set
+            {
+                if (value < 0)
+                {
+                    throw new InvalidOperationException("RetryMaxDelayMs must be a non-negative integer.");
+                }
+
+                this.retryMaxDelayMs = value;
+            }
+        }
+
+        int executorChannelLowWaterMark = 0;
+        /// <summary>
+        /// Defines the amount of queued batches a paused partition channel must drain to before the partition is resumed.
+        /// Values equal or larger than <see cref="ExecutorChannelCapacity"/> resume as soon as there is room in the channel.
+        /// 
+        /// default: 0
+        /// </summary>
+        public int ExecutorChannelLowWaterMark
+        {
+            get => this.executorChannelLowWaterMark;
+            set
+            {
+                if (value < 0)
+                {
+                    throw new InvalidOperationException("Executor channel low water mark must be 0 or a positive integer.");
+                }
+
+                this.executorChannelLowWaterMark = value;
+            }
+        }
+
         int channelFullRetryIntervalInMs = 50;
         /// <summary>
-        /// Defines the interval in milliseconds in which the subscriber should retry adding items to channel once it reaches the capacity
+        /// Defines the interval in milliseconds in which the subscriber checks if partitions paused because their channel reached the capacity can be resumed
         /// 
         /// default: 50ms
         /// </summary>
@@ -281,6 +418,327 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             }
         }
 
+        /// <summary>
+        /// Optimizes the trigger for end-to-end latency instead of batching, for sparse topics.
+        /// The polling thread blocks in Consume until a message arrives instead of sleeping <see cref="SubscriberIdleBackoffMs"/>,
+        /// and releases the messages as soon as the ones already fetched by the consumer are drained, without waiting for
+        /// <see cref="SubscriberIntervalInSeconds"/> or <see cref="MaxBatchSize"/>.
+        /// The consumer is configured to return fetches as soon as data is available (fetch.min.bytes=1, fetch.wait.max.ms=10)
+        /// and disables Nagle's algorithm on the broker sockets.
+        ///
+        /// default: false
+        /// </summary>
+        public bool LowLatencyMode { get; set; }
+
+        int maxConcurrencyPerPartition = 1;
+        /// <summary>
+        /// Defines how many messages of the same partition can be executed concurrently by single item triggers.
+        /// Messages with the same key are always executed in order, messages with different (or no) keys run concurrently.
+        /// Offsets are committed up to the lowest offset that has not completed.
+        /// Batch (cardinality many) triggers ignore this setting.
+        ///
+        /// default: 1 (sequential execution per partition)
+        /// </summary>
+        public int MaxConcurrencyPerPartition
+        {
+            get => this.maxConcurrencyPerPartition;
+            set
+            {
+                if (value <= 0)
+                {
+                    throw new InvalidOperationException("MaxConcurrencyPerPartition must be larger than 0.");
+                }
+
+                this.maxConcurrencyPerPartition = value;
+            }
+        }
+
+        int deserializationWorkerCount = 1;
+        /// <summary>
+        /// Defines how many workers decode the messages of a trigger using a schema registry, Avro or Protobuf deserializer.
+        /// With more than one worker the polling thread only fetches the raw messages, decoding runs on the workers
+        /// and the decoded messages are handed to the function in the order they were consumed.
+        ///
+        /// default: 1 (messages are decoded by the polling thread)
+        /// </summary>
+        public int DeserializationWorkerCount
+        {
+            get => this.deserializationWorkerCount;
+            set
+            {
+                if (value <= 0)
+                {
+                    throw new InvalidOperationException("DeserializationWorkerCount must be larger than 0.");
+                }
+
+                this.deserializationWorkerCount = value;
+            }
+        }
+
+        int sharedPollerThreadCount = 0;
+        /// <summary>
+        /// Defines how many threads poll the consumers of all the Kafka triggers of the host.
+        /// With 0 every trigger polls its consumer on a dedicated thread blocking in Consume. With a positive value the triggers
+        /// are spread over a fixed pool of threads, each thread polling its consumers in turn without blocking.
+        /// Rebalance callbacks run on the shared thread and hold back its other consumers, so the drain of revoked partitions
+        /// is capped at 100ms instead of <see cref="RevokedPartitionDrainTimeoutMs"/>.
+        ///
+        /// default: 0 (one polling thread per trigger)
+        /// </summary>
+        public int SharedPollerThreadCount
+        {
+            get => this.sharedPollerThreadCount;
+            set
+            {
+                if (value < 0)
+                {
+                    throw new InvalidOperationException("SharedPollerThreadCount must be a non-negative integer.");
+                }
+
+                this.sharedPollerThreadCount = value;
+            }
+        }
+
+        int consumersPerInstance = 1;
+        /// <summary>
+        /// Defines how many consumers each Kafka trigger runs in the host, each one with its own executor.
+        /// The consumers join the same consumer group, so the partitions of the trigger are spread over them and
+        /// can be processed on several cores. The value is capped by the partition count of the trigger topics.
+        /// The target scaler takes it into account, requesting at most one instance per this many partitions.
+        ///
+        /// default: 1
+        /// </summary>
+        public int ConsumersPerInstance
+        {
+            get => this.consumersPerInstance;
+            set
+            {
+                if (value <= 0)
+                {
+                    throw new InvalidOperationException("ConsumersPerInstance must be larger than 0.");
+                }
+
+                this.consumersPerInstance = value;
+            }
+        }
+
+        int producerShardCount = 1;
+        /// <summary>
+        /// Defines how many base producers each distinct output configuration uses.
+        /// Messages are routed to a producer by key hash (round robin for messages without key),
+        /// so messages with the same key keep their order. More producers spread the serialization,
+        /// compression and delivery work of busy outputs over more librdkafka threads and broker connections.
+        ///
+        /// default: 1
+        /// </summary>
+        public int ProducerShardCount
+        {
+            get => this.producerShardCount;
+            set
+            {
+                if (value <= 0)
+                {
+                    throw new InvalidOperationException("ProducerShardCount must be larger than 0.");
+                }
+
+                this.producerShardCount = value;
+            }
+        }
+
+        /// <summary>
+        /// Gets or sets the partition assignment strategy of the trigger consumers.
+        /// With CooperativeSticky, rebalances (e.g. when an instance is added) only move the partitions that change owner,
+        /// the other partitions keep processing without interruption.
+        /// All consumers of a group must use compatible strategies.
+        ///
+        /// default: null (librdkafka default: range,roundrobin)
+        /// Librdkafka: partition.assignment.strategy
+        /// </summary>
+        public PartitionAssignmentStrategy? PartitionAssignmentStrategy { get; set; }
+
+        int revokedPartitionDrainTimeoutMs = 5000;
+        /// <summary>
+        /// Defines how long (ms) the function executions in flight for a revoked partition can run before they are cancelled.
+        /// Batches not started yet are dropped, they will be delivered to the new partition owner.
+        /// Offsets of the completed executions are committed synchronously before the partition is released,
+        /// later completions are not committed.
+        ///
+        /// default: 5000
+        /// </summary>
+        public int RevokedPartitionDrainTimeoutMs
+        {
+            get => this.revokedPartitionDrainTimeoutMs;
+            set
+            {
+                if (value < 0)
+                {
+                    throw new InvalidOperationException("RevokedPartitionDrainTimeoutMs must be equal or larger than 0.");
+                }
+
+                this.revokedPartitionDrainTimeoutMs = value;
+            }
+        }
+
+        int shutdownDrainTimeoutMs = 30000;
+        /// <summary>
+        /// Defines how long (ms) the function executions in flight can run when the trigger stops (scale-in, host shutdown)
+        /// before they are cancelled. The consumer stops fetching first, batches not started yet are dropped,
+        /// then the offsets of the completed executions are committed synchronously and the consumer leaves the group.
+        /// Messages not executed are delivered to the next partition owner.
+        ///
+        /// default: 30000
+        /// </summary>
+        public int ShutdownDrainTimeoutMs
+        {
+            get => this.shutdownDrainTimeoutMs;
+            set
+            {
+                if (value < 0)
+                {
+                    throw new InvalidOperationException("ShutdownDrainTimeoutMs must be equal or larger than 0.");
+                }
+
+                this.shutdownDrainTimeoutMs = value;
+            }
+        }
+
+        /// <summary>
+        /// Gets or sets how trigger offsets are stored for commit.
+        /// Async stores every offset as soon as its execution completes.
+        /// Coalescing keeps the highest pending offset per partition and stores them every <see cref="CommitFlushIntervalMs"/>
+        /// or once <see cref="CommitFlushThreshold"/> offsets completed, offsets of revoked partitions and pending offsets at shutdown
+        /// are committed synchronously.
+        ///
+        /// default: Async
+        /// </summary>
+        public CommitStrategyType CommitStrategy { get; set; } = CommitStrategyType.Async;
+
+        int commitFlushIntervalMs = 100;
+        /// <summary>
+        /// Defines the interval (ms) in which the coalescing commit strategy stores the pending offsets.
+        ///
+        /// default: 100
+        /// </summary>
+        public int CommitFlushIntervalMs
+        {
+            get => this.commitFlushIntervalMs;
+            set
+            {
+                if (value <= 0)
+                {
+                    throw new InvalidOperationException("CommitFlushIntervalMs must be larger than 0.");
+                }
+
+                this.commitFlushIntervalMs = value;
+            }
+        }
+
+        int commitFlushThreshold = 1000;
+        /// <summary>
+        /// Defines how many completed offsets make the coalescing commit strategy store the pending offsets before the flush interval.
+        ///
+        /// default: 1000
+        /// </summary>
+        public int CommitFlushThreshold
+        {
+            get => this.commitFlushThreshold;
+            set
+            {
+                if (value <= 0)
+                {
+                    throw new InvalidOperationException("CommitFlushThreshold must be larger than 0.");
+                }
+
+                this.commitFlushThreshold = value;
+            }
+        }
+
+        /// <summary>
+        /// Gets or sets whether trigger functions consume, transform and produce exactly once.
+        /// Each partition lane produces the Kafka outputs of its invocations with a transactional producer and sends the input offsets
+        /// to the same transaction, so outputs and offsets commit atomically. Outputs to other clusters are not part of the transaction.
+        /// Downstream consumers must read with isolation.level read_committed.
+        ///
+        /// default: false
+        /// </summary>
+        public bool ExactlyOnceDelivery { get; set; } = false;
+
+        int transactionMaxInvocations = 100;
+        /// <summary>
+        /// Defines the maximum number of invocations of a partition committed in one transaction when exactly-once delivery is enabled.
+        /// The transaction commits earlier once the partition has no pending messages.
+        ///
+        /// default: 100
+        /// </summary>
+        public int TransactionMaxInvocations
+        {
+            get => this.transactionMaxInvocations;
+            set
+            {
+                if (value <= 0)
+                {
+                    throw new InvalidOperationException("TransactionMaxInvocations must be larger than 0.");
+                }
+
+                this.transactionMaxInvocations = value;
+            }
+        }
+
+        int transactionCommitIntervalMs = 100;
+        /// <summary>
+        /// Defines the maximum time (ms) a transaction of a partition stays open when exactly-once delivery is enabled.
+        ///
+        /// default: 100
+        /// </summary>
+        public int TransactionCommitIntervalMs
+        {
+            get => this.transactionCommitIntervalMs;
+            set
+            {
+                if (value <= 0)
+                {
+                    throw new InvalidOperationException("TransactionCommitIntervalMs must be larger than 0.");
+                }
+
+                this.transactionCommitIntervalMs = value;
+            }
+        }
+
+        /// <summary>
+        /// Gets or sets whether trigger consumers use static group membership.
+        /// The group.instance.id is derived from the host instance (WEBSITE_INSTANCE_ID or CONTAINER_NAME) and the function,
+        /// so a restarted instance reclaims its partitions without a group-wide rebalance.
+        /// Ignored when the host instance identity is not available.
+        ///
+        /// default: false
+        /// Librdkafka: group.instance.id
+        /// </summary>
+        public bool StaticGroupMembership { get; set; }
+
+        int staticMembershipSessionTimeoutMs = 45000;
+        /// <summary>
+        /// Defines the minimum session timeout (ms) when <see cref="StaticGroupMembership"/> is enabled.
+        /// Static members do not leave the group on shutdown, their partitions are only reassigned once the session times out,
+        /// so the timeout must be longer than an instance restart. The larger of this value and <see cref="SessionTimeoutMs"/> is used.
+        /// Must be within the broker group.min.session.timeout.ms / group.max.session.timeout.ms range.
+        ///
+        /// default: 45000
+        /// Librdkafka: session.timeout.ms
+        /// </summary>
+        public int StaticMembershipSessionTimeoutMs
+        {
+            get => this.staticMembershipSessionTimeoutMs;
+            set
+            {
+                if (value <= 0)
+                {
+                    throw new InvalidOperationException("StaticMembershipSessionTimeoutMs must be larger than 0.");
+                }
+
+                this.staticMembershipSessionTimeoutMs = value;
+            }
+        }
+
         public string Format()
         {
             var serializerSettings = new JsonSerializerSettings()
@@ -0,0 +1,19 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Defines the compression codecs of produced messages
+    /// </summary>
+    public enum MessageCompressionType
+    {
+        // Force that 0 starts like the one from librdkafka
+        NotSet = -1,
+        None,
+        Gzip,
+        Snappy,
+        Lz4,
+        Zstd
+    }
+}
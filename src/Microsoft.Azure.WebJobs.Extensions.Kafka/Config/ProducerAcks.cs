@@ -0,0 +1,17 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Defines how many broker acknowledgements a produced message needs
+    /// </summary>
+    public enum ProducerAcks
+    {
+        NotSet = -2,
+        // Values match the ones from librdkafka (acks)
+        All = -1,
+        None = 0,
+        Leader = 1
+    }
+}
@@ -41,5 +41,8 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         // Partition the message is sent to.
         public const string KafkaPartition = "messaging.kafka.partition";        
+
+        // Error code of a failed operation, e.g. a message the producer could not deliver.
+        public const string ErrorType = "error.type";
     }
 }
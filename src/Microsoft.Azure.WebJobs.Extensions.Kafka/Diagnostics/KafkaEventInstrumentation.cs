@@ -2,6 +2,7 @@
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
 using System;
+using System.Collections.Concurrent;
 using System.Collections.Generic;
 using System.Diagnostics;
 using System.Diagnostics.Metrics;
@@ -11,6 +12,182 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 {
     internal static class KafkaEventInstrumentation
     {
+        // Uses the same name as the trigger ActivitySource
+        internal static readonly Meter Meter = new Meter("Microsoft.Azure.Webjobs.Extensions.Kafka");
+
+        // Partitions currently paused by the trigger because their execution lane is full
+        internal static readonly UpDownCounter<int> PausedPartitions = Meter.CreateUpDownCounter<int>(
+            "messaging.kafka.consumer.paused_partitions",
+            unit: "{partition}",
+            description: "Number of partitions paused because the function execution is not keeping up.");
+
+        // Offsets handed to the coalescing commit strategy, and offsets it stored once coalesced
+        internal static readonly Counter<long> CommitRequestedOffsets = Meter.CreateCounter<long>(
+            "messaging.kafka.consumer.commit.requested_offsets",
+            unit: "{offset}",
+            description: "Number of offsets completed by function executions and handed to the commit strategy.");
+
+        internal static readonly Counter<long> CommitStoredOffsets = Meter.CreateCounter<long>(
+            "messaging.kafka.consumer.commit.stored_offsets",
+            unit: "{offset}",
+            description: "Number of offsets stored for commit after coalescing.");
+
+        internal static readonly Histogram<double> CommitCoalescingRatio = Meter.CreateHistogram<double>(
+            "messaging.kafka.consumer.commit.coalescing_ratio",
+            unit: "{offset}",
+            description: "Number of completed offsets replaced by each stored offset, per flush.");
+
+        internal static readonly Histogram<double> CommitStoreDuration = Meter.CreateHistogram<double>(
+            "messaging.kafka.consumer.commit.store.duration",
+            unit: "ms",
+            description: "Time taken to store the coalesced offsets of a flush.");
+
+        internal static readonly Histogram<double> CommitDuration = Meter.CreateHistogram<double>(
+            "messaging.kafka.consumer.commit.duration",
+            unit: "ms",
+            description: "Time taken by synchronous commits (revoked partitions, shutdown).");
+
+        // Failed executions scheduled for a delayed retry
+        internal static readonly Counter<long> Retries = Meter.CreateCounter<long>(
+            "messaging.kafka.consumer.retries",
+            unit: "{retry}",
+            description: "Number of failed function executions scheduled to be retried after a backoff delay.");
+
+        // Messages published to the dead-letter topic of the trigger
+        internal static readonly Counter<long> DeadLetteredMessages = Meter.CreateCounter<long>(
+            "messaging.kafka.consumer.dead_lettered_messages",
+            unit: "{message}",
+            description: "Number of messages published to the dead-letter topic because they could not be handled or deserialized.");
+
+        // Shutdown drain of the trigger listeners
+        internal static readonly Histogram<double> DrainDuration = Meter.CreateHistogram<double>(
+            "messaging.kafka.consumer.drain.duration",
+            unit: "ms",
+            description: "Time taken to drain the executions in flight and commit their offsets when a trigger stops.");
+
+        internal static readonly Counter<long> DrainAbandonedMessages = Meter.CreateCounter<long>(
+            "messaging.kafka.consumer.drain.abandoned_messages",
+            unit: "{message}",
+            description: "Number of in-flight messages cancelled because they did not complete within the shutdown drain timeout.");
+
+        // Delivery reports of the output bindings, per topic
+        internal static readonly Counter<long> ProducerDeliveredMessages = Meter.CreateCounter<long>(
+            "messaging.kafka.producer.delivered_messages",
+            unit: "{message}",
+            description: "Number of messages acknowledged by the broker.");
+
+        internal static readonly Counter<long> ProducerDeliveryErrors = Meter.CreateCounter<long>(
+            "messaging.kafka.producer.delivery_errors",
+            unit: "{message}",
+            description: "Number of messages that could not be delivered, by error code.");
+
+        internal static readonly Histogram<double> ProducerDeliveryDuration = Meter.CreateHistogram<double>(
+            "messaging.kafka.producer.delivery.duration",
+            unit: "ms",
+            description: "Time between producing a message and receiving its delivery report.");
+
+        // Adaptive batch size controllers of the running batch triggers, reported by the gauges below
+        private static readonly ConcurrentDictionary<AdaptiveBatchSizeController, byte> AdaptiveBatchSizeControllers = new ConcurrentDictionary<AdaptiveBatchSizeController, byte>();
+
+        internal static readonly ObservableGauge<int> AdaptiveBatchSize = Meter.CreateObservableGauge(
+            "messaging.kafka.consumer.adaptive_batch_size",
+            () => ObserveAdaptiveBatchSizeControllers(x => x.BatchSize),
+            unit: "{message}",
+            description: "Batch size currently chosen by the adaptive batch sizing of batch triggers.");
+
+        internal static readonly ObservableGauge<int> AdaptiveBatchReleaseInterval = Meter.CreateObservableGauge(
+            "messaging.kafka.consumer.adaptive_batch_release_interval",
+            () => ObserveAdaptiveBatchSizeControllers(x => (int)x.ReleaseInterval.TotalMilliseconds),
+            unit: "ms",
+            description: "Batch release interval currently chosen by the adaptive batch sizing of batch triggers.");
+
+        public static void RegisterAdaptiveBatchSizeController(AdaptiveBatchSizeController controller)
+        {
+            AdaptiveBatchSizeControllers.TryAdd(controller, 0);
+        }
+
+        public static void UnregisterAdaptiveBatchSizeController(AdaptiveBatchSizeController controller)
+        {
+            AdaptiveBatchSizeControllers.TryRemove(controller, out _);
+        }
+
+        private static IEnumerable<Measurement<int>> ObserveAdaptiveBatchSizeControllers(Func<AdaptiveBatchSizeController, int> value)
+        {
+            foreach (var controller in AdaptiveBatchSizeControllers.Keys)
+            {
+                yield return new Measurement<int>(value(controller), new KeyValuePair<string, object>(ActivityTags.DestinationName, controller.Topic));
+            }
+        }
+
+        public static void RecordPartitionPaused(string topic, int partition, bool paused)
+        {
+            PausedPartitions.Add(
+                paused ? 1 : -1,
+                new KeyValuePair<string, object>(ActivityTags.DestinationName, topic),
+                new KeyValuePair<string, object>(ActivityTags.KafkaPartition, partition));
+        }
+
+        public static void RecordCommitRequested(string topic, int count)
+        {
+            CommitRequestedOffsets.Add(count, new KeyValuePair<string, object>(ActivityTags.DestinationName, topic));
+        }
+
+        public static void RecordOffsetsStored(string topic, int requested, int stored, double elapsedMs)
+        {
+            var topicTag = new KeyValuePair<string, object>(ActivityTags.DestinationName, topic);
+            CommitStoredOffsets.Add(stored, topicTag);
+            CommitStoreDuration.Record(elapsedMs, topicTag);
+            if (stored > 0)
+            {
+                CommitCoalescingRatio.Record((double)requested / stored, topicTag);
+            }
+        }
+
+        public static void RecordSynchronousCommit(string topic, double elapsedMs)
+        {
+            CommitDuration.Record(elapsedMs, new KeyValuePair<string, object>(ActivityTags.DestinationName, topic));
+        }
+
+        public static void RecordRetry(string topic)
+        {
+            Retries.Add(1, new KeyValuePair<string, object>(ActivityTags.DestinationName, topic));
+        }
+
+        public static void RecordDeadLettered(string topic, int count)
+        {
+            DeadLetteredMessages.Add(count, new KeyValuePair<string, object>(ActivityTags.DestinationName, topic));
+        }
+
+        public static void RecordDrain(string topic, double elapsedMs, int abandonedMessages)
+        {
+            var topicTag = new KeyValuePair<string, object>(ActivityTags.DestinationName, topic);
+            DrainDuration.Record(elapsedMs, topicTag);
+            if (abandonedMessages > 0)
+            {
+                DrainAbandonedMessages.Add(abandonedMessages, topicTag);
+            }
+        }
+
+        /// <summary>
+        /// Records the delivery report of a produced message.
+        /// <paramref name="errorCode"/> is null if the message was delivered, <paramref name="elapsedMs"/> is negative if unknown.
+        /// </summary>
+        public static void RecordDelivery(string topic, string errorCode, double elapsedMs)
+        {
+            var topicTag = new KeyValuePair<string, object>(ActivityTags.DestinationName, topic);
+            if (errorCode != null)
+            {
+                ProducerDeliveryErrors.Add(1, topicTag, new KeyValuePair<string, object>(ActivityTags.ErrorType, errorCode));
+                return;
+            }
+
+            ProducerDeliveredMessages.Add(1, topicTag);
+            if (elapsedMs >= 0)
+            {
+                ProducerDeliveryDuration.Record(elapsedMs, topicTag);
+            }
+        }
+
         // For Trigger
         // Try to extract traceparent header
         public static bool TryExtractTraceParentId(IKafkaEventData kafkaEvent, out string traceParentId)
@@ -10,13 +10,14 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 {
     public class KafkaEventDataHeaders : IKafkaEventDataHeaders
     {
-        List<IKafkaEventDataHeader> headers = new List<IKafkaEventDataHeader>();
+        List<IKafkaEventDataHeader> headers;
         private readonly bool isReadOnly;
 
         internal static KafkaEventDataHeaders EmptyReadOnly { get; } = new KafkaEventDataHeaders(true);
 
         internal KafkaEventDataHeaders(bool isReadOnly = false)
         {
+            this.headers = new List<IKafkaEventDataHeader>();
             this.isReadOnly = isReadOnly;
         }
 
@@ -24,7 +25,16 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         {
             if (headers != null)
             {
-                this.headers.AddRange(headers.Select(x => new KafkaEventDataHeader(x.Key, x.GetValueBytes())));
+                // Indexed copy into a presized list, avoiding the enumerator and LINQ allocations per message
+                this.headers = new List<IKafkaEventDataHeader>(headers.Count);
+                for (var i = 0; i < headers.Count; i++)
+                {
+                    this.headers.Add(new KafkaEventDataHeader(headers[i].Key, headers[i].GetValueBytes()));
+                }
+            }
+            else
+            {
+                this.headers = new List<IKafkaEventDataHeader>();
             }
 
             this.isReadOnly = true;
@@ -32,7 +42,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         internal KafkaEventDataHeaders(IEnumerable<IKafkaEventDataHeader> headers, bool isReadOnly)
         {
-            this.headers.AddRange(headers);
+            this.headers = new List<IKafkaEventDataHeader>(headers);
             this.isReadOnly = isReadOnly;
         }
 
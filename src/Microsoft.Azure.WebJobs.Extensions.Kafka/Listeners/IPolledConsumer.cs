@@ -0,0 +1,22 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Consumer polled by a thread of <see cref="SharedConsumerPoller"/>.
+    /// </summary>
+    internal interface IPolledConsumer
+    {
+        /// <summary>
+        /// True once the consumer stopped polling, the poller then drops it.
+        /// </summary>
+        bool IsCompleted { get; }
+
+        /// <summary>
+        /// Polls the consumer without blocking. Always called by the same poller thread.
+        /// Returns true if messages were consumed.
+        /// </summary>
+        bool Poll();
+    }
+}
@@ -2,6 +2,10 @@
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
 using System;
+using System.Collections.Generic;
+using System.Linq;
+using System.Security.Cryptography;
+using System.Text;
 using System.Threading;
 using System.Threading.Tasks;
 using Confluent.Kafka;
@@ -17,13 +21,43 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
     /// Kafka listener.
     /// Connects a Kafka trigger function with a Kafka Consumer.
     /// </summary>
-    internal class KafkaListener<TKey, TValue> : IListener, IScaleMonitorProvider, ITargetScalerProvider
+    internal class KafkaListener<TKey, TValue> : IListener, IScaleMonitorProvider, ITargetScalerProvider, IPolledConsumer
     {
         internal const string EventHubsBrokerVersionFallback = "1.0.0";
         internal const string EventHubsSaslUsername = "$ConnectionString";
         internal const string EventHubsBrokerListDns = ".servicebus.windows.net";
         internal const int EventHubsBrokerListPort = 9093;
 
+        /// <summary>
+        /// Timeout of the transactional producer operations when exactly-once delivery is enabled.
+        /// </summary>
+        static readonly TimeSpan TransactionOperationTimeout = TimeSpan.FromSeconds(30);
+
+        /// <summary>
+        /// Longest time brokers hold a fetch of a low latency consumer waiting for data.
+        /// </summary>
+        internal const int LowLatencyFetchWaitMaxMs = 10;
+
+        // Consumer settings not copied to the transactional producers of the lanes
+        static readonly HashSet<string> ConsumerOnlyProperties = new HashSet<string>(StringComparer.Ordinal)
+        {
+            "group.id",
+            "group.instance.id",
+            "enable.auto.commit",
+            "enable.auto.offset.store",
+            "auto.commit.interval.ms",
+            "auto.offset.reset",
+            "session.timeout.ms",
+            "max.poll.interval.ms",
+            "queued.min.messages",
+            "queued.max.messages.kbytes",
+            "max.partition.fetch.bytes",
+            "fetch.max.bytes",
+            "fetch.min.bytes",
+            "fetch.wait.max.ms",
+            "partition.assignment.strategy",
+        };
+
         /// <summary>
         /// The time to wait for running process to end.
         /// </summary>
@@ -37,10 +71,28 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         private readonly bool requiresKey;
         private readonly ILogger logger;
         private FunctionExecutorBase<TKey, TValue> functionExecutor;
+        // Decodes messages off the polling thread, null when messages are decoded by Consume
+        private readonly DeserializationPipeline<TKey, TValue> deserializationPipeline;
+        // Record the raw size of components decoded inline by a custom deserializer, null unless MaxBatchBytes is set
+        private SizeCapturingDeserializer<TKey> keySizeCapture;
+        private SizeCapturingDeserializer<TValue> valueSizeCapture;
+        // Tunes batch size and release interval of batch triggers, null unless adaptive batch sizing is enabled
+        private AdaptiveBatchSizeController batchSizeController;
+        // Set when offsets are coalesced before being stored, committed synchronously on close
+        private CoalescingCommitStrategy<TKey, TValue> coalescingCommitStrategy;
         private Lazy<IConsumer<TKey, TValue>> consumer;
         private bool disposed;
         private CancellationTokenSource listenerCancellationTokenSource;
+        private CancellationToken subscriptionCancellationToken;
         private SemaphoreSlim subscriberFinished;
+        private volatile bool subscriptionCompleted;
+        // Batch window of the polling loop, only accessed by the polling thread
+        private int batchWindowMaxBatchSize;
+        private TimeSpan batchWindowReleaseTime;
+        private DateTime batchWindowStart;
+        private bool batchWindowFlushed;
+        private bool batchWindowOpen;
+        private DateTime idleUntil;
         private readonly string consumerGroup;
         private readonly string topicName;
         private readonly string functionId;
@@ -62,6 +114,22 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         /// <value>The key deserializer.</value>
         internal IDeserializer<TKey> KeyDeserializer { get; }
 
+        /// <summary>
+        /// Publishes poison and undeserializable messages when the trigger has a dead-letter topic, null otherwise.
+        /// </summary>
+        internal DeadLetterPublisher DeadLetterPublisher { get; set; }
+
+        /// <summary>
+        /// Polls the consumer together with the consumers of the other triggers when <see cref="KafkaOptions.SharedPollerThreadCount"/> is set,
+        /// null if the consumer is polled by a dedicated thread.
+        /// </summary>
+        internal SharedConsumerPoller SharedPoller { get; set; }
+
+        /// <summary>
+        /// Index of the consumer among the consumers of the trigger on this instance, see <see cref="KafkaOptions.ConsumersPerInstance"/>.
+        /// </summary>
+        internal int ConsumerIndex { get; set; }
+
         public KafkaListener(
             ITriggeredFunctionExecutor executor,
             bool singleDispatch,
@@ -87,6 +155,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             this.topicName = this.listenerConfiguration.Topic;
             this.functionId = functionId;
             this.drainModeManager = drainModeManager;
+            if (this.options.DeserializationWorkerCount > 1 && (valueDeserializer != null || keyDeserializer != null))
+            {
+                this.deserializationPipeline = new DeserializationPipeline<TKey, TValue>(this.options.DeserializationWorkerCount, valueDeserializer, keyDeserializer, this.CreateKafkaEventData, logger);
+            }
+
             this.consumer = new Lazy<IConsumer<TKey, TValue>>(() => CreateConsumer());
             this.metricsProvider = new Lazy<KafkaMetricsProvider<TKey, TValue>>(CreateMetricsProvider);
             this.topicScaler = new Lazy<KafkaGenericTopicScaler<TKey, TValue>>(CreateTopicScaler);
@@ -106,20 +179,41 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             .SetPartitionsAssignedHandler((_, e) =>
             {
                 logger.LogInformation($"Assigned partitions: [{string.Join(", ", e)}]");
+                this.functionExecutor?.OnPartitionsAssigned(e);
             })
             .SetPartitionsRevokedHandler((_, e) =>
             {
+                // Cooperative rebalancing only reports the partitions moving to another consumer
                 logger.LogInformation($"Revoked partitions: [{string.Join(", ", e)}]");
+                this.functionExecutor?.OnPartitionsRevoked(e.Select(x => x.TopicPartition));
+            })
+            .SetPartitionsLostHandler((_, e) =>
+            {
+                logger.LogWarning($"Lost partitions: [{string.Join(", ", e)}]");
+                this.functionExecutor?.OnPartitionsLost(e.Select(x => x.TopicPartition));
             });
 
+            // Raw entries of the deserialization pipeline already carry the consumed bytes
+            var captureSizes = this.deserializationPipeline == null && this.options.MaxBatchBytes > 0;
+
             if (ValueDeserializer != null)
             {
-                builder.SetValueDeserializer(ValueDeserializer);
+                if (captureSizes)
+                {
+                    this.valueSizeCapture = new SizeCapturingDeserializer<TValue>(ValueDeserializer);
+                }
+
+                builder.SetValueDeserializer(this.deserializationPipeline?.DeferredValueDeserializer ?? this.valueSizeCapture ?? ValueDeserializer);
             }
 
             if (KeyDeserializer != null)
             {
-                builder.SetKeyDeserializer(KeyDeserializer);
+                if (captureSizes)
+                {
+                    this.keySizeCapture = new SizeCapturingDeserializer<TKey>(KeyDeserializer);
+                }
+
+                builder.SetKeyDeserializer(this.deserializationPipeline?.DeferredKeyDeserializer ?? this.keySizeCapture ?? KeyDeserializer);
             }
 
             builder.SetLogHandler((_, m) =>
@@ -142,7 +236,18 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         private KafkaGenericTargetScaler<TKey, TValue> CreateTargetScaler()
         {
-            return new KafkaGenericTargetScaler<TKey, TValue>(this.listenerConfiguration.Topic, this.consumerGroup, this.functionId, this.consumer.Value, metricsProvider.Value, this.listenerConfiguration.LagThreshold, this.logger);
+            return new KafkaGenericTargetScaler<TKey, TValue>(this.listenerConfiguration.Topic, this.consumerGroup, this.functionId, this.consumer.Value, metricsProvider.Value, this.listenerConfiguration.LagThreshold, this.logger)
+            {
+                ConsumersPerInstance = this.options.ConsumersPerInstance,
+            };
+        }
+
+        /// <summary>
+        /// Gets the partition count of the trigger topics, 0 if it cannot be loaded. Overriding in unit tests.
+        /// </summary>
+        protected internal virtual int GetPartitionCount()
+        {
+            return this.metricsProvider.Value.PartitionCount;
         }
 
         public void Cancel()
@@ -153,19 +258,76 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         public Task StartAsync(CancellationToken cancellationToken)
         {
             var localConsumer = this.consumer.Value;
-            var commitStrategy = new AsyncCommitStrategy<TKey, TValue>(localConsumer, this.logger);
+            ICommitStrategy<TKey, TValue> commitStrategy;
+            if (this.options.CommitStrategy == CommitStrategyType.Coalescing)
+            {
+                this.coalescingCommitStrategy = new CoalescingCommitStrategy<TKey, TValue>(localConsumer, this.topicName, this.options.CommitFlushIntervalMs, this.options.CommitFlushThreshold, this.logger);
+                commitStrategy = this.coalescingCommitStrategy;
+            }
+            else
+            {
+                commitStrategy = new AsyncCommitStrategy<TKey, TValue>(localConsumer, this.logger);
+            }
+
+            if (singleDispatch)
+            {
+                this.functionExecutor = new SingleItemFunctionExecutor<TKey, TValue>(executor, localConsumer, this.consumerGroup, this.options.ExecutorChannelCapacity, this.options.ChannelFullRetryIntervalInMs, commitStrategy, logger, drainModeManager, this.options);
+            }
+            else
+            {
+                var multipleItemFunctionExecutor = new MultipleItemFunctionExecutor<TKey, TValue>(executor, localConsumer, this.consumerGroup, this.options.ExecutorChannelCapacity, this.options.ChannelFullRetryIntervalInMs, commitStrategy, logger, drainModeManager, this.options);
+                if (this.options.AdaptiveBatchSize)
+                {
+                    this.batchSizeController = new AdaptiveBatchSizeController(
+                        this.topicName,
+                        Math.Min(this.options.MinBatchSize, this.options.MaxBatchSize),
+                        this.options.MaxBatchSize,
+                        TimeSpan.FromSeconds(this.options.SubscriberIntervalInSeconds),
+                        this.options.TargetBatchLatencyMs);
+                    multipleItemFunctionExecutor.BatchSizeController = this.batchSizeController;
+                    KafkaEventInstrumentation.RegisterAdaptiveBatchSizeController(this.batchSizeController);
+                }
+
+                this.functionExecutor = multipleItemFunctionExecutor;
+            }
+
+            this.functionExecutor.DeadLetterPublisher = this.DeadLetterPublisher;
+            this.functionExecutor.DeserializationPipeline = this.deserializationPipeline;
+            if (this.SharedPoller != null)
+            {
+                // Revocations block the other triggers polled by the same thread while they drain
+                this.functionExecutor.RevokedPartitionDrainTimeoutMs = Math.Min(this.options.RevokedPartitionDrainTimeoutMs, (int)SharedConsumerPoller.MaxRevokedPartitionDrainTimeout.TotalMilliseconds);
+            }
 
-            this.functionExecutor = singleDispatch ?
-                (FunctionExecutorBase<TKey, TValue>)new SingleItemFunctionExecutor<TKey, TValue>(executor, localConsumer, this.consumerGroup, this.options.ExecutorChannelCapacity, this.options.ChannelFullRetryIntervalInMs, commitStrategy, logger, drainModeManager, this.options) :
-                new MultipleItemFunctionExecutor<TKey, TValue>(executor, localConsumer, this.consumerGroup, this.options.ExecutorChannelCapacity, this.options.ChannelFullRetryIntervalInMs, commitStrategy, logger, drainModeManager, this.options);
+            if (this.options.ExactlyOnceDelivery)
+            {
+                var transactionalProducerConfig = CreateTransactionalProducerConfig(this.GetConsumerConfiguration());
+                this.functionExecutor.LaneTransactionFactory = topicPartition => new LaneTransaction(
+                    topicPartition,
+                    transactionalProducerConfig.BootstrapServers,
+                    () => this.CreateTransactionalProducer(new ProducerConfig(transactionalProducerConfig) { TransactionalId = CreateTransactionalId(this.consumerGroup, topicPartition) }),
+                    () => localConsumer.ConsumerGroupMetadata,
+                    this.options.TransactionMaxInvocations,
+                    this.options.TransactionCommitIntervalMs,
+                    TransactionOperationTimeout,
+                    this.logger);
+            }
+
+            localConsumer.Subscribe(KafkaTopicSubscription.Parse(this.listenerConfiguration.Topic));
+            this.subscriberFinished = new SemaphoreSlim(0, 1);
+            this.subscriptionCancellationToken = this.listenerCancellationTokenSource.Token;
+            if (this.SharedPoller != null)
+            {
+                this.SharedPoller.Add(this);
+                return Task.CompletedTask;
+            }
 
-            localConsumer.Subscribe(this.listenerConfiguration.Topic);
             // Using a thread as opposed to a task since this will be long running
             var thread = new Thread(ProcessSubscription)
             {
                 IsBackground = true,
             };
-            thread.Start(listenerCancellationTokenSource.Token);
+            thread.Start(this.subscriptionCancellationToken);
 
             return Task.CompletedTask;
         }
@@ -175,6 +337,19 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         /// </summary>
         protected virtual ConsumerBuilder<TKey, TValue> CreateConsumerBuilder(ConsumerConfig config) => new ConsumerBuilder<TKey, TValue>(config);
 
+        /// <summary>
+        /// Creates the transactional producer of a partition lane. Overriding in unit tests.
+        /// </summary>
+        protected virtual IProducer<byte[], byte[]> CreateTransactionalProducer(ProducerConfig config)
+        {
+            return new ProducerBuilder<byte[], byte[]>(config)
+                .SetLogHandler((_, m) =>
+                {
+                    logger.Log((LogLevel)m.LevelAs(LogLevelType.MicrosoftExtensionsLogging), $"Libkafka: {m?.Message}");
+                })
+                .Build();
+        }
+
         private ConsumerConfig GetConsumerConfiguration()
         {
             ConsumerConfig conf = new ConsumerConfig()
@@ -229,6 +404,33 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
                 SocketKeepaliveEnable = this.options.SocketKeepaliveEnable
             };
 
+            if (this.options.PartitionAssignmentStrategy.HasValue)
+            {
+                conf.PartitionAssignmentStrategy = this.options.PartitionAssignmentStrategy;
+            }
+
+            if (this.options.LowLatencyMode)
+            {
+                // Brokers answer fetches as soon as a message is available, and small requests are not delayed by Nagle
+                conf.FetchMinBytes = 1;
+                conf.FetchWaitMaxMs = LowLatencyFetchWaitMaxMs;
+                conf.SocketNagleDisable = true;
+            }
+
+            if (this.options.StaticGroupMembership)
+            {
+                var hostInstanceId = AzureFunctionsFileHelper.GetHostInstanceId();
+                if (hostInstanceId == null)
+                {
+                    this.logger.LogWarning("Static group membership is enabled but the host instance identity is not available, the consumer joins as a dynamic member");
+                }
+                else
+                {
+                    conf.GroupInstanceId = CreateGroupInstanceId(hostInstanceId, this.functionId, this.ConsumerIndex);
+                    conf.SessionTimeoutMs = Math.Max(this.options.SessionTimeoutMs ?? 0, this.options.StaticMembershipSessionTimeoutMs);
+                }
+            }
+
             if (string.IsNullOrEmpty(this.listenerConfiguration.EventHubConnectionString))
             {
                 // Setup native kafka configuration.
@@ -266,6 +468,53 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             return conf;
         }
 
+        /// <summary>
+        /// Creates the group.instance.id of a function consumer: the host instance id followed by a hash of the function id and the consumer index.
+        /// Stable across restarts of the same instance and unique per function consumer, so functions of an instance sharing a consumer group
+        /// and consumers of the same trigger do not fence each other.
+        /// </summary>
+        internal static string CreateGroupInstanceId(string hostInstanceId, string functionId, int consumerIndex)
+        {
+            using (var sha256 = SHA256.Create())
+            {
+                var hash = sha256.ComputeHash(Encoding.UTF8.GetBytes(functionId ?? string.Empty));
+                var functionHash = new StringBuilder(16);
+                for (var i = 0; i < 8; i++)
+                {
+                    functionHash.Append(hash[i].ToString("x2"));
+                }
+
+                return $"{hostInstanceId}-{functionHash}-{consumerIndex}";
+            }
+        }
+
+        /// <summary>
+        /// Creates the configuration shared by the transactional producers of the lanes: the connection settings of the consumer.
+        /// </summary>
+        internal static ProducerConfig CreateTransactionalProducerConfig(ConsumerConfig consumerConfig)
+        {
+            var producerConfig = new ProducerConfig();
+            foreach (var property in consumerConfig)
+            {
+                if (!ConsumerOnlyProperties.Contains(property.Key))
+                {
+                    producerConfig.Set(property.Key, property.Value);
+                }
+            }
+
+            producerConfig.EnableIdempotence = true;
+            return producerConfig;
+        }
+
+        /// <summary>
+        /// Creates the transactional.id of a partition lane. Stable per consumer group and partition, so the next owner
+        /// of the partition fences the transactions left open by the previous one.
+        /// </summary>
+        internal static string CreateTransactionalId(string consumerGroup, TopicPartition topicPartition)
+        {
+            return $"{consumerGroup}-{topicPartition.Topic}-{topicPartition.Partition.Value}";
+        }
+
         string EnsureValidCertificateLocation(string userProvidedLocation, string confName)
         {
             if (!string.IsNullOrWhiteSpace(userProvidedLocation))
@@ -285,73 +534,43 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         private void ProcessSubscription(object parameter)
         {
-            this.subscriberFinished = new SemaphoreSlim(0, 1);
             var cancellationToken = (CancellationToken)parameter;
-            var maxBatchSize = this.options.MaxBatchSize;
-            var maxBatchReleaseTime = TimeSpan.FromSeconds(this.options.SubscriberIntervalInSeconds);
-            var localConsumer = this.consumer.Value;
             try
             {
-                var alreadyFlushedInCurrentExecution = false;
                 while (!cancellationToken.IsCancellationRequested)
                 {
-                    var batchStart = DateTime.UtcNow;
-                    var availableTime = maxBatchReleaseTime - (DateTime.UtcNow - batchStart);
-                    alreadyFlushedInCurrentExecution = false;
-
-                    while (availableTime > TimeSpan.Zero)
+                    this.OpenBatchWindow();
+                    if (this.options.LowLatencyMode)
                     {
-                        try
-                        {
-                            var consumeResult = localConsumer.Consume(availableTime);
-
-                            // If no message was consumed during the available time, returns null
-                            if (consumeResult != null)
-                            {
-                                if (consumeResult.IsPartitionEOF)
-                                {
-                                    this.logger.LogInformation("Reached end of {topic} / {partition} / {offset}", consumeResult.Topic, consumeResult.Partition, consumeResult.Offset);
-                                }
-                                else
-                                {
-                                    var kafkaEventData = this.requiresKey ? 
-                                        (IKafkaEventData)new KafkaEventData<TKey, TValue>(consumeResult) : 
-                                        KafkaEventData<TValue>.CreateFrom(consumeResult);
-
-                                    // add message to executor
-                                    // if executor pending items is full, flush it
-                                    var currentSize = this.functionExecutor.Add(kafkaEventData);
-                                    if (currentSize >= maxBatchSize)
-                                    {
-                                        this.functionExecutor.Flush(listenerCancellationTokenSource.Token);
-                                        alreadyFlushedInCurrentExecution = true;
-                                    }
-                                }
-
-                                availableTime = maxBatchReleaseTime - (DateTime.UtcNow - batchStart);
-                            }
-                            else
-                            {
-                                // No data available — outer loop will back off
-                                break;
-                            }
-                        }
-                        catch (ConsumeException ex)
+                        var waited = this.ConsumeLowLatencyBatch();
+                        this.CloseBatchWindow();
+
+                        // Consume already waited for messages, only back off if it returned early (e.g. paused partitions)
+                        if (!waited && this.options.SubscriberIdleBackoffMs > 0)
                         {
-                            this.logger.LogError(ex, $"Consume error");
+                            Thread.Sleep(this.options.SubscriberIdleBackoffMs);
                         }
+
+                        continue;
                     }
 
-                    if (!alreadyFlushedInCurrentExecution)
+                    var availableTime = this.GetBatchWindowRemainingTime();
+                    while (availableTime > TimeSpan.Zero)
                     {
-                        this.functionExecutor.Flush(listenerCancellationTokenSource.Token);
+                        if (!this.ConsumeNext(availableTime))
+                        {
+                            // No data available — outer loop will back off
+                            break;
+                        }
+
+                        availableTime = this.GetBatchWindowRemainingTime();
                     }
 
                     // When Consume() returned no messages during the entire batch window,
                     // back off to avoid busy-looping. Without this, the outer loop spins
                     // at full CPU speed because Consume() may return null immediately
                     // (e.g., no data on the topic, or in unit tests with mocked consumers).
-                    if (!alreadyFlushedInCurrentExecution && this.options.SubscriberIdleBackoffMs > 0)
+                    if (!this.CloseBatchWindow() && this.options.SubscriberIdleBackoffMs > 0)
                     {
                         Thread.Sleep(this.options.SubscriberIdleBackoffMs);
                     }
@@ -362,12 +581,288 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
                 this.logger.LogError(ex, "Error in Kafka subscriber");
             }
             finally
+            {
+                this.CompleteSubscription();
+            }
+        }
+
+        /// <summary>
+        /// Shared poller turn: consumes the messages already fetched, up to one batch, without blocking.
+        /// The batch window is released once its time elapsed, like <see cref="ProcessSubscription"/> does.
+        /// </summary>
+        bool IPolledConsumer.Poll()
+        {
+            if (this.IsCompleted)
+            {
+                return false;
+            }
+
+            try
+            {
+                if (this.subscriptionCancellationToken.IsCancellationRequested)
+                {
+                    this.CompleteSubscription();
+                    return false;
+                }
+
+                if (!this.batchWindowOpen)
+                {
+                    if (DateTime.UtcNow < this.idleUntil)
+                    {
+                        return false;
+                    }
+
+                    this.OpenBatchWindow();
+                }
+
+                var consumed = false;
+                var drained = false;
+                for (var i = 0; i < this.batchWindowMaxBatchSize && this.GetBatchWindowRemainingTime() > TimeSpan.Zero; i++)
+                {
+                    if (!this.ConsumeNext(TimeSpan.Zero))
+                    {
+                        drained = true;
+                        break;
+                    }
+
+                    consumed = true;
+                }
+
+                if (this.options.LowLatencyMode && consumed && drained)
+                {
+                    // Release the fetched messages right away, the next turn opens a new window
+                    this.CloseBatchWindow();
+                }
+                else if (this.GetBatchWindowRemainingTime() <= TimeSpan.Zero && !this.CloseBatchWindow() && this.options.SubscriberIdleBackoffMs > 0)
+                {
+                    this.idleUntil = DateTime.UtcNow.AddMilliseconds(this.options.SubscriberIdleBackoffMs);
+                }
+
+                return consumed;
+            }
+            catch (Exception ex)
+            {
+                this.logger.LogError(ex, "Error in Kafka subscriber");
+                this.CompleteSubscription();
+                return false;
+            }
+        }
+
+        /// <summary>
+        /// True once the subscription stopped polling.
+        /// </summary>
+        public bool IsCompleted => this.subscriptionCompleted;
+
+        /// <summary>
+        /// Starts collecting a batch, its size and release time are picked when the window opens.
+        /// </summary>
+        private void OpenBatchWindow()
+        {
+            this.batchWindowMaxBatchSize = this.batchSizeController?.BatchSize ?? this.options.MaxBatchSize;
+            this.batchWindowReleaseTime = this.batchSizeController?.ReleaseInterval ?? TimeSpan.FromSeconds(this.options.SubscriberIntervalInSeconds);
+            this.batchWindowStart = DateTime.UtcNow;
+            this.batchWindowFlushed = false;
+            this.batchWindowOpen = true;
+        }
+
+        private TimeSpan GetBatchWindowRemainingTime() => this.batchWindowReleaseTime - (DateTime.UtcNow - this.batchWindowStart);
+
+        /// <summary>
+        /// Low latency batch window: waits for the first message, then only takes the messages the consumer already fetched,
+        /// so they are released as soon as the local fetch queue is drained.
+        /// Returns false if Consume returned before the window elapsed without any message.
+        /// </summary>
+        private bool ConsumeLowLatencyBatch()
+        {
+            var consumed = false;
+            var availableTime = this.GetBatchWindowRemainingTime();
+            while (availableTime > TimeSpan.Zero)
+            {
+                // Only the first call blocks, Consume returns as soon as a message arrives
+                if (!this.ConsumeNext(consumed ? TimeSpan.Zero : availableTime))
+                {
+                    break;
+                }
+
+                consumed = true;
+                availableTime = this.GetBatchWindowRemainingTime();
+            }
+
+            return consumed || this.GetBatchWindowRemainingTime() <= TimeSpan.Zero;
+        }
+
+        /// <summary>
+        /// Consumes the next message into the batch window, waiting up to <paramref name="consumeTimeout"/>.
+        /// Returns false if no message was available.
+        /// </summary>
+        private bool ConsumeNext(TimeSpan consumeTimeout)
+        {
+            try
+            {
+                // While partitions are paused, wake up regularly to resume them once their lane drains
+                this.functionExecutor.ResumeDrainedPartitions();
+                this.functionExecutor.SeekRewoundPartitions();
+                if (this.functionExecutor.HasPausedPartitions && consumeTimeout > this.functionExecutor.PausedPartitionsCheckInterval)
+                {
+                    consumeTimeout = this.functionExecutor.PausedPartitionsCheckInterval;
+                }
+
+                var consumeResult = this.consumer.Value.Consume(consumeTimeout);
+
+                // If no message was consumed during the available time, returns null
+                if (consumeResult == null)
+                {
+                    return false;
+                }
+
+                if (consumeResult.IsPartitionEOF)
+                {
+                    this.logger.LogInformation("Reached end of {topic} / {partition} / {offset}", consumeResult.Topic, consumeResult.Partition, consumeResult.Offset);
+                }
+                else
+                {
+                    // add message to executor, with a deserialization pipeline it is decoded by its lane
+                    // if executor pending items is full, flush it
+                    var kafkaEventData = this.deserializationPipeline != null ?
+                        this.deserializationPipeline.Capture(consumeResult) :
+                        this.CreateKafkaEventData(consumeResult);
+                    if (this.AddMessage(kafkaEventData, ref this.batchWindowMaxBatchSize))
+                    {
+                        this.batchWindowFlushed = true;
+                    }
+                }
+            }
+            catch (ConsumeException ex)
+            {
+                this.logger.LogError(ex, $"Consume error");
+
+                if (this.DeadLetterPublisher != null && IsDeserializationError(ex))
+                {
+                    // The consumer skips the message, it goes through its lane to be dead-lettered before its offset is committed.
+                    if (this.AddMessage(UndecodedKafkaEventData.FromConsumeException(ex), ref this.batchWindowMaxBatchSize))
+                    {
+                        this.batchWindowFlushed = true;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        /// <summary>
+        /// Releases the messages collected in the batch window.
+        /// Returns true if a full batch was already released during the window.
+        /// </summary>
+        private bool CloseBatchWindow()
+        {
+            this.batchWindowOpen = false;
+
+            if (!this.batchWindowFlushed)
+            {
+                this.functionExecutor.Flush();
+            }
+
+            if (!this.batchWindowFlushed)
+            {
+                // Batch window ended before a batch filled up, the consumer is keeping up
+                this.batchSizeController?.RecordRelease(full: false, this.functionExecutor.HasPausedPartitions);
+            }
+
+            return this.batchWindowFlushed;
+        }
+
+        private void CompleteSubscription()
+        {
+            this.subscriptionCompleted = true;
+            try
+            {
+                this.functionExecutor.ReleasePausedPartitions();
+            }
+            finally
             {
                 this.logger.LogInformation("Exiting {processName} for {topic}", nameof(ProcessSubscription), this.listenerConfiguration.Topic);
                 this.subscriberFinished.Release();
             }
         }
 
+        /// <summary>
+        /// Adds a message to the executor, releasing the pending batch once it reaches
+        /// <see cref="KafkaOptions.MaxBatchSize"/> messages or <see cref="KafkaOptions.MaxBatchBytes"/>.
+        /// Returns true if a batch was released.
+        /// </summary>
+        private bool AddMessage(IKafkaEventData kafkaEventData, ref int maxBatchSize)
+        {
+            var released = false;
+            var maxBatchBytes = this.options.MaxBatchBytes;
+            long size = 0;
+            if (maxBatchBytes > 0)
+            {
+                size = this.GetMessageSize(kafkaEventData);
+
+                // Release the pending batch first if the message does not fit in its budget,
+                // only a single message larger than the budget makes a batch exceed it
+                var pendingBytes = this.functionExecutor.CurrentBatchBytes;
+                if (pendingBytes > 0 && pendingBytes + size > maxBatchBytes)
+                {
+                    this.ReleaseFullBatch(ref maxBatchSize);
+                    released = true;
+                }
+            }
+
+            var currentSize = this.functionExecutor.Add(kafkaEventData, size);
+            if (currentSize >= maxBatchSize || (maxBatchBytes > 0 && this.functionExecutor.CurrentBatchBytes >= maxBatchBytes))
+            {
+                this.ReleaseFullBatch(ref maxBatchSize);
+                released = true;
+            }
+
+            return released;
+        }
+
+        /// <summary>
+        /// Estimates the size of a consumed message, see <see cref="KafkaRecordSizeEstimator"/>.
+        /// Components decoded by a custom deserializer count the raw size they were consumed with.
+        /// </summary>
+        private long GetMessageSize(IKafkaEventData kafkaEventData)
+        {
+            if (kafkaEventData is UndecodedKafkaEventData)
+            {
+                // Raw bytes, the deserializers did not complete for this message
+                return KafkaRecordSizeEstimator.GetSize(kafkaEventData);
+            }
+
+            return (this.keySizeCapture?.LastSize ?? KafkaRecordSizeEstimator.GetComponentSize(kafkaEventData.Key)) +
+                (this.valueSizeCapture?.LastSize ?? KafkaRecordSizeEstimator.GetComponentSize(kafkaEventData.Value)) +
+                KafkaRecordSizeEstimator.GetHeadersSize(kafkaEventData.Headers);
+        }
+
+        /// <summary>
+        /// Flushes a batch that reached one of its limits and picks the batch size to use next.
+        /// </summary>
+        private void ReleaseFullBatch(ref int maxBatchSize)
+        {
+            this.functionExecutor.Flush();
+
+            if (this.batchSizeController != null)
+            {
+                this.batchSizeController.RecordRelease(full: true, this.functionExecutor.HasPausedPartitions);
+                maxBatchSize = this.batchSizeController.BatchSize;
+            }
+        }
+
+        private IKafkaEventData CreateKafkaEventData(ConsumeResult<TKey, TValue> consumeResult)
+        {
+            return this.requiresKey ?
+                (IKafkaEventData)new KafkaEventData<TKey, TValue>(consumeResult) :
+                KafkaEventData<TValue>.CreateFrom(consumeResult);
+        }
+
+        private static bool IsDeserializationError(ConsumeException exception)
+        {
+            return exception.ConsumerRecord != null &&
+                (exception.Error.Code == ErrorCode.Local_KeyDeserialization || exception.Error.Code == ErrorCode.Local_ValueDeserialization);
+        }
+
         public async Task StopAsync(CancellationToken cancellationToken)
         {
             await SafeCloseConsumerAsync();
@@ -384,29 +879,63 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
             try
             {
-                // Stop subscriber thread
+                // Stop fetching: the subscriber thread ends once the current batch window is released
                 this.listenerCancellationTokenSource.Cancel();
+                var subscriberStopped = this.subscriberFinished == null || await this.subscriberFinished.WaitAsync(TimeToWaitForRunningProcessToEnd);
+                if (!subscriberStopped)
+                {
+                    this.logger.LogWarning("Kafka subscriber for {topic} did not stop in {timeout}ms, in-flight messages are not drained", this.listenerConfiguration.Topic, TimeToWaitForRunningProcessToEnd);
+                }
+
+                // Finish or cancel the executions in flight, then commit the completed offsets synchronously.
+                // Draining tears down the lanes owned by the polling thread, so it only runs once the polling thread has exited.
+                // In drain mode the host expects the queued messages to complete, closing the executor waits for them instead.
+                if (this.functionExecutor != null && subscriberStopped && this.drainModeManager?.IsDrainModeEnabled != true)
+                {
+                    var drainStart = DateTime.UtcNow;
+                    var abandonedMessages = await this.functionExecutor.DrainAsync(this.options.ShutdownDrainTimeoutMs);
+                    var drainDuration = (DateTime.UtcNow - drainStart).TotalMilliseconds;
+                    KafkaEventInstrumentation.RecordDrain(this.topicName, drainDuration, abandonedMessages);
+                    this.logger.LogInformation("Drained Kafka listener for {topic} in {duration}ms, {abandonedMessages} in-flight messages abandoned", this.listenerConfiguration.Topic, (long)drainDuration, abandonedMessages);
+                }
 
-                // Stop function executor                
                 if (this.functionExecutor != null)
                 {
                     await this.functionExecutor.CloseAsync();
                 }
 
-                // Wait for subscriber thread to end                
-                if (this.subscriberFinished != null)
+                // Executions have stopped, commit what is still pending while the consumer is in the group
+                if (this.coalescingCommitStrategy != null)
                 {
-                    await this.subscriberFinished.WaitAsync(TimeToWaitForRunningProcessToEnd);
+                    this.coalescingCommitStrategy.Close();
+                    this.coalescingCommitStrategy.Dispose();
                 }
 
                 if (this.consumer.IsValueCreated)
                 {
                     var localConsumer = this.consumer.Value;
-                    localConsumer.Unsubscribe();
-                    localConsumer.Dispose();
+                    try
+                    {
+                        // Commits the stored offsets and leaves the group right away instead of after the session timeout
+                        localConsumer.Close();
+                    }
+                    catch (KafkaException ex)
+                    {
+                        this.logger.LogWarning(ex, "Failed to close Kafka consumer for {topic}", this.listenerConfiguration.Topic);
+                    }
+                    finally
+                    {
+                        localConsumer.Dispose();
+                    }
                 }
                 
                 this.functionExecutor?.Dispose();
+                this.DeadLetterPublisher?.Dispose();
+                if (this.batchSizeController != null)
+                {
+                    KafkaEventInstrumentation.UnregisterAdaptiveBatchSizeController(this.batchSizeController);
+                }
+
                 this.subscriberFinished?.Dispose();
                 this.listenerCancellationTokenSource.Dispose();                
             }
@@ -0,0 +1,118 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Microsoft.Azure.WebJobs.Host.Listeners;
+using Microsoft.Azure.WebJobs.Host.Scale;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Runs several <see cref="KafkaListener{TKey, TValue}"/> for the same trigger, see <see cref="KafkaOptions.ConsumersPerInstance"/>.
+    /// Each listener owns its consumer, polling thread and executor; the consumers join the same group,
+    /// so the broker spreads the partitions of the trigger over them.
+    /// Scaling is reported by the first listener only, the trigger keeps a single scale monitor.
+    /// </summary>
+    internal sealed class KafkaMultiConsumerListener<TKey, TValue> : IListener, IScaleMonitorProvider, ITargetScalerProvider
+    {
+        private readonly int consumersPerInstance;
+        // Creates the listener of a consumer from its index
+        private readonly Func<int, KafkaListener<TKey, TValue>> listenerFactory;
+        private readonly ILogger logger;
+        private readonly List<KafkaListener<TKey, TValue>> listeners = new List<KafkaListener<TKey, TValue>>();
+        private readonly object listenersLock = new object();
+
+        public KafkaMultiConsumerListener(int consumersPerInstance, Func<int, KafkaListener<TKey, TValue>> listenerFactory, ILogger logger)
+        {
+            if (consumersPerInstance <= 0)
+            {
+                throw new ArgumentOutOfRangeException(nameof(consumersPerInstance), "Consumer count must be larger than 0.");
+            }
+
+            this.consumersPerInstance = consumersPerInstance;
+            this.listenerFactory = listenerFactory ?? throw new ArgumentNullException(nameof(listenerFactory));
+            this.logger = logger;
+
+            // Created upfront, the scale monitor can be requested before the listener starts
+            this.listeners.Add(listenerFactory(0));
+        }
+
+        /// <summary>
+        /// Listeners started for the trigger, the first one reports scaling.
+        /// </summary>
+        internal IReadOnlyList<KafkaListener<TKey, TValue>> Listeners
+        {
+            get
+            {
+                lock (this.listenersLock)
+                {
+                    return this.listeners.ToArray();
+                }
+            }
+        }
+
+        public async Task StartAsync(CancellationToken cancellationToken)
+        {
+            var primary = this.listeners[0];
+
+            // More consumers than partitions would stay idle in the group
+            var consumerCount = this.consumersPerInstance;
+            var partitionCount = primary.GetPartitionCount();
+            if (partitionCount > 0 && partitionCount < consumerCount)
+            {
+                consumerCount = partitionCount;
+            }
+
+            lock (this.listenersLock)
+            {
+                while (this.listeners.Count < consumerCount)
+                {
+                    this.listeners.Add(this.listenerFactory(this.listeners.Count));
+                }
+            }
+
+            this.logger.LogInformation("Starting {consumerCount} consumers for the trigger ({partitionCount} partitions)", consumerCount, partitionCount);
+            foreach (var listener in this.Listeners)
+            {
+                await listener.StartAsync(cancellationToken);
+            }
+        }
+
+        public Task StopAsync(CancellationToken cancellationToken)
+        {
+            // Consumers leave the group together, so their partitions are only rebalanced once
+            return Task.WhenAll(this.Listeners.Select(x => x.StopAsync(cancellationToken)));
+        }
+
+        public void Cancel()
+        {
+            foreach (var listener in this.Listeners)
+            {
+                listener.Cancel();
+            }
+        }
+
+        public void Dispose()
+        {
+            foreach (var listener in this.Listeners)
+            {
+                listener.Dispose();
+            }
+        }
+
+        public IScaleMonitor GetMonitor()
+        {
+            return this.listeners[0].GetMonitor();
+        }
+
+        public ITargetScaler GetTargetScaler()
+        {
+            return this.listeners[0].GetTargetScaler();
+        }
+    }
+}
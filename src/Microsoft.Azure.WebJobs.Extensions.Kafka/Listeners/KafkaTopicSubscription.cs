@@ -0,0 +1,64 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Text.RegularExpressions;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Parses the topic subscription of a trigger.
+    /// The topic can be a single topic, a comma separated list of topics, or regular expressions starting with '^'
+    /// (the librdkafka convention), all handled by a single consumer.
+    /// </summary>
+    internal static class KafkaTopicSubscription
+    {
+        private const char Separator = ',';
+        private const char PatternPrefix = '^';
+
+        /// <summary>
+        /// Splits the trigger topic into the topics and patterns to subscribe to.
+        /// </summary>
+        public static IReadOnlyList<string> Parse(string topic)
+        {
+            var topics = new List<string>();
+            if (string.IsNullOrWhiteSpace(topic))
+            {
+                return topics;
+            }
+
+            foreach (var entry in topic.Split(Separator))
+            {
+                var trimmed = entry.Trim();
+                if (trimmed.Length > 0 && !topics.Contains(trimmed))
+                {
+                    topics.Add(trimmed);
+                }
+            }
+
+            return topics;
+        }
+
+        /// <summary>
+        /// True if the entry is a regular expression matching topic names.
+        /// </summary>
+        public static bool IsPattern(string topic)
+        {
+            return !string.IsNullOrEmpty(topic) && topic[0] == PatternPrefix;
+        }
+
+        /// <summary>
+        /// Creates the regular expression matching the topic names of a pattern entry.
+        /// </summary>
+        public static Regex CreatePattern(string topic)
+        {
+            if (!IsPattern(topic))
+            {
+                throw new ArgumentException($"Topic '{topic}' is not a pattern, patterns start with '{PatternPrefix}'", nameof(topic));
+            }
+
+            return new Regex(topic, RegexOptions.CultureInvariant);
+        }
+    }
+}
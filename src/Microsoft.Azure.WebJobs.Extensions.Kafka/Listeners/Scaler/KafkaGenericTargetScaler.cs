@@ -22,6 +22,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         public TargetScalerDescriptor TargetScalerDescriptor { get; }
 
+        /// <summary>
+        /// Consumers each instance runs for the trigger (<see cref="KafkaOptions.ConsumersPerInstance"/>).
+        /// </summary>
+        internal int ConsumersPerInstance { get; set; } = 1;
+
         internal KafkaGenericTargetScaler(string topic, string consumerGroup, string functionID, IConsumer<Tkey, TValue> consumer, KafkaMetricsProvider<Tkey, TValue> metricsProvider, long lagThreshold, ILogger logger)
         {
             if (string.IsNullOrWhiteSpace(topic))
@@ -96,7 +101,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
                 lastScaleUpTime = DateTime.UtcNow;
             }
 
-            logger.LogInformation($"Target worker count for function '{TargetScalerDescriptor.FunctionId}' is '{targetWorkerCount}' (Topic='{topicName}', Total Lag ='{totalLag}', Concurrency='{targetConcurrency}', Consumer Group='{consumerGroup}', Partition Count='{partitionCount}').");
+            logger.LogInformation($"Target worker count for function '{TargetScalerDescriptor.FunctionId}' is '{targetWorkerCount}' (Topic='{topicName}', Total Lag ='{totalLag}', Concurrency='{targetConcurrency}', Consumer Group='{consumerGroup}', Partition Count='{partitionCount}', Consumers Per Instance='{ConsumersPerInstance}').");
 
             return new TargetScalerResult
             {
@@ -119,10 +124,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         internal int ValidateWithPartitionCount(int targetWorkerCount, long partitionCount)
         {
-            // Limit targetWorkerCount to number of partitions.
-            if (targetWorkerCount > partitionCount)
+            // Limit targetWorkerCount to number of partitions, each instance consumes up to ConsumersPerInstance partitions.
+            var maxWorkerCount = (partitionCount + ConsumersPerInstance - 1) / ConsumersPerInstance;
+            if (targetWorkerCount > maxWorkerCount)
             {
-                targetWorkerCount = (int)partitionCount;
+                targetWorkerCount = (int)maxWorkerCount;
             }
 
             return targetWorkerCount;
@@ -22,6 +22,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         virtual protected internal KafkaTriggerMetrics LastCalculatedMetrics { get; set; }
 
+        /// <summary>
+        /// Partition count of the subscribed topics, 0 if it cannot be loaded.
+        /// </summary>
+        internal int PartitionCount => topicPartitions.Value?.Count ?? 0;
+
         internal KafkaMetricsProvider(string topicName, AdminClientConfig adminClientConfig, IConsumer<TKey, TValue> consumer, ILogger logger)
             : this(topicName, adminClientConfig, consumer, logger, ownsConsumer: true)
         {
@@ -77,22 +82,41 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             {
                 var timeout = TimeSpan.FromSeconds(5);
                 using var adminClient = new AdminClientBuilder(adminClientConfig).Build();
-                var metadata = adminClient.GetMetadata(this.topicName, timeout);
-                if (metadata.Topics == null || metadata.Topics.Count == 0)
-                {
-                    logger.LogError($"Could not load metadata information about topic '{this.topicName}'");
-                    return new List<TopicPartition>();
-                }
+                var result = new List<TopicPartition>();
+                List<TopicMetadata> clusterTopics = null;
 
-                var topicMetadata = metadata.Topics[0];
-                var partitions = topicMetadata.Partitions;
-                if (partitions == null || partitions.Count == 0)
+                // A trigger can subscribe to several topics or patterns, lag is aggregated across all of them
+                foreach (var topic in KafkaTopicSubscription.Parse(this.topicName))
                 {
-                    logger.LogError($"Could not load partition information about topic '{this.topicName}'");
-                    return new List<TopicPartition>();
+                    if (KafkaTopicSubscription.IsPattern(topic))
+                    {
+                        clusterTopics ??= adminClient.GetMetadata(timeout).Topics;
+                        var pattern = KafkaTopicSubscription.CreatePattern(topic);
+                        var matchedTopics = clusterTopics.Where(x => x.Error?.IsError != true && pattern.IsMatch(x.Topic)).ToList();
+                        if (matchedTopics.Count == 0)
+                        {
+                            logger.LogError($"Could not find any topic matching '{topic}'");
+                        }
+
+                        foreach (var topicMetadata in matchedTopics)
+                        {
+                            AddTopicPartitions(topicMetadata, result);
+                        }
+
+                        continue;
+                    }
+
+                    var metadata = adminClient.GetMetadata(topic, timeout);
+                    if (metadata.Topics == null || metadata.Topics.Count == 0)
+                    {
+                        logger.LogError($"Could not load metadata information about topic '{topic}'");
+                        continue;
+                    }
+
+                    AddTopicPartitions(metadata.Topics[0], result);
                 }
 
-                return partitions.Select(x => new TopicPartition(topicMetadata.Topic, new Partition(x.PartitionId))).ToList();
+                return result.Distinct().ToList();
             }
             catch (Exception ex)
             {
@@ -101,6 +125,18 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             return new List<TopicPartition>();
         }
 
+        private void AddTopicPartitions(TopicMetadata topicMetadata, List<TopicPartition> topicPartitions)
+        {
+            var partitions = topicMetadata.Partitions;
+            if (partitions == null || partitions.Count == 0)
+            {
+                logger.LogError($"Could not load partition information about topic '{topicMetadata.Topic}'");
+                return;
+            }
+
+            topicPartitions.AddRange(partitions.Select(x => new TopicPartition(topicMetadata.Topic, new Partition(x.PartitionId))));
+        }
+
         protected virtual List<TopicPartition> LoadAssignedPartitions()
         {
             if (this.consumer != null)
@@ -129,7 +165,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         {
             long totalLag = 0;
             var ownedCommittedOffset = consumer.Committed(allPartitions, operationTimeout);
-            var partitionWithHighestLag = Partition.Any;
+            TopicPartition partitionWithHighestLag = null;
             long highestPartitionLag = 0L;
             // List of partitions that the consumer is reading from.
             var currentPartitions = LoadAssignedPartitions();
@@ -139,35 +175,35 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             foreach (var topicPartition in currentPartitions)
             {
                 var watermark = consumer.GetWatermarkOffsets(topicPartition);
-                var committed = ownedCommittedOffset.FirstOrDefault(x => x.Partition == topicPartition.Partition);
+                var committed = ownedCommittedOffset.FirstOrDefault(x => x.TopicPartition == topicPartition);
 
                 bool bothWatermarksUnset = watermark.High.Value == Offset.Unset && watermark.Low.Value == Offset.Unset;
-                bool lowWatermarkZeroAndCommittedIsUnSet = watermark.Low.Value == 0 && committed.Offset.Value == Offset.Unset;
+                bool lowWatermarkZeroAndCommittedIsUnSet = watermark.Low.Value == 0 && (committed == null || committed.Offset.Value == Offset.Unset);
                 // if GetWatermarkOffsets fails to return valid values, use QueryWatermarkOffsets.
                 if (bothWatermarksUnset || lowWatermarkZeroAndCommittedIsUnSet)
                 {
                     watermark = consumer.QueryWatermarkOffsets(topicPartition, operationTimeout);
                 }
 
-                UpdateTotalLag(watermark, committed, ref totalLag, ref partitionWithHighestLag, ref highestPartitionLag);
+                UpdateTotalLag(topicPartition, watermark, committed, ref totalLag, ref partitionWithHighestLag, ref highestPartitionLag);
             }
             foreach (var topicPartition in unassignedPartitions)
             {
                 var watermark = consumer.QueryWatermarkOffsets(topicPartition, operationTimeout);
-                var committed = ownedCommittedOffset.FirstOrDefault(x => x.Partition == topicPartition.Partition);
+                var committed = ownedCommittedOffset.FirstOrDefault(x => x.TopicPartition == topicPartition);
 
-                UpdateTotalLag(watermark, committed, ref totalLag, ref partitionWithHighestLag, ref highestPartitionLag);
+                UpdateTotalLag(topicPartition, watermark, committed, ref totalLag, ref partitionWithHighestLag, ref highestPartitionLag);
             }
 
             // This log is only for customer reference to show calculation of total lag.
-            if (partitionWithHighestLag != Partition.Any)
+            if (partitionWithHighestLag != null)
             {
-                logger.LogInformation($"Total lag in '{this.topicName}' is {totalLag}, highest partition lag found in {partitionWithHighestLag.Value} with value of {highestPartitionLag}.");
+                logger.LogInformation($"Total lag in '{this.topicName}' is {totalLag}, highest partition lag found in {partitionWithHighestLag} with value of {highestPartitionLag}.");
             }
             return totalLag;
         }
 
-        private void UpdateTotalLag(WatermarkOffsets watermark, TopicPartitionOffset committed, ref long totalLag, ref Partition partitionWithHighestLag, ref long highestPartitionLag)
+        private void UpdateTotalLag(TopicPartition topicPartition, WatermarkOffsets watermark, TopicPartitionOffset committed, ref long totalLag, ref TopicPartition partitionWithHighestLag, ref long highestPartitionLag)
         {
             var diff = GetDiff(watermark, committed);
             totalLag += diff;
@@ -176,7 +212,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             if (diff > highestPartitionLag)
             {
                 highestPartitionLag = diff;
-                partitionWithHighestLag = committed.Partition;
+                partitionWithHighestLag = topicPartition;
             }
         }
 
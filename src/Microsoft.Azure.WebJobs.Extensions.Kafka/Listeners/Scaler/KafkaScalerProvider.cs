@@ -59,7 +59,10 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
                     logger,
                     ownsConsumer: true);
                 _scaleMonitor = new KafkaObjectTopicScaler(topicName, consumerGroup, _metricsProvider, triggerMetadata.FunctionName, lagThreshold, logger);
-                _targetScaler = new KafkaObjectTargetScaler(topicName, consumerGroup, _metricsProvider, triggerMetadata.FunctionName, lagThreshold, logger);
+                _targetScaler = new KafkaObjectTargetScaler(topicName, consumerGroup, _metricsProvider, triggerMetadata.FunctionName, lagThreshold, logger)
+                {
+                    ConsumersPerInstance = options?.Value?.ConsumersPerInstance ?? 1,
+                };
             }
             catch
             {
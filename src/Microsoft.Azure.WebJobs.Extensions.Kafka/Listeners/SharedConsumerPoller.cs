@@ -0,0 +1,162 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Linq;
+using System.Threading;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Fixed pool of threads polling the consumers of the Kafka triggers of a host, see <see cref="KafkaOptions.SharedPollerThreadCount"/>.
+    /// A consumer is always polled by the same thread, so its polling-thread-only state keeps a single owner.
+    /// Each thread polls its consumers in turn without blocking and sleeps with an increasing interval
+    /// (up to <see cref="MaxIdleInterval"/>) while none of them consumed anything.
+    /// Threads start with their first consumer and exit once their last consumer completed.
+    /// Rebalance callbacks run inline on the thread and hold back its other consumers, so revoked partitions
+    /// are drained for at most <see cref="MaxRevokedPartitionDrainTimeout"/>.
+    /// </summary>
+    internal sealed class SharedConsumerPoller
+    {
+        internal static readonly TimeSpan MaxIdleInterval = TimeSpan.FromMilliseconds(20);
+        internal static readonly TimeSpan MaxRevokedPartitionDrainTimeout = TimeSpan.FromMilliseconds(100);
+
+        private readonly PollerThread[] threads;
+
+        public SharedConsumerPoller(int threadCount, ILogger logger)
+        {
+            if (threadCount <= 0)
+            {
+                throw new ArgumentOutOfRangeException(nameof(threadCount), "Thread count must be larger than 0.");
+            }
+
+            this.threads = new PollerThread[threadCount];
+            for (var i = 0; i < threadCount; i++)
+            {
+                this.threads[i] = new PollerThread($"KafkaPoller-{i}", logger);
+            }
+        }
+
+        public int ThreadCount => this.threads.Length;
+
+        /// <summary>
+        /// Consumers being polled.
+        /// </summary>
+        public int ConsumerCount => this.threads.Sum(x => x.ConsumerCount);
+
+        /// <summary>
+        /// Polls a consumer on the thread with the fewest consumers until it completes.
+        /// </summary>
+        public void Add(IPolledConsumer consumer)
+        {
+            lock (this.threads)
+            {
+                var target = this.threads[0];
+                for (var i = 1; i < this.threads.Length; i++)
+                {
+                    if (this.threads[i].ConsumerCount < target.ConsumerCount)
+                    {
+                        target = this.threads[i];
+                    }
+                }
+
+                target.Add(consumer);
+            }
+        }
+
+        private sealed class PollerThread
+        {
+            private readonly string name;
+            private readonly ILogger logger;
+            private readonly object syncRoot = new object();
+            // Replaced on every change, the thread reads it without locking
+            private IPolledConsumer[] consumers = Array.Empty<IPolledConsumer>();
+            private bool running;
+
+            public PollerThread(string name, ILogger logger)
+            {
+                this.name = name;
+                this.logger = logger;
+            }
+
+            public int ConsumerCount => Volatile.Read(ref this.consumers).Length;
+
+            public void Add(IPolledConsumer consumer)
+            {
+                lock (this.syncRoot)
+                {
+                    Volatile.Write(ref this.consumers, this.consumers.Concat(new[] { consumer }).ToArray());
+                    if (!this.running)
+                    {
+                        this.running = true;
+                        var thread = new Thread(this.Run)
+                        {
+                            IsBackground = true,
+                            Name = this.name,
+                        };
+                        thread.Start();
+                    }
+                }
+            }
+
+            private void Run()
+            {
+                var idleIntervalMs = 0;
+                while (true)
+                {
+                    var current = Volatile.Read(ref this.consumers);
+                    var consumed = false;
+                    var hasCompleted = false;
+                    foreach (var consumer in current)
+                    {
+                        try
+                        {
+                            consumed |= consumer.Poll();
+                        }
+                        catch (Exception ex)
+                        {
+                            this.logger.LogError(ex, "Error polling Kafka consumer on {pollerThread}", this.name);
+                        }
+
+                        hasCompleted |= consumer.IsCompleted;
+                    }
+
+                    if (hasCompleted && this.RemoveCompleted())
+                    {
+                        return;
+                    }
+
+                    if (consumed)
+                    {
+                        idleIntervalMs = 0;
+                    }
+                    else
+                    {
+                        // Nothing fetched by any consumer, back off without adding more than MaxIdleInterval of latency
+                        idleIntervalMs = Math.Min(Math.Max(idleIntervalMs * 2, 1), (int)MaxIdleInterval.TotalMilliseconds);
+                        Thread.Sleep(idleIntervalMs);
+                    }
+                }
+            }
+
+            /// <summary>
+            /// Drops the completed consumers. Returns true if the thread has no consumer left and must exit.
+            /// </summary>
+            private bool RemoveCompleted()
+            {
+                lock (this.syncRoot)
+                {
+                    Volatile.Write(ref this.consumers, this.consumers.Where(x => !x.IsCompleted).ToArray());
+                    if (this.consumers.Length == 0)
+                    {
+                        this.running = false;
+                        return true;
+                    }
+
+                    return false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+using Confluent.Kafka;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Aggregates the delivery reports of the messages of a flush into a single task.
+    /// A single delivery handler is shared by all messages, so confirming costs a counter decrement per message.
+    /// </summary>
+    internal sealed class DeliveryConfirmation<TKey, TValue>
+    {
+        private readonly TaskCompletionSource<bool> completion = new TaskCompletionSource<bool>(TaskCreationOptions.RunContinuationsAsynchronously);
+        private readonly List<Exception> errors = new List<Exception>();
+
+        // Starts at 1 so the task cannot complete before all messages are produced
+        private int pending = 1;
+        private int produced;
+
+        public DeliveryConfirmation()
+        {
+            this.Handler = this.OnDelivery;
+        }
+
+        /// <summary>
+        /// Delivery handler to pass to every produced message.
+        /// </summary>
+        public Action<DeliveryReport<TKey, TValue>> Handler { get; }
+
+        /// <summary>
+        /// Messages produced so far.
+        /// </summary>
+        public int Produced => Volatile.Read(ref this.produced);
+
+        /// <summary>
+        /// Messages that could not be delivered, plus the error that stopped producing if any.
+        /// </summary>
+        public int Failed
+        {
+            get
+            {
+                lock (this.errors)
+                {
+                    return this.errors.Count;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Call before producing a message with <see cref="Handler"/>.
+        /// </summary>
+        public void Add()
+        {
+            Interlocked.Increment(ref this.pending);
+            Interlocked.Increment(ref this.produced);
+        }
+
+        /// <summary>
+        /// Call if producing a message threw, its delivery report will not arrive.
+        /// </summary>
+        public void Remove()
+        {
+            Interlocked.Decrement(ref this.produced);
+            this.Release();
+        }
+
+        /// <summary>
+        /// Fails the confirmation without waiting for a delivery report, e.g. when producing stopped.
+        /// </summary>
+        public void Fail(Exception error)
+        {
+            this.AddError(error);
+        }
+
+        /// <summary>
+        /// Call once all messages are produced. Returns the task completing with the last delivery report.
+        /// </summary>
+        public Task Seal()
+        {
+            this.Release();
+            return this.completion.Task;
+        }
+
+        private void OnDelivery(DeliveryReport<TKey, TValue> report)
+        {
+            KafkaProducer<TKey, TValue>.RecordDelivery(report, report.Error.Code);
+            if (report.Error.IsError)
+            {
+                this.AddError(new ProduceException<TKey, TValue>(report.Error, report));
+            }
+
+            this.Release();
+        }
+
+        private void AddError(Exception error)
+        {
+            lock (this.errors)
+            {
+                this.errors.Add(error);
+            }
+        }
+
+        private void Release()
+        {
+            if (Interlocked.Decrement(ref this.pending) != 0)
+            {
+                return;
+            }
+
+            lock (this.errors)
+            {
+                if (this.errors.Count == 0)
+                {
+                    this.completion.TrySetResult(true);
+                }
+                else
+                {
+                    this.completion.TrySetException(this.errors);
+                }
+            }
+        }
+    }
+}
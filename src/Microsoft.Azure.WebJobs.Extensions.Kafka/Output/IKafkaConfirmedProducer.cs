@@ -0,0 +1,20 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System.Collections.Generic;
+using System.Threading.Tasks;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Producer confirming the delivery of a set of messages with a single task
+    /// </summary>
+    internal interface IKafkaConfirmedProducer
+    {
+        /// <summary>
+        /// Produces the messages without waiting for each other.
+        /// The returned task completes once all delivery reports arrived, and fails if any message could not be delivered.
+        /// </summary>
+        Task ProduceAndConfirmAsync(string topic, IEnumerable<object> items);
+    }
+}
@@ -183,6 +183,41 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         /// </summary>
         public int LingerMs { get; set; } = 5;
 
+        /// <summary>
+        /// Gets or sets the compression codec of the produced message batches.
+        /// Default: NotSet (librdkafka default: none)
+        /// </summary>
+        public MessageCompressionType CompressionType { get; set; } = MessageCompressionType.NotSet;
+
+        /// <summary>
+        /// Gets or sets the compression level of the selected codec. Usable levels depend on the codec:
+        /// [0-9] for gzip, [0-12] for lz4, [1-22] for zstd, snappy has no levels. -1 uses the default level of the codec.
+        /// Default: -1
+        /// </summary>
+        public int CompressionLevel { get; set; } = -1;
+
+        /// <summary>
+        /// Gets or sets how many broker acknowledgements a message needs before it is considered delivered.
+        /// Leader and None are not allowed together with <see cref="EnableIdempotence"/>.
+        /// Default: NotSet (librdkafka default: All)
+        /// </summary>
+        public ProducerAcks Acks { get; set; } = ProducerAcks.NotSet;
+
+        /// <summary>
+        /// Maximum size in bytes of all messages batched in one MessageSet, protocol framing overhead included.
+        /// A batch is sent once it reaches either this size or <see cref="BatchSize"/> messages. default: 1000000
+        /// </summary>
+        public int BatchSizeBytes { get; set; } = 1_000_000;
+
+        /// <summary>
+        /// Gets or sets when the messages of an invocation are considered sent.
+        /// FireAndForget completes the invocation once the messages are handed to the producer, delivery failures are only logged.
+        /// Confirmed produces the messages of a flush together and completes the flush once the broker acknowledged all of them;
+        /// a message that could not be delivered fails the invocation.
+        /// Default: FireAndForget
+        /// </summary>
+        public DeliveryMode DeliveryMode { get; set; } = DeliveryMode.FireAndForget;
+
         /// <summary>
         /// URL for the Avro Schema Registry
         /// </summary>
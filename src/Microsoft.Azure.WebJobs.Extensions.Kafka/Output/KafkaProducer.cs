@@ -2,6 +2,8 @@
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
 using System;
+using System.Collections.Generic;
+using System.Threading;
 using System.Threading.Tasks;
 using Confluent.Kafka;
 using Microsoft.Extensions.Logging;
@@ -11,7 +13,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
     /// <summary>
     /// Kafka producer
     /// </summary>
-    public sealed class KafkaProducer<TKey, TValue> : IKafkaProducer
+    public sealed class KafkaProducer<TKey, TValue> : IKafkaProducer, IKafkaConfirmedProducer
     {
         internal object ValueSerializer { get; }
 
@@ -21,7 +23,13 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         internal KafkaMessageBuilder<TKey, TValue> MessageBuilder { get; }
 
-        private IProducer<TKey, TValue> producer;
+        // One dependent producer per base producer of the config, messages are routed by key
+        private IProducer<TKey, TValue>[] producers;
+
+        private int nextProducer = -1;
+
+        // Shared by all produced messages, so producing does not allocate a handler per message
+        private readonly Action<DeliveryReport<TKey, TValue>> deliveryHandler;
 
         /// <summary>
         /// Creates a producer
@@ -31,11 +39,39 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             object valueSerializer,
             object keySerializer,
             ILogger logger)
+            : this(new[] { producerHandle }, valueSerializer, keySerializer, logger)
+        {
+        }
+
+        /// <summary>
+        /// Creates a producer spreading the messages over several base producers.
+        /// Messages with the same key always go through the same base producer, keeping their order.
+        /// </summary>
+        internal KafkaProducer(
+            Handle[] producerHandles,
+            object valueSerializer,
+            object keySerializer,
+            ILogger logger)
         {
+            if (producerHandles == null || producerHandles.Length == 0)
+            {
+                throw new ArgumentException("At least one producer handle is required", nameof(producerHandles));
+            }
+
             this.ValueSerializer = valueSerializer;
             this.KeySerializer = keySerializer;
             this.logger = logger;
             this.MessageBuilder = new KafkaMessageBuilder<TKey, TValue>();
+            this.deliveryHandler = this.OnDelivery;
+            this.producers = new IProducer<TKey, TValue>[producerHandles.Length];
+            for (var i = 0; i < producerHandles.Length; i++)
+            {
+                this.producers[i] = BuildProducer(producerHandles[i], valueSerializer, keySerializer);
+            }
+        }
+
+        private static IProducer<TKey, TValue> BuildProducer(Handle producerHandle, object valueSerializer, object keySerializer)
+        {
             var builder = new DependentProducerBuilder<TKey, TValue>(producerHandle);
 
             if (valueSerializer != null)
@@ -70,7 +106,55 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
                 }
             }
 
-            this.producer = builder.Build();
+            return builder.Build();
+        }
+
+        /// <summary>
+        /// Amount of base producers the messages are spread over.
+        /// </summary>
+        internal int ShardCount => this.producers.Length;
+
+        /// <summary>
+        /// Selects the base producer of a message: by key hash, or round robin for messages without key.
+        /// </summary>
+        private IProducer<TKey, TValue> SelectProducer(TKey key)
+        {
+            var producers = this.producers;
+            if (producers.Length == 1)
+            {
+                return producers[0];
+            }
+
+            if (key == null)
+            {
+                var next = (uint)Interlocked.Increment(ref this.nextProducer);
+                return producers[next % (uint)producers.Length];
+            }
+
+            return producers[GetShard(key, producers.Length)];
+        }
+
+        /// <summary>
+        /// Gets the shard of a key. Equal keys (byte arrays by content) always get the same shard.
+        /// </summary>
+        internal static int GetShard(TKey key, int shardCount)
+        {
+            uint hash;
+            if (key is byte[] bytes)
+            {
+                // FNV-1a, arrays are compared by reference otherwise
+                hash = 2166136261;
+                for (var i = 0; i < bytes.Length; i++)
+                {
+                    hash = (hash ^ bytes[i]) * 16777619;
+                }
+            }
+            else
+            {
+                hash = (uint)EqualityComparer<TKey>.Default.GetHashCode(key);
+            }
+
+            return (int)(hash % (uint)shardCount);
         }
 
         public async Task ProduceAsync(string topic, object item)
@@ -82,13 +166,12 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
             try
             {
-                var deliveryResult = await this.producer.ProduceAsync(topicUsed, msg);
-
-                this.logger.LogDebug("Message delivered on {topic} / {partition} / {offset}", deliveryResult.Topic, (int)deliveryResult.Partition, (long)deliveryResult.Offset);
+                var deliveryResult = await this.SelectProducer(msg.Key).ProduceAsync(topicUsed, msg);
+                RecordDelivery(deliveryResult, ErrorCode.NoError);
             }
             catch (ProduceException<TKey, TValue> produceException)
             {
-                logger.LogError("Failed to delivery message to {topic} / {partition} / {offset}. Reason: {reason}. Full Error: {error}", produceException.DeliveryResult?.Topic, (int)produceException.DeliveryResult?.Partition, (long)produceException.DeliveryResult?.Offset, produceException.Error.Reason, produceException.Error.ToString());
+                this.OnProduceException(produceException);
                 throw;
             }
             catch (Exception ex)
@@ -107,20 +190,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
             try
             {
-                logger.LogInformation("in Produce method");
-                this.producer.Produce(topicUsed, msg, 
-                    deliveryResult => {
-                        if (deliveryResult.Error.Code != ErrorCode.NoError)
-                        {
-                            this.logger.LogError("msg failed to deliver on topic :: ", topicUsed + " error :: " + deliveryResult.Error.ToString());
-                            return;
-                        }
-                        this.logger.LogDebug("Message delivered on {topic} / {partition} / {offset}", deliveryResult.Topic, (int)deliveryResult.Partition, (long)deliveryResult.Offset);
-                    });
+                this.SelectProducer(msg.Key).Produce(topicUsed, msg, this.deliveryHandler);
             }
             catch (ProduceException<TKey, TValue> produceException)
             {
-                logger.LogError("Failed to delivery message to {topic} / {partition} / {offset}. Reason: {reason}. Full Error: {error}", produceException.DeliveryResult?.Topic, (int)produceException.DeliveryResult?.Partition, (long)produceException.DeliveryResult?.Offset, produceException.Error.Reason, produceException.Error.ToString());
+                this.OnProduceException(produceException);
                 throw;
             }
             catch (Exception ex)
@@ -130,9 +204,96 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             }
         }
 
+        private void OnDelivery(DeliveryReport<TKey, TValue> report)
+        {
+            RecordDelivery(report, report.Error.Code);
+            if (report.Error.IsError)
+            {
+                this.logger.LogError("Failed to deliver message to {topic} / {partition}. Reason: {reason}", report.Topic, report.Partition.Value, report.Error.Reason);
+            }
+        }
+
+        private void OnProduceException(ProduceException<TKey, TValue> produceException)
+        {
+            var deliveryResult = produceException.DeliveryResult;
+            if (deliveryResult != null)
+            {
+                RecordDelivery(deliveryResult, produceException.Error.Code);
+            }
+
+            this.logger.LogError("Failed to deliver message to {topic} / {partition} / {offset}. Reason: {reason}. Full Error: {error}", deliveryResult?.Topic, deliveryResult?.Partition.Value, deliveryResult?.Offset.Value, produceException.Error.Reason, produceException.Error.ToString());
+        }
+
+        /// <summary>
+        /// Reports a delivery to the producer metrics.
+        /// </summary>
+        internal static void RecordDelivery(DeliveryResult<TKey, TValue> result, ErrorCode errorCode)
+        {
+            var elapsedMs = -1d;
+
+            // Messages are produced without a timestamp, librdkafka sets their create time when they are produced
+            if (errorCode == ErrorCode.NoError && result.Timestamp.Type == TimestampType.CreateTime && KafkaEventInstrumentation.ProducerDeliveryDuration.Enabled)
+            {
+                elapsedMs = Math.Max(0, (DateTime.UtcNow - result.Timestamp.UtcDateTime).TotalMilliseconds);
+            }
+
+            KafkaEventInstrumentation.RecordDelivery(result.Topic, errorCode == ErrorCode.NoError ? null : errorCode.ToString(), elapsedMs);
+        }
+
+        Task IKafkaConfirmedProducer.ProduceAndConfirmAsync(string topic, IEnumerable<object> items)
+        {
+            var confirmation = new DeliveryConfirmation<TKey, TValue>();
+            string topicUsed = topic;
+            try
+            {
+                foreach (var item in items)
+                {
+                    ValidateItem(item);
+                    IKafkaEventData actualItem = GetItem(item);
+                    Message<TKey, TValue> msg = BuildMessage(item, actualItem);
+                    topicUsed = FindTopic(topic, actualItem);
+
+                    confirmation.Add();
+                    try
+                    {
+                        this.SelectProducer(msg.Key).Produce(topicUsed, msg, confirmation.Handler);
+                    }
+                    catch
+                    {
+                        confirmation.Remove();
+                        throw;
+                    }
+                }
+            }
+            catch (Exception ex)
+            {
+                // Messages already produced are still confirmed, the flush fails once their reports arrived
+                this.logger.LogError(ex, "Error producing into {topic}", topicUsed);
+                confirmation.Fail(ex);
+            }
+
+            return this.ConfirmAsync(confirmation, topicUsed);
+        }
+
+        private async Task ConfirmAsync(DeliveryConfirmation<TKey, TValue> confirmation, string topic)
+        {
+            try
+            {
+                await confirmation.Seal();
+            }
+            catch (Exception)
+            {
+                this.logger.LogError("Producing {count} messages to {topic} failed with {errors} errors", confirmation.Produced, topic, confirmation.Failed);
+                throw;
+            }
+        }
+
         public void Flush()
         {
-            this.producer.Flush();
+            foreach (var producer in this.producers)
+            {
+                producer.Flush();
+            }
         }
 
         private static IKafkaEventData GetItem(object item)
@@ -181,9 +342,17 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         public void Dispose()
         {
-            this.producer?.Flush();
-            this.producer?.Dispose();
-            this.producer = null;
+            var producers = this.producers;
+            this.producers = null;
+            if (producers != null)
+            {
+                foreach (var producer in producers)
+                {
+                    producer.Flush();
+                    producer.Dispose();
+                }
+            }
+
             GC.SuppressFinalize(this);
         }
     }
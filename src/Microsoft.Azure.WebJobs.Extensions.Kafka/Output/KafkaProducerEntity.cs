@@ -3,6 +3,8 @@
 
 using System;
 using System.Collections;
+using System.Collections.Generic;
+using System.Linq;
 using System.Threading;
 using System.Threading.Tasks;
 
@@ -28,6 +30,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         {
             var kafkaProducer = this.KafkaProducerFactory.Create(this);
 
+            if (this.Attribute?.DeliveryMode == DeliveryMode.Confirmed)
+            {
+                return this.ProduceConfirmedAsync(item, kafkaProducer);
+            }
+
             if (item is ICollection)
             {
                 ProduceEvents((ICollection)item, kafkaProducer);
@@ -46,6 +53,32 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             }
         }
 
+        private Task ProduceConfirmedAsync<T>(T item, IKafkaProducer kafkaProducer)
+        {
+            if (kafkaProducer is IKafkaConfirmedProducer confirmedProducer)
+            {
+                return confirmedProducer.ProduceAndConfirmAsync(this.Topic, this.GetItemsToProduce(item));
+            }
+
+            // Producers of other factories confirm each message, still without waiting for each other
+            return Task.WhenAll(this.GetItemsToProduce(item).Select(x => kafkaProducer.ProduceAsync(this.Topic, x)));
+        }
+
+        private IEnumerable<object> GetItemsToProduce<T>(T item)
+        {
+            if (item is ICollection collection)
+            {
+                foreach (var collectionItem in collection)
+                {
+                    yield return this.GetItemToProduce(collectionItem);
+                }
+
+                yield break;
+            }
+
+            yield return this.GetItemToProduce(item);
+        }
+
         private object GetItemToProduce<T>(T item)
         {
             if (item is IKafkaEventData)
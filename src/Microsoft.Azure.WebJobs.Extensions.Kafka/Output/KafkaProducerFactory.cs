@@ -3,36 +3,87 @@
 
 using System;
 using System.Collections.Concurrent;
+using System.Reflection;
+using System.Runtime.CompilerServices;
 using System.Text;
 using System.Text.RegularExpressions;
+using System.Threading;
 using Confluent.Kafka;
 using Microsoft.Extensions.Configuration;
 using Microsoft.Extensions.Logging;
+using Microsoft.Extensions.Options;
+using Microsoft.Extensions.Primitives;
 
 namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 {
     /// <summary>
     /// Factory for <see cref="IKafkaProducer"/>
     /// Those matching the broker, key type and value type are shared
+    /// The typed producer of a binding is built once and reused until the configuration reloads
+    /// With <see cref="KafkaOptions.ProducerShardCount"/> larger than 1 each config gets several base producers, messages are routed by key
     /// </summary>
     public class KafkaProducerFactory : IKafkaProducerFactory
     {
         private readonly IConfiguration config;
         private readonly INameResolver nameResolver;
         private readonly ILoggerFactory loggerFactory;
-        private readonly ConcurrentDictionary<string, IProducer<byte[], byte[]>> baseProducers = new ConcurrentDictionary<string, IProducer<byte[], byte[]>>();
+        private readonly IOptions<KafkaOptions> options;
+        private readonly ConcurrentDictionary<string, IProducer<byte[], byte[]>[]> baseProducers = new ConcurrentDictionary<string, IProducer<byte[], byte[]>[]>();
+        private readonly ConcurrentDictionary<TypedProducerKey, TypedProducerEntry> typedProducers = new ConcurrentDictionary<TypedProducerKey, TypedProducerEntry>();
 
         public KafkaProducerFactory(
             IConfiguration config,
             INameResolver nameResolver,
             ILoggerFactory loggerFactory)
+            : this(config, nameResolver, loggerFactory, null)
+        {
+        }
+
+        public KafkaProducerFactory(
+            IConfiguration config,
+            INameResolver nameResolver,
+            ILoggerFactory loggerFactory,
+            IOptions<KafkaOptions> options)
         {
             this.config = config;
+            this.options = options;
             this.nameResolver = nameResolver;
             this.loggerFactory = loggerFactory;
+
+            // Settings resolved from the configuration may have changed, typed producers are built again on next use
+            ChangeToken.OnChange(this.config.GetReloadToken, this.typedProducers.Clear);
         }
 
         public IKafkaProducer Create(KafkaProducerEntity entity)
+        {
+            // Settings, serializers and the typed producer are resolved on the first flush of a binding only
+            var typedProducerKey = new TypedProducerKey(entity);
+            var typedProducer = this.typedProducers.GetOrAdd(typedProducerKey, _ => this.CreateTypedProducerEntry(entity));
+
+            // Outputs of exactly-once trigger invocations are produced in the transaction of the trigger partition
+            var transaction = LaneTransaction.Current;
+            if (transaction != null)
+            {
+                if (string.Equals(transaction.BootstrapServers, typedProducer.BootstrapServers, StringComparison.OrdinalIgnoreCase))
+                {
+                    // Built once per binding and lane transaction, the transaction disposes it with its producer
+                    return transaction.GetOrAddProducer(typedProducerKey, handle => Create(new[] { handle }, entity));
+                }
+
+                if (transaction.TryMarkOutputOutsideTransaction())
+                {
+                    this.loggerFactory.CreateLogger(typeof(KafkaProducer<,>)).LogWarning(
+                        "Output to {brokerList} is not on the cluster of the trigger of {topic} / {partition}, it is produced outside of the transaction",
+                        typedProducer.BootstrapServers,
+                        transaction.TopicPartition.Topic,
+                        transaction.TopicPartition.Partition.Value);
+                }
+            }
+
+            return typedProducer.Producer.Value;
+        }
+
+        private TypedProducerEntry CreateTypedProducerEntry(KafkaProducerEntity entity)
         {
             AzureFunctionsFileHelper.InitializeLibrdKafka(this.loggerFactory.CreateLogger(typeof(AzureFunctionsFileHelper)));
 
@@ -41,10 +92,19 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             // - Broker List
             // - Configuration
             var producerConfig = this.GetProducerConfig(entity);
-            var producerKey = CreateKeyForConfig(producerConfig);
+            var shardCount = this.GetProducerShardCount();
+
+            // Built on first use, failures are not cached so the next flush tries again
+            var producer = new Lazy<IKafkaProducer>(
+                () =>
+                {
+                    var producerKey = CreateKeyForConfig(producerConfig) + "shards=" + shardCount;
+                    var shards = baseProducers.GetOrAdd(producerKey, (k) => CreateBaseProducers(producerConfig, shardCount));
+                    return Create(Array.ConvertAll(shards, x => x.Handle), entity);
+                },
+                LazyThreadSafetyMode.PublicationOnly);
 
-            var baseProducer = baseProducers.GetOrAdd(producerKey, (k) => CreateBaseProducer(producerConfig));
-            return Create(baseProducer.Handle, entity);
+            return new TypedProducerEntry(producerConfig.BootstrapServers, producer);
         }
 
         /// <summary>
@@ -66,6 +126,17 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             return keyBuilder.ToString();
         }
 
+        private IProducer<byte[], byte[]>[] CreateBaseProducers(ProducerConfig producerConfig, int shardCount)
+        {
+            var shards = new IProducer<byte[], byte[]>[shardCount];
+            for (var i = 0; i < shardCount; i++)
+            {
+                shards[i] = CreateBaseProducer(producerConfig);
+            }
+
+            return shards;
+        }
+
         private IProducer<byte[], byte[]> CreateBaseProducer(ProducerConfig producerConfig)
         {
             var builder = new ProducerBuilder<byte[], byte[]>(producerConfig);
@@ -78,7 +149,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             return builder.Build();
         }
 
-        private IKafkaProducer Create(Handle producerBaseHandle, KafkaProducerEntity entity)
+        private IKafkaProducer Create(Handle[] producerBaseHandles, KafkaProducerEntity entity)
         {
             var valueType = entity.ValueType ?? typeof(byte[]);
             var keyType = entity.KeyType ?? typeof(Null);
@@ -102,10 +173,10 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
             return (IKafkaProducer)Activator.CreateInstance(
                 typeof(KafkaProducer<,>).MakeGenericType(keyType, valueType),
-                producerBaseHandle,
-                valueSerializer,
-                keySerializer,
-                loggerFactory.CreateLogger(typeof(KafkaProducer<,>)));
+                BindingFlags.Instance | BindingFlags.Public | BindingFlags.NonPublic,
+                null,
+                new object[] { producerBaseHandles, valueSerializer, keySerializer, loggerFactory.CreateLogger(typeof(KafkaProducer<,>)) },
+                null);
         }
 
         private string ExtractSection(string pemString, string sectionName)
@@ -174,8 +245,24 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
                 MetadataMaxAgeMs = kafkaOptions?.MetadataMaxAgeMs,
                 SocketKeepaliveEnable = kafkaOptions?.SocketKeepaliveEnable,
                 LingerMs = entity.Attribute.LingerMs,
+                BatchSize = entity.Attribute.BatchSizeBytes,
             };
 
+            if (entity.Attribute.CompressionType != MessageCompressionType.NotSet)
+            {
+                conf.CompressionType = (CompressionType)entity.Attribute.CompressionType;
+            }
+
+            if (entity.Attribute.CompressionLevel != -1)
+            {
+                conf.CompressionLevel = entity.Attribute.CompressionLevel;
+            }
+
+            if (entity.Attribute.Acks != ProducerAcks.NotSet)
+            {
+                conf.Acks = (Acks)entity.Attribute.Acks;
+            }
+
             if (!string.IsNullOrEmpty(entity.Attribute.SslCertificateandKeyPEM))
             {
                 var sslCertificateandKeyPEM = this.config.ResolveSecureSetting(nameResolver, entity.Attribute.SslCertificateandKeyPEM);
@@ -209,5 +296,75 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
             return conf;
         }
+
+        /// <summary>
+        /// Gets the amount of base producers per config, from the host options when they are available
+        /// </summary>
+        private int GetProducerShardCount()
+        {
+            var kafkaOptions = this.options?.Value ?? this.config.Get<KafkaOptions>();
+            return kafkaOptions?.ProducerShardCount ?? 1;
+        }
+
+        /// <summary>
+        /// Identifies the output binding an entity was created for.
+        /// Attributes are compared by reference, each binding keeps its own instance.
+        /// </summary>
+        private readonly struct TypedProducerKey : IEquatable<TypedProducerKey>
+        {
+            private readonly KafkaAttribute attribute;
+            private readonly Type keyType;
+            private readonly Type valueType;
+            private readonly string topic;
+            private readonly string valueAvroSchema;
+            private readonly string keyAvroSchema;
+
+            public TypedProducerKey(KafkaProducerEntity entity)
+            {
+                this.attribute = entity.Attribute;
+                this.keyType = entity.KeyType;
+                this.valueType = entity.ValueType;
+                this.topic = entity.Topic;
+                this.valueAvroSchema = entity.ValueAvroSchema;
+                this.keyAvroSchema = entity.KeyAvroSchema;
+            }
+
+            public bool Equals(TypedProducerKey other)
+            {
+                return ReferenceEquals(this.attribute, other.attribute)
+                    && this.keyType == other.keyType
+                    && this.valueType == other.valueType
+                    && string.Equals(this.topic, other.topic, StringComparison.Ordinal)
+                    && string.Equals(this.valueAvroSchema, other.valueAvroSchema, StringComparison.Ordinal)
+                    && string.Equals(this.keyAvroSchema, other.keyAvroSchema, StringComparison.Ordinal);
+            }
+
+            public override bool Equals(object obj) => obj is TypedProducerKey other && this.Equals(other);
+
+            public override int GetHashCode()
+            {
+                unchecked
+                {
+                    var hash = RuntimeHelpers.GetHashCode(this.attribute);
+                    hash = (hash * 397) ^ (this.keyType?.GetHashCode() ?? 0);
+                    hash = (hash * 397) ^ (this.valueType?.GetHashCode() ?? 0);
+                    hash = (hash * 397) ^ (this.topic?.GetHashCode() ?? 0);
+                    return hash;
+                }
+            }
+        }
+
+        private sealed class TypedProducerEntry
+        {
+            public TypedProducerEntry(string bootstrapServers, Lazy<IKafkaProducer> producer)
+            {
+                this.BootstrapServers = bootstrapServers;
+                this.Producer = producer;
+            }
+
+            public string BootstrapServers { get; }
+
+            public Lazy<IKafkaProducer> Producer { get; }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using Confluent.Kafka;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Deserializer registered in the consumer when decoding runs in a <see cref="DeserializationPipeline{TKey, TValue}"/>.
+    /// Keeps a copy of the raw bytes of the last consumed message component and returns the default value,
+    /// the pipeline decodes the bytes later with the actual deserializer.
+    /// Only used by the polling thread.
+    /// </summary>
+    internal sealed class DeferredDeserializer<T> : IDeserializer<T>
+    {
+        private byte[] lastData;
+
+        public T Deserialize(ReadOnlySpan<byte> data, bool isNull, SerializationContext context)
+        {
+            // The span points to memory owned by librdkafka, it is released once Consume returns
+            this.lastData = isNull ? null : data.ToArray();
+            return default;
+        }
+
+        /// <summary>
+        /// Returns the raw bytes captured while consuming the last message, null if the component was null.
+        /// </summary>
+        public byte[] Take()
+        {
+            var data = this.lastData;
+            this.lastData = null;
+            return data;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Threading;
+using System.Threading.Tasks;
+using Confluent.Kafka;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Moves message decoding off the polling thread.
+    /// The consumer is built with <see cref="DeferredDeserializer{T}"/> instances that only keep the raw bytes,
+    /// the polling thread hands the raw records to the partition lanes and each lane decodes its batches before executing them.
+    /// A lane decodes its batches one after the other and keeps the items in place, so the order within a partition is kept.
+    /// Batches of different lanes are decoded concurrently, by at most the configured amount of workers.
+    /// </summary>
+    internal sealed class DeserializationPipeline<TKey, TValue>
+    {
+        private readonly IDeserializer<TKey> keyDeserializer;
+        private readonly IDeserializer<TValue> valueDeserializer;
+        private readonly DeferredDeserializer<TKey> deferredKeyDeserializer;
+        private readonly DeferredDeserializer<TValue> deferredValueDeserializer;
+        private readonly Func<ConsumeResult<TKey, TValue>, IKafkaEventData> createEventData;
+        private readonly int workerCount;
+        // Shared by the lanes, bounds the decoding running at the same time
+        private readonly SemaphoreSlim workers;
+        private readonly ILogger logger;
+
+        public DeserializationPipeline(
+            int workerCount,
+            IDeserializer<TValue> valueDeserializer,
+            IDeserializer<TKey> keyDeserializer,
+            Func<ConsumeResult<TKey, TValue>, IKafkaEventData> createEventData,
+            ILogger logger)
+        {
+            if (workerCount <= 0)
+            {
+                throw new ArgumentOutOfRangeException(nameof(workerCount));
+            }
+
+            this.valueDeserializer = valueDeserializer;
+            this.keyDeserializer = keyDeserializer;
+            this.createEventData = createEventData ?? throw new ArgumentNullException(nameof(createEventData));
+            this.logger = logger;
+            this.workerCount = workerCount;
+            this.workers = new SemaphoreSlim(workerCount, workerCount);
+
+            // Components without a custom deserializer use the built-in ones, those are cheap enough to run inline
+            if (valueDeserializer != null)
+            {
+                this.deferredValueDeserializer = new DeferredDeserializer<TValue>();
+            }
+
+            if (keyDeserializer != null)
+            {
+                this.deferredKeyDeserializer = new DeferredDeserializer<TKey>();
+            }
+        }
+
+        /// <summary>
+        /// Value deserializer to register in the consumer, null if values are decoded inline.
+        /// </summary>
+        public IDeserializer<TValue> DeferredValueDeserializer => this.deferredValueDeserializer;
+
+        /// <summary>
+        /// Key deserializer to register in the consumer, null if keys are decoded inline.
+        /// </summary>
+        public IDeserializer<TKey> DeferredKeyDeserializer => this.deferredKeyDeserializer;
+
+        /// <summary>
+        /// Wraps a record returned by Consume, together with the raw bytes captured while it was consumed,
+        /// in an entry that goes through the lane of its partition until <see cref="DecodeAsync"/> decodes it.
+        /// Only called by the polling thread.
+        /// </summary>
+        public IKafkaEventData Capture(ConsumeResult<TKey, TValue> consumeResult)
+        {
+            return new RawRecord(consumeResult, this.deferredKeyDeserializer?.Take(), this.deferredValueDeserializer?.Take());
+        }
+
+        /// <summary>
+        /// Decodes the captured records of a lane batch on the workers, replacing them in place.
+        /// Records that cannot be decoded are logged, then replaced by an <see cref="UndecodedKafkaEventData"/> if
+        /// <paramref name="keepUndecoded"/> is set, or skipped (as a deserialization error in Consume would skip them).
+        /// Returns <paramref name="items"/> if no record was skipped, the remaining items in order otherwise,
+        /// or null if every record was skipped.
+        /// </summary>
+        public async Task<IKafkaEventData[]> DecodeAsync(IKafkaEventData[] items, bool keepUndecoded, CancellationToken cancellationToken)
+        {
+            if (items.Length == 0)
+            {
+                return items;
+            }
+
+            // Large batches are split in contiguous ranges, so a single busy partition also uses several workers
+            var rangeSize = (items.Length + this.workerCount - 1) / this.workerCount;
+            var ranges = new Task<int>[(items.Length + rangeSize - 1) / rangeSize];
+            for (var i = 0; i < ranges.Length; i++)
+            {
+                var start = i * rangeSize;
+                ranges[i] = this.DecodeRangeAsync(items, start, Math.Min(start + rangeSize, items.Length), keepUndecoded, cancellationToken);
+            }
+
+            var skipped = 0;
+            foreach (var range in ranges)
+            {
+                skipped += await range;
+            }
+
+            if (skipped == 0)
+            {
+                return items;
+            }
+
+            if (skipped == items.Length)
+            {
+                return null;
+            }
+
+            var remaining = new IKafkaEventData[items.Length - skipped];
+            var index = 0;
+            foreach (var item in items)
+            {
+                if (item != null)
+                {
+                    remaining[index++] = item;
+                }
+            }
+
+            return remaining;
+        }
+
+        /// <summary>
+        /// Decodes the records of a range once a worker is available.
+        /// Returns the amount of records skipped, their entries are set to null.
+        /// </summary>
+        private async Task<int> DecodeRangeAsync(IKafkaEventData[] items, int start, int end, bool keepUndecoded, CancellationToken cancellationToken)
+        {
+            await this.workers.WaitAsync(cancellationToken);
+            try
+            {
+                return await Task.Run(() => this.DecodeRange(items, start, end, keepUndecoded));
+            }
+            finally
+            {
+                this.workers.Release();
+            }
+        }
+
+        private int DecodeRange(IKafkaEventData[] items, int start, int end, bool keepUndecoded)
+        {
+            var skipped = 0;
+            for (var i = start; i < end; i++)
+            {
+                if (!(items[i] is RawRecord record))
+                {
+                    continue;
+                }
+
+                var error = this.TryDecode(record);
+                if (error == null)
+                {
+                    items[i] = this.createEventData(record.ConsumeResult);
+                }
+                else if (keepUndecoded)
+                {
+                    items[i] = UndecodedKafkaEventData.FromConsumeResult(record.ConsumeResult, record.RawKey, record.RawValue, error);
+                }
+                else
+                {
+                    items[i] = null;
+                    skipped++;
+                }
+            }
+
+            return skipped;
+        }
+
+        /// <summary>
+        /// Returns the deserialization error of the record, null if it was decoded.
+        /// </summary>
+        private Exception TryDecode(RawRecord record)
+        {
+            var consumeResult = record.ConsumeResult;
+            var message = consumeResult.Message;
+
+            try
+            {
+                if (this.deferredKeyDeserializer != null)
+                {
+                    message.Key = this.keyDeserializer.Deserialize(
+                        record.RawKey,
+                        record.RawKey == null,
+                        new SerializationContext(MessageComponentType.Key, consumeResult.Topic, message.Headers));
+                }
+
+                if (this.deferredValueDeserializer != null)
+                {
+                    message.Value = this.valueDeserializer.Deserialize(
+                        record.RawValue,
+                        record.RawValue == null,
+                        new SerializationContext(MessageComponentType.Value, consumeResult.Topic, message.Headers));
+                }
+
+                return null;
+            }
+            catch (Exception ex)
+            {
+                this.logger.LogError(ex, "Failed to deserialize {topic} / {partition} / {offset}", consumeResult.Topic, consumeResult.Partition.Value, consumeResult.Offset.Value);
+                return ex;
+            }
+        }
+
+        /// <summary>
+        /// Consumed record waiting to be decoded by its lane.
+        /// Key and value are the raw bytes of the components decoded by the pipeline. Never handed to the function.
+        /// </summary>
+        private sealed class RawRecord : IKafkaEventData
+        {
+            public RawRecord(ConsumeResult<TKey, TValue> consumeResult, byte[] rawKey, byte[] rawValue)
+            {
+                this.ConsumeResult = consumeResult;
+                this.RawKey = rawKey;
+                this.RawValue = rawValue;
+                this.Headers = consumeResult.Message.Headers?.Count > 0 ? new KafkaEventDataHeaders(consumeResult.Message.Headers) : KafkaEventDataHeaders.EmptyReadOnly;
+                this.Key = rawKey ?? (object)consumeResult.Message.Key;
+                this.Value = rawValue ?? (object)consumeResult.Message.Value;
+            }
+
+            public ConsumeResult<TKey, TValue> ConsumeResult { get; }
+
+            public byte[] RawKey { get; }
+
+            public byte[] RawValue { get; }
+
+            public object Value { get; }
+
+            public object Key { get; }
+
+            public long Offset => this.ConsumeResult.Offset.Value;
+
+            public int Partition => this.ConsumeResult.Partition.Value;
+
+            public string Topic => this.ConsumeResult.Topic;
+
+            public DateTime Timestamp => this.ConsumeResult.Message.Timestamp.UtcDateTime;
+
+            public IKafkaEventDataHeaders Headers { get; }
+
+            public int? LeaderEpoch => this.ConsumeResult.LeaderEpoch;
+
+            public bool IsPartitionEOF => false;
+        }
+    }
+}
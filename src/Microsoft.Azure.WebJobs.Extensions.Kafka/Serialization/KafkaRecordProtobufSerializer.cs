@@ -4,7 +4,6 @@
 using System;
 using System.Text;
 using Google.Protobuf;
-using Newtonsoft.Json;
 
 namespace Microsoft.Azure.WebJobs.Extensions.Kafka.Serialization
 {
@@ -96,7 +95,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.Serialization
             }
 
             // For complex types (Avro, Protobuf, POCOs), serialize to JSON bytes
-            var json = JsonConvert.SerializeObject(value);
+            var json = KafkaRecordSizeEstimator.SerializeComplexValue(value);
             return ByteString.CopyFrom(json, Encoding.UTF8);
         }
     }
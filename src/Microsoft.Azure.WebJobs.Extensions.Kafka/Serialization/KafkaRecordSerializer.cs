@@ -130,7 +130,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             else
             {
                 // For complex types (Avro, Protobuf, POCOs), serialize to JSON string
-                writer.WriteValue(JsonConvert.SerializeObject(value));
+                writer.WriteValue(KafkaRecordSizeEstimator.SerializeComplexValue(value));
             }
         }
     }
@@ -0,0 +1,74 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System.Text;
+using Newtonsoft.Json;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Estimates the size in bytes of a record, as the sum of its key, value and header sizes.
+    /// Strings and byte arrays are measured the way the wire serializers (<see cref="KafkaRecordSerializer"/>,
+    /// <see cref="Serialization.KafkaRecordProtobufSerializer"/>) encode them. Components decoded by a custom deserializer
+    /// are measured by their raw size when they are consumed (see <see cref="SizeCapturingDeserializer{T}"/>),
+    /// so the polling thread never encodes a decoded value only to measure it.
+    /// </summary>
+    internal static class KafkaRecordSizeEstimator
+    {
+        /// <summary>
+        /// Returns the estimated size in bytes of the key, value and headers of a record.
+        /// </summary>
+        public static long GetSize(IKafkaEventData eventData)
+        {
+            return GetComponentSize(eventData.Key) + GetComponentSize(eventData.Value) + GetHeadersSize(eventData.Headers);
+        }
+
+        /// <summary>
+        /// Returns the size in bytes of the header keys and values of a record.
+        /// </summary>
+        public static long GetHeadersSize(IKafkaEventDataHeaders headers)
+        {
+            long size = 0;
+            if (headers != null)
+            {
+                foreach (var header in headers)
+                {
+                    size += (header.Key == null ? 0 : Encoding.UTF8.GetByteCount(header.Key)) + (header.Value?.Length ?? 0);
+                }
+            }
+
+            return size;
+        }
+
+        /// <summary>
+        /// Returns the size in bytes of a key or value once encoded by the wire serializers.
+        /// Numbers decoded by the built-in deserializers count their fixed size encoding.
+        /// Other values are encoded as JSON to be measured, callers measure the raw bytes of custom decoded values instead.
+        /// </summary>
+        public static long GetComponentSize(object value)
+        {
+            switch (value)
+            {
+                case null:
+                    return 0;
+                case byte[] bytes:
+                    return bytes.Length;
+                case string str:
+                    return Encoding.UTF8.GetByteCount(str);
+                case int _:
+                case float _:
+                    return 4;
+                case long _:
+                case double _:
+                    return 8;
+                default:
+                    return Encoding.UTF8.GetByteCount(SerializeComplexValue(value));
+            }
+        }
+
+        /// <summary>
+        /// Encodes keys and values that are neither strings nor byte arrays (Avro, Protobuf, POCOs) for the wire serializers.
+        /// </summary>
+        internal static string SerializeComplexValue(object value) => JsonConvert.SerializeObject(value);
+    }
+}
@@ -0,0 +1,35 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using Confluent.Kafka;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Deserializer registered in the consumer when batches have a byte budget (<see cref="KafkaOptions.MaxBatchBytes"/>).
+    /// Records the raw size of the last consumed message component before decoding it with the actual deserializer,
+    /// so <see cref="KafkaRecordSizeEstimator"/> does not encode decoded Avro or Protobuf values again to measure them.
+    /// Only used by the polling thread.
+    /// </summary>
+    internal sealed class SizeCapturingDeserializer<T> : IDeserializer<T>
+    {
+        private readonly IDeserializer<T> deserializer;
+
+        public SizeCapturingDeserializer(IDeserializer<T> deserializer)
+        {
+            this.deserializer = deserializer ?? throw new ArgumentNullException(nameof(deserializer));
+        }
+
+        /// <summary>
+        /// Raw size in bytes of the component of the last consumed message, 0 if it was null.
+        /// </summary>
+        public long LastSize { get; private set; }
+
+        public T Deserialize(ReadOnlySpan<byte> data, bool isNull, SerializationContext context)
+        {
+            this.LastSize = isNull ? 0 : data.Length;
+            return this.deserializer.Deserialize(data, isNull, context);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Threading;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Tunes the batch size and release interval of a batch trigger within [MinBatchSize, MaxBatchSize].
+    /// Batches only grow while there is a backlog (batches are released because they are full, or lanes are congested).
+    /// With a target latency the size follows an additive increase / multiplicative decrease around the target,
+    /// without one the size is hill climbed towards the highest measured throughput.
+    /// </summary>
+    internal sealed class AdaptiveBatchSizeController
+    {
+        private const double Smoothing = 0.3;
+        private const double DecreaseFactor = 0.75;
+        private const double IncreaseHeadroom = 0.8;
+        private const double ThroughputTolerance = 0.95;
+        private static readonly TimeSpan MinimumReleaseInterval = TimeSpan.FromMilliseconds(50);
+
+        private readonly object syncRoot = new object();
+        private readonly int minBatchSize;
+        private readonly int maxBatchSize;
+        private readonly TimeSpan maxReleaseInterval;
+        private readonly double targetLatencyMs;
+        private int batchSize;
+        private long releaseIntervalTicks;
+        private int hasBacklog;
+        private double smoothedLatencyMs = -1;
+        private double smoothedThroughput = -1;
+        private double previousThroughput = -1;
+        private int direction = 1;
+
+        public AdaptiveBatchSizeController(string topic, int minBatchSize, int maxBatchSize, TimeSpan maxReleaseInterval, int targetLatencyMs)
+        {
+            if (minBatchSize <= 0 || minBatchSize > maxBatchSize)
+            {
+                throw new ArgumentOutOfRangeException(nameof(minBatchSize));
+            }
+
+            this.Topic = topic;
+            this.minBatchSize = minBatchSize;
+            this.maxBatchSize = maxBatchSize;
+            this.maxReleaseInterval = maxReleaseInterval;
+            this.targetLatencyMs = targetLatencyMs;
+
+            // Start at the configured maximum, the static behaviour, and only move once measurements arrive
+            this.SetBatchSize(maxBatchSize);
+        }
+
+        public string Topic { get; }
+
+        /// <summary>
+        /// Batch size the listener should currently use.
+        /// </summary>
+        public int BatchSize => Volatile.Read(ref this.batchSize);
+
+        /// <summary>
+        /// Maximum time the listener should wait to fill a batch.
+        /// Scales with the batch size, so smaller batches are not held back for the whole configured interval.
+        /// </summary>
+        public TimeSpan ReleaseInterval => TimeSpan.FromTicks(Interlocked.Read(ref this.releaseIntervalTicks));
+
+        /// <summary>
+        /// Records how a batch was released by the polling thread.
+        /// </summary>
+        /// <param name="full">True if the batch reached the batch size, meaning the consumer has a backlog.</param>
+        /// <param name="lanesCongested">True if partitions are paused because their lanes are full.</param>
+        public void RecordRelease(bool full, bool lanesCongested)
+        {
+            Volatile.Write(ref this.hasBacklog, full || lanesCongested ? 1 : 0);
+        }
+
+        /// <summary>
+        /// Records the execution of a batch. Called by the lane readers.
+        /// </summary>
+        public void RecordExecution(int itemCount, TimeSpan elapsed)
+        {
+            if (itemCount <= 0)
+            {
+                return;
+            }
+
+            var elapsedMs = Math.Max(elapsed.TotalMilliseconds, 0.001);
+            var throughput = itemCount * 1000 / elapsedMs;
+            var backlog = Volatile.Read(ref this.hasBacklog) == 1;
+
+            lock (this.syncRoot)
+            {
+                this.smoothedLatencyMs = this.smoothedLatencyMs < 0 ? elapsedMs : (Smoothing * elapsedMs) + ((1 - Smoothing) * this.smoothedLatencyMs);
+                this.smoothedThroughput = this.smoothedThroughput < 0 ? throughput : (Smoothing * throughput) + ((1 - Smoothing) * this.smoothedThroughput);
+
+                var current = this.batchSize;
+                var step = Math.Max(1, current / 10);
+                int next;
+
+                if (this.targetLatencyMs > 0)
+                {
+                    if (this.smoothedLatencyMs > this.targetLatencyMs)
+                    {
+                        next = (int)(current * DecreaseFactor);
+                    }
+                    else if (backlog && this.smoothedLatencyMs < this.targetLatencyMs * IncreaseHeadroom)
+                    {
+                        next = current + step;
+                    }
+                    else
+                    {
+                        next = current;
+                    }
+                }
+                else
+                {
+                    if (!backlog)
+                    {
+                        // Partial batches say nothing about the throughput of larger ones
+                        return;
+                    }
+
+                    if (this.previousThroughput >= 0 && this.smoothedThroughput < this.previousThroughput * ThroughputTolerance)
+                    {
+                        this.direction = -this.direction;
+                    }
+
+                    this.previousThroughput = this.smoothedThroughput;
+                    next = current + (this.direction * step);
+                }
+
+                this.SetBatchSize(next);
+            }
+        }
+
+        private void SetBatchSize(int value)
+        {
+            var clamped = Math.Max(this.minBatchSize, Math.Min(this.maxBatchSize, value));
+            var interval = TimeSpan.FromTicks(this.maxReleaseInterval.Ticks * clamped / this.maxBatchSize);
+            if (interval < MinimumReleaseInterval)
+            {
+                interval = this.maxReleaseInterval < MinimumReleaseInterval ? this.maxReleaseInterval : MinimumReleaseInterval;
+            }
+
+            Interlocked.Exchange(ref this.releaseIntervalTicks, interval.Ticks);
+            Volatile.Write(ref this.batchSize, clamped);
+        }
+    }
+}
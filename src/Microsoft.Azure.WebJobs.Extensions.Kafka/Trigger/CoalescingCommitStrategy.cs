@@ -0,0 +1,222 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Threading;
+using Confluent.Kafka;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Commit strategy keeping only the highest pending offset per partition.
+    /// Pending offsets are stored (<see cref="IConsumer{TKey, TValue}.StoreOffset(TopicPartitionOffset)"/>) once the flush interval
+    /// elapses or the amount of received offsets reaches the flush threshold, autocommit then commits them.
+    /// Offsets of revoked partitions and the pending offsets at shutdown are committed synchronously.
+    /// </summary>
+    internal sealed class CoalescingCommitStrategy<TKey, TValue> : ICommitStrategy<TKey, TValue>, IDisposable
+    {
+        private readonly IConsumer<TKey, TValue> consumer;
+        private readonly string topic;
+        private readonly int flushThreshold;
+        private readonly ILogger logger;
+        private readonly Timer flushTimer;
+        // Serializes flushes, so offsets of a partition are always stored in increasing order
+        private readonly object flushLock = new object();
+        private readonly object pendingLock = new object();
+        private Dictionary<TopicPartition, long> pending = new Dictionary<TopicPartition, long>();
+        private Dictionary<TopicPartition, long> flushing = new Dictionary<TopicPartition, long>();
+        private int requestedSinceFlush;
+        private bool closed;
+
+        public CoalescingCommitStrategy(IConsumer<TKey, TValue> consumer, string topic, int flushIntervalMs, int flushThreshold, ILogger logger)
+        {
+            this.consumer = consumer ?? throw new ArgumentNullException(nameof(consumer));
+            this.topic = topic;
+            this.flushThreshold = flushThreshold;
+            this.logger = logger;
+            this.flushTimer = new Timer(_ => this.OnFlushTimer(), null, flushIntervalMs, flushIntervalMs);
+        }
+
+        public void Commit(IEnumerable<TopicPartitionOffset> topicPartitionOffsets)
+        {
+            var requested = 0;
+            var flush = false;
+            lock (this.pendingLock)
+            {
+                foreach (var tpo in topicPartitionOffsets)
+                {
+                    if (!this.pending.TryGetValue(tpo.TopicPartition, out var current) || tpo.Offset.Value > current)
+                    {
+                        this.pending[tpo.TopicPartition] = tpo.Offset.Value;
+                    }
+
+                    requested++;
+                }
+
+                this.requestedSinceFlush += requested;
+                flush = this.requestedSinceFlush >= this.flushThreshold;
+            }
+
+            KafkaEventInstrumentation.RecordCommitRequested(this.topic, requested);
+
+            if (flush)
+            {
+                this.Flush();
+            }
+        }
+
+        /// <summary>
+        /// Stores the pending offsets.
+        /// </summary>
+        public void Flush()
+        {
+            lock (this.flushLock)
+            {
+                int requested;
+                lock (this.pendingLock)
+                {
+                    if (this.pending.Count == 0 || this.closed)
+                    {
+                        return;
+                    }
+
+                    (this.pending, this.flushing) = (this.flushing, this.pending);
+                    requested = this.requestedSinceFlush;
+                    this.requestedSinceFlush = 0;
+                }
+
+                var start = Stopwatch.GetTimestamp();
+                var stored = 0;
+                foreach (var topicPartitionOffset in this.flushing)
+                {
+                    try
+                    {
+                        this.consumer.StoreOffset(new TopicPartitionOffset(topicPartitionOffset.Key, topicPartitionOffset.Value));
+                        stored++;
+                    }
+                    catch (KafkaException e)
+                    {
+                        // Partition no longer assigned
+                        this.logger.LogWarning(e, "Failed to store offset {topic} / {partition} / {offset}: {reason}", topicPartitionOffset.Key.Topic, topicPartitionOffset.Key.Partition, topicPartitionOffset.Value, e.Error.Reason);
+                    }
+                }
+
+                this.flushing.Clear();
+                KafkaEventInstrumentation.RecordOffsetsStored(this.topic, requested, stored, GetElapsedMilliseconds(start));
+                this.logger.LogDebug("Stored {stored} commit offsets coalesced from {requested}", stored, requested);
+            }
+        }
+
+        /// <summary>
+        /// Commits the final offsets of revoked partitions synchronously, replacing their pending offsets.
+        /// </summary>
+        public void CommitRevoked(IReadOnlyCollection<TopicPartitionOffset> finalOffsets)
+        {
+            lock (this.flushLock)
+            {
+                lock (this.pendingLock)
+                {
+                    foreach (var tpo in finalOffsets)
+                    {
+                        this.pending.Remove(tpo.TopicPartition);
+                    }
+                }
+
+                this.CommitSynchronously(finalOffsets);
+            }
+        }
+
+        /// <summary>
+        /// Drops the pending offsets of partitions that are no longer owned.
+        /// </summary>
+        public void Discard(IEnumerable<TopicPartition> partitions)
+        {
+            lock (this.flushLock)
+            {
+                lock (this.pendingLock)
+                {
+                    foreach (var topicPartition in partitions)
+                    {
+                        this.pending.Remove(topicPartition);
+                    }
+                }
+            }
+        }
+
+        /// <summary>
+        /// Stops flushing and commits the pending offsets synchronously. Called once the executions have stopped.
+        /// </summary>
+        public void Close()
+        {
+            this.flushTimer.Change(Timeout.Infinite, Timeout.Infinite);
+
+            lock (this.flushLock)
+            {
+                List<TopicPartitionOffset> offsets;
+                lock (this.pendingLock)
+                {
+                    if (this.closed)
+                    {
+                        return;
+                    }
+
+                    this.closed = true;
+                    offsets = new List<TopicPartitionOffset>(this.pending.Count);
+                    foreach (var topicPartitionOffset in this.pending)
+                    {
+                        offsets.Add(new TopicPartitionOffset(topicPartitionOffset.Key, topicPartitionOffset.Value));
+                    }
+
+                    this.pending.Clear();
+                    this.requestedSinceFlush = 0;
+                }
+
+                if (offsets.Count > 0)
+                {
+                    try
+                    {
+                        this.CommitSynchronously(offsets);
+                    }
+                    catch (KafkaException e)
+                    {
+                        this.logger.LogError(e, "Failed to commit offsets [{offsets}] on shutdown: {reason}", string.Join(", ", offsets), e.Error.Reason);
+                    }
+                }
+            }
+        }
+
+        private void CommitSynchronously(IReadOnlyCollection<TopicPartitionOffset> offsets)
+        {
+            var start = Stopwatch.GetTimestamp();
+            this.consumer.Commit(offsets);
+            KafkaEventInstrumentation.RecordSynchronousCommit(this.topic, GetElapsedMilliseconds(start));
+            this.logger.LogInformation("Committed offsets [{offsets}]", string.Join(", ", offsets));
+        }
+
+        private void OnFlushTimer()
+        {
+            try
+            {
+                this.Flush();
+            }
+            catch (Exception ex)
+            {
+                // Must not escape the timer thread
+                this.logger.LogError(ex, "Failed to store commit offsets");
+            }
+        }
+
+        private static double GetElapsedMilliseconds(long start)
+        {
+            return (Stopwatch.GetTimestamp() - start) * 1000.0 / Stopwatch.Frequency;
+        }
+
+        public void Dispose()
+        {
+            this.flushTimer.Dispose();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Globalization;
+using System.Text;
+using System.Threading.Tasks;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Publishes the messages a trigger could not handle to its dead-letter topic.
+    /// Messages keep their key, value and headers, headers describing the error and the original position are added.
+    /// Messages are produced through the pooled producers of <see cref="IKafkaProducerFactory"/>:
+    /// the messages of a call are produced together and the returned task completes once all are delivered.
+    /// </summary>
+    internal sealed class DeadLetterPublisher : IDisposable
+    {
+        internal const string ErrorHeader = "x-dead-letter-error";
+        internal const string ExceptionTypeHeader = "x-dead-letter-exception";
+        internal const string TopicHeader = "x-dead-letter-topic";
+        internal const string PartitionHeader = "x-dead-letter-partition";
+        internal const string OffsetHeader = "x-dead-letter-offset";
+
+        private readonly KafkaProducerEntity entity;
+        private readonly KafkaProducerEntity undecodedEntity;
+        private readonly object syncRoot = new object();
+        private IKafkaProducer producer;
+        private IKafkaProducer undecodedProducer;
+        private bool disposed;
+
+        /// <param name="entity">Producer of the dead-letter topic, with the key and value types of the trigger.</param>
+        public DeadLetterPublisher(KafkaProducerEntity entity)
+        {
+            this.entity = entity ?? throw new ArgumentNullException(nameof(entity));
+
+            // Messages that could not be deserialized are published as they were consumed
+            this.undecodedEntity = new KafkaProducerEntity()
+            {
+                KafkaProducerFactory = entity.KafkaProducerFactory,
+                KeyType = typeof(byte[]),
+                ValueType = typeof(byte[]),
+                Topic = entity.Topic,
+                Attribute = entity.Attribute,
+            };
+        }
+
+        public string Topic => this.entity.Topic;
+
+        /// <summary>
+        /// Publishes messages of a partition, completing once all of them are delivered.
+        /// <paramref name="error"/> is the error of the function execution, messages that could not be deserialized carry their own.
+        /// </summary>
+        public async Task PublishAsync(IReadOnlyList<IKafkaEventData> items, Exception error)
+        {
+            if (items.Count == 0)
+            {
+                return;
+            }
+
+            var deliveries = new Task[items.Count];
+            for (var i = 0; i < items.Count; i++)
+            {
+                var item = items[i];
+                if (item is UndecodedKafkaEventData undecoded)
+                {
+                    deliveries[i] = this.GetProducer(ref this.undecodedProducer, this.undecodedEntity).ProduceAsync(this.Topic, CreateDeadLetter(item, undecoded.Error));
+                }
+                else
+                {
+                    deliveries[i] = this.GetProducer(ref this.producer, this.entity).ProduceAsync(this.Topic, CreateDeadLetter(item, error));
+                }
+            }
+
+            // Produced without waiting for each other, the producer batches them
+            await Task.WhenAll(deliveries);
+            KafkaEventInstrumentation.RecordDeadLettered(items[0].Topic, items.Count);
+        }
+
+        private IKafkaProducer GetProducer(ref IKafkaProducer cached, KafkaProducerEntity producerEntity)
+        {
+            if (LaneTransaction.Current != null)
+            {
+                // Exactly-once: the dead letters are produced in the transaction of the lane, together with its offsets
+                return producerEntity.KafkaProducerFactory.Create(producerEntity);
+            }
+
+            lock (this.syncRoot)
+            {
+                if (this.disposed)
+                {
+                    throw new ObjectDisposedException(nameof(DeadLetterPublisher));
+                }
+
+                return cached ?? (cached = producerEntity.KafkaProducerFactory.Create(producerEntity));
+            }
+        }
+
+        internal static IKafkaEventData CreateDeadLetter(IKafkaEventData item, Exception error)
+        {
+            var deadLetter = new KafkaEventData<object>(item.Value)
+            {
+                Key = item.Key,
+            };
+
+            if (item.Headers != null)
+            {
+                foreach (var header in item.Headers)
+                {
+                    deadLetter.Headers.Add(header.Key, header.Value);
+                }
+            }
+
+            var cause = error?.GetBaseException();
+            deadLetter.Headers.Add(ErrorHeader, Encoding.UTF8.GetBytes(cause?.Message ?? "Function execution failed"));
+            if (cause != null)
+            {
+                deadLetter.Headers.Add(ExceptionTypeHeader, Encoding.UTF8.GetBytes(cause.GetType().FullName));
+            }
+
+            deadLetter.Headers.Add(TopicHeader, Encoding.UTF8.GetBytes(item.Topic));
+            deadLetter.Headers.Add(PartitionHeader, Encoding.UTF8.GetBytes(item.Partition.ToString(CultureInfo.InvariantCulture)));
+            deadLetter.Headers.Add(OffsetHeader, Encoding.UTF8.GetBytes(item.Offset.ToString(CultureInfo.InvariantCulture)));
+            return deadLetter;
+        }
+
+        public void Dispose()
+        {
+            lock (this.syncRoot)
+            {
+                if (this.disposed)
+                {
+                    return;
+                }
+
+                this.disposed = true;
+            }
+
+            // The typed producers are cached by the factory and shared with the other listeners of the trigger,
+            // only the pending dead letters of this publisher are flushed
+            this.producer?.Flush();
+            this.undecodedProducer?.Flush();
+        }
+    }
+}
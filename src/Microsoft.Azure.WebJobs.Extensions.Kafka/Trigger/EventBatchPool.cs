@@ -0,0 +1,93 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Pool of exact-length event arrays, used for lane batches that never reach the function.
+    /// Lane batches mostly repeat a few lengths (a full batch, or the messages of a partition in a full batch),
+    /// so arrays are kept per length. The amount of retained items is bounded.
+    /// Thread-safe: arrays are rented by the polling thread and returned by the lane readers.
+    /// </summary>
+    internal sealed class EventBatchPool
+    {
+        private readonly Dictionary<int, Stack<IKafkaEventData[]>> arraysByLength = new Dictionary<int, Stack<IKafkaEventData[]>>();
+        private readonly int maxArrayLength;
+        private readonly int maxRetainedItems;
+        private int retainedItems;
+
+        public EventBatchPool(int maxArrayLength, int maxRetainedItems)
+        {
+            this.maxArrayLength = maxArrayLength;
+            this.maxRetainedItems = maxRetainedItems;
+        }
+
+        /// <summary>
+        /// Amount of items held by the arrays in the pool.
+        /// </summary>
+        public int RetainedItems
+        {
+            get
+            {
+                lock (this.arraysByLength)
+                {
+                    return this.retainedItems;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Returns an array of exactly <paramref name="length"/> items.
+        /// </summary>
+        public IKafkaEventData[] Rent(int length)
+        {
+            if (length <= this.maxArrayLength)
+            {
+                lock (this.arraysByLength)
+                {
+                    if (this.arraysByLength.TryGetValue(length, out var arrays) && arrays.Count > 0)
+                    {
+                        this.retainedItems -= length;
+                        return arrays.Pop();
+                    }
+                }
+            }
+
+            return new IKafkaEventData[length];
+        }
+
+        /// <summary>
+        /// Gives an array back to the pool. The array must not be used afterwards.
+        /// </summary>
+        public void Return(IKafkaEventData[] array)
+        {
+            if (array.Length == 0 || array.Length > this.maxArrayLength)
+            {
+                return;
+            }
+
+            // Do not keep the messages alive while the array sits in the pool
+            Array.Clear(array, 0, array.Length);
+
+            lock (this.arraysByLength)
+            {
+                if (this.retainedItems + array.Length > this.maxRetainedItems)
+                {
+                    return;
+                }
+
+                if (!this.arraysByLength.TryGetValue(array.Length, out var arrays))
+                {
+                    arrays = new Stack<IKafkaEventData[]>();
+                    this.arraysByLength.Add(array.Length, arrays);
+                }
+
+                arrays.Push(array);
+                this.retainedItems += array.Length;
+            }
+        }
+    }
+}
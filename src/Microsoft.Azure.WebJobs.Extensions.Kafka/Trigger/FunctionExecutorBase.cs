@@ -4,8 +4,8 @@
 using System;
 using System.Collections.Concurrent;
 using System.Collections.Generic;
+using System.Linq;
 using System.Threading;
-using System.Threading.Channels;
 using System.Threading.Tasks;
 using Confluent.Kafka;
 using Microsoft.Azure.WebJobs.Host;
@@ -16,22 +16,35 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 {
 
     /// <summary>
-    /// Executes the functions for an specific partition.
+    /// Executes the functions, using one execution lane per assigned partition.
     /// </summary>
     public abstract class FunctionExecutorBase<TKey, TValue> : IDisposable
     {
         private readonly ITriggeredFunctionExecutor executor;
         private readonly IConsumer<TKey, TValue> consumer;
+        private readonly int channelCapacity;
         private readonly int channelFullRetryIntervalInMs;
         private readonly ICommitStrategy<TKey, TValue> commitStrategy;
+        private readonly OffsetTrackingCommitStrategy<TKey, TValue> offsetTrackingCommitStrategy;
         private readonly CancellationTokenSource functionExecutionCancellationTokenSource;
-        private readonly Channel<IKafkaEventData[]> channel;
+        private readonly ConcurrentDictionary<TopicPartition, PartitionLane> lanes = new ConcurrentDictionary<TopicPartition, PartitionLane>();
         private readonly List<IKafkaEventData> currentBatch;
+        // Estimated size of each pending item, the sizes are measured once when the items are consumed
+        private readonly List<long> currentBatchSizes = new List<long>();
+        private long currentBatchBytes;
+        // Reused by Flush to split the pending items by partition without allocating per item
+        private readonly Dictionary<(string Topic, int Partition), int> flushPartitionIndexes = new Dictionary<(string Topic, int Partition), int>();
+        private readonly List<int> flushPartitionCounts = new List<int>();
+        private readonly List<IKafkaEventData[]> flushPartitionItems = new List<IKafkaEventData[]>();
+        private readonly EventBatchPool laneBatchPool;
+        private readonly List<PartitionLane> pausedLanes = new List<PartitionLane>();
+        // Partitions to seek back after an aborted transaction, applied by the polling thread
+        private readonly ConcurrentQueue<TopicPartitionOffset> pendingRewinds = new ConcurrentQueue<TopicPartitionOffset>();
         protected readonly ILogger logger;
         private readonly IDrainModeManager drainModeManager;
-        private SemaphoreSlim readerFinished = new SemaphoreSlim(0, 1);
         protected readonly KafkaOptions options;
-        private readonly ConcurrentDictionary<string, int> retryCounters = new ConcurrentDictionary<string, int>();
+        // Shared by the retry delays of all lanes
+        private readonly TimerWheel retryTimerWheel = new TimerWheel(TimeSpan.FromMilliseconds(10), 1024);
 
         internal FunctionExecutorBase(
             ITriggeredFunctionExecutor executor,
@@ -45,55 +58,434 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         {
             this.executor = executor ?? throw new System.ArgumentNullException(nameof(executor));
             this.consumer = consumer ?? throw new System.ArgumentNullException(nameof(consumer));
+            this.channelCapacity = channelCapacity;
             this.channelFullRetryIntervalInMs = channelFullRetryIntervalInMs;
             this.commitStrategy = commitStrategy;
+            this.offsetTrackingCommitStrategy = new OffsetTrackingCommitStrategy<TKey, TValue>(commitStrategy);
             this.logger = logger;
             this.functionExecutionCancellationTokenSource = new CancellationTokenSource();
             this.currentBatch = new List<IKafkaEventData>();
             this.drainModeManager = drainModeManager;
             this.options = options ?? new KafkaOptions();
+            this.laneBatchPool = new EventBatchPool(this.options.MaxBatchSize, this.options.MaxBatchSize * Math.Max(channelCapacity, 1) * 2);
+            this.RevokedPartitionDrainTimeoutMs = this.options.RevokedPartitionDrainTimeoutMs;
+        }
+
+        /// <summary>
+        /// How long (ms) the rebalance callback waits for the executions in flight of revoked partitions,
+        /// <see cref="KafkaOptions.RevokedPartitionDrainTimeoutMs"/> unless the polling thread is shared with other triggers.
+        /// </summary>
+        internal int RevokedPartitionDrainTimeoutMs { get; set; }
+
+        /// <summary>
+        /// Creates the transaction of a new lane when exactly-once delivery is enabled, null otherwise.
+        /// </summary>
+        internal Func<TopicPartition, LaneTransaction> LaneTransactionFactory { get; set; }
+
+        /// <summary>
+        /// Publishes poison and undeserializable messages when the trigger has a dead-letter topic, null otherwise.
+        /// </summary>
+        internal DeadLetterPublisher DeadLetterPublisher { get; set; }
+
+        /// <summary>
+        /// Decodes the lane batches before they are executed when decoding runs off the polling thread, null otherwise.
+        /// </summary>
+        internal DeserializationPipeline<TKey, TValue> DeserializationPipeline { get; set; }
+
+        /// <summary>
+        /// True if the lane batches passed to <see cref="ProcessLaneItemsAsync"/> are taken from a pool
+        /// and must be given back with <see cref="ReturnLaneBatch"/> once processed (and committed).
+        /// Only executors whose lane batches do not escape to the function can pool them.
+        /// </summary>
+        private protected virtual bool PoolsLaneBatches => false;
+
+        /// <summary>
+        /// Gives a processed lane batch back to the pool. The batch must not be used afterwards.
+        /// </summary>
+        private protected void ReturnLaneBatch(IKafkaEventData[] items)
+        {
+            this.laneBatchPool.Return(items);
+        }
+
+        /// <summary>
+        /// Processes the items read from a partition lane.
+        /// Items always belong to the lane partition and are in offset order.
+        /// </summary>
+        /// <param name="lane">The partition lane.</param>
+        /// <param name="items">Items to execute.</param>
+        /// <param name="cancellationToken">Cancellation token indicating the lane is being torn down or the host is shutting down.</param>
+        private protected abstract Task ProcessLaneItemsAsync(PartitionLane lane, IKafkaEventData[] items, CancellationToken cancellationToken);
+
+        /// <summary>
+        /// Creates the lanes for newly assigned partitions.
+        /// </summary>
+        internal void OnPartitionsAssigned(IEnumerable<TopicPartition> partitions)
+        {
+            foreach (var topicPartition in partitions)
+            {
+                this.GetOrCreateLane(topicPartition);
+            }
+        }
+
+        /// <summary>
+        /// Tears down the lanes of revoked partitions, leaving the lanes of the other partitions untouched.
+        /// Executions in flight can complete within <see cref="RevokedPartitionDrainTimeoutMs"/>, then they are cancelled.
+        /// The offsets committed so far are committed synchronously, later completions are fenced out.
+        /// Messages not executed will be delivered to the new partition owner.
+        /// Must be called from the polling thread (rebalance callback).
+        /// </summary>
+        internal void OnPartitionsRevoked(IEnumerable<TopicPartition> partitions)
+        {
+            var revokedLanes = this.DetachLanes(partitions);
+            if (revokedLanes.Count == 0)
+            {
+                return;
+            }
+
+            this.DrainLanes(revokedLanes, this.RevokedPartitionDrainTimeoutMs, "revoked");
+        }
+
+        /// <summary>
+        /// Drain protocol of the trigger shutdown, must only be called once the polling thread has exited
+        /// (it tears down the pending batch and the lanes the polling thread writes to).
+        /// All lanes are torn down like revoked partitions: pending and queued batches are dropped, executions in flight
+        /// can complete within <paramref name="timeoutMs"/> before they are cancelled, and the offsets of the completed
+        /// executions are committed synchronously, so the consumer can leave the group right after.
+        /// Returns the number of in-flight messages abandoned.
+        /// </summary>
+        internal async Task<int> DrainAsync(int timeoutMs)
+        {
+            // Items not flushed to a lane were never executed
+            this.currentBatch.Clear();
+            this.currentBatchSizes.Clear();
+            this.currentBatchBytes = 0;
+
+            var drainingLanes = this.DetachLanes(this.lanes.Keys.ToArray());
+            if (drainingLanes.Count == 0)
+            {
+                return 0;
+            }
+
+            foreach (var lane in drainingLanes)
+            {
+                lane.Drain();
+            }
+
+            if (timeoutMs > 0)
+            {
+                // Awaited instead of blocking a thread, listeners of all triggers stop at the same time
+                var completions = Task.WhenAll(drainingLanes.Select(x => x.Completion));
+                using (var timeout = new CancellationTokenSource())
+                {
+                    if (await Task.WhenAny(completions, Task.Delay(timeoutMs, timeout.Token)) == completions)
+                    {
+                        timeout.Cancel();
+                    }
+                }
+
+                // Lane readers handle their own errors
+                _ = completions.Exception;
+            }
+
+            return this.ReleaseDrainedLanes(drainingLanes, timeoutMs, "stopping");
+        }
+
+        /// <summary>
+        /// Stops detached lanes after their batch in flight, cancelling it after <paramref name="timeoutMs"/>,
+        /// and synchronously commits the offsets they completed. Later completions are fenced out.
+        /// Returns the number of in-flight messages abandoned.
+        /// </summary>
+        private int DrainLanes(List<PartitionLane> drainingLanes, int timeoutMs, string reason)
+        {
+            foreach (var lane in drainingLanes)
+            {
+                lane.Drain();
+            }
+
+            if (timeoutMs > 0)
+            {
+                try
+                {
+                    Task.WaitAll(drainingLanes.Select(x => x.Completion).ToArray(), timeoutMs);
+                }
+                catch (AggregateException)
+                {
+                    // Lane readers handle their own errors
+                }
+            }
+
+            return this.ReleaseDrainedLanes(drainingLanes, timeoutMs, reason);
+        }
 
-            this.channel = Channel.CreateBounded<IKafkaEventData[]>(new BoundedChannelOptions(channelCapacity)
+        /// <summary>
+        /// Cancels and fences the drained lanes still running, then synchronously commits the offsets the lanes completed.
+        /// Returns the number of in-flight messages abandoned.
+        /// </summary>
+        private int ReleaseDrainedLanes(List<PartitionLane> drainingLanes, int timeoutMs, string reason)
+        {
+            var abandonedItems = 0;
+            var finalOffsets = new List<TopicPartitionOffset>(drainingLanes.Count);
+            foreach (var lane in drainingLanes)
             {
-                SingleReader = true,
-                SingleWriter = true,
-            });
+                if (!lane.Completion.IsCompleted)
+                {
+                    abandonedItems += lane.InFlightItems;
+                    this.logger.LogWarning("Executions of {reason} partition {topic} / {partition} did not complete in {timeout}ms, cancelling them", reason, lane.Topic, lane.Partition, timeoutMs);
+                }
+
+                lane.Cancel();
+                lock (lane.SyncRoot)
+                {
+                    lane.Fence();
+                }
+
+                this.offsetTrackingCommitStrategy.Reset(new TopicPartition(lane.Topic, lane.Partition));
+
+                // Offsets of transactional lanes are committed with their transaction
+                if (lane.Transaction == null && lane.CommittedOffset >= 0)
+                {
+                    finalOffsets.Add(new TopicPartitionOffset(lane.Topic, lane.Partition, lane.CommittedOffset));
+                }
+
+                this.CloseLane(lane);
+            }
 
-            Task.Run(async () =>
+            if (finalOffsets.Count > 0)
             {
                 try
                 {
-                    await this.ReaderAsync(this.channel.Reader, this.functionExecutionCancellationTokenSource.Token, this.logger);
+                    if (this.commitStrategy is CoalescingCommitStrategy<TKey, TValue> coalescingCommitStrategy)
+                    {
+                        // Replaces the offsets still pending in the strategy
+                        coalescingCommitStrategy.CommitRevoked(finalOffsets);
+                    }
+                    else
+                    {
+                        this.consumer.Commit(finalOffsets);
+                    }
+
+                    this.logger.LogInformation("Committed final offsets of {reason} partitions [{offsets}]", reason, string.Join(", ", finalOffsets));
+                }
+                catch (KafkaException e)
+                {
+                    this.logger.LogError(e, "Failed to commit final offsets of {reason} partitions [{offsets}]", reason, string.Join(", ", finalOffsets));
                 }
-                catch (Exception ex)
+            }
+
+            return abandonedItems;
+        }
+
+        /// <summary>
+        /// Tears down the lanes of lost partitions (e.g. session timed out). Partitions may already be owned by
+        /// another consumer, so executions are cancelled right away and nothing is committed.
+        /// Must be called from the polling thread (rebalance callback).
+        /// </summary>
+        internal void OnPartitionsLost(IEnumerable<TopicPartition> partitions)
+        {
+            foreach (var lane in this.DetachLanes(partitions))
+            {
+                lock (lane.SyncRoot)
+                {
+                    lane.Fence();
+                }
+
+                this.offsetTrackingCommitStrategy.Reset(new TopicPartition(lane.Topic, lane.Partition));
+                lane.Cancel();
+                this.CloseLane(lane);
+            }
+
+            // Offsets of lost partitions can no longer be committed by this member
+            (this.commitStrategy as CoalescingCommitStrategy<TKey, TValue>)?.Discard(partitions);
+        }
+
+        /// <summary>
+        /// Drops the pending items of the partitions and removes their lanes, returning the removed lanes.
+        /// </summary>
+        private List<PartitionLane> DetachLanes(IEnumerable<TopicPartition> partitions)
+        {
+            var detachedLanes = new List<PartitionLane>();
+            foreach (var topicPartition in partitions)
+            {
+                // Revocation runs on the polling thread, drop the pending items of the partition
+                this.RemovePendingItems(topicPartition);
+
+                if (this.lanes.TryRemove(topicPartition, out var lane))
                 {
-                    // Channel reader will throw OperationCanceledException if cancellation token is cancelled during a call
-                    if (!(ex is OperationCanceledException))
+                    if (lane.IsPaused)
                     {
-                        this.logger.LogError(ex, $"Function executor error while processing channel");
+                        lane.IsPaused = false;
+                        this.pausedLanes.Remove(lane);
+                        KafkaEventInstrumentation.RecordPartitionPaused(lane.Topic, lane.Partition, false);
                     }
+
+                    detachedLanes.Add(lane);
                 }
-                finally
+            }
+
+            return detachedLanes;
+        }
+
+        /// <summary>
+        /// Drops the pending items of a partition, keeping the estimated size of the pending items in sync.
+        /// </summary>
+        private void RemovePendingItems(TopicPartition topicPartition)
+        {
+            var kept = 0;
+            for (var i = 0; i < this.currentBatch.Count; i++)
+            {
+                var item = this.currentBatch[i];
+                if (item.Partition == topicPartition.Partition.Value && item.Topic == topicPartition.Topic)
                 {
-                    this.readerFinished.Release();
+                    this.currentBatchBytes -= this.currentBatchSizes[i];
+                    continue;
                 }
-            });
+
+                this.currentBatch[kept] = item;
+                this.currentBatchSizes[kept] = this.currentBatchSizes[i];
+                kept++;
+            }
+
+            this.currentBatch.RemoveRange(kept, this.currentBatch.Count - kept);
+            this.currentBatchSizes.RemoveRange(kept, this.currentBatchSizes.Count - kept);
+        }
+
+        private void CloseLane(PartitionLane lane)
+        {
+            lane.Completion.ContinueWith(_ => lane.Dispose(), TaskScheduler.Default);
+            this.logger.LogInformation("Closed execution lane for {topic} / {partition}", lane.Topic, lane.Partition);
+        }
+
+        private PartitionLane GetOrCreateLane(TopicPartition topicPartition)
+        {
+            if (this.lanes.TryGetValue(topicPartition, out var lane))
+            {
+                return lane;
+            }
+
+            lane = new PartitionLane(topicPartition.Topic, topicPartition.Partition.Value, this.channelCapacity, this.functionExecutionCancellationTokenSource.Token);
+            if (!this.lanes.TryAdd(topicPartition, lane))
+            {
+                lane.Dispose();
+                return this.lanes[topicPartition];
+            }
+
+            // Producer is only created once the lane executes
+            lane.Transaction = this.LaneTransactionFactory?.Invoke(topicPartition);
+
+            lane.Start(this.LaneReaderAsync);
+            this.logger.LogInformation("Opened execution lane for {topic} / {partition}", lane.Topic, lane.Partition);
+            return lane;
         }
 
         /// <summary>
-        /// Channel reader, executing the function once data is available in channel.
+        /// Lane reader, executing the function once data is available in the lane channel.
         /// </summary>
-        /// <param name="reader">The channel reader.</param>
-        /// <param name="cancellationToken">Cancellation token indicating the host is shutting down.</param>
-        /// <param name="logger">Logger.</param>
-        protected abstract Task ReaderAsync(ChannelReader<IKafkaEventData[]> reader, CancellationToken cancellationToken, ILogger logger);
+        private async Task LaneReaderAsync(PartitionLane lane)
+        {
+            var reader = lane.Reader;
+            var cancellationToken = lane.CancellationToken;
+            var transaction = lane.Transaction;
+
+            // Flows to the output bindings of the lane invocations
+            LaneTransaction.Current = transaction;
+
+            try
+            {
+                while (!cancellationToken.IsCancellationRequested && !lane.IsDraining && await reader.WaitToReadAsync(cancellationToken))
+                {
+                    while (!cancellationToken.IsCancellationRequested && !lane.IsDraining && lane.TryRead(out var itemsToExecute))
+                    {
+                        if (transaction != null)
+                        {
+                            itemsToExecute = this.SkipItemsBeforeRewind(lane, itemsToExecute);
+                            if (itemsToExecute == null)
+                            {
+                                continue;
+                            }
+
+                            transaction.BeginExecution(itemsToExecute[0].Offset);
+                        }
+
+                        if (this.DeserializationPipeline != null)
+                        {
+                            itemsToExecute = await this.DecodeItemsAsync(lane, itemsToExecute, cancellationToken);
+                            if (itemsToExecute == null)
+                            {
+                                continue;
+                            }
+                        }
+
+                        if (this.DeadLetterPublisher != null)
+                        {
+                            itemsToExecute = await this.DeadLetterUndecodedItemsAsync(lane, itemsToExecute);
+                            if (itemsToExecute == null)
+                            {
+                                continue;
+                            }
+                        }
+
+                        lane.SetInFlightItems(itemsToExecute.Length);
+                        try
+                        {
+                            await this.ProcessLaneItemsAsync(lane, itemsToExecute, cancellationToken);
+                        }
+                        catch (Exception ex)
+                        {
+                            this.logger.LogError(ex, $"Error in executor reader");
+                        }
+                        finally
+                        {
+                            lane.SetInFlightItems(0);
+                        }
+
+                        // A transaction spans the invocations until the lane is idle or the transaction is due
+                        if (transaction != null && !cancellationToken.IsCancellationRequested && (lane.QueuedBatches == 0 || transaction.IsDue))
+                        {
+                            this.CommitTransaction(lane);
+                        }
+                    }
+                }
+            }
+            catch (Exception ex)
+            {
+                // Channel reader will throw OperationCanceledException if cancellation token is cancelled during a call
+                if (!(ex is OperationCanceledException))
+                {
+                    this.logger.LogError(ex, $"Function executor error while processing channel");
+                }
+            }
+
+            if (transaction != null)
+            {
+                if (cancellationToken.IsCancellationRequested)
+                {
+                    // Executions were interrupted, their outputs must not be committed
+                    transaction.Abort();
+                }
+                else
+                {
+                    this.CommitTransaction(lane);
+                }
+
+                transaction.Close();
+            }
 
+            this.logger.LogInformation("Exiting reader {processName} for {topic} / {partition}", this.GetType().Name, lane.Topic, lane.Partition);
+        }
 
         protected void Commit(IEnumerable<TopicPartitionOffset> topicPartitionOffsets)
         {
             try
             {
                 this.commitStrategy.Commit(topicPartitionOffsets);
+
+                foreach (var topicPartitionOffset in topicPartitionOffsets)
+                {
+                    if (this.lanes.TryGetValue(topicPartitionOffset.TopicPartition, out var lane))
+                    {
+                        lane.AdvanceCommittedOffset(topicPartitionOffset.Offset.Value);
+                    }
+                }
             }
             catch (KafkaException e)
             {
@@ -101,50 +493,392 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             }
         }
 
+        /// <summary>
+        /// Commits offsets of the lane partition. Ignored once the lane is fenced (partition revoked),
+        /// so executions completing late never commit over the new partition owner.
+        /// </summary>
+        private protected void Commit(PartitionLane lane, IEnumerable<TopicPartitionOffset> topicPartitionOffsets)
+        {
+            lock (lane.SyncRoot)
+            {
+                if (lane.IsFenced)
+                {
+                    this.logger.LogDebug("Not committing offsets of revoked partition {topic} / {partition}", lane.Topic, lane.Partition);
+                    return;
+                }
+
+                if (lane.Transaction != null)
+                {
+                    // The commit cursor moves once the transaction commits
+                    foreach (var topicPartitionOffset in topicPartitionOffsets)
+                    {
+                        lane.Transaction.AddOffset(topicPartitionOffset.Offset.Value);
+                    }
+
+                    return;
+                }
+
+                try
+                {
+                    this.commitStrategy.Commit(topicPartitionOffsets);
+
+                    foreach (var topicPartitionOffset in topicPartitionOffsets)
+                    {
+                        lane.AdvanceCommittedOffset(topicPartitionOffset.Offset.Value);
+                    }
+                }
+                catch (KafkaException e)
+                {
+                    this.logger.LogError(e, $"Commit error: {e.Error.Reason}");
+                }
+            }
+        }
+
+        /// <summary>
+        /// Registers an offset that will complete out of order, see <see cref="CompleteOffset"/>.
+        /// Offsets of a lane must be tracked in order.
+        /// </summary>
+        private protected void TrackOffset(PartitionLane lane, long offset)
+        {
+            this.offsetTrackingCommitStrategy.Track(new TopicPartition(lane.Topic, lane.Partition), offset);
+        }
+
+        /// <summary>
+        /// Marks a tracked offset as completed, committing up to the lowest offset of the lane that has not completed.
+        /// </summary>
+        private protected void CompleteOffset(PartitionLane lane, long offset)
+        {
+            lock (lane.SyncRoot)
+            {
+                if (lane.IsFenced)
+                {
+                    return;
+                }
+
+                if (lane.Transaction != null)
+                {
+                    var watermark = this.offsetTrackingCommitStrategy.Advance(new TopicPartition(lane.Topic, lane.Partition), offset);
+                    if (watermark >= 0)
+                    {
+                        lane.Transaction.AddOffset(watermark);
+                    }
+
+                    return;
+                }
+
+                try
+                {
+                    var committedOffset = this.offsetTrackingCommitStrategy.Complete(new TopicPartition(lane.Topic, lane.Partition), offset);
+                    if (committedOffset >= 0)
+                    {
+                        lane.AdvanceCommittedOffset(committedOffset);
+                    }
+                }
+                catch (KafkaException e)
+                {
+                    this.logger.LogError(e, $"Commit error: {e.Error.Reason}");
+                }
+            }
+        }
+
+        /// <summary>
+        /// Commits the open transaction of a lane. If the transaction aborts, its outputs are discarded and the consumer
+        /// is rewound to the first offset executed in it, so those messages are executed again.
+        /// </summary>
+        private void CommitTransaction(PartitionLane lane)
+        {
+            var transaction = lane.Transaction;
+            var firstOffset = transaction.FirstOffset;
+
+            lock (lane.SyncRoot)
+            {
+                if (lane.IsFenced)
+                {
+                    transaction.Abort();
+                    return;
+                }
+
+                try
+                {
+                    var committedOffset = transaction.Commit();
+                    if (committedOffset >= 0)
+                    {
+                        lane.AdvanceCommittedOffset(committedOffset);
+                    }
+                }
+                catch (KafkaException)
+                {
+                    if (firstOffset >= 0)
+                    {
+                        this.Rewind(lane, firstOffset);
+                    }
+                }
+            }
+        }
+
+        private void Rewind(PartitionLane lane, long offset)
+        {
+            // Batches fetched before the seek are dropped until the consumer delivers the offset again
+            lane.SetRewindOffset(offset);
+            this.pendingRewinds.Enqueue(new TopicPartitionOffset(lane.Topic, lane.Partition, offset));
+            this.logger.LogWarning("Transaction of {topic} / {partition} aborted, executing again from offset {offset}", lane.Topic, lane.Partition, offset);
+        }
+
+        /// <summary>
+        /// Seeks the partitions whose transaction aborted back to the first offset executed in it.
+        /// Must be called from the polling thread.
+        /// </summary>
+        internal void SeekRewoundPartitions()
+        {
+            while (this.pendingRewinds.TryDequeue(out var topicPartitionOffset))
+            {
+                if (!this.lanes.ContainsKey(topicPartitionOffset.TopicPartition))
+                {
+                    // Revoked in the meantime, the next owner resumes from the committed offset
+                    continue;
+                }
+
+                try
+                {
+                    this.consumer.Seek(topicPartitionOffset);
+                }
+                catch (KafkaException e)
+                {
+                    this.logger.LogError(e, "Failed to rewind {topic} / {partition} to offset {offset}", topicPartitionOffset.Topic, topicPartitionOffset.Partition.Value, topicPartitionOffset.Offset.Value);
+                }
+            }
+        }
+
+        /// <summary>
+        /// Drops the items of a rewinding lane that precede the rewind offset.
+        /// Returns null if the whole batch was dropped.
+        /// </summary>
+        private IKafkaEventData[] SkipItemsBeforeRewind(PartitionLane lane, IKafkaEventData[] items)
+        {
+            var rewindOffset = lane.RewindOffset;
+            if (rewindOffset < 0)
+            {
+                return items;
+            }
+
+            var start = -1;
+            for (var i = 0; i < items.Length; i++)
+            {
+                if (items[i].Offset == rewindOffset)
+                {
+                    start = i;
+                    break;
+                }
+            }
+
+            if (start == 0)
+            {
+                lane.SetRewindOffset(-1);
+                return items;
+            }
+
+            IKafkaEventData[] remaining = null;
+            if (start > 0)
+            {
+                lane.SetRewindOffset(-1);
+                remaining = new IKafkaEventData[items.Length - start];
+                Array.Copy(items, start, remaining, 0, remaining.Length);
+            }
+
+            if (this.PoolsLaneBatches)
+            {
+                this.ReturnLaneBatch(items);
+            }
+
+            return remaining;
+        }
+
+        /// <summary>
+        /// Forgets the offsets tracked for a lane.
+        /// </summary>
+        private protected void ResetTrackedOffsets(PartitionLane lane)
+        {
+            this.offsetTrackingCommitStrategy.Reset(new TopicPartition(lane.Topic, lane.Partition));
+        }
+
         /// <summary>
         /// Adds an item, returning the current pending amount.
         /// </summary>
-        internal int Add(IKafkaEventData kafkaEventData)
+        internal int Add(IKafkaEventData kafkaEventData) => this.Add(kafkaEventData, 0);
+
+        /// <summary>
+        /// Adds an item with its estimated size in bytes, returning the current pending amount.
+        /// </summary>
+        internal int Add(IKafkaEventData kafkaEventData, long size)
         {
             this.currentBatch.Add(kafkaEventData);
+            this.currentBatchSizes.Add(size);
+            this.currentBatchBytes += size;
             return this.currentBatch.Count;
         }
 
         /// <summary>
-        /// Sends the items in queue to function execution pipeline.
+        /// Estimated size in bytes of the pending items, see <see cref="KafkaRecordSizeEstimator"/>.
+        /// </summary>
+        internal long CurrentBatchBytes => this.currentBatchBytes;
+
+        /// <summary>
+        /// Sends the items in queue to the lanes of their partitions.
+        /// Partitions whose lane is full are paused in the consumer, see <see cref="ResumeDrainedPartitions"/>.
         /// </summary>
-        internal void Flush(CancellationToken cancellationToken)
+        internal void Flush()
         {
             if (this.currentBatch.Count == 0)
             {
                 return;
             }
 
-            var items = this.currentBatch.ToArray();
+            this.currentBatchBytes = 0;
+
+            // Count the items of each partition, in order of first appearance
+            foreach (var item in this.currentBatch)
+            {
+                if (!this.flushPartitionIndexes.TryGetValue((item.Topic, item.Partition), out var index))
+                {
+                    index = this.flushPartitionCounts.Count;
+                    this.flushPartitionIndexes.Add((item.Topic, item.Partition), index);
+                    this.flushPartitionCounts.Add(0);
+                }
+
+                this.flushPartitionCounts[index]++;
+            }
+
+            for (var i = 0; i < this.flushPartitionCounts.Count; i++)
+            {
+                var count = this.flushPartitionCounts[i];
+                this.flushPartitionItems.Add(this.PoolsLaneBatches ? this.laneBatchPool.Rent(count) : new IKafkaEventData[count]);
+                this.flushPartitionCounts[i] = 0;
+            }
+
+            // Copying in batch order keeps offsets ordered inside each lane batch
+            foreach (var item in this.currentBatch)
+            {
+                var index = this.flushPartitionIndexes[(item.Topic, item.Partition)];
+                this.flushPartitionItems[index][this.flushPartitionCounts[index]++] = item;
+            }
+
             this.currentBatch.Clear();
+            this.currentBatchSizes.Clear();
+            this.flushPartitionIndexes.Clear();
+            this.flushPartitionCounts.Clear();
+
+            for (var i = 0; i < this.flushPartitionItems.Count; i++)
+            {
+                var items = this.flushPartitionItems[i];
+                this.WriteToLane(new TopicPartition(items[0].Topic, items[0].Partition), items);
+            }
+
+            this.flushPartitionItems.Clear();
+        }
+
+        /// <summary>
+        /// True if any partition is paused because its lane is full.
+        /// </summary>
+        internal bool HasPausedPartitions => this.pausedLanes.Count > 0;
 
-            var loggedWaitingForFunction = false;
+        /// <summary>
+        /// How often the polling thread should check if paused partitions can be resumed.
+        /// </summary>
+        internal TimeSpan PausedPartitionsCheckInterval => TimeSpan.FromMilliseconds(this.channelFullRetryIntervalInMs);
 
+        /// <summary>
+        /// Moves pending batches of paused partitions to their lanes and resumes the partitions
+        /// whose lane drained to <see cref="KafkaOptions.ExecutorChannelLowWaterMark"/>.
+        /// Must be called from the polling thread.
+        /// </summary>
+        internal void ResumeDrainedPartitions()
+        {
+            if (this.pausedLanes.Count == 0)
+            {
+                return;
+            }
 
-            while (!cancellationToken.IsCancellationRequested)
+            var lowWaterMark = Math.Min(this.options.ExecutorChannelLowWaterMark, this.channelCapacity - 1);
+            List<TopicPartition> partitionsToResume = null;
+            for (var i = this.pausedLanes.Count - 1; i >= 0; i--)
             {
-                if (channel.Writer.TryWrite(items))
+                var lane = this.pausedLanes[i];
+                if (lane.TryDrainOverflow() && lane.QueuedBatches <= lowWaterMark && !lane.IsBackingOff)
                 {
-                    break;
+                    lane.IsPaused = false;
+                    this.pausedLanes.RemoveAt(i);
+                    KafkaEventInstrumentation.RecordPartitionPaused(lane.Topic, lane.Partition, false);
+
+                    partitionsToResume = partitionsToResume ?? new List<TopicPartition>();
+                    partitionsToResume.Add(new TopicPartition(lane.Topic, lane.Partition));
                 }
+            }
 
-                if (!loggedWaitingForFunction)
+            if (partitionsToResume != null)
+            {
+                try
                 {
-                    this.logger.LogInformation("Channel {topic} / {partition} / {offset} is full, waiting for the function execution to catch up",
-                           items[0].Topic,
-                           items[0].Partition,
-                           items[0].Offset);
-
-                    loggedWaitingForFunction = true;
+                    this.consumer.Resume(partitionsToResume);
+                    this.logger.LogInformation("Resumed partitions [{partitions}], function execution caught up", string.Join(", ", partitionsToResume));
                 }
+                catch (KafkaException e)
+                {
+                    this.logger.LogError(e, "Failed to resume partitions [{partitions}]", string.Join(", ", partitionsToResume));
+                }
+            }
+        }
+
+        /// <summary>
+        /// Forgets the paused partitions once the polling thread stops.
+        /// </summary>
+        internal void ReleasePausedPartitions()
+        {
+            foreach (var lane in this.pausedLanes)
+            {
+                lane.IsPaused = false;
+                KafkaEventInstrumentation.RecordPartitionPaused(lane.Topic, lane.Partition, false);
+            }
+
+            this.pausedLanes.Clear();
+        }
+
+        private void WriteToLane(TopicPartition topicPartition, IKafkaEventData[] items)
+        {
+            var lane = this.GetOrCreateLane(topicPartition);
+            var written = lane.Write(items);
+            if (lane.IsPaused || (written && !lane.IsBackingOff))
+            {
+                return;
+            }
+
+            // Lane is full or waiting to retry: stop fetching the partition instead of blocking the polling thread,
+            // so the consumer keeps polling and stays in the group
+            if (written)
+            {
+                this.logger.LogInformation("Partition {topic} / {partition} is waiting to retry a failed execution, pausing the partition until the retry",
+                    lane.Topic,
+                    lane.Partition);
+            }
+            else
+            {
+                this.logger.LogInformation("Channel {topic} / {partition} / {offset} is full, pausing the partition until the function execution catches up",
+                    items[0].Topic,
+                    items[0].Partition,
+                    items[0].Offset);
+            }
 
-                Thread.Sleep(this.channelFullRetryIntervalInMs);
+            try
+            {
+                this.consumer.Pause(new[] { topicPartition });
             }
+            catch (KafkaException e)
+            {
+                this.logger.LogError(e, "Failed to pause partition {topic} / {partition}", lane.Topic, lane.Partition);
+            }
+
+            lane.IsPaused = true;
+            this.pausedLanes.Add(lane);
+            KafkaEventInstrumentation.RecordPartitionPaused(lane.Topic, lane.Partition, true);
         }
 
         protected Task<FunctionResult> ExecuteFunctionAsync(TriggeredFunctionData triggerData, CancellationToken cancellationToken)
@@ -153,28 +887,191 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         }
 
         /// <summary>
-        /// Increments the retry counter for the given offset and checks if max retries has been exceeded.
-        /// If maxRetries is -1 (unlimited), always returns false without incrementing.
+        /// True if the failed attempt exceeds <see cref="KafkaOptions.MaxRetries"/>. Attempts start at 1.
         /// </summary>
-        protected bool IncrementRetryAndCheckExceeded(string topic, int partition, long offset)
+        protected bool IsRetryLimitExceeded(int attempt)
         {
-            if (this.options.MaxRetries < 0)
+            return this.options.MaxRetries >= 0 && attempt > this.options.MaxRetries;
+        }
+
+        /// <summary>
+        /// Delay before retrying the failed attempt, doubling from <see cref="KafkaOptions.RetryInitialDelayMs"/> up to <see cref="KafkaOptions.RetryMaxDelayMs"/>.
+        /// </summary>
+        protected TimeSpan GetRetryDelay(int attempt)
+        {
+            return GetRetryDelay(attempt, this.options.RetryInitialDelayMs, this.options.RetryMaxDelayMs);
+        }
+
+        internal static TimeSpan GetRetryDelay(int attempt, int initialDelayMs, int maxDelayMs)
+        {
+            if (attempt <= 0 || initialDelayMs <= 0)
             {
-                return false;
+                return TimeSpan.Zero;
             }
 
-            var key = $"{topic}/{partition}/{offset}";
-            var count = this.retryCounters.AddOrUpdate(key, 1, (_, c) => c + 1);
-            return count > this.options.MaxRetries;
+            var delayMs = (long)initialDelayMs << Math.Min(attempt - 1, 30);
+            return TimeSpan.FromMilliseconds(Math.Min(delayMs, maxDelayMs));
         }
 
         /// <summary>
-        /// Clears the retry counter for a successfully processed offset.
+        /// Decodes the messages of the batch captured by the <see cref="DeserializationPipeline"/>.
+        /// Messages that cannot be decoded are kept for the dead-letter topic if there is one, dropped otherwise.
+        /// Returns the messages left to execute, or null if none is left.
         /// </summary>
-        protected void ClearRetryCounter(string topic, int partition, long offset)
+        private async Task<IKafkaEventData[]> DecodeItemsAsync(PartitionLane lane, IKafkaEventData[] items, CancellationToken cancellationToken)
         {
-            var key = $"{topic}/{partition}/{offset}";
-            this.retryCounters.TryRemove(key, out _);
+            // Entries of dropped messages are cleared by the pipeline
+            var lastOffset = items[items.Length - 1].Offset;
+            var decoded = await this.DeserializationPipeline.DecodeAsync(items, this.DeadLetterPublisher != null, cancellationToken);
+            if (decoded == items)
+            {
+                return items;
+            }
+
+            if (decoded == null)
+            {
+                // Nothing left to execute, the dropped messages must not be fetched again
+                this.Commit(lane, new[] { new TopicPartitionOffset(lane.Topic, lane.Partition, lastOffset + 1) });
+            }
+
+            if (this.PoolsLaneBatches)
+            {
+                this.ReturnLaneBatch(items);
+            }
+
+            return decoded;
+        }
+
+        /// <summary>
+        /// Publishes the messages of the batch that could not be deserialized to the dead-letter topic.
+        /// Returns the messages left to execute, or null if none is left.
+        /// </summary>
+        private async Task<IKafkaEventData[]> DeadLetterUndecodedItemsAsync(PartitionLane lane, IKafkaEventData[] items)
+        {
+            List<IKafkaEventData> undecoded = null;
+            foreach (var item in items)
+            {
+                if (item is UndecodedKafkaEventData)
+                {
+                    undecoded = undecoded ?? new List<IKafkaEventData>();
+                    undecoded.Add(item);
+                }
+            }
+
+            if (undecoded == null)
+            {
+                return items;
+            }
+
+            // Published before any offset of the batch is committed
+            IKafkaEventData[] remaining = null;
+            if (await this.DeadLetterAsync(lane, undecoded, null))
+            {
+                if (undecoded.Count < items.Length)
+                {
+                    remaining = new IKafkaEventData[items.Length - undecoded.Count];
+                    var index = 0;
+                    foreach (var item in items)
+                    {
+                        if (!(item is UndecodedKafkaEventData))
+                        {
+                            remaining[index++] = item;
+                        }
+                    }
+                }
+                else
+                {
+                    this.Commit(lane, new[] { new TopicPartitionOffset(lane.Topic, lane.Partition, items[items.Length - 1].Offset + 1) });
+                }
+            }
+
+            if (this.PoolsLaneBatches)
+            {
+                this.ReturnLaneBatch(items);
+            }
+
+            return remaining;
+        }
+
+        /// <summary>
+        /// Publishes messages of the lane to the dead-letter topic, waiting for their delivery.
+        /// Delivery failures are retried with the retry backoff, so the offsets are only committed once the messages are published.
+        /// Returns false if the lane was revoked or cancelled first, the offsets must then not be committed.
+        /// </summary>
+        private protected async Task<bool> DeadLetterAsync(PartitionLane lane, IReadOnlyList<IKafkaEventData> items, Exception error)
+        {
+            var attempt = 0;
+            while (true)
+            {
+                try
+                {
+                    await this.DeadLetterPublisher.PublishAsync(items, error);
+                    this.logger.LogWarning("Published {count} messages of {topic} / {partition} from offset {offset} to dead-letter topic {deadLetterTopic}",
+                        items.Count,
+                        lane.Topic,
+                        lane.Partition,
+                        items[0].Offset,
+                        this.DeadLetterPublisher.Topic);
+                    return true;
+                }
+                catch (KafkaException ex)
+                {
+                    var delay = this.GetRetryDelay(++attempt);
+                    this.logger.LogError(ex, "Failed to publish {count} messages of {topic} / {partition} to dead-letter topic {deadLetterTopic}, retrying in {delay}ms (attempt {attempt})",
+                        items.Count,
+                        lane.Topic,
+                        lane.Partition,
+                        this.DeadLetterPublisher.Topic,
+                        (long)delay.TotalMilliseconds,
+                        attempt);
+
+                    if (!await this.WaitBeforeRetryAsync(lane, delay))
+                    {
+                        return false;
+                    }
+                }
+                catch (Exception ex) when (!(ex is OperationCanceledException))
+                {
+                    // Not a delivery failure (e.g. the message cannot be serialized again), retrying would stall the partition
+                    this.logger.LogError(ex, "Cannot publish {count} messages of {topic} / {partition} from offset {offset} to dead-letter topic {deadLetterTopic}, the messages are skipped",
+                        items.Count,
+                        lane.Topic,
+                        lane.Partition,
+                        items[0].Offset,
+                        this.DeadLetterPublisher.Topic);
+                    return true;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Waits before retrying a failed execution of the lane, without holding a thread. The partition is paused while waiting.
+        /// Returns false if the lane was revoked or cancelled in the meantime, the messages must then not be committed.
+        /// </summary>
+        private protected async Task<bool> WaitBeforeRetryAsync(PartitionLane lane, TimeSpan delay)
+        {
+            var cancellationToken = lane.RetryCancellationToken;
+            KafkaEventInstrumentation.RecordRetry(lane.Topic);
+
+            lane.BeginBackoff();
+            try
+            {
+                await this.retryTimerWheel.Delay(delay, cancellationToken);
+            }
+            catch (OperationCanceledException)
+            {
+                // lane revoked or executor closing
+            }
+            catch (ObjectDisposedException)
+            {
+                // executor disposed
+            }
+            finally
+            {
+                lane.EndBackoff();
+            }
+
+            return !cancellationToken.IsCancellationRequested;
         }
 
         bool isClosed = false;
@@ -187,16 +1084,25 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
             try
             {
-
-                if (!drainModeManager.IsDrainModeEnabled)
+                if (this.drainModeManager?.IsDrainModeEnabled != true)
                 {
                     functionExecutionCancellationTokenSource.Cancel();
                 }
 
-                this.channel.Writer.Complete();
+                var closingLanes = this.lanes.Values.ToArray();
+                foreach (var lane in closingLanes)
+                {
+                    lane.Complete();
+                }
 
-                if (await this.readerFinished.WaitAsync(TimeSpan.FromSeconds(300)))
+                var allLanesFinished = Task.WhenAll(closingLanes.Select(x => x.Completion));
+                if (await Task.WhenAny(allLanesFinished, Task.Delay(TimeSpan.FromSeconds(300))) == allLanesFinished)
                 {
+                    foreach (var lane in closingLanes)
+                    {
+                        lane.Dispose();
+                    }
+
                     this.isClosed = true;
                     return true;
                 }
@@ -212,6 +1118,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         public void Dispose()
         {
             this.CloseAsync().GetAwaiter().GetResult();
+            this.retryTimerWheel.Dispose();
             GC.SuppressFinalize(this);
         }
     }
@@ -0,0 +1,62 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System.Collections.Generic;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Compares Kafka message keys.
+    /// Byte array keys are compared by content, other keys use their own equality.
+    /// </summary>
+    internal sealed class KafkaEventKeyComparer : IEqualityComparer<object>
+    {
+        public static readonly KafkaEventKeyComparer Instance = new KafkaEventKeyComparer();
+
+        private KafkaEventKeyComparer()
+        {
+        }
+
+        public new bool Equals(object x, object y)
+        {
+            if (x is byte[] xBytes && y is byte[] yBytes)
+            {
+                if (xBytes.Length != yBytes.Length)
+                {
+                    return false;
+                }
+
+                for (var i = 0; i < xBytes.Length; i++)
+                {
+                    if (xBytes[i] != yBytes[i])
+                    {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+
+            return object.Equals(x, y);
+        }
+
+        public int GetHashCode(object obj)
+        {
+            if (obj is byte[] bytes)
+            {
+                unchecked
+                {
+                    var hash = (int)2166136261;
+                    for (var i = 0; i < bytes.Length; i++)
+                    {
+                        hash = (hash ^ bytes[i]) * 16777619;
+                    }
+
+                    return hash;
+                }
+            }
+
+            return obj?.GetHashCode() ?? 0;
+        }
+    }
+}
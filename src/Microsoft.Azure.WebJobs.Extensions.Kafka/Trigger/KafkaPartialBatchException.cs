@@ -0,0 +1,216 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Globalization;
+using System.Linq;
+using System.Reflection;
+using System.Text.RegularExpressions;
+using Microsoft.Azure.WebJobs.Host;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Thrown by a batch function (Cardinality.Many) to report which records of the batch failed.
+    /// The records before the first failed one are committed and only the failed records are executed again.
+    /// Functions running out of process can report the same by failing with an error message containing
+    /// <c>kafka-failed-indexes=3,7</c> or <c>kafka-first-failed-index=3</c>.
+    /// </summary>
+    public class KafkaPartialBatchException : Exception
+    {
+        internal const string FirstFailedIndexMarker = "kafka-first-failed-index=";
+        internal const string FailedIndexesMarker = "kafka-failed-indexes=";
+
+        private static readonly Regex MarkerRegex = new Regex(
+            @"kafka-(first-failed-index|failed-indexes)=(\d+(?:\s*,\s*\d+)*)",
+            RegexOptions.CultureInvariant);
+
+        /// <summary>
+        /// Reports that the record at <paramref name="firstFailedIndex"/> and all records after it failed.
+        /// </summary>
+        public KafkaPartialBatchException(int firstFailedIndex)
+            : this(firstFailedIndex, null)
+        {
+        }
+
+        /// <summary>
+        /// Reports that the record at <paramref name="firstFailedIndex"/> and all records after it failed.
+        /// </summary>
+        public KafkaPartialBatchException(int firstFailedIndex, Exception innerException)
+            : base(null, innerException)
+        {
+            if (firstFailedIndex < 0)
+            {
+                throw new ArgumentOutOfRangeException(nameof(firstFailedIndex), "Index must be greater than or equal to 0.");
+            }
+
+            this.FirstFailedIndex = firstFailedIndex;
+        }
+
+        /// <summary>
+        /// Reports the indexes of the failed records, the other records of the batch succeeded.
+        /// </summary>
+        public KafkaPartialBatchException(IEnumerable<int> failedIndexes)
+            : this(failedIndexes, null)
+        {
+        }
+
+        /// <summary>
+        /// Reports the indexes of the failed records, the other records of the batch succeeded.
+        /// </summary>
+        public KafkaPartialBatchException(IEnumerable<int> failedIndexes, Exception innerException)
+            : base(null, innerException)
+        {
+            if (failedIndexes == null)
+            {
+                throw new ArgumentNullException(nameof(failedIndexes));
+            }
+
+            var indexes = failedIndexes.Distinct().OrderBy(x => x).ToArray();
+            if (indexes.Length == 0)
+            {
+                throw new ArgumentException("At least one failed index is required.", nameof(failedIndexes));
+            }
+
+            if (indexes[0] < 0)
+            {
+                throw new ArgumentOutOfRangeException(nameof(failedIndexes), "Indexes must be greater than or equal to 0.");
+            }
+
+            this.FirstFailedIndex = indexes[0];
+            this.FailedIndexes = indexes;
+        }
+
+        /// <summary>
+        /// Index of the first failed record in the batch.
+        /// </summary>
+        public int FirstFailedIndex { get; }
+
+        /// <summary>
+        /// Indexes of the failed records in ascending order, null if all records from <see cref="FirstFailedIndex"/> failed.
+        /// </summary>
+        public IReadOnlyList<int> FailedIndexes { get; }
+
+        public override string Message => this.FailedIndexes == null
+            ? $"Batch failed from record {this.FirstFailedIndex} ({FirstFailedIndexMarker}{this.FirstFailedIndex.ToString(CultureInfo.InvariantCulture)})"
+            : $"Batch failed on {this.FailedIndexes.Count} records ({FailedIndexesMarker}{string.Join(",", this.FailedIndexes.Select(x => x.ToString(CultureInfo.InvariantCulture)))})";
+
+        /// <summary>
+        /// Finds the failed records reported by a batch execution error, either as a <see cref="KafkaPartialBatchException"/>
+        /// or as a message marker of an out of process worker.
+        /// Returns false if the error does not report them, or reports indexes outside the batch.
+        /// </summary>
+        internal static bool TryGetFailedIndexes(Exception error, int batchSize, out IReadOnlyList<int> failedIndexes)
+        {
+            failedIndexes = null;
+
+            var partialBatchException = FindPartialBatchException(error);
+            if (partialBatchException != null)
+            {
+                failedIndexes = partialBatchException.FailedIndexes ?? Range(partialBatchException.FirstFailedIndex, batchSize);
+            }
+            else
+            {
+                // Only the error raised by the function carries the marker, messages of the exceptions it wraps are not parsed
+                var functionError = GetFunctionError(error);
+                if (functionError != null)
+                {
+                    TryParse(functionError.Message, batchSize, out failedIndexes);
+                }
+            }
+
+            if (failedIndexes == null || failedIndexes.Count == 0 || failedIndexes[failedIndexes.Count - 1] >= batchSize)
+            {
+                failedIndexes = null;
+                return false;
+            }
+
+            return true;
+        }
+
+        /// <summary>
+        /// Finds a <see cref="KafkaPartialBatchException"/> in the error or the exceptions it wraps.
+        /// </summary>
+        private static KafkaPartialBatchException FindPartialBatchException(Exception error)
+        {
+            var pending = new Queue<Exception>();
+            if (error != null)
+            {
+                pending.Enqueue(error);
+            }
+
+            // Function errors are wrapped by the host (FunctionInvocationException, AggregateException)
+            while (pending.Count > 0)
+            {
+                var current = pending.Dequeue();
+                if (current is KafkaPartialBatchException partialBatchException)
+                {
+                    return partialBatchException;
+                }
+
+                if (current is AggregateException aggregateException)
+                {
+                    foreach (var inner in aggregateException.InnerExceptions)
+                    {
+                        pending.Enqueue(inner);
+                    }
+                }
+                else if (current.InnerException != null)
+                {
+                    pending.Enqueue(current.InnerException);
+                }
+            }
+
+            return null;
+        }
+
+        /// <summary>
+        /// Returns the error raised by the function (the RpcException of an out of process worker), unwrapping the host exceptions around it.
+        /// </summary>
+        private static Exception GetFunctionError(Exception error)
+        {
+            while (error?.InnerException != null
+                && (error is FunctionInvocationException
+                    || error is TargetInvocationException
+                    || (error is AggregateException aggregateException && aggregateException.InnerExceptions.Count == 1)))
+            {
+                error = error.InnerException;
+            }
+
+            return error;
+        }
+
+        private static bool TryParse(string message, int batchSize, out IReadOnlyList<int> failedIndexes)
+        {
+            failedIndexes = null;
+
+            var match = message == null ? Match.Empty : MarkerRegex.Match(message);
+            if (!match.Success)
+            {
+                return false;
+            }
+
+            var indexes = new SortedSet<int>();
+            foreach (var value in match.Groups[2].Value.Split(','))
+            {
+                if (!int.TryParse(value.Trim(), NumberStyles.None, CultureInfo.InvariantCulture, out var index))
+                {
+                    return false;
+                }
+
+                indexes.Add(index);
+            }
+
+            failedIndexes = match.Groups[1].Value == "first-failed-index"
+                ? Range(indexes.Min, batchSize)
+                : indexes.ToArray();
+            return true;
+        }
+
+        private static IReadOnlyList<int> Range(int start, int batchSize)
+        {
+            return start < batchSize ? Enumerable.Range(start, batchSize - start).ToArray() : new[] { start };
+        }
+    }
+}
@@ -152,6 +152,14 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         /// </summary>
         public long LagThreshold { get => lagThreshold.GetValueOrDefault(1000L); set => lagThreshold = value; }
 
+        /// <summary>
+        /// Gets or sets the dead-letter topic.
+        /// Messages that cannot be deserialized, and messages still failing once MaxRetries is exceeded, are published to it
+        /// on the trigger broker (with the original key, value and headers) before their offset is committed.
+        /// Not set by default: such messages are skipped.
+        /// </summary>
+        public string DeadLetterTopic { get; set; }
+
         /// <summary>
         /// URL for the Avro Schema Registry
         /// </summary>
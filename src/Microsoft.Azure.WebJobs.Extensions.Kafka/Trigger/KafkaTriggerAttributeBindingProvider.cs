@@ -26,6 +26,9 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         private readonly IOptions<KafkaOptions> options;
         private readonly ILogger logger;
         private readonly IDrainModeManager drainModeManager;
+        private readonly IKafkaProducerFactory kafkaProducerFactory;
+        // Polls the consumers of all the triggers of the host, null if every trigger polls on its own thread
+        private readonly Lazy<SharedConsumerPoller> sharedPoller;
 
         public KafkaTriggerAttributeBindingProvider(
             IConfiguration config,
@@ -33,7 +36,8 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             IConverterManager converterManager,
             INameResolver nameResolver,
             ILoggerFactory loggerFactory,
-            IDrainModeManager drainModeManager)
+            IDrainModeManager drainModeManager,
+            IKafkaProducerFactory kafkaProducerFactory = null)
         {
             this.config = config;
             this.converterManager = converterManager;
@@ -41,6 +45,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             this.options = options;
             this.logger = loggerFactory.CreateLogger(LogCategories.CreateTriggerCategory("Kafka"));
             this.drainModeManager = drainModeManager;
+            this.kafkaProducerFactory = kafkaProducerFactory;
+            if (options.Value.SharedPollerThreadCount > 0)
+            {
+                this.sharedPoller = new Lazy<SharedConsumerPoller>(() => new SharedConsumerPoller(options.Value.SharedPollerThreadCount, this.logger));
+            }
         }
 
         public Task<ITriggerBinding> TryCreateAsync(TriggerBindingProviderContext context)
@@ -59,22 +68,36 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             var topic = this.config.ResolveSecureSetting(nameResolver, attribute.Topic);
             (var valueDeserializer, var keyDeserializer) = SerializationHelper.ResolveDeserializers(keyAndValueTypes, schemaRegistryUrl, schemaRegistryUsername, schemaRegistryPassword, topic);
             var consumerConfig = CreateConsumerConfiguration(attribute);
-            var binding = CreateBindingStrategyFor(keyAndValueTypes.KeyType ?? typeof(Ignore), keyAndValueTypes.ValueType, keyAndValueTypes.RequiresKey, valueDeserializer, keyDeserializer, parameter, consumerConfig);
+            var deadLetterEntity = CreateDeadLetterEntity(attribute, keyAndValueTypes);
+            var binding = CreateBindingStrategyFor(keyAndValueTypes.KeyType ?? typeof(Ignore), keyAndValueTypes.ValueType, keyAndValueTypes.RequiresKey, valueDeserializer, keyDeserializer, parameter, consumerConfig, deadLetterEntity);
             return Task.FromResult<ITriggerBinding>(new KafkaTriggerBindingWrapper(binding));
         }
 
-        ITriggerBinding CreateBindingStrategyFor(Type keyType, Type valueType, bool requiresKey, object valueDeserializer, object keyDeserializer, ParameterInfo parameterInfo, KafkaListenerConfiguration listenerConfiguration)
+        ITriggerBinding CreateBindingStrategyFor(Type keyType, Type valueType, bool requiresKey, object valueDeserializer, object keyDeserializer, ParameterInfo parameterInfo, KafkaListenerConfiguration listenerConfiguration, KafkaProducerEntity deadLetterEntity)
         {
             var genericCreateBindingStrategy = this.GetType().GetMethod(nameof(CreateBindingStrategy), BindingFlags.Instance | BindingFlags.NonPublic).MakeGenericMethod(keyType, valueType);
-            return (ITriggerBinding)genericCreateBindingStrategy.Invoke(this, new object[] { parameterInfo, listenerConfiguration, requiresKey, valueDeserializer, keyDeserializer });
+            return (ITriggerBinding)genericCreateBindingStrategy.Invoke(this, new object[] { parameterInfo, listenerConfiguration, requiresKey, valueDeserializer, keyDeserializer, deadLetterEntity });
         }
 
-        private ITriggerBinding CreateBindingStrategy<TKey, TValue>(ParameterInfo parameter, KafkaListenerConfiguration listenerConfiguration, bool requiresKey, IDeserializer<TValue> valueDeserializer, IDeserializer<TKey> keySerializer)
+        private ITriggerBinding CreateBindingStrategy<TKey, TValue>(ParameterInfo parameter, KafkaListenerConfiguration listenerConfiguration, bool requiresKey, IDeserializer<TValue> valueDeserializer, IDeserializer<TKey> keySerializer, KafkaProducerEntity deadLetterEntity)
         {
             // TODO: reuse connections if they match with others in same function app
             Task<IListener> listenerCreator(ListenerFactoryContext factoryContext, bool singleDispatch)
             {
-                var listener = new KafkaListener<TKey, TValue>(
+                if (this.options.Value.ConsumersPerInstance > 1)
+                {
+                    return Task.FromResult<IListener>(new KafkaMultiConsumerListener<TKey, TValue>(
+                        this.options.Value.ConsumersPerInstance,
+                        consumerIndex => CreateListener(factoryContext, singleDispatch, consumerIndex),
+                        this.logger));
+                }
+
+                return Task.FromResult<IListener>(CreateListener(factoryContext, singleDispatch, 0));
+            }
+
+            KafkaListener<TKey, TValue> CreateListener(ListenerFactoryContext factoryContext, bool singleDispatch, int consumerIndex)
+            {
+                return new KafkaListener<TKey, TValue>(
                     factoryContext.Executor,
                     singleDispatch,
                     this.options.Value,
@@ -84,14 +107,80 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
                     keySerializer,
                     this.logger,
                     factoryContext.Descriptor.Id,
-                    drainModeManager);
-
-                return Task.FromResult<IListener>(listener);
+                    drainModeManager)
+                {
+                    DeadLetterPublisher = deadLetterEntity != null ? new DeadLetterPublisher(deadLetterEntity) : null,
+                    SharedPoller = this.sharedPoller?.Value,
+                    ConsumerIndex = consumerIndex,
+                };
             }
 
             return BindingFactory.GetTriggerBinding(new KafkaTriggerBindingStrategy<TKey, TValue>(), parameter, new KafkaEventDataConvertManager(this.converterManager, this.logger), listenerCreator);
         }
 
+        /// <summary>
+        /// Creates the producer entity of the dead-letter topic of the trigger, null if the trigger has none.
+        /// Dead letters are produced on the trigger broker with the trigger credentials and serialization.
+        /// </summary>
+        private KafkaProducerEntity CreateDeadLetterEntity(KafkaTriggerAttribute attribute, SerializationHelper.GetKeyAndValueTypesResult keyAndValueTypes)
+        {
+            var deadLetterTopic = this.config.ResolveSecureSetting(nameResolver, attribute.DeadLetterTopic);
+            if (string.IsNullOrEmpty(deadLetterTopic))
+            {
+                return null;
+            }
+
+            if (this.kafkaProducerFactory == null)
+            {
+                this.logger.LogWarning("Dead-letter topic {deadLetterTopic} of {topic} is ignored, no Kafka producer factory is available", deadLetterTopic, attribute.Topic);
+                return null;
+            }
+
+            // Settings are resolved by the producer factory, as for the output binding
+            var producerAttribute = new KafkaAttribute(attribute.BrokerList, attribute.DeadLetterTopic)
+            {
+                AvroSchema = attribute.AvroSchema,
+                KeyAvroSchema = attribute.KeyAvroSchema,
+                KeyDataType = attribute.KeyDataType,
+                AuthenticationMode = attribute.AuthenticationMode,
+                Username = attribute.Username,
+                Password = attribute.Password,
+                Protocol = attribute.Protocol,
+                SslKeyLocation = attribute.SslKeyLocation,
+                SslCaLocation = attribute.SslCaLocation,
+                SslCertificateLocation = attribute.SslCertificateLocation,
+                SslKeyPassword = attribute.SslKeyPassword,
+                SslCertificatePEM = attribute.SslCertificatePEM,
+                SslKeyPEM = attribute.SslKeyPEM,
+                SslCaPEM = attribute.SslCaPEM,
+                SslCertificateandKeyPEM = attribute.SslCertificateandKeyPEM,
+                SchemaRegistryUrl = attribute.SchemaRegistryUrl,
+                SchemaRegistryUsername = attribute.SchemaRegistryUsername,
+                SchemaRegistryPassword = attribute.SchemaRegistryPassword,
+                OAuthBearerMethod = attribute.OAuthBearerMethod,
+                OAuthBearerClientId = attribute.OAuthBearerClientId,
+                OAuthBearerClientSecret = attribute.OAuthBearerClientSecret,
+                OAuthBearerScope = attribute.OAuthBearerScope,
+                OAuthBearerTokenEndpointUrl = attribute.OAuthBearerTokenEndpointUrl,
+                HttpsCaLocation = attribute.HttpsCaLocation,
+                HttpsCaPem = attribute.HttpsCaPem,
+                OAuthBearerExtensions = attribute.OAuthBearerExtensions,
+            };
+
+            var keyType = keyAndValueTypes.KeyType;
+            return new KafkaProducerEntity()
+            {
+                KafkaProducerFactory = this.kafkaProducerFactory,
+                // Keys not read by the trigger are not kept
+                KeyType = keyType == null || keyType == typeof(Ignore) ? typeof(Null) : keyType,
+                ValueType = keyAndValueTypes.ValueType,
+                Topic = deadLetterTopic,
+                Attribute = producerAttribute,
+                ValueAvroSchema = keyAndValueTypes.ValueAvroSchema,
+                KeyAvroSchema = keyAndValueTypes.KeyAvroSchema,
+            };
+        }
+
         private KafkaListenerConfiguration CreateConsumerConfiguration(KafkaTriggerAttribute attribute)
         {
             var consumerConfig = new KafkaListenerConfiguration()
@@ -8,7 +8,27 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         // If != -1, then only process a single event in this batch. 
         private int _selector = -1;
 
-        internal IKafkaEventData[] Events { get; set; }
+        // Single dispatch keeps the event without wrapping it in an array, the array is only created if requested
+        private IKafkaEventData _singleEvent;
+        private IKafkaEventData[] _events;
+
+        internal IKafkaEventData[] Events
+        {
+            get
+            {
+                if (_events == null && _singleEvent != null)
+                {
+                    _events = new[] { _singleEvent };
+                }
+
+                return _events;
+            }
+            set
+            {
+                _events = value;
+                _singleEvent = null;
+            }
+        }
 
         public bool IsSingleDispatch
         {
@@ -22,10 +42,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
         {
             return new KafkaTriggerInput
             {
-                Events = new[]
-                {
-                      eventData
-                },
+                _singleEvent = eventData,
                 _selector = 0,
             };
         }
@@ -50,6 +67,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 
         public IKafkaEventData GetSingleEventData()
         {
+            if (_events == null && _singleEvent != null)
+            {
+                return _singleEvent;
+            }
+
             return this.Events[this._selector];
         }
     }
@@ -0,0 +1,354 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Threading;
+using Confluent.Kafka;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Transactional producer of a partition lane, used when <see cref="KafkaOptions.ExactlyOnceDelivery"/> is enabled.
+    /// Output bindings of the lane invocations produce through <see cref="ProducerHandle"/> and the offsets of the handled
+    /// messages are sent to the same transaction, so outputs and input offsets commit (or abort) atomically.
+    /// One transaction spans several invocations of the lane, see <see cref="IsDue"/>.
+    /// </summary>
+    internal sealed class LaneTransaction : IDisposable
+    {
+        private static readonly AsyncLocal<LaneTransaction> current = new AsyncLocal<LaneTransaction>();
+
+        private readonly Func<IProducer<byte[], byte[]>> producerFactory;
+        private readonly Func<IConsumerGroupMetadata> groupMetadataProvider;
+        private readonly int maxInvocations;
+        private readonly long commitIntervalTicks;
+        private readonly TimeSpan timeout;
+        private readonly ILogger logger;
+        private readonly object syncRoot = new object();
+        private IProducer<byte[], byte[]> producer;
+        // Typed producers of the output bindings built on the transactional producer, disposed before it
+        private readonly Dictionary<object, IKafkaProducer> typedProducers = new Dictionary<object, IKafkaProducer>();
+        private bool initialized;
+        private bool inTransaction;
+        private bool closed;
+        private bool warnedOutsideTransaction;
+        // Offset to resume from if the open transaction aborts, -1 when nothing was executed in it
+        private long firstOffset = -1;
+        // Offset committed with the open transaction, -1 when no invocation completed in it
+        private long pendingOffset = -1;
+        private int invocations;
+        private long startedTimestamp;
+
+        public LaneTransaction(
+            TopicPartition topicPartition,
+            string bootstrapServers,
+            Func<IProducer<byte[], byte[]>> producerFactory,
+            Func<IConsumerGroupMetadata> groupMetadataProvider,
+            int maxInvocations,
+            int commitIntervalMs,
+            TimeSpan timeout,
+            ILogger logger)
+        {
+            this.TopicPartition = topicPartition;
+            this.BootstrapServers = bootstrapServers;
+            this.producerFactory = producerFactory ?? throw new ArgumentNullException(nameof(producerFactory));
+            this.groupMetadataProvider = groupMetadataProvider ?? throw new ArgumentNullException(nameof(groupMetadataProvider));
+            this.maxInvocations = maxInvocations;
+            this.commitIntervalTicks = (long)(commitIntervalMs * (Stopwatch.Frequency / 1000.0));
+            this.timeout = timeout;
+            this.logger = logger;
+        }
+
+        /// <summary>
+        /// Transaction of the lane executing the current function, null outside of exactly-once lanes.
+        /// Set by the lane reader, flows to the output bindings of the invocations.
+        /// </summary>
+        internal static LaneTransaction Current
+        {
+            get => current.Value;
+            set => current.Value = value;
+        }
+
+        public TopicPartition TopicPartition { get; }
+
+        /// <summary>
+        /// Brokers of the transactional producer. Outputs to other clusters cannot be part of the transaction.
+        /// </summary>
+        public string BootstrapServers { get; }
+
+        /// <summary>
+        /// Handle of the transactional producer, opening a transaction if none is open.
+        /// </summary>
+        public Handle ProducerHandle
+        {
+            get
+            {
+                lock (this.syncRoot)
+                {
+                    this.EnsureTransaction();
+                    return this.producer.Handle;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Returns the typed producer of an output binding built on the transactional producer, opening a transaction if none is open.
+        /// Typed producers are created once per <paramref name="key"/> with <paramref name="factory"/> and disposed with the transactional producer.
+        /// </summary>
+        public IKafkaProducer GetOrAddProducer(object key, Func<Handle, IKafkaProducer> factory)
+        {
+            lock (this.syncRoot)
+            {
+                this.EnsureTransaction();
+                if (!this.typedProducers.TryGetValue(key, out var typedProducer))
+                {
+                    typedProducer = factory(this.producer.Handle);
+                    this.typedProducers.Add(key, typedProducer);
+                }
+
+                return typedProducer;
+            }
+        }
+
+        /// <summary>
+        /// Offset the lane must be rewound to if the open transaction aborts, -1 when nothing was executed in it.
+        /// </summary>
+        public long FirstOffset
+        {
+            get
+            {
+                lock (this.syncRoot)
+                {
+                    return this.firstOffset;
+                }
+            }
+        }
+
+        /// <summary>
+        /// True once the open transaction holds <see cref="KafkaOptions.TransactionMaxInvocations"/> invocations
+        /// or has been open for <see cref="KafkaOptions.TransactionCommitIntervalMs"/>.
+        /// </summary>
+        public bool IsDue
+        {
+            get
+            {
+                lock (this.syncRoot)
+                {
+                    return this.pendingOffset >= 0
+                        && (this.invocations >= this.maxInvocations || Stopwatch.GetTimestamp() - this.startedTimestamp >= this.commitIntervalTicks);
+                }
+            }
+        }
+
+        /// <summary>
+        /// Registers the first offset of a batch about to be executed in the open transaction.
+        /// </summary>
+        public void BeginExecution(long offset)
+        {
+            lock (this.syncRoot)
+            {
+                if (this.firstOffset < 0)
+                {
+                    this.firstOffset = offset;
+                    this.startedTimestamp = Stopwatch.GetTimestamp();
+                }
+            }
+        }
+
+        /// <summary>
+        /// Adds the offset to commit once an invocation is handled.
+        /// </summary>
+        public void AddOffset(long offset)
+        {
+            lock (this.syncRoot)
+            {
+                if (offset > this.pendingOffset)
+                {
+                    this.pendingOffset = offset;
+                }
+
+                this.invocations++;
+            }
+        }
+
+        /// <summary>
+        /// Returns true the first time an output of the lane goes to a cluster outside of the transaction.
+        /// </summary>
+        public bool TryMarkOutputOutsideTransaction()
+        {
+            lock (this.syncRoot)
+            {
+                var first = !this.warnedOutsideTransaction;
+                this.warnedOutsideTransaction = true;
+                return first;
+            }
+        }
+
+        /// <summary>
+        /// Sends the pending offset to the open transaction and commits it.
+        /// Returns the committed offset, -1 if there was nothing to commit.
+        /// Throws <see cref="KafkaException"/> once the transaction is aborted, the outputs are discarded and the executions since
+        /// <see cref="FirstOffset"/> must be repeated.
+        /// </summary>
+        public long Commit()
+        {
+            lock (this.syncRoot)
+            {
+                if (this.pendingOffset < 0 && !this.inTransaction)
+                {
+                    this.ResetTransactionState();
+                    return -1;
+                }
+
+                try
+                {
+                    this.EnsureTransaction();
+                    if (this.pendingOffset >= 0)
+                    {
+                        this.producer.SendOffsetsToTransaction(
+                            new[] { new TopicPartitionOffset(this.TopicPartition, this.pendingOffset) },
+                            this.groupMetadataProvider(),
+                            this.timeout);
+                    }
+
+                    this.producer.CommitTransaction(this.timeout);
+                    this.inTransaction = false;
+
+                    if (this.logger.IsEnabled(LogLevel.Debug))
+                    {
+                        this.logger.LogDebug("Committed transaction of {topic} / {partition} with {invocations} invocations up to {offset}",
+                            this.TopicPartition.Topic, this.TopicPartition.Partition.Value, this.invocations, this.pendingOffset);
+                    }
+
+                    var committedOffset = this.pendingOffset;
+                    this.ResetTransactionState();
+                    return committedOffset;
+                }
+                catch (KafkaException e)
+                {
+                    this.logger.LogError(e, "Failed to commit transaction of {topic} / {partition}: {reason}", this.TopicPartition.Topic, this.TopicPartition.Partition.Value, e.Error.Reason);
+                    this.AbortTransaction(e.Error.IsFatal);
+                    throw;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Aborts the open transaction, discarding its outputs. The offsets are not committed.
+        /// </summary>
+        public void Abort()
+        {
+            lock (this.syncRoot)
+            {
+                this.AbortTransaction(fatal: false);
+            }
+        }
+
+        /// <summary>
+        /// Stops opening transactions. Outputs of executions completing later fail instead of producing outside of the lane.
+        /// </summary>
+        public void Close()
+        {
+            lock (this.syncRoot)
+            {
+                this.closed = true;
+                this.DisposeTypedProducers();
+            }
+        }
+
+        private void EnsureTransaction()
+        {
+            if (this.closed)
+            {
+                throw new InvalidOperationException($"Transaction of {this.TopicPartition} is closed, the partition was revoked or the listener stopped.");
+            }
+
+            if (this.producer == null)
+            {
+                this.producer = this.producerFactory();
+                this.initialized = false;
+            }
+
+            if (!this.initialized)
+            {
+                // Fences older producers using the same transactional id (e.g. the previous owner of the partition)
+                this.producer.InitTransactions(this.timeout);
+                this.initialized = true;
+            }
+
+            if (!this.inTransaction)
+            {
+                this.producer.BeginTransaction();
+                this.inTransaction = true;
+                if (this.firstOffset < 0)
+                {
+                    this.startedTimestamp = Stopwatch.GetTimestamp();
+                }
+            }
+        }
+
+        private void AbortTransaction(bool fatal)
+        {
+            if (this.inTransaction && !fatal)
+            {
+                try
+                {
+                    this.producer.AbortTransaction(this.timeout);
+                }
+                catch (KafkaException e)
+                {
+                    this.logger.LogError(e, "Failed to abort transaction of {topic} / {partition}: {reason}", this.TopicPartition.Topic, this.TopicPartition.Partition.Value, e.Error.Reason);
+                    fatal = e.Error.IsFatal;
+                }
+            }
+
+            if (fatal)
+            {
+                // Fenced or otherwise unusable, the next transaction starts with a new producer
+                this.DisposeTypedProducers();
+                this.producer?.Dispose();
+                this.producer = null;
+            }
+
+            this.inTransaction = false;
+            this.ResetTransactionState();
+        }
+
+        private void DisposeTypedProducers()
+        {
+            foreach (var typedProducer in this.typedProducers.Values)
+            {
+                try
+                {
+                    typedProducer.Dispose();
+                }
+                catch (Exception e)
+                {
+                    this.logger.LogWarning(e, "Failed to dispose output producer of {topic} / {partition}", this.TopicPartition.Topic, this.TopicPartition.Partition.Value);
+                }
+            }
+
+            this.typedProducers.Clear();
+        }
+
+        private void ResetTransactionState()
+        {
+            this.firstOffset = -1;
+            this.pendingOffset = -1;
+            this.invocations = 0;
+        }
+
+        public void Dispose()
+        {
+            lock (this.syncRoot)
+            {
+                this.closed = true;
+                this.DisposeTypedProducers();
+                this.producer?.Dispose();
+                this.producer = null;
+            }
+        }
+    }
+}
@@ -2,10 +2,8 @@
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
 using System;
-using System.Collections.Generic;
-using System.Linq;
+using System.Diagnostics;
 using System.Threading;
-using System.Threading.Channels;
 using System.Threading.Tasks;
 using Confluent.Kafka;
 using Microsoft.Azure.WebJobs.Host;
@@ -15,7 +13,7 @@ using Microsoft.Extensions.Logging;
 namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 {
     /// <summary>
-    /// Executes the functions for a specific partition.
+    /// Executes the functions for a specific partition lane.
     /// Used for functions that are expecting multiple items at once.
     /// </summary>
     public class MultipleItemFunctionExecutor<TKey, TValue> : FunctionExecutorBase<TKey, TValue>
@@ -29,148 +27,208 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             logger.LogInformation($"FunctionExecutor Loaded: {nameof(MultipleItemFunctionExecutor<TKey, TValue>)}");
         }
 
-        protected override async Task ReaderAsync(ChannelReader<IKafkaEventData[]> reader, CancellationToken cancellationToken, ILogger logger)
+        /// <summary>
+        /// Receives the execution time of each batch when adaptive batch sizing is enabled.
+        /// </summary>
+        internal AdaptiveBatchSizeController BatchSizeController { get; set; }
+
+        private protected override async Task ProcessLaneItemsAsync(PartitionLane lane, IKafkaEventData[] itemsToExecute, CancellationToken cancellationToken)
         {
-            while (!cancellationToken.IsCancellationRequested && await reader.WaitToReadAsync(cancellationToken))
+            var functionResult = await this.ExecuteBatchAsync(itemsToExecute, cancellationToken);
+
+            // Items of a lane belong to its partition and are in offset order
+            var offsetsToCommit = new[]
             {
-                while (!cancellationToken.IsCancellationRequested && reader.TryRead(out var itemsToExecute))
+                new TopicPartitionOffset(lane.Topic, lane.Partition, itemsToExecute[itemsToExecute.Length - 1].Offset + 1), // offset is inclusive when resuming
+            };
+
+            if (!cancellationToken.IsCancellationRequested)
+            {
+                if (functionResult.Succeeded)
                 {
-                    try
-                    {
-                        // Try to publish them
-                        var triggerInput = KafkaTriggerInput.New(itemsToExecute);
-                        var triggerData = new TriggeredFunctionData
-                        {
-                            TriggerValue = triggerInput,
-                        };
+                    this.Commit(lane, offsetsToCommit);
 
-                        // Create Batch Event Activity Provider and Start the activity 
-                        var batchEventActivityProvider = new BatchEventActivityProvider(itemsToExecute, consumerGroup);
-                        batchEventActivityProvider.StartActivity();
+                    if (logger.IsEnabled(LogLevel.Debug))
+                    {
+                        logger.LogDebug("Function executed with {batchSize} items in {topic} / {partition} / {offset}",
+                            itemsToExecute.Length,
+                            lane.Topic,
+                            lane.Partition,
+                            offsetsToCommit[0].Offset.Value);
+                    }
+                }
+                else if (this.options.CommitOnFailure)
+                {
+                    // Default at-most-once behavior: commit regardless of failure, once dead-lettered if the trigger has a dead-letter topic
+                    if (this.DeadLetterPublisher == null || await this.DeadLetterAsync(lane, GetFailedItems(itemsToExecute, functionResult.Exception), functionResult.Exception))
+                    {
+                        this.Commit(lane, offsetsToCommit);
+                    }
+                }
+                else
+                {
+                    // At-least-once: retry the failed records of the batch once the backoff elapsed
+                    var failedItems = itemsToExecute;
+                    var attempt = 0;
+                    var retryCommitted = false;
+                    while (!retryCommitted && !cancellationToken.IsCancellationRequested)
+                    {
+                        failedItems = this.CommitSucceededItems(lane, failedItems, functionResult.Exception);
 
-                        FunctionResult functionResult = null;
-                        try
-                        {
-                            // Execute the function
-                            functionResult = await this.ExecuteFunctionAsync(triggerData, cancellationToken);
-                            // Set the status of activity.
-                            batchEventActivityProvider.SetActivityStatus(functionResult.Succeeded, functionResult.Exception);
-                        }
-                        catch (Exception ex)
-                        {
-                            batchEventActivityProvider.SetActivityStatus(false, ex);
-                            throw;
-                        }
-                        finally
+                        if (this.IsRetryLimitExceeded(++attempt))
                         {
-                            // Stop the Activity
-                            batchEventActivityProvider.StopCurrentActivity();
-                        }
+                            if (this.DeadLetterPublisher != null)
+                            {
+                                // The failed messages are dead-lettered before the offsets of the batch are committed
+                                logger.LogError(functionResult.Exception,
+                                    "Batch execution failed with {batchSize} items in {topic} / {partition} / {offset} " +
+                                    "and max retries ({maxRetries}) exceeded. Messages will be published to dead-letter topic {deadLetterTopic}.",
+                                    failedItems.Length,
+                                    lane.Topic,
+                                    lane.Partition,
+                                    offsetsToCommit[0].Offset.Value,
+                                    this.options.MaxRetries,
+                                    this.DeadLetterPublisher.Topic);
 
-                        var offsetsToCommit = new Dictionary<int, TopicPartitionOffset>();
-                        for (var i=itemsToExecute.Length - 1; i >= 0; i--)
-                        {
-                            var currentItem = itemsToExecute[i];
-                            if (!offsetsToCommit.ContainsKey(currentItem.Partition))
+                                if (!await this.DeadLetterAsync(lane, failedItems, functionResult.Exception))
+                                {
+                                    // Partition revoked or executor closing, the batch is not committed
+                                    return;
+                                }
+                            }
+                            else
                             {
-                                offsetsToCommit.Add(
-                                    currentItem.Partition, 
-                                    new TopicPartitionOffset(
-                                        currentItem.Topic,
-                                        currentItem.Partition,
-                                        currentItem.Offset + 1)); // offset is inclusive when resuming
+                                logger.LogError(functionResult.Exception,
+                                    "Batch execution failed with {batchSize} items in {topic} / {partition} / {offset} " +
+                                    "and max retries ({maxRetries}) exceeded. Offsets will be force-committed. " +
+                                    "Consider setting a dead-letter topic on the trigger.",
+                                    failedItems.Length,
+                                    lane.Topic,
+                                    lane.Partition,
+                                    offsetsToCommit[0].Offset.Value,
+                                    this.options.MaxRetries);
                             }
-                        }
 
-                        if (!cancellationToken.IsCancellationRequested)
+                            this.Commit(lane, offsetsToCommit);
+                            retryCommitted = true;
+                        }
+                        else
                         {
-                            if (functionResult.Succeeded)
-                            {
-                                foreach (var tpo in offsetsToCommit.Values)
-                                {
-                                    this.ClearRetryCounter(tpo.Topic, tpo.Partition, tpo.Offset - 1);
-                                }
-                                this.Commit(offsetsToCommit.Values);
+                            var delay = this.GetRetryDelay(attempt);
+                            logger.LogWarning(functionResult.Exception,
+                                "Function execution failed with {batchSize} items in {topic} / {partition} / {offset}. " +
+                                "Batch will be retried in {delay}ms (attempt {attempt}).",
+                                failedItems.Length,
+                                lane.Topic,
+                                lane.Partition,
+                                offsetsToCommit[0].Offset.Value,
+                                (long)delay.TotalMilliseconds,
+                                attempt);
 
-                                if (logger.IsEnabled(LogLevel.Debug))
-                                {
-                                    logger.LogDebug("Function executed with {batchSize} items in {topic} / {partitions} / {offsets}",
-                                        itemsToExecute.Length,
-                                        itemsToExecute[0].Topic,
-                                        string.Join(",", offsetsToCommit.Keys),
-                                        string.Join(",", offsetsToCommit.Values.Select(x => x.Offset)));
-                                }
-                            }
-                            else if (this.options.CommitOnFailure)
+                            if (!await this.WaitBeforeRetryAsync(lane, delay))
                             {
-                                // Default at-most-once behavior: commit regardless of failure
-                                this.Commit(offsetsToCommit.Values);
+                                // Partition revoked or executor closing, the batch is not committed
+                                return;
                             }
-                            else
+
+                            // Re-execute the failed records
+                            functionResult = await this.ExecuteBatchAsync(failedItems, cancellationToken);
+
+                            if (functionResult.Succeeded)
                             {
-                                // At-least-once: retry the batch in-place
-                                var retryCommitted = false;
-                                while (!retryCommitted && !cancellationToken.IsCancellationRequested)
-                                {
-                                    // Check if any offset in the batch has exceeded max retries
-                                    var anyExceeded = offsetsToCommit.Values.Any(tpo =>
-                                        this.IncrementRetryAndCheckExceeded(tpo.Topic, tpo.Partition, tpo.Offset - 1));
-
-                                    if (anyExceeded)
-                                    {
-                                        logger.LogError(functionResult.Exception,
-                                            "Batch execution failed with {batchSize} items in {topic} / {partitions} / {offsets} " +
-                                            "and max retries ({maxRetries}) exceeded. Offsets will be force-committed. " +
-                                            "Consider implementing dead-letter handling in your function code.",
-                                            itemsToExecute.Length,
-                                            itemsToExecute[0].Topic,
-                                            string.Join(",", offsetsToCommit.Keys),
-                                            string.Join(",", offsetsToCommit.Values.Select(x => x.Offset)),
-                                            this.options.MaxRetries);
-                                        foreach (var tpo in offsetsToCommit.Values)
-                                        {
-                                            this.ClearRetryCounter(tpo.Topic, tpo.Partition, tpo.Offset - 1);
-                                        }
-                                        this.Commit(offsetsToCommit.Values);
-                                        retryCommitted = true;
-                                    }
-                                    else
-                                    {
-                                        logger.LogWarning(functionResult.Exception,
-                                            "Function execution failed with {batchSize} items in {topic} / {partitions} / {offsets}. " +
-                                            "Batch will be retried in-place.",
-                                            itemsToExecute.Length,
-                                            itemsToExecute[0].Topic,
-                                            string.Join(",", offsetsToCommit.Keys),
-                                            string.Join(",", offsetsToCommit.Values.Select(x => x.Offset)));
-
-                                        // Re-execute the batch
-                                        triggerInput = KafkaTriggerInput.New(itemsToExecute);
-                                        triggerData = new TriggeredFunctionData { TriggerValue = triggerInput };
-                                        functionResult = await this.ExecuteFunctionAsync(triggerData, cancellationToken);
-
-                                        if (functionResult.Succeeded)
-                                        {
-                                            foreach (var tpo in offsetsToCommit.Values)
-                                            {
-                                                this.ClearRetryCounter(tpo.Topic, tpo.Partition, tpo.Offset - 1);
-                                            }
-                                            this.Commit(offsetsToCommit.Values);
-                                            retryCommitted = true;
-                                        }
-                                    }
-                                }
+                                this.Commit(lane, offsetsToCommit);
+                                retryCommitted = true;
                             }
                         }
                     }
-                    catch (Exception ex)
-                    {
-                        logger.LogError(ex, $"Error in executor reader");
-                    }
                 }
             }
+        }
+
+        /// <summary>
+        /// Executes the function with a batch, tracing it and reporting its execution time to the <see cref="BatchSizeController"/>.
+        /// </summary>
+        private async Task<FunctionResult> ExecuteBatchAsync(IKafkaEventData[] items, CancellationToken cancellationToken)
+        {
+            // Try to publish them
+            var triggerInput = KafkaTriggerInput.New(items);
+            var triggerData = new TriggeredFunctionData
+            {
+                TriggerValue = triggerInput,
+            };
+
+            // Create Batch Event Activity Provider and Start the activity 
+            var batchEventActivityProvider = new BatchEventActivityProvider(items, consumerGroup);
+            batchEventActivityProvider.StartActivity();
+
+            try
+            {
+                // Execute the function
+                var stopwatch = Stopwatch.StartNew();
+                var functionResult = await this.ExecuteFunctionAsync(triggerData, cancellationToken);
+                this.BatchSizeController?.RecordExecution(items.Length, stopwatch.Elapsed);
+                // Set the status of activity.
+                batchEventActivityProvider.SetActivityStatus(functionResult.Succeeded, functionResult.Exception);
+                return functionResult;
+            }
+            catch (Exception ex)
+            {
+                batchEventActivityProvider.SetActivityStatus(false, ex);
+                throw;
+            }
+            finally
+            {
+                // Stop the Activity
+                batchEventActivityProvider.StopCurrentActivity();
+            }
+        }
+
+        /// <summary>
+        /// Commits the records before the first failed one reported by <see cref="KafkaPartialBatchException"/>
+        /// and returns the failed records to execute again. Returns <paramref name="items"/> if the error does not report them.
+        /// </summary>
+        private IKafkaEventData[] CommitSucceededItems(PartitionLane lane, IKafkaEventData[] items, Exception error)
+        {
+            var failedItems = GetFailedItems(items, error);
+            if (failedItems.Length == items.Length)
+            {
+                return items;
+            }
+
+            // Offsets are ordered within the lane, the first failed record is the next one to consume
+            var firstFailed = failedItems[0];
+            if (firstFailed.Offset > items[0].Offset)
+            {
+                this.Commit(lane, new[] { new TopicPartitionOffset(firstFailed.Topic, firstFailed.Partition, firstFailed.Offset) });
+            }
+
+            if (logger.IsEnabled(LogLevel.Debug))
+            {
+                logger.LogDebug("Batch partially failed, {failedCount} of {batchSize} items in {topic} / {partition} will be retried from offset {offset}",
+                    failedItems.Length,
+                    items.Length,
+                    firstFailed.Topic,
+                    firstFailed.Partition,
+                    firstFailed.Offset);
+            }
+
+            return failedItems;
+        }
+
+        private static IKafkaEventData[] GetFailedItems(IKafkaEventData[] items, Exception error)
+        {
+            if (!KafkaPartialBatchException.TryGetFailedIndexes(error, items.Length, out var failedIndexes))
+            {
+                return items;
+            }
+
+            var failedItems = new IKafkaEventData[failedIndexes.Count];
+            for (var i = 0; i < failedItems.Length; i++)
+            {
+                failedItems[i] = items[failedIndexes[i]];
+            }
 
-            logger.LogInformation("Exiting reader {processName}", nameof(MultipleItemFunctionExecutor<TKey, TValue>));
+            return failedItems;
         }
     }
-}
+}
\ No newline at end of file
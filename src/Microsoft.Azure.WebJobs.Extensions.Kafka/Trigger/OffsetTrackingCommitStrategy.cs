@@ -0,0 +1,92 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using Confluent.Kafka;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Commit strategy accepting out of order completions.
+    /// Dispatched offsets are tracked per partition and only the contiguous completed prefix is committed
+    /// through the inner strategy.
+    /// </summary>
+    internal sealed class OffsetTrackingCommitStrategy<TKey, TValue> : ICommitStrategy<TKey, TValue>
+    {
+        private readonly ICommitStrategy<TKey, TValue> inner;
+        private readonly ConcurrentDictionary<TopicPartition, PartitionOffsetTracker> trackers = new ConcurrentDictionary<TopicPartition, PartitionOffsetTracker>();
+
+        public OffsetTrackingCommitStrategy(ICommitStrategy<TKey, TValue> inner)
+        {
+            this.inner = inner;
+        }
+
+        public void Commit(IEnumerable<TopicPartitionOffset> topicPartitionOffsets)
+        {
+            this.inner.Commit(topicPartitionOffsets);
+        }
+
+        /// <summary>
+        /// Registers a dispatched offset. Offsets of a partition must be tracked in order.
+        /// </summary>
+        public void Track(TopicPartition topicPartition, long offset)
+        {
+            var tracker = this.trackers.GetOrAdd(topicPartition, _ => new PartitionOffsetTracker());
+            lock (tracker)
+            {
+                tracker.Track(offset);
+            }
+        }
+
+        /// <summary>
+        /// Marks an offset as completed, committing the new watermark if it moved.
+        /// Returns the committed offset, or -1 if nothing was committed.
+        /// </summary>
+        public long Complete(TopicPartition topicPartition, long offset)
+        {
+            if (!this.trackers.TryGetValue(topicPartition, out var tracker))
+            {
+                return -1;
+            }
+
+            // Committing under the lock keeps the commits of a partition monotonic
+            lock (tracker)
+            {
+                if (!tracker.Complete(offset))
+                {
+                    return -1;
+                }
+
+                var watermark = tracker.Watermark;
+                this.inner.Commit(new[] { new TopicPartitionOffset(topicPartition, watermark) });
+                return watermark;
+            }
+        }
+
+        /// <summary>
+        /// Marks an offset as completed without committing.
+        /// Returns the new watermark, or -1 if it did not move.
+        /// </summary>
+        public long Advance(TopicPartition topicPartition, long offset)
+        {
+            if (!this.trackers.TryGetValue(topicPartition, out var tracker))
+            {
+                return -1;
+            }
+
+            lock (tracker)
+            {
+                return tracker.Complete(offset) ? tracker.Watermark : -1;
+            }
+        }
+
+        /// <summary>
+        /// Forgets the tracked offsets of a partition (e.g. once it is revoked).
+        /// </summary>
+        public void Reset(TopicPartition topicPartition)
+        {
+            this.trackers.TryRemove(topicPartition, out _);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Channels;
+using System.Threading.Tasks;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Execution lane for a single assigned topic partition.
+    /// Each lane owns its own bounded queue, reader task and commit cursor, so a slow partition
+    /// only holds back its own messages.
+    /// </summary>
+    internal sealed class PartitionLane : IDisposable
+    {
+        private readonly Channel<IKafkaEventData[]> channel;
+        private readonly CancellationTokenSource cancellationTokenSource;
+        private readonly CancellationTokenSource retryCancellationTokenSource;
+        private readonly Queue<IKafkaEventData[]> overflow = new Queue<IKafkaEventData[]>();
+        private long committedOffset = -1;
+        private long rewindOffset = -1;
+        private int backingOffExecutions;
+        private int queuedBatches;
+        private int inFlightItems;
+        private volatile bool isDraining;
+        private volatile bool isFenced;
+
+        internal PartitionLane(string topic, int partition, int channelCapacity, CancellationToken executorCancellationToken)
+        {
+            this.Topic = topic;
+            this.Partition = partition;
+            this.cancellationTokenSource = CancellationTokenSource.CreateLinkedTokenSource(executorCancellationToken);
+            this.retryCancellationTokenSource = CancellationTokenSource.CreateLinkedTokenSource(this.cancellationTokenSource.Token);
+            this.channel = Channel.CreateBounded<IKafkaEventData[]>(new BoundedChannelOptions(channelCapacity)
+            {
+                SingleReader = true,
+                SingleWriter = true,
+            });
+            this.Completion = Task.CompletedTask;
+        }
+
+        public string Topic { get; }
+
+        public int Partition { get; }
+
+        public ChannelReader<IKafkaEventData[]> Reader => this.channel.Reader;
+
+        /// <summary>
+        /// Batches written to the channel and not yet taken by the lane reader.
+        /// </summary>
+        public int QueuedBatches => Volatile.Read(ref this.queuedBatches);
+
+        /// <summary>
+        /// Items of the batch the lane reader is executing, 0 between batches.
+        /// </summary>
+        public int InFlightItems => Volatile.Read(ref this.inFlightItems);
+
+        /// <summary>
+        /// True while the partition is paused in the consumer because the lane is full.
+        /// Only accessed by the polling thread.
+        /// </summary>
+        public bool IsPaused { get; set; }
+
+        /// <summary>
+        /// True if batches are waiting for room in the lane channel.
+        /// </summary>
+        public bool HasOverflow => this.overflow.Count > 0;
+
+        /// <summary>
+        /// True once the partition is revoked, the lane reader does not start new batches.
+        /// </summary>
+        public bool IsDraining => this.isDraining;
+
+        /// <summary>
+        /// True once the final offset of a revoked partition is committed. Commits through the lane are ignored.
+        /// Set and checked while holding <see cref="SyncRoot"/>.
+        /// </summary>
+        public bool IsFenced => this.isFenced;
+
+        /// <summary>
+        /// Serializes the commits of the lane with <see cref="Fence"/>.
+        /// </summary>
+        public object SyncRoot { get; } = new object();
+
+        /// <summary>
+        /// Cancelled when the lane is torn down (partition revoked) or the executor shuts down.
+        /// </summary>
+        public CancellationToken CancellationToken => this.cancellationTokenSource.Token;
+
+        /// <summary>
+        /// Cancelled once the lane drains or is cancelled, ending the retry delays of failed executions.
+        /// </summary>
+        public CancellationToken RetryCancellationToken => this.retryCancellationTokenSource.Token;
+
+        /// <summary>
+        /// True while a failed execution of the lane waits to be retried. The partition is not fetched in the meantime.
+        /// </summary>
+        public bool IsBackingOff => Volatile.Read(ref this.backingOffExecutions) > 0;
+
+        /// <summary>
+        /// Completes once the lane reader has exited.
+        /// </summary>
+        public Task Completion { get; private set; }
+
+        /// <summary>
+        /// Transactional producer of the lane when exactly-once delivery is enabled, null otherwise.
+        /// </summary>
+        public LaneTransaction Transaction { get; set; }
+
+        /// <summary>
+        /// Offset the consumer was rewound to after an aborted transaction, -1 if the lane is not rewinding.
+        /// Batches read before the consumer delivers this offset again were fetched before the rewind.
+        /// </summary>
+        public long RewindOffset => Interlocked.Read(ref this.rewindOffset);
+
+        /// <summary>
+        /// Highest offset committed through this lane, -1 if nothing was committed yet.
+        /// </summary>
+        public long CommittedOffset => Interlocked.Read(ref this.committedOffset);
+
+        /// <summary>
+        /// Writes a batch to the lane, keeping it in the overflow queue if the channel is full.
+        /// Returns false if the batch had to be kept in the overflow queue.
+        /// Only called by the polling thread.
+        /// </summary>
+        internal bool Write(IKafkaEventData[] items)
+        {
+            if (this.overflow.Count == 0 && this.TryWriteToChannel(items))
+            {
+                return true;
+            }
+
+            this.overflow.Enqueue(items);
+            return false;
+        }
+
+        /// <summary>
+        /// Moves overflow batches to the channel while there is room.
+        /// Returns true if the overflow queue is empty.
+        /// </summary>
+        internal bool TryDrainOverflow()
+        {
+            while (this.overflow.Count > 0)
+            {
+                if (!this.TryWriteToChannel(this.overflow.Peek()))
+                {
+                    return false;
+                }
+
+                this.overflow.Dequeue();
+            }
+
+            return true;
+        }
+
+        /// <summary>
+        /// Reads the next batch from the channel.
+        /// </summary>
+        internal bool TryRead(out IKafkaEventData[] items)
+        {
+            if (this.channel.Reader.TryRead(out items))
+            {
+                Interlocked.Decrement(ref this.queuedBatches);
+                return true;
+            }
+
+            return false;
+        }
+
+        private bool TryWriteToChannel(IKafkaEventData[] items)
+        {
+            // Count before writing so the reader never sees a negative amount
+            Interlocked.Increment(ref this.queuedBatches);
+            if (this.channel.Writer.TryWrite(items))
+            {
+                return true;
+            }
+
+            Interlocked.Decrement(ref this.queuedBatches);
+            return false;
+        }
+
+        internal void Start(Func<PartitionLane, Task> reader)
+        {
+            this.Completion = Task.Run(() => reader(this));
+        }
+
+        /// <summary>
+        /// Moves the commit cursor forward. Lower offsets are ignored.
+        /// </summary>
+        internal void AdvanceCommittedOffset(long offset)
+        {
+            var current = Interlocked.Read(ref this.committedOffset);
+            while (offset > current)
+            {
+                var previous = Interlocked.CompareExchange(ref this.committedOffset, offset, current);
+                if (previous == current)
+                {
+                    return;
+                }
+
+                current = previous;
+            }
+        }
+
+        internal void SetInFlightItems(int count)
+        {
+            Volatile.Write(ref this.inFlightItems, count);
+        }
+
+        internal void BeginBackoff()
+        {
+            Interlocked.Increment(ref this.backingOffExecutions);
+        }
+
+        internal void EndBackoff()
+        {
+            Interlocked.Decrement(ref this.backingOffExecutions);
+        }
+
+        /// <summary>
+        /// Sets the offset the consumer was rewound to, -1 once the lane reached it.
+        /// </summary>
+        internal void SetRewindOffset(long offset)
+        {
+            Interlocked.Exchange(ref this.rewindOffset, offset);
+        }
+
+        /// <summary>
+        /// Stops accepting new items. Items already queued are still processed unless the lane is cancelled.
+        /// </summary>
+        internal void Complete()
+        {
+            this.channel.Writer.TryComplete();
+        }
+
+        /// <summary>
+        /// Stops the lane after the batch in flight, dropping the batches not started yet.
+        /// Only called by the polling thread.
+        /// </summary>
+        internal void Drain()
+        {
+            this.isDraining = true;
+            this.overflow.Clear();
+            this.Complete();
+
+            // Failed executions are not retried, the next owner of the partition executes them again
+            try
+            {
+                this.retryCancellationTokenSource.Cancel();
+            }
+            catch (ObjectDisposedException)
+            {
+                // lane already disposed
+            }
+        }
+
+        /// <summary>
+        /// Stops accepting commits. Caller must hold <see cref="SyncRoot"/>.
+        /// </summary>
+        internal void Fence()
+        {
+            this.isFenced = true;
+        }
+
+        internal void Cancel()
+        {
+            this.Complete();
+
+            try
+            {
+                this.cancellationTokenSource.Cancel();
+            }
+            catch (ObjectDisposedException)
+            {
+                // lane already disposed
+            }
+        }
+
+        public override string ToString() => $"{this.Topic} [[{this.Partition}]]";
+
+        public void Dispose()
+        {
+            this.Transaction?.Dispose();
+            this.retryCancellationTokenSource.Dispose();
+            this.cancellationTokenSource.Dispose();
+        }
+    }
+}
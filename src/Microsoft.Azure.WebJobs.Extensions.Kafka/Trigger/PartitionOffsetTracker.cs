@@ -0,0 +1,241 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Tracks the completion of the offsets of a single partition.
+    /// Completions can arrive in any order, the watermark only moves over the contiguous completed prefix.
+    /// Tracked offsets get consecutive slots in a ring, with one completion bit per slot, so completing an offset
+    /// costs the same regardless of the in-flight depth. Offsets skipped between two tracked offsets (compaction,
+    /// transaction markers) take no slot, the ring size only depends on the amount of offsets in flight.
+    /// Not thread-safe.
+    /// </summary>
+    internal sealed class PartitionOffsetTracker
+    {
+        private const int MinimumCapacity = 64;
+
+        /// <summary>
+        /// Maximum amount of offsets in flight. Lanes pause their partition long before, reaching it is a bug.
+        /// </summary>
+        internal const int MaximumCapacity = 1 << 20;
+
+        private const ulong DeBruijnSequence = 0x022FDD63CC95386DUL;
+
+        private static readonly byte[] DeBruijnPositions =
+        {
+            0, 1, 2, 53, 3, 7, 54, 27, 4, 38, 41, 8, 34, 55, 48, 28,
+            62, 5, 39, 46, 44, 42, 22, 9, 24, 35, 59, 56, 49, 18, 29, 11,
+            63, 52, 6, 26, 37, 40, 33, 47, 61, 45, 43, 21, 23, 58, 17, 10,
+            51, 25, 36, 32, 60, 20, 57, 16, 50, 31, 19, 15, 30, 14, 13, 12,
+        };
+
+        // Completion bits and offsets of the slots, slot = sequence & mask
+        private ulong[] ring;
+        private long[] offsets;
+        private long mask;
+
+        // Sequence of the lowest slot that has not completed and sequence of the next tracked offset
+        private long headSequence;
+        private long tailSequence;
+        private long watermark = -1;
+        private long nextOffset = -1;
+
+        public PartitionOffsetTracker(int initialCapacity = 1024)
+        {
+            var capacity = MinimumCapacity;
+            while (capacity < initialCapacity)
+            {
+                capacity <<= 1;
+            }
+
+            this.ring = new ulong[capacity / 64];
+            this.offsets = new long[capacity];
+            this.mask = capacity - 1;
+        }
+
+        /// <summary>
+        /// Lowest tracked offset that has not completed. All offsets below it are completed and can be committed.
+        /// -1 when no offset was tracked.
+        /// </summary>
+        public long Watermark => this.watermark;
+
+        /// <summary>
+        /// Amount of tracked offsets at or above the watermark.
+        /// </summary>
+        public long PendingCount => this.tailSequence - this.headSequence;
+
+        /// <summary>
+        /// Amount of offsets the ring can hold before growing.
+        /// </summary>
+        public int Capacity => this.offsets.Length;
+
+        /// <summary>
+        /// Registers a dispatched offset. Offsets must be tracked in increasing order, already tracked offsets are ignored.
+        /// </summary>
+        public void Track(long offset)
+        {
+            if (offset < this.nextOffset)
+            {
+                return;
+            }
+
+            if (this.headSequence == this.tailSequence)
+            {
+                // Nothing in flight, start from the new offset
+                this.watermark = offset;
+            }
+            else
+            {
+                this.EnsureCapacity(this.tailSequence + 1 - this.headSequence);
+            }
+
+            this.offsets[this.tailSequence & this.mask] = offset;
+            this.tailSequence++;
+            this.nextOffset = offset + 1;
+        }
+
+        /// <summary>
+        /// Marks an offset as completed.
+        /// Returns true if the watermark moved forward.
+        /// </summary>
+        public bool Complete(long offset)
+        {
+            if (this.watermark < 0 || offset < this.watermark || offset >= this.nextOffset)
+            {
+                return false;
+            }
+
+            var sequence = this.FindSequence(offset);
+            if (sequence < 0)
+            {
+                // Skipped offset, never tracked
+                return false;
+            }
+
+            var slot = sequence & this.mask;
+            this.ring[slot >> 6] |= 1UL << (int)(slot & 63);
+            return sequence == this.headSequence && this.Advance();
+        }
+
+        /// <summary>
+        /// Forgets all tracked offsets.
+        /// </summary>
+        public void Reset()
+        {
+            Array.Clear(this.ring, 0, this.ring.Length);
+            this.headSequence = 0;
+            this.tailSequence = 0;
+            this.watermark = -1;
+            this.nextOffset = -1;
+        }
+
+        private long FindSequence(long offset)
+        {
+            // Without gaps since the watermark the slot is found right away
+            var sequence = this.headSequence + (offset - this.watermark);
+            if (sequence < this.tailSequence && this.offsets[sequence & this.mask] == offset)
+            {
+                return sequence;
+            }
+
+            // Tracked offsets are increasing, so the slots can be searched by offset
+            var low = this.headSequence;
+            var high = Math.Min(sequence, this.tailSequence - 1);
+            while (low <= high)
+            {
+                var middle = low + ((high - low) >> 1);
+                var middleOffset = this.offsets[middle & this.mask];
+                if (middleOffset == offset)
+                {
+                    return middle;
+                }
+
+                if (middleOffset < offset)
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle - 1;
+                }
+            }
+
+            return -1;
+        }
+
+        private bool Advance()
+        {
+            var start = this.headSequence;
+            while (this.headSequence < this.tailSequence)
+            {
+                var slot = this.headSequence & this.mask;
+                var wordIndex = (int)(slot >> 6);
+                var bit = (int)(slot & 63);
+
+                // Bits above the tracked range are always clear, so the run never goes past the tail
+                var completedRun = TrailingZeroCount(~(this.ring[wordIndex] >> bit));
+                if (completedRun == 0)
+                {
+                    break;
+                }
+
+                var runMask = completedRun == 64 ? ulong.MaxValue : ((1UL << completedRun) - 1) << bit;
+                this.ring[wordIndex] &= ~runMask;
+                this.headSequence += completedRun;
+            }
+
+            this.watermark = this.headSequence < this.tailSequence ? this.offsets[this.headSequence & this.mask] : this.nextOffset;
+            return this.headSequence > start;
+        }
+
+        private void EnsureCapacity(long requiredCapacity)
+        {
+            if (requiredCapacity <= this.Capacity)
+            {
+                return;
+            }
+
+            if (requiredCapacity > MaximumCapacity)
+            {
+                throw new InvalidOperationException($"More than {MaximumCapacity} offsets of the partition are in flight");
+            }
+
+            long capacity = this.Capacity;
+            while (capacity < requiredCapacity)
+            {
+                capacity <<= 1;
+            }
+
+            var newRing = new ulong[capacity / 64];
+            var newOffsets = new long[capacity];
+            var newMask = capacity - 1;
+            for (var sequence = this.headSequence; sequence < this.tailSequence; sequence++)
+            {
+                var slot = sequence & this.mask;
+                var newSlot = sequence & newMask;
+                newOffsets[newSlot] = this.offsets[slot];
+                if ((this.ring[slot >> 6] & (1UL << (int)(slot & 63))) != 0)
+                {
+                    newRing[newSlot >> 6] |= 1UL << (int)(newSlot & 63);
+                }
+            }
+
+            this.ring = newRing;
+            this.offsets = newOffsets;
+            this.mask = newMask;
+        }
+
+        private static int TrailingZeroCount(ulong value)
+        {
+            if (value == 0)
+            {
+                return 64;
+            }
+
+            return DeBruijnPositions[((value & (ulong)(-(long)value)) * DeBruijnSequence) >> 58];
+        }
+    }
+}
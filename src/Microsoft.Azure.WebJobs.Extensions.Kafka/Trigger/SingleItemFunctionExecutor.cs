@@ -3,9 +3,7 @@
 
 using System;
 using System.Collections.Generic;
-using System.Linq;
 using System.Threading;
-using System.Threading.Channels;
 using System.Threading.Tasks;
 using Confluent.Kafka;
 using Microsoft.Azure.WebJobs.Host;
@@ -15,7 +13,7 @@ using Microsoft.Extensions.Logging;
 namespace Microsoft.Azure.WebJobs.Extensions.Kafka
 {
     /// <summary>
-    /// Executes the functions for an specific partition
+    /// Executes the functions for an specific partition lane
     /// Used for functions that are expecting a single item.
     /// </summary>
     public class SingleItemFunctionExecutor<TKey, TValue> : FunctionExecutorBase<TKey, TValue>
@@ -29,117 +27,219 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka
             logger.LogInformation($"FunctionExecutor Loaded: {nameof(SingleItemFunctionExecutor<TKey, TValue>)}");
         }
 
-        protected override async Task ReaderAsync(ChannelReader<IKafkaEventData[]> reader, CancellationToken cancellationToken, ILogger logger)
-        {
-            var partitionTasks = new List<Task>();
+        // Lane batches never reach the function, each message is dispatched on its own
+        private protected override bool PoolsLaneBatches => true;
 
-            while (!cancellationToken.IsCancellationRequested && await reader.WaitToReadAsync(cancellationToken))
+        private protected override async Task ProcessLaneItemsAsync(PartitionLane lane, IKafkaEventData[] items, CancellationToken cancellationToken)
+        {
+            try
             {
-                while (!cancellationToken.IsCancellationRequested && reader.TryRead(out var itemsToExecute))
+                if (this.options.MaxConcurrencyPerPartition > 1)
                 {
-                    try
-                    {
-                        partitionTasks.Clear();
-
-                        // Create one task per partition, this way slow partition executions will not delay others
-                        // Order in a partition must be followed.
-                        var itemsByPartition = itemsToExecute.GroupBy(x => x.Partition);
-
-                        foreach (var partitionAndEvents in itemsByPartition)
-                        {
-                            var partition = partitionAndEvents.Key;
-                            var kafkaEvents = partitionAndEvents;
-
-                            partitionTasks.Add(ProcessPartitionItemsAsync(partition, kafkaEvents, cancellationToken));
-                        }
-
-                        await Task.WhenAll(partitionTasks);
-                    }
-                    catch (Exception ex)
-                    {
-                        logger.LogError(ex, $"Error in executor reader");
-                    }
+                    await this.ProcessPartitionItemsByKeyAsync(lane, items, cancellationToken);
+                }
+                else
+                {
+                    await this.ProcessPartitionItemsAsync(lane, items, cancellationToken);
                 }
             }
-
-            logger.LogInformation("Exiting reader {processName}", nameof(SingleItemFunctionExecutor<TKey, TValue>));
+            finally
+            {
+                this.ReturnLaneBatch(items);
+            }
         }
 
-        private async Task ProcessPartitionItemsAsync(int partition, IEnumerable<IKafkaEventData> events, CancellationToken cancellationToken)
+        private async Task ProcessPartitionItemsAsync(PartitionLane lane, IKafkaEventData[] events, CancellationToken cancellationToken)
         {
-            TopicPartition topicPartition = null;
+            var topicPartition = new TopicPartition(lane.Topic, lane.Partition);
             foreach (var kafkaEventData in events)
             {
-                if (topicPartition == null)
+                if (lane.IsDraining)
                 {
-                    topicPartition = new TopicPartition(kafkaEventData.Topic, partition);
+                    // Partition revoked: only the execution in flight is completed
+                    break;
                 }
 
-                var committed = false;
-                while (!committed && !cancellationToken.IsCancellationRequested)
+                if (await this.ExecuteUntilHandledAsync(lane, kafkaEventData, cancellationToken))
                 {
-                    var triggerInput = KafkaTriggerInput.New(kafkaEventData);
-                    var triggerData = new TriggeredFunctionData
-                    {
-                        TriggerValue = triggerInput,
-                    };
-
-                    // Create Single Event Activity Provider and Start the activity
-                    var singleEventActivityProvider = new SingleEventActivityProvider(kafkaEventData, consumerGroup);
-                    singleEventActivityProvider.StartActivity();
-                    FunctionResult functionResult = null;
-                    try
-                    {
-                        // Execute the Function
-                        functionResult = await this.ExecuteFunctionAsync(triggerData, cancellationToken);
-                        // Set the status of activity.
-                        singleEventActivityProvider.SetActivityStatus(functionResult.Succeeded, functionResult.Exception);
-                    }
-                    catch (Exception ex)
+                    this.Commit(lane, new[] { new TopicPartitionOffset(topicPartition, kafkaEventData.Offset + 1) });
+                }
+            }
+        }
+
+        /// <summary>
+        /// Executes messages with different keys concurrently (up to <see cref="KafkaOptions.MaxConcurrencyPerPartition"/>),
+        /// keeping messages with the same key in order. Messages without key do not wait on each other.
+        /// Offsets are committed up to the lowest offset that has not completed yet.
+        /// Once the partition is revoked, only the executions in flight are completed.
+        /// </summary>
+        private async Task ProcessPartitionItemsByKeyAsync(PartitionLane lane, IKafkaEventData[] items, CancellationToken cancellationToken)
+        {
+            var keyTails = new Dictionary<object, Task>(KafkaEventKeyComparer.Instance);
+            var executions = new List<Task>(items.Length);
+
+            using (var throttle = new SemaphoreSlim(this.options.MaxConcurrencyPerPartition))
+            {
+                foreach (var kafkaEventData in items)
+                {
+                    if (lane.IsDraining)
                     {
-                        singleEventActivityProvider.SetActivityStatus(false, ex);
-                        throw;
+                        // Partition revoked: messages not scheduled yet are left to the new owner
+                        break;
                     }
-                    finally
+
+                    this.TrackOffset(lane, kafkaEventData.Offset);
+
+                    Task previousWithSameKey = null;
+                    if (kafkaEventData.Key != null)
                     {
-                        // Stop the activity
-                        singleEventActivityProvider.StopCurrentActivity();
+                        keyTails.TryGetValue(kafkaEventData.Key, out previousWithSameKey);
                     }
 
-                    if (functionResult.Succeeded)
+                    var execution = ExecuteInKeyOrderAsync(throttle, previousWithSameKey, kafkaEventData);
+                    executions.Add(execution);
+
+                    if (kafkaEventData.Key != null)
                     {
-                        this.ClearRetryCounter(kafkaEventData.Topic, partition, kafkaEventData.Offset);
-                        this.Commit(new[] { new TopicPartitionOffset(topicPartition, kafkaEventData.Offset + 1) });
-                        committed = true;
+                        keyTails[kafkaEventData.Key] = execution;
                     }
-                    else if (this.options.CommitOnFailure)
+                }
+
+                try
+                {
+                    await Task.WhenAll(executions);
+                }
+                catch (Exception ex) when (!(ex is OperationCanceledException))
+                {
+                    // Same as the sequential path: a failed execution does not block commits of later batches
+                    this.ResetTrackedOffsets(lane);
+                    throw;
+                }
+            }
+
+            async Task ExecuteInKeyOrderAsync(SemaphoreSlim throttle, Task previousWithSameKey, IKafkaEventData kafkaEventData)
+            {
+                if (previousWithSameKey != null)
+                {
+                    await previousWithSameKey;
+                }
+
+                // Partition revoked while waiting: the offset stays uncompleted, so it is not committed
+                if (lane.IsDraining)
+                {
+                    return;
+                }
+
+                var handled = false;
+                await throttle.WaitAsync(cancellationToken);
+                try
+                {
+                    if (lane.IsDraining)
                     {
-                        // Default at-most-once behavior: commit regardless of failure
-                        this.Commit(new[] { new TopicPartitionOffset(topicPartition, kafkaEventData.Offset + 1) });
-                        committed = true;
+                        return;
                     }
-                    else if (this.IncrementRetryAndCheckExceeded(kafkaEventData.Topic, partition, kafkaEventData.Offset))
+
+                    handled = await this.ExecuteUntilHandledAsync(lane, kafkaEventData, cancellationToken);
+                }
+                finally
+                {
+                    throttle.Release();
+                }
+
+                if (!handled)
+                {
+                    // Cancelled: later messages with the same key must not run
+                    throw new OperationCanceledException(cancellationToken);
+                }
+
+                this.CompleteOffset(lane, kafkaEventData.Offset);
+            }
+        }
+
+        /// <summary>
+        /// Executes the function for a single message, retrying with exponential backoff when required.
+        /// Returns true once the message offset can be committed, false if the execution was cancelled or the partition revoked.
+        /// </summary>
+        private async Task<bool> ExecuteUntilHandledAsync(PartitionLane lane, IKafkaEventData kafkaEventData, CancellationToken cancellationToken)
+        {
+            var partition = kafkaEventData.Partition;
+            var attempt = 0;
+            while (!cancellationToken.IsCancellationRequested)
+            {
+                var triggerInput = KafkaTriggerInput.New(kafkaEventData);
+                var triggerData = new TriggeredFunctionData
+                {
+                    TriggerValue = triggerInput,
+                };
+
+                // Create Single Event Activity Provider and Start the activity
+                var singleEventActivityProvider = new SingleEventActivityProvider(kafkaEventData, consumerGroup);
+                singleEventActivityProvider.StartActivity();
+                FunctionResult functionResult = null;
+                try
+                {
+                    // Execute the Function
+                    functionResult = await this.ExecuteFunctionAsync(triggerData, cancellationToken);
+                    // Set the status of activity.
+                    singleEventActivityProvider.SetActivityStatus(functionResult.Succeeded, functionResult.Exception);
+                }
+                catch (Exception ex)
+                {
+                    singleEventActivityProvider.SetActivityStatus(false, ex);
+                    throw;
+                }
+                finally
+                {
+                    // Stop the activity
+                    singleEventActivityProvider.StopCurrentActivity();
+                }
+
+                if (functionResult.Succeeded)
+                {
+                    return true;
+                }
+                else if (this.options.CommitOnFailure)
+                {
+                    // Default at-most-once behavior: commit regardless of failure, once dead-lettered if the trigger has a dead-letter topic
+                    return this.DeadLetterPublisher == null || await this.DeadLetterAsync(lane, new[] { kafkaEventData }, functionResult.Exception);
+                }
+                else if (this.IsRetryLimitExceeded(++attempt))
+                {
+                    if (this.DeadLetterPublisher != null)
                     {
-                        // Poison message — max retries exceeded, force-commit to skip
+                        // Poison message — max retries exceeded, committed once published to the dead-letter topic
                         logger.LogError(functionResult.Exception,
                             "Message at {topic} / {partition} / {offset} failed after {maxRetries} retries. " +
-                            "Offset will be force-committed and the message will be skipped. " +
-                            "Consider implementing dead-letter handling in your function code.",
-                            kafkaEventData.Topic, partition, kafkaEventData.Offset, this.options.MaxRetries);
-                        this.ClearRetryCounter(kafkaEventData.Topic, partition, kafkaEventData.Offset);
-                        this.Commit(new[] { new TopicPartitionOffset(topicPartition, kafkaEventData.Offset + 1) });
-                        committed = true;
+                            "Message will be published to dead-letter topic {deadLetterTopic}.",
+                            kafkaEventData.Topic, partition, kafkaEventData.Offset, this.options.MaxRetries, this.DeadLetterPublisher.Topic);
+                        return await this.DeadLetterAsync(lane, new[] { kafkaEventData }, functionResult.Exception);
                     }
-                    else
+
+                    // Poison message — max retries exceeded, force-commit to skip
+                    logger.LogError(functionResult.Exception,
+                        "Message at {topic} / {partition} / {offset} failed after {maxRetries} retries. " +
+                        "Offset will be force-committed and the message will be skipped. " +
+                        "Consider setting a dead-letter topic on the trigger.",
+                        kafkaEventData.Topic, partition, kafkaEventData.Offset, this.options.MaxRetries);
+                    return true;
+                }
+                else
+                {
+                    // At-least-once: retry the same message once the backoff elapsed
+                    var delay = this.GetRetryDelay(attempt);
+                    logger.LogWarning(functionResult.Exception,
+                        "Function execution failed for {topic} / {partition} / {offset}. " +
+                        "Message will be retried in {delay}ms (attempt {attempt}).",
+                        kafkaEventData.Topic, partition, kafkaEventData.Offset, (long)delay.TotalMilliseconds, attempt);
+
+                    if (!await this.WaitBeforeRetryAsync(lane, delay))
                     {
-                        // At-least-once: retry the same message in-place
-                        logger.LogWarning(functionResult.Exception,
-                            "Function execution failed for {topic} / {partition} / {offset}. " +
-                            "Message will be retried in-place.",
-                            kafkaEventData.Topic, partition, kafkaEventData.Offset);
+                        return false;
                     }
                 }
             }
+
+            return false;
         }
     }
 }
\ No newline at end of file
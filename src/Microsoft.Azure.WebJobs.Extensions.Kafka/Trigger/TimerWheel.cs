@@ -0,0 +1,198 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Hashed timer wheel for retry delays.
+    /// All pending delays share a single timer ticking every <see cref="TickDuration"/>, a delay is completed by the tick of its slot
+    /// once the wheel has turned enough times. The timer only runs while delays are pending.
+    /// </summary>
+    internal sealed class TimerWheel : IDisposable
+    {
+        private readonly List<Entry>[] slots;
+        private readonly Timer timer;
+        private readonly object syncRoot = new object();
+        private long currentTick;
+        private int pendingCount;
+        private bool running;
+        private bool disposed;
+
+        public TimerWheel(TimeSpan tickDuration, int slotCount)
+        {
+            if (tickDuration <= TimeSpan.Zero)
+            {
+                throw new ArgumentOutOfRangeException(nameof(tickDuration));
+            }
+
+            if (slotCount <= 0)
+            {
+                throw new ArgumentOutOfRangeException(nameof(slotCount));
+            }
+
+            this.TickDuration = tickDuration;
+            this.slots = new List<Entry>[slotCount];
+            for (var i = 0; i < slotCount; i++)
+            {
+                this.slots[i] = new List<Entry>();
+            }
+
+            this.timer = new Timer(_ => this.OnTick(), null, Timeout.Infinite, Timeout.Infinite);
+        }
+
+        public TimeSpan TickDuration { get; }
+
+        /// <summary>
+        /// Delays waiting for their slot.
+        /// </summary>
+        public int PendingCount
+        {
+            get
+            {
+                lock (this.syncRoot)
+                {
+                    return this.pendingCount;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Returns a task completing once the delay elapsed, rounded up to the next tick.
+        /// The task is cancelled if <paramref name="cancellationToken"/> is cancelled first.
+        /// </summary>
+        public Task Delay(TimeSpan delay, CancellationToken cancellationToken)
+        {
+            if (delay <= TimeSpan.Zero)
+            {
+                return Task.CompletedTask;
+            }
+
+            if (cancellationToken.IsCancellationRequested)
+            {
+                return Task.FromCanceled(cancellationToken);
+            }
+
+            var ticks = Math.Max(1, (long)Math.Ceiling(delay.Ticks / (double)this.TickDuration.Ticks));
+            var entry = new Entry((ticks - 1) / this.slots.Length);
+            if (cancellationToken.CanBeCanceled)
+            {
+                // Cancelled entries are dropped when their slot is reached
+                entry.CancellationRegistration = cancellationToken.Register(x => ((Entry)x).Completion.TrySetCanceled(), entry);
+            }
+
+            lock (this.syncRoot)
+            {
+                if (this.disposed)
+                {
+                    entry.CancellationRegistration.Dispose();
+                    throw new ObjectDisposedException(nameof(TimerWheel));
+                }
+
+                this.slots[(this.currentTick + ticks) % this.slots.Length].Add(entry);
+                this.pendingCount++;
+                if (!this.running)
+                {
+                    this.running = true;
+                    this.timer.Change(this.TickDuration, this.TickDuration);
+                }
+            }
+
+            return entry.Completion.Task;
+        }
+
+        private void OnTick()
+        {
+            List<Entry> dueEntries = null;
+            lock (this.syncRoot)
+            {
+                if (!this.running)
+                {
+                    return;
+                }
+
+                this.currentTick++;
+                var slot = this.slots[this.currentTick % this.slots.Length];
+                for (var i = slot.Count - 1; i >= 0; i--)
+                {
+                    var entry = slot[i];
+                    if (entry.RemainingRounds > 0 && !entry.Completion.Task.IsCompleted)
+                    {
+                        entry.RemainingRounds--;
+                        continue;
+                    }
+
+                    slot.RemoveAt(i);
+                    dueEntries = dueEntries ?? new List<Entry>();
+                    dueEntries.Add(entry);
+                }
+
+                this.pendingCount -= dueEntries?.Count ?? 0;
+                if (this.pendingCount == 0)
+                {
+                    this.running = false;
+                    this.timer.Change(Timeout.Infinite, Timeout.Infinite);
+                }
+            }
+
+            if (dueEntries == null)
+            {
+                return;
+            }
+
+            // Continuations run asynchronously, the timer thread is not held by the retried executions
+            foreach (var entry in dueEntries)
+            {
+                entry.CancellationRegistration.Dispose();
+                entry.Completion.TrySetResult(true);
+            }
+        }
+
+        public void Dispose()
+        {
+            var pending = new List<Entry>();
+            lock (this.syncRoot)
+            {
+                if (this.disposed)
+                {
+                    return;
+                }
+
+                this.disposed = true;
+                this.running = false;
+                foreach (var slot in this.slots)
+                {
+                    pending.AddRange(slot);
+                    slot.Clear();
+                }
+
+                this.pendingCount = 0;
+            }
+
+            this.timer.Dispose();
+            foreach (var entry in pending)
+            {
+                entry.CancellationRegistration.Dispose();
+                entry.Completion.TrySetCanceled();
+            }
+        }
+
+        private sealed class Entry
+        {
+            public Entry(long remainingRounds)
+            {
+                this.RemainingRounds = remainingRounds;
+            }
+
+            public long RemainingRounds { get; set; }
+
+            public TaskCompletionSource<bool> Completion { get; } = new TaskCompletionSource<bool>(TaskCreationOptions.RunContinuationsAsynchronously);
+
+            public CancellationTokenRegistration CancellationRegistration { get; set; }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Text;
+using Confluent.Kafka;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka
+{
+    /// <summary>
+    /// Message that could not be deserialized, kept as raw bytes so it can be published to the dead-letter topic.
+    /// Flows through the partition lane like the decoded messages, so its offset is only committed once it is published.
+    /// Never handed to the function.
+    /// </summary>
+    internal sealed class UndecodedKafkaEventData : IKafkaEventData
+    {
+        private UndecodedKafkaEventData(string topic, int partition, long offset, DateTime timestamp, byte[] key, byte[] value, Headers headers, Exception error)
+        {
+            this.Topic = topic;
+            this.Partition = partition;
+            this.Offset = offset;
+            this.Timestamp = timestamp;
+            this.Key = key;
+            this.Value = value;
+            this.Headers = headers?.Count > 0 ? new KafkaEventDataHeaders(headers) : KafkaEventDataHeaders.EmptyReadOnly;
+            this.Error = error;
+        }
+
+        public object Value { get; }
+
+        public object Key { get; }
+
+        public long Offset { get; }
+
+        public int Partition { get; }
+
+        public string Topic { get; }
+
+        public DateTime Timestamp { get; }
+
+        public IKafkaEventDataHeaders Headers { get; }
+
+        public int? LeaderEpoch => null;
+
+        public bool IsPartitionEOF => false;
+
+        /// <summary>
+        /// Deserialization error of the message.
+        /// </summary>
+        public Exception Error { get; }
+
+        /// <summary>
+        /// Creates the entry of a message Consume failed to deserialize.
+        /// </summary>
+        public static UndecodedKafkaEventData FromConsumeException(ConsumeException exception)
+        {
+            var record = exception.ConsumerRecord;
+            return new UndecodedKafkaEventData(
+                record.Topic,
+                record.Partition.Value,
+                record.Offset.Value,
+                record.Message?.Timestamp.UtcDateTime ?? default,
+                record.Message?.Key,
+                record.Message?.Value,
+                record.Message?.Headers,
+                exception);
+        }
+
+        /// <summary>
+        /// Creates the entry of a message the deserialization pipeline failed to decode.
+        /// </summary>
+        public static UndecodedKafkaEventData FromConsumeResult<TKey, TValue>(ConsumeResult<TKey, TValue> consumeResult, byte[] key, byte[] value, Exception error)
+        {
+            return new UndecodedKafkaEventData(
+                consumeResult.Topic,
+                consumeResult.Partition.Value,
+                consumeResult.Offset.Value,
+                consumeResult.Message.Timestamp.UtcDateTime,
+                key ?? GetBytes(consumeResult.Message.Key),
+                value ?? GetBytes(consumeResult.Message.Value),
+                consumeResult.Message.Headers,
+                error);
+        }
+
+        // Components without a deferred deserializer were decoded by Consume with a built-in deserializer
+        private static byte[] GetBytes(object component)
+        {
+            switch (component)
+            {
+                case byte[] bytes:
+                    return bytes;
+                case string text:
+                    return Encoding.UTF8.GetBytes(text);
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Linq;
+using System.Reflection;
+using System.Threading;
+using System.Threading.Tasks;
+using BenchmarkDotNet.Attributes;
+using Confluent.Kafka;
+using Microsoft.Azure.WebJobs.Host.Executors;
+using Microsoft.Extensions.Logging.Abstractions;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.Benchmarks
+{
+    /// <summary>
+    /// Publishes single messages to an idle topic and measures how long the listener takes to execute them,
+    /// with the default batch window and with <see cref="KafkaOptions.LowLatencyMode"/>.
+    /// The simulated consumer blocks in Consume until a message arrives or the timeout elapses, like librdkafka.
+    /// Each invocation is one message, the p50 and p99 latencies of the run are written to the log at cleanup.
+    /// </summary>
+    [WarmupCount(1)]
+    [IterationCount(5)]
+    [InvocationCount(20)]
+    public class LowLatencyDispatchBenchmark
+    {
+        private readonly List<double> latencies = new List<double>();
+        private SimulatedExecutor executor;
+        private BlockingCollection<ConsumeResult<Ignore, string>> fetched;
+        private KafkaListener<Ignore, string> listener;
+        private long offset;
+
+        [Params(false, true)]
+        public bool LowLatencyMode { get; set; }
+
+        [GlobalSetup]
+        public void Setup()
+        {
+            this.fetched = new BlockingCollection<ConsumeResult<Ignore, string>>();
+            this.executor = new SimulatedExecutor();
+
+            var consumer = DispatchProxy.Create<IConsumer<Ignore, string>, SimulatedConsumer>();
+            ((SimulatedConsumer)(object)consumer).Fetched = this.fetched;
+
+            var options = new KafkaOptions() { LowLatencyMode = this.LowLatencyMode };
+            var listenerConfiguration = new KafkaListenerConfiguration()
+            {
+                BrokerList = "localhost:9092",
+                Topic = "payments",
+                ConsumerGroup = "benchmark",
+            };
+
+            this.listener = new SimulatedListener(this.executor, options, listenerConfiguration, consumer);
+            this.listener.StartAsync(CancellationToken.None).GetAwaiter().GetResult();
+        }
+
+        [GlobalCleanup]
+        public void Cleanup()
+        {
+            this.listener.StopAsync(CancellationToken.None).GetAwaiter().GetResult();
+
+            var sorted = this.latencies.OrderBy(x => x).ToArray();
+            Console.WriteLine($"// LowLatencyMode={this.LowLatencyMode}: {sorted.Length} messages, p50 {Percentile(sorted, 0.50):F2} ms, p99 {Percentile(sorted, 0.99):F2} ms");
+        }
+
+        [Benchmark]
+        public void PublishAndExecute()
+        {
+            var published = Stopwatch.GetTimestamp();
+            this.fetched.Add(new ConsumeResult<Ignore, string>()
+            {
+                Message = new Message<Ignore, string>() { Value = "notification", Timestamp = Timestamp.Default },
+                Topic = "payments",
+                Partition = 0,
+                Offset = ++this.offset,
+            });
+
+            this.executor.Executed.Wait();
+            this.latencies.Add((this.executor.LastExecution - published) * 1000.0 / Stopwatch.Frequency);
+        }
+
+        private static double Percentile(double[] sorted, double percentile)
+        {
+            if (sorted.Length == 0)
+            {
+                return 0;
+            }
+
+            var index = (int)Math.Ceiling(percentile * sorted.Length) - 1;
+            return sorted[Math.Max(0, Math.Min(index, sorted.Length - 1))];
+        }
+
+        private sealed class SimulatedListener : KafkaListener<Ignore, string>
+        {
+            private readonly IConsumer<Ignore, string> consumer;
+
+            public SimulatedListener(ITriggeredFunctionExecutor executor, KafkaOptions options, KafkaListenerConfiguration listenerConfiguration, IConsumer<Ignore, string> consumer)
+                : base(executor, singleDispatch: true, options, listenerConfiguration, requiresKey: false, valueDeserializer: null, keyDeserializer: null, NullLogger.Instance, functionId: "benchmark", drainModeManager: null)
+            {
+                this.consumer = consumer;
+            }
+
+            protected override ConsumerBuilder<Ignore, string> CreateConsumerBuilder(ConsumerConfig config) => new SimulatedConsumerBuilder(config, this.consumer);
+        }
+
+        private sealed class SimulatedConsumerBuilder : ConsumerBuilder<Ignore, string>
+        {
+            private readonly IConsumer<Ignore, string> consumer;
+
+            public SimulatedConsumerBuilder(ConsumerConfig config, IConsumer<Ignore, string> consumer) : base(config)
+            {
+                this.consumer = consumer;
+            }
+
+            public override IConsumer<Ignore, string> Build() => this.consumer;
+        }
+
+        private sealed class SimulatedExecutor : ITriggeredFunctionExecutor
+        {
+            public SemaphoreSlim Executed { get; } = new SemaphoreSlim(0);
+
+            public long LastExecution { get; private set; }
+
+            public Task<FunctionResult> TryExecuteAsync(TriggeredFunctionData input, CancellationToken cancellationToken)
+            {
+                this.LastExecution = Stopwatch.GetTimestamp();
+                this.Executed.Release();
+                return Task.FromResult(new FunctionResult(true));
+            }
+        }
+
+        /// <summary>
+        /// Consumer waiting for the published messages in Consume, the other members do nothing.
+        /// </summary>
+        public class SimulatedConsumer : DispatchProxy
+        {
+            internal BlockingCollection<ConsumeResult<Ignore, string>> Fetched { get; set; }
+
+            protected override object Invoke(MethodInfo targetMethod, object[] args)
+            {
+                if (targetMethod.Name == nameof(IConsumer<Ignore, string>.Consume) && args.Length == 1 && args[0] is TimeSpan timeout)
+                {
+                    return this.Fetched.TryTake(out var result, timeout) ? result : null;
+                }
+
+                var returnType = targetMethod.ReturnType;
+                return returnType.IsValueType && returnType != typeof(void) ? Activator.CreateInstance(returnType) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using BenchmarkDotNet.Attributes;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.Benchmarks
+{
+    /// <summary>
+    /// Tracks <see cref="InFlight"/> offsets and completes them in order, in reverse order (watermark only moves at
+    /// the last completion) and in random order.
+    /// </summary>
+    [MemoryDiagnoser]
+    public class PartitionOffsetTrackerBenchmark
+    {
+        private long[] inOrder;
+        private long[] reversed;
+        private long[] shuffled;
+
+        [Params(100_000)]
+        public int InFlight { get; set; }
+
+        [GlobalSetup]
+        public void Setup()
+        {
+            this.inOrder = new long[this.InFlight];
+            for (var i = 0; i < this.InFlight; i++)
+            {
+                this.inOrder[i] = 1_000_000 + i;
+            }
+
+            this.reversed = (long[])this.inOrder.Clone();
+            Array.Reverse(this.reversed);
+
+            var random = new Random(42);
+            this.shuffled = (long[])this.inOrder.Clone();
+            for (var i = this.shuffled.Length - 1; i > 0; i--)
+            {
+                var j = random.Next(i + 1);
+                (this.shuffled[i], this.shuffled[j]) = (this.shuffled[j], this.shuffled[i]);
+            }
+        }
+
+        [Benchmark(Baseline = true)]
+        public long CompleteInOrder() => this.Run(this.inOrder);
+
+        [Benchmark]
+        public long CompleteReversed() => this.Run(this.reversed);
+
+        [Benchmark]
+        public long CompleteShuffled() => this.Run(this.shuffled);
+
+        private long Run(long[] completionOrder)
+        {
+            var tracker = new PartitionOffsetTracker();
+            foreach (var offset in this.inOrder)
+            {
+                tracker.Track(offset);
+            }
+
+            foreach (var offset in completionOrder)
+            {
+                tracker.Complete(offset);
+            }
+
+            return tracker.Watermark;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Linq;
+using System.Text;
+using System.Text.Json;
+using System.Threading;
+using BenchmarkDotNet.Attributes;
+using Confluent.Kafka;
+using Microsoft.Extensions.Configuration;
+using Microsoft.Extensions.Logging.Abstractions;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.Benchmarks
+{
+    /// <summary>
+    /// Produces <see cref="Messages"/> JSON messages per <see cref="Codec"/> to an in-process librdkafka mock cluster
+    /// (<c>test.mock.num.brokers</c>), with the producer config built by <see cref="KafkaProducerFactory.GetProducerConfig"/>
+    /// from the output attribute. The mean is per message and gives the throughput of the codec.
+    /// The bytes sent to the broker (librdkafka statistics <c>tx_bytes</c>) per message are written to the log on cleanup.
+    /// </summary>
+    [MemoryDiagnoser]
+    public class ProducerCompressionBenchmark
+    {
+        private const int Messages = 10_000;
+        private const int StatisticsIntervalMs = 100;
+        private const string Topic = "benchmark";
+
+        private IProducer<byte[], byte[]> baseProducer;
+        private KafkaProducer<Null, string> kafkaProducer;
+        private object[] items;
+        private long payloadBytes;
+        private long producedMessages;
+        private long transmittedBytes;
+        private long setupBytes;
+
+        [Params(MessageCompressionType.None, MessageCompressionType.Gzip, MessageCompressionType.Snappy, MessageCompressionType.Lz4, MessageCompressionType.Zstd)]
+        public MessageCompressionType Codec { get; set; }
+
+        [GlobalSetup]
+        public void Setup()
+        {
+            var configuration = new ConfigurationBuilder().Build();
+            var factory = new KafkaProducerFactory(configuration, new DefaultNameResolver(configuration), NullLoggerFactory.Instance);
+            var config = factory.GetProducerConfig(new KafkaProducerEntity()
+            {
+                Attribute = new KafkaAttribute("localhost:9092", Topic)
+                {
+                    CompressionType = this.Codec,
+                },
+            });
+            config.Set("test.mock.num.brokers", "1");
+            config.StatisticsIntervalMs = StatisticsIntervalMs;
+
+            this.baseProducer = new ProducerBuilder<byte[], byte[]>(config)
+                .SetStatisticsHandler((_, statistics) =>
+                {
+                    using var document = JsonDocument.Parse(statistics);
+                    Interlocked.Exchange(ref this.transmittedBytes, document.RootElement.GetProperty("tx_bytes").GetInt64());
+                })
+                .Build();
+            this.kafkaProducer = new KafkaProducer<Null, string>(this.baseProducer.Handle, null, null, NullLogger.Instance);
+
+            // Output of a typical function: JSON documents sharing their structure, with varying values
+            this.items = Enumerable.Range(0, Messages)
+                .Select(i => (object)new KafkaEventData<string>(
+                    $"{{\"orderId\":\"{Guid.NewGuid()}\",\"customerId\":{i % 997},\"status\":\"{(i % 3 == 0 ? "Shipped" : "Created")}\",\"amount\":{i % 1000}.{i % 100:D2},\"currency\":\"EUR\",\"lines\":[{{\"sku\":\"SKU-{i % 50}\",\"quantity\":{i % 7 + 1}}},{{\"sku\":\"SKU-{i % 31}\",\"quantity\":1}}],\"createdAt\":\"{DateTime.UtcNow:O}\"}}"))
+                .ToArray();
+            this.payloadBytes = this.items.Sum(x => (long)Encoding.UTF8.GetByteCount((string)((IKafkaEventData)x).Value));
+
+            // Creates the topic in the mock cluster, outside of the bytes per message
+            this.kafkaProducer.Produce(Topic, this.items[0]);
+            this.kafkaProducer.Flush();
+            Thread.Sleep(StatisticsIntervalMs * 3);
+            this.setupBytes = Interlocked.Read(ref this.transmittedBytes);
+        }
+
+        [GlobalCleanup]
+        public void Cleanup()
+        {
+            // Waits for the statistics of the last flush
+            Thread.Sleep(StatisticsIntervalMs * 3);
+            var bytesPerMessage = this.producedMessages == 0 ? 0 : (double)(Interlocked.Read(ref this.transmittedBytes) - this.setupBytes) / this.producedMessages;
+            Console.WriteLine($"// {this.Codec}: {bytesPerMessage:F1} bytes on the wire per message, {(double)this.payloadBytes / Messages:F1} payload bytes per message");
+
+            this.kafkaProducer.Dispose();
+            this.baseProducer.Dispose();
+        }
+
+        [Benchmark(OperationsPerInvoke = Messages)]
+        public void Produce()
+        {
+            foreach (var item in this.items)
+            {
+                this.kafkaProducer.Produce(Topic, item);
+            }
+
+            this.kafkaProducer.Flush();
+            this.producedMessages += Messages;
+        }
+    }
+}
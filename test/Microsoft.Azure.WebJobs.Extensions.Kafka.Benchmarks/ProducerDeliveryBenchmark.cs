@@ -0,0 +1,98 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System.Linq;
+using System.Threading;
+using BenchmarkDotNet.Attributes;
+using Confluent.Kafka;
+using Microsoft.Extensions.Logging;
+using Microsoft.Extensions.Logging.Abstractions;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.Benchmarks
+{
+    /// <summary>
+    /// Produces <see cref="Messages"/> messages to an in-process librdkafka mock cluster (<c>test.mock.num.brokers</c>)
+    /// and waits for all delivery reports. <see cref="PerMessageHandler"/> produces like the output binding did before
+    /// the shared delivery handler: a log call and a handler closure per message. <see cref="SharedHandler"/> goes through
+    /// <c>KafkaProducer.Produce</c>, <see cref="Confirmed"/> through the confirmed delivery mode.
+    /// Results are per message: the mean gives the messages per second, the memory diagnoser the allocations per message.
+    /// </summary>
+    [MemoryDiagnoser]
+    public class ProducerDeliveryBenchmark
+    {
+        private const int Messages = 10_000;
+        private const string Topic = "benchmark";
+
+        private readonly ILogger logger = NullLogger.Instance;
+        private IProducer<byte[], byte[]> baseProducer;
+        private IProducer<Null, string> dependentProducer;
+        private KafkaProducer<Null, string> kafkaProducer;
+        private object[] items;
+
+        [GlobalSetup]
+        public void Setup()
+        {
+            var config = new ProducerConfig()
+            {
+                BootstrapServers = "localhost:9092",
+            };
+            config.Set("test.mock.num.brokers", "1");
+
+            this.baseProducer = new ProducerBuilder<byte[], byte[]>(config).Build();
+            this.dependentProducer = new DependentProducerBuilder<Null, string>(this.baseProducer.Handle).Build();
+            this.kafkaProducer = new KafkaProducer<Null, string>(this.baseProducer.Handle, null, null, NullLogger.Instance);
+            this.items = Enumerable.Range(0, Messages).Select(i => (object)new KafkaEventData<string>("message " + i)).ToArray();
+
+            // Creates the topic in the mock cluster
+            this.kafkaProducer.Produce(Topic, this.items[0]);
+            this.kafkaProducer.Flush();
+        }
+
+        [GlobalCleanup]
+        public void Cleanup()
+        {
+            this.kafkaProducer.Dispose();
+            this.dependentProducer.Dispose();
+            this.baseProducer.Dispose();
+        }
+
+        [Benchmark(Baseline = true, OperationsPerInvoke = Messages)]
+        public void PerMessageHandler()
+        {
+            foreach (IKafkaEventData item in this.items)
+            {
+                var topicUsed = Topic;
+                this.logger.LogInformation("in Produce method");
+                this.dependentProducer.Produce(topicUsed, this.kafkaProducer.MessageBuilder.BuildFrom(item), deliveryResult =>
+                {
+                    if (deliveryResult.Error.Code != ErrorCode.NoError)
+                    {
+                        this.logger.LogError("Failed to deliver message to {topic}", topicUsed);
+                        return;
+                    }
+
+                    this.logger.LogDebug("Message delivered on {topic} / {partition} / {offset}", deliveryResult.Topic, (int)deliveryResult.Partition, (long)deliveryResult.Offset);
+                });
+            }
+
+            this.dependentProducer.Flush(Timeout.InfiniteTimeSpan);
+        }
+
+        [Benchmark(OperationsPerInvoke = Messages)]
+        public void SharedHandler()
+        {
+            foreach (var item in this.items)
+            {
+                this.kafkaProducer.Produce(Topic, item);
+            }
+
+            this.kafkaProducer.Flush();
+        }
+
+        [Benchmark(OperationsPerInvoke = Messages)]
+        public void Confirmed()
+        {
+            ((IKafkaConfirmedProducer)this.kafkaProducer).ProduceAndConfirmAsync(Topic, this.items).GetAwaiter().GetResult();
+        }
+    }
+}
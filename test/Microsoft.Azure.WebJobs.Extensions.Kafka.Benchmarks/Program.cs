@@ -0,0 +1,24 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using BenchmarkDotNet.Running;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.Benchmarks
+{
+    /// <summary>
+    /// Runs the benchmarks selected in the command line.
+    /// Usage: dotnet run -c Release -- --filter *PartitionOffsetTracker*
+    ///        dotnet run -c Release -- --filter *SharedConsumerPoller*
+    ///        dotnet run -c Release -- --filter *LowLatencyDispatch*
+    ///        dotnet run -c Release -- --filter *ProducerFactory*
+    ///        dotnet run -c Release -- --filter *ProducerDelivery*
+    ///        dotnet run -c Release -- --filter *ProducerCompression*
+    /// </summary>
+    public static class Program
+    {
+        public static void Main(string[] args)
+        {
+            BenchmarkSwitcher.FromAssembly(typeof(Program).Assembly).Run(args);
+        }
+    }
+}
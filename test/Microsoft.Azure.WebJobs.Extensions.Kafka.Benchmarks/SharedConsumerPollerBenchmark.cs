@@ -0,0 +1,154 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Diagnostics;
+using System.Threading;
+using BenchmarkDotNet.Attributes;
+using Microsoft.Extensions.Logging.Abstractions;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.Benchmarks
+{
+    /// <summary>
+    /// Delivers one message to each of <see cref="Listeners"/> simulated triggers and waits until all consumed it,
+    /// polling them either with a dedicated thread per trigger blocking in its consume call (the default), or with
+    /// <see cref="SharedConsumerPoller"/> threads polling them in turn without blocking.
+    /// The polling and process thread counts are written to the log at setup, lock contentions and thread pool
+    /// work items are reported by the threading diagnoser. Context switches can be compared with
+    /// <c>dotnet-counters monitor --counters System.Runtime</c> or <c>perf stat -e context-switches</c> on the benchmark process.
+    /// </summary>
+    [ThreadingDiagnoser]
+    public class SharedConsumerPollerBenchmark
+    {
+        private SimulatedConsumer[] consumers;
+        private Thread[] dedicatedThreads;
+        private CancellationTokenSource cancellationTokenSource;
+        private CountdownEvent delivered;
+
+        [Params(100)]
+        public int Listeners { get; set; }
+
+        /// <summary>
+        /// 0 polls every trigger on a dedicated thread.
+        /// </summary>
+        [Params(0, 2, 4)]
+        public int SharedPollerThreadCount { get; set; }
+
+        [GlobalSetup]
+        public void Setup()
+        {
+            this.delivered = new CountdownEvent(this.Listeners);
+            this.cancellationTokenSource = new CancellationTokenSource();
+            this.consumers = new SimulatedConsumer[this.Listeners];
+            for (var i = 0; i < this.Listeners; i++)
+            {
+                this.consumers[i] = new SimulatedConsumer(this.delivered);
+            }
+
+            if (this.SharedPollerThreadCount == 0)
+            {
+                this.dedicatedThreads = new Thread[this.Listeners];
+                for (var i = 0; i < this.Listeners; i++)
+                {
+                    var consumer = this.consumers[i];
+                    this.dedicatedThreads[i] = new Thread(() => consumer.Run(this.cancellationTokenSource.Token)) { IsBackground = true };
+                    this.dedicatedThreads[i].Start();
+                }
+            }
+            else
+            {
+                var poller = new SharedConsumerPoller(this.SharedPollerThreadCount, NullLogger.Instance);
+                foreach (var consumer in this.consumers)
+                {
+                    poller.Add(consumer);
+                }
+            }
+
+            var pollingThreads = this.SharedPollerThreadCount == 0 ? this.Listeners : this.SharedPollerThreadCount;
+            Console.WriteLine($"// Polling threads: {pollingThreads}, process threads: {Process.GetCurrentProcess().Threads.Count}");
+        }
+
+        [GlobalCleanup]
+        public void Cleanup()
+        {
+            this.cancellationTokenSource.Cancel();
+            foreach (var consumer in this.consumers)
+            {
+                consumer.Stop();
+            }
+
+            if (this.dedicatedThreads != null)
+            {
+                foreach (var thread in this.dedicatedThreads)
+                {
+                    thread.Join();
+                }
+            }
+        }
+
+        [Benchmark]
+        public void DeliverToAllListeners()
+        {
+            this.delivered.Reset();
+            foreach (var consumer in this.consumers)
+            {
+                consumer.Publish();
+            }
+
+            this.delivered.Wait();
+        }
+
+        private sealed class SimulatedConsumer : IPolledConsumer
+        {
+            private static readonly TimeSpan ConsumeTimeout = TimeSpan.FromSeconds(1);
+
+            private readonly BlockingCollection<long> messages = new BlockingCollection<long>();
+            private readonly CountdownEvent delivered;
+            private volatile bool stopped;
+
+            public SimulatedConsumer(CountdownEvent delivered)
+            {
+                this.delivered = delivered;
+            }
+
+            public bool IsCompleted => this.stopped;
+
+            public void Publish() => this.messages.Add(Stopwatch.GetTimestamp());
+
+            public void Stop() => this.stopped = true;
+
+            // Shared poller turn, like Consume(TimeSpan.Zero)
+            public bool Poll()
+            {
+                var consumed = false;
+                while (this.messages.TryTake(out _))
+                {
+                    this.delivered.Signal();
+                    consumed = true;
+                }
+
+                return consumed;
+            }
+
+            // Dedicated thread, like Consume(timeout) in a loop
+            public void Run(CancellationToken cancellationToken)
+            {
+                while (!this.stopped)
+                {
+                    try
+                    {
+                        if (this.messages.TryTake(out _, (int)ConsumeTimeout.TotalMilliseconds, cancellationToken))
+                        {
+                            this.delivered.Signal();
+                        }
+                    }
+                    catch (OperationCanceledException)
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -21,8 +21,10 @@ using Microsoft.Extensions.DependencyInjection;
 using Microsoft.Extensions.Hosting;
 using Microsoft.Extensions.Logging;
 using Microsoft.Extensions.Logging.Abstractions;
+using Microsoft.Extensions.Options;
 using Microsoft.Azure.WebJobs.Extensions.Kafka.Serialization;
 using Xunit;
+using Xunit.Abstractions;
 
 namespace Microsoft.Azure.WebJobs.Extensions.Kafka.EndToEndTests
 {
@@ -31,6 +33,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.EndToEndTests
     {
         private readonly TestLoggerProvider loggerProvider;
         private readonly KafkaEndToEndTestFixture endToEndTestFixture;
+        private readonly ITestOutputHelper output;
 
         internal static TestLoggerProvider CreateTestLoggerProvider()
         {
@@ -39,10 +42,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.EndToEndTests
                 new TestLoggerProvider();
         }
 
-        public KafkaEndToEndTests(KafkaEndToEndTestFixture endToEndTestFixture)
+        public KafkaEndToEndTests(KafkaEndToEndTestFixture endToEndTestFixture, ITestOutputHelper output)
         {
             loggerProvider = CreateTestLoggerProvider();
             this.endToEndTestFixture = endToEndTestFixture;
+            this.output = output;
         }
 
         [Fact]
@@ -440,6 +444,180 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.EndToEndTests
             }
         }
 
+        [Fact]
+        public async Task StaticGroupMembership_Restarted_Host_Reclaims_Partitions_Without_Rebalancing_The_Group()
+        {
+            const int sessionTimeoutMs = 60000;
+            const string websiteInstanceIdEnvVarName = "WEBSITE_INSTANCE_ID";
+            var messageMasterPrefix = Guid.NewGuid().ToString();
+            var messagePrefixBatch1 = messageMasterPrefix + ":1:";
+            var messagePrefixBatch2 = messageMasterPrefix + ":2:";
+            var consumerGroupSettings = await CreateTestSettingsAsync();
+            var topicName = ResolveTopicName(consumerGroupSettings, endToEndTestFixture.StringTopicWithTenPartitions.Name);
+            Action<KafkaOptions> configureKafka = options =>
+            {
+                options.StaticGroupMembership = true;
+                options.StaticMembershipSessionTimeoutMs = sessionTimeoutMs;
+            };
+
+            // Another member of the group sees every rebalance. A dynamic member leaving and joining the group again
+            // rebalances it twice, a static member rejoining with the same group.instance.id gets its partitions back without one.
+            var observerRebalances = 0;
+            var observerAssigned = new TaskCompletionSource<bool>(TaskCreationOptions.RunContinuationsAsynchronously);
+            using var observer = new Confluent.Kafka.ConsumerBuilder<Confluent.Kafka.Ignore, string>(new Confluent.Kafka.ConsumerConfig
+            {
+                BootstrapServers = endToEndTestFixture.Broker,
+                GroupId = consumerGroupSettings[Constants.ConsumerGroupID],
+                AutoOffsetReset = Confluent.Kafka.AutoOffsetReset.Earliest,
+                SessionTimeoutMs = 10000,
+            })
+            .SetPartitionsAssignedHandler((_, partitions) =>
+            {
+                Interlocked.Increment(ref observerRebalances);
+                if (partitions.Count > 0)
+                {
+                    observerAssigned.TrySetResult(true);
+                }
+            })
+            .SetPartitionsRevokedHandler((_, _) => Interlocked.Increment(ref observerRebalances))
+            .Build();
+
+            using var observerCancellation = new CancellationTokenSource();
+            Task observerPolling = null;
+
+            var previousInstanceId = Environment.GetEnvironmentVariable(websiteInstanceIdEnvVarName);
+            Environment.SetEnvironmentVariable(websiteInstanceIdEnvVarName, "e2e-" + Guid.NewGuid().ToString("N"));
+            try
+            {
+                var loggerProvider1 = CreateTestLoggerProvider();
+                using (var host = await StartHostAsync(new[] { typeof(SingleItem_Raw_String_Without_Key_Trigger) }, loggerProvider1, configureKafka: configureKafka, testSettings: consumerGroupSettings))
+                {
+                    await ProduceMessagesToAllPartitionsAsync(topicName, Enumerable.Range(1, 10).Select(x => messagePrefixBatch1 + x));
+                    await WaitForUserLogMessagesAsync(loggerProvider1, messagePrefixBatch1, 10);
+
+                    // Give time for the commit to be saved
+                    await Task.Delay(1500);
+
+                    observer.Subscribe(topicName);
+                    observerPolling = Task.Run(() =>
+                    {
+                        while (!observerCancellation.IsCancellationRequested)
+                        {
+                            observer.Consume(TimeSpan.FromMilliseconds(100));
+                        }
+                    });
+
+                    await observerAssigned.Task.WaitAsync(TimeSpan.FromSeconds(60));
+
+                    // Let the rebalance triggered by the observer settle
+                    await Task.Delay(3000);
+                }
+
+                var rebalancesBeforeRestart = Volatile.Read(ref observerRebalances);
+                var loggerProvider2 = CreateTestLoggerProvider();
+                var stopwatch = Stopwatch.StartNew();
+                using (var host = await StartHostAsync(new[] { typeof(SingleItem_Raw_String_Without_Key_Trigger) }, loggerProvider2, configureKafka: configureKafka, testSettings: consumerGroupSettings))
+                {
+                    // The restarted host owns some of the partitions, the observer the others
+                    await ProduceMessagesToAllPartitionsAsync(topicName, Enumerable.Range(1, 10).Select(x => messagePrefixBatch2 + x));
+                    await WaitForUserLogMessagesAsync(loggerProvider2, messagePrefixBatch2, 1, timeout: sessionTimeoutMs);
+                    stopwatch.Stop();
+
+                    // A rebalance of the restart would reach the observer by now
+                    await Task.Delay(3000);
+                }
+
+                this.output.WriteLine($"Time to first message after restart: {stopwatch.ElapsedMilliseconds}ms");
+                Assert.Equal(rebalancesBeforeRestart, Volatile.Read(ref observerRebalances));
+                Assert.True(stopwatch.ElapsedMilliseconds < sessionTimeoutMs / 2, $"Time to first message after restart was {stopwatch.ElapsedMilliseconds}ms");
+                Assert.DoesNotContain(loggerProvider2.GetAllUserLogMessages().Where(p => p.FormattedMessage != null).Select(x => x.FormattedMessage), x => x.Contains(messagePrefixBatch1));
+            }
+            finally
+            {
+                Environment.SetEnvironmentVariable(websiteInstanceIdEnvVarName, previousInstanceId);
+                observerCancellation.Cancel();
+                if (observerPolling != null)
+                {
+                    await observerPolling;
+                }
+
+                observer.Close();
+            }
+        }
+
+        [Theory]
+        [InlineData(1)]
+        [InlineData(2)]
+        [InlineData(4)]
+        public async Task Output_Sharded_Producers_Keep_Key_Order(int producerShardCount)
+        {
+            const int producedMessagesCount = 50000;
+            const int keyCount = 100;
+            var consumerGroupSettings = await CreateTestSettingsAsync();
+            var topicName = ResolveTopicName(consumerGroupSettings, Constants.StringTopicWithTenPartitionsName);
+
+            var configuration = new ConfigurationBuilder().Build();
+            var factory = new KafkaProducerFactory(
+                configuration,
+                new DefaultNameResolver(configuration),
+                NullLoggerFactory.Instance,
+                Options.Create(new KafkaOptions() { ProducerShardCount = producerShardCount }));
+
+            var producer = factory.Create(new KafkaProducerEntity()
+            {
+                Attribute = new KafkaAttribute(endToEndTestFixture.Broker, topicName),
+                KeyType = typeof(string),
+                ValueType = typeof(string),
+                Topic = topicName,
+            });
+
+            var stopwatch = Stopwatch.StartNew();
+            for (var i = 0; i < producedMessagesCount; i++)
+            {
+                producer.Produce(topicName, new KafkaEventData<string, string>("key" + (i % keyCount), i.ToString()));
+            }
+
+            producer.Flush();
+            stopwatch.Stop();
+            Console.WriteLine($"Produced {producedMessagesCount} messages with {producerShardCount} producers in {stopwatch.ElapsedMilliseconds}ms ({producedMessagesCount * 1000 / Math.Max(1, stopwatch.ElapsedMilliseconds)} msg/s)");
+
+            // Messages of a key are produced with increasing values, they must be read back in the same order
+            using var consumer = new Confluent.Kafka.ConsumerBuilder<string, string>(new Confluent.Kafka.ConsumerConfig
+            {
+                BootstrapServers = endToEndTestFixture.Broker,
+                GroupId = Guid.NewGuid().ToString(),
+                AutoOffsetReset = Confluent.Kafka.AutoOffsetReset.Earliest,
+                EnableAutoCommit = false,
+            }).Build();
+
+            consumer.Subscribe(topicName);
+            var lastValueByKey = new Dictionary<string, int>();
+            var consumedMessagesCount = 0;
+            var consumeStopwatch = Stopwatch.StartNew();
+            while (consumedMessagesCount < producedMessagesCount && consumeStopwatch.Elapsed < TimeSpan.FromMinutes(2))
+            {
+                var consumeResult = consumer.Consume(TimeSpan.FromSeconds(1));
+                if (consumeResult == null)
+                {
+                    continue;
+                }
+
+                var value = int.Parse(consumeResult.Message.Value);
+                if (lastValueByKey.TryGetValue(consumeResult.Message.Key, out var lastValue))
+                {
+                    Assert.True(value > lastValue, $"Message {value} of {consumeResult.Message.Key} was read after {lastValue}");
+                }
+
+                lastValueByKey[consumeResult.Message.Key] = value;
+                consumedMessagesCount++;
+            }
+
+            consumer.Close();
+
+            Assert.Equal(producedMessagesCount, consumedMessagesCount);
+            Assert.Equal(keyCount, lastValueByKey.Count);
+        }
+
         private static Task ProduceMessagesToAllPartitionsAsync(string topicName, IEnumerable<string> messages)
         {
             using var producer = new Confluent.Kafka.ProducerBuilder<Confluent.Kafka.Null, string>(new Confluent.Kafka.ProducerConfig
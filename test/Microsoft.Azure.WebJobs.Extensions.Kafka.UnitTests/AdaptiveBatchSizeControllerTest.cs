@@ -0,0 +1,110 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class AdaptiveBatchSizeControllerTest
+    {
+        [Fact]
+        public void When_Created_Should_Start_With_Configured_Maximum()
+        {
+            var controller = new AdaptiveBatchSizeController("topic", 1, 100, TimeSpan.FromSeconds(1), 200);
+
+            Assert.Equal(100, controller.BatchSize);
+            Assert.Equal(TimeSpan.FromSeconds(1), controller.ReleaseInterval);
+        }
+
+        [Fact]
+        public void When_Latency_Is_Above_Target_Should_Shrink_Down_To_Minimum()
+        {
+            var controller = new AdaptiveBatchSizeController("topic", 10, 100, TimeSpan.FromSeconds(1), 200);
+            controller.RecordRelease(full: true, lanesCongested: false);
+
+            var previous = controller.BatchSize;
+            controller.RecordExecution(previous, TimeSpan.FromMilliseconds(500));
+            Assert.True(controller.BatchSize < previous);
+
+            for (var i = 0; i < 50; i++)
+            {
+                controller.RecordExecution(controller.BatchSize, TimeSpan.FromMilliseconds(500));
+            }
+
+            Assert.Equal(10, controller.BatchSize);
+            Assert.Equal(TimeSpan.FromMilliseconds(100), controller.ReleaseInterval);
+        }
+
+        [Fact]
+        public void When_Latency_Is_Below_Target_Should_Grow_Only_With_Backlog()
+        {
+            var controller = new AdaptiveBatchSizeController("topic", 1, 100, TimeSpan.FromSeconds(1), 200);
+            for (var i = 0; i < 50; i++)
+            {
+                controller.RecordExecution(controller.BatchSize, TimeSpan.FromMilliseconds(1000));
+            }
+
+            var shrunk = controller.BatchSize;
+            Assert.True(shrunk < 100);
+
+            // Caught up: nothing to gain from larger batches
+            controller.RecordRelease(full: false, lanesCongested: false);
+            for (var i = 0; i < 50; i++)
+            {
+                controller.RecordExecution(controller.BatchSize, TimeSpan.FromMilliseconds(10));
+            }
+
+            Assert.Equal(shrunk, controller.BatchSize);
+
+            // Congested lanes count as backlog
+            controller.RecordRelease(full: false, lanesCongested: true);
+            for (var i = 0; i < 200; i++)
+            {
+                controller.RecordExecution(controller.BatchSize, TimeSpan.FromMilliseconds(10));
+            }
+
+            Assert.Equal(100, controller.BatchSize);
+        }
+
+        [Fact]
+        public void When_Throughput_Drops_Should_Reverse_Direction()
+        {
+            var controller = new AdaptiveBatchSizeController("topic", 1, 100, TimeSpan.FromSeconds(1), 0);
+            controller.RecordRelease(full: true, lanesCongested: false);
+
+            // At the maximum, growing is clamped
+            controller.RecordExecution(100, TimeSpan.FromMilliseconds(100));
+            Assert.Equal(100, controller.BatchSize);
+
+            // Throughput collapses, the controller starts shrinking the batches
+            for (var i = 0; i < 5; i++)
+            {
+                controller.RecordExecution(controller.BatchSize, TimeSpan.FromMilliseconds(10_000));
+            }
+
+            Assert.True(controller.BatchSize < 100);
+        }
+
+        [Fact]
+        public void When_Without_Backlog_Throughput_Mode_Should_Keep_Batch_Size()
+        {
+            var controller = new AdaptiveBatchSizeController("topic", 1, 100, TimeSpan.FromSeconds(1), 0);
+            controller.RecordRelease(full: false, lanesCongested: false);
+
+            for (var i = 0; i < 10; i++)
+            {
+                controller.RecordExecution(5, TimeSpan.FromMilliseconds(10_000));
+            }
+
+            Assert.Equal(100, controller.BatchSize);
+        }
+
+        [Fact]
+        public void When_Minimum_Is_Invalid_Should_Throw()
+        {
+            Assert.Throws<ArgumentOutOfRangeException>(() => new AdaptiveBatchSizeController("topic", 0, 100, TimeSpan.FromSeconds(1), 0));
+            Assert.Throws<ArgumentOutOfRangeException>(() => new AdaptiveBatchSizeController("topic", 101, 100, TimeSpan.FromSeconds(1), 0));
+        }
+    }
+}
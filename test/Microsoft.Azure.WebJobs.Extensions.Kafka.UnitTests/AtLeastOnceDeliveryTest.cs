@@ -8,6 +8,7 @@ using Moq;
 using System;
 using System.Collections.Concurrent;
 using System.Linq;
+using System.Text;
 using System.Threading;
 using System.Threading.Tasks;
 using Xunit;
@@ -106,7 +107,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
                 .Returns(CreateConsumeResult<Null, string>("msg1", 0, 0))
                 .Returns((ConsumeResult<Null, string>)null);
 
-            // Function fails, then succeeds (in-place retry)
+            // Function fails, then succeeds (delayed retry)
             var callCount = 0;
             executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
                 .Returns<TriggeredFunctionData, CancellationToken>((td, _) =>
@@ -235,7 +236,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
 
             await target.StartAsync(default);
 
-            // Wait for the force-commit (after maxRetries+1 attempts via in-place retry)
+            // Wait for the force-commit (after maxRetries+1 attempts via delayed retry)
             Assert.True(await commitSignal.WaitAsync(TestTimeout), "Should have force-committed the poison message");
 
             await target.StopAsync(default);
@@ -244,6 +245,55 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             Assert.Equal(6, committed.First().Offset);  // offset 5 + 1
         }
 
+        // ====================================================================
+        // Single-dispatch: MaxRetries exceeded with a dead-letter topic → published, then committed
+        // ====================================================================
+        [Fact]
+        public async Task SingleItem_FunctionFails_MaxRetriesExceeded_DeadLettersBeforeCommit()
+        {
+            var (executor, consumer, committed, commitSignal) = CreateMocks();
+            var producerFactory = new Mock<IKafkaProducerFactory>();
+            var producer = new Mock<IKafkaProducer>();
+            var deadLetters = new ConcurrentQueue<IKafkaEventData>();
+            var committedBeforeDeadLetter = false;
+
+            producerFactory.Setup(x => x.Create(It.IsAny<KafkaProducerEntity>())).Returns(producer.Object);
+            producer.Setup(x => x.ProduceAsync("dead-letters", It.IsAny<object>()))
+                .Callback<string, object>((_, item) =>
+                {
+                    committedBeforeDeadLetter = !committed.IsEmpty;
+                    deadLetters.Enqueue((IKafkaEventData)item);
+                })
+                .Returns(Task.CompletedTask);
+
+            consumer.Setup(x => x.Consume(It.IsNotNull<TimeSpan>()))
+                .Returns(() => CreateConsumeResult<Null, string>("poison", 0, 5));
+
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .ReturnsAsync(new FunctionResult(new InvalidOperationException("boom")));
+
+            var options = new KafkaOptions { CommitOnFailure = false, MaxRetries = 1, RetryInitialDelayMs = 0 };
+            var target = CreateListener(executor, consumer, singleDispatch: true, options: options);
+            target.DeadLetterPublisher = new DeadLetterPublisher(new KafkaProducerEntity
+            {
+                KafkaProducerFactory = producerFactory.Object,
+                Topic = "dead-letters",
+                ValueType = typeof(string),
+            });
+
+            await target.StartAsync(default);
+
+            Assert.True(await commitSignal.WaitAsync(TestTimeout), "Should have committed the dead-lettered message");
+
+            await target.StopAsync(default);
+
+            Assert.False(committedBeforeDeadLetter);
+            var deadLetter = deadLetters.First();
+            Assert.Equal("poison", deadLetter.Value);
+            Assert.Equal("boom", Encoding.UTF8.GetString(deadLetter.Headers.GetFirst(DeadLetterPublisher.ErrorHeader)));
+            Assert.Equal(6, committed.First().Offset);
+        }
+
         // ====================================================================
         // Single-dispatch: MaxRetries=-1 (unlimited) → keeps retrying (CommitOnFailure=false)
         // ====================================================================
@@ -267,7 +317,8 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
                 })
                 .ReturnsAsync(new FunctionResult(false));
 
-            var options = new KafkaOptions { CommitOnFailure = false, MaxRetries = -1 };
+            // Cap the backoff so the retries fit in the test timeout
+            var options = new KafkaOptions { CommitOnFailure = false, MaxRetries = -1, RetryMaxDelayMs = 100 };
             var target = CreateListener(executor, consumer, singleDispatch: true, options: options);
 
             await target.StartAsync(default);
@@ -282,6 +333,55 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             Assert.True(executorCallCount >= 10);
         }
 
+        // ====================================================================
+        // Single-dispatch: Function fails → retry waits for the backoff delay
+        // ====================================================================
+        [Fact]
+        public async Task SingleItem_FunctionFails_RetryWaitsForBackoff()
+        {
+            var (executor, consumer, committed, commitSignal) = CreateMocks();
+
+            consumer.SetupSequence(x => x.Consume(It.IsNotNull<TimeSpan>()))
+                .Returns(CreateConsumeResult<Null, string>("msg1", 0, 0))
+                .Returns((ConsumeResult<Null, string>)null);
+
+            var callTimes = new ConcurrentQueue<DateTime>();
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Returns<TriggeredFunctionData, CancellationToken>((td, _) =>
+                {
+                    callTimes.Enqueue(DateTime.UtcNow);
+                    return Task.FromResult(new FunctionResult(callTimes.Count > 1));
+                });
+
+            var options = new KafkaOptions { CommitOnFailure = false, RetryInitialDelayMs = 300 };
+            var target = CreateListener(executor, consumer, singleDispatch: true, options: options);
+
+            await target.StartAsync(default);
+
+            Assert.True(await commitSignal.WaitAsync(TestTimeout), "Should commit after the delayed retry");
+
+            await target.StopAsync(default);
+
+            var times = callTimes.ToArray();
+            Assert.Equal(2, times.Length);
+            Assert.True(times[1] - times[0] >= TimeSpan.FromMilliseconds(250), $"Retry started after {(times[1] - times[0]).TotalMilliseconds}ms");
+            Assert.Single(committed);
+        }
+
+        // ====================================================================
+        // Retry delay: doubles on every attempt up to the maximum
+        // ====================================================================
+        [Fact]
+        public void GetRetryDelay_DoublesUpToMaximum()
+        {
+            Assert.Equal(TimeSpan.FromMilliseconds(100), FunctionExecutorBase<Null, string>.GetRetryDelay(1, 100, 1000));
+            Assert.Equal(TimeSpan.FromMilliseconds(200), FunctionExecutorBase<Null, string>.GetRetryDelay(2, 100, 1000));
+            Assert.Equal(TimeSpan.FromMilliseconds(800), FunctionExecutorBase<Null, string>.GetRetryDelay(4, 100, 1000));
+            Assert.Equal(TimeSpan.FromMilliseconds(1000), FunctionExecutorBase<Null, string>.GetRetryDelay(5, 100, 1000));
+            Assert.Equal(TimeSpan.FromMilliseconds(1000), FunctionExecutorBase<Null, string>.GetRetryDelay(100, 100, 1000));
+            Assert.Equal(TimeSpan.Zero, FunctionExecutorBase<Null, string>.GetRetryDelay(3, 0, 1000));
+        }
+
         // ====================================================================
         // Single-dispatch: Function succeeds → offset committed (regression)
         // ====================================================================
@@ -460,6 +560,96 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             Assert.True(callCount >= 2, $"Expected at least 2 calls, got {callCount}");
         }
 
+        // ====================================================================
+        // Batch-dispatch: Function reports failed records → succeeded prefix committed, failed records retried
+        // ====================================================================
+        [Fact]
+        public async Task MultiItem_PartialBatchFailure_RetriesOnlyFailedRecords()
+        {
+            var (executor, consumer, committed, commitSignal) = CreateMocks();
+
+            var offset = 0L;
+            consumer.Setup(x => x.Consume(It.IsNotNull<TimeSpan>()))
+                .Returns(() =>
+                {
+                    if (offset < 4)
+                    {
+                        offset++;
+                        return CreateConsumeResult<Null, string>(offset.ToString(), 0, offset);
+                    }
+
+                    return null;
+                });
+
+            var executions = new ConcurrentQueue<string[]>();
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Returns<TriggeredFunctionData, CancellationToken>((td, _) =>
+                {
+                    var values = ((KafkaTriggerInput)td.TriggerValue).Events.Select(x => (string)x.Value).ToArray();
+                    executions.Enqueue(values);
+
+                    // Records 2 and 4 of the first execution fail
+                    return Task.FromResult(values.Length == 4
+                        ? new FunctionResult(new KafkaPartialBatchException(new[] { 1, 3 }))
+                        : new FunctionResult(true));
+                });
+
+            var options = new KafkaOptions { CommitOnFailure = false, MaxBatchSize = 4, RetryInitialDelayMs = 0 };
+            var target = CreateListener(executor, consumer, singleDispatch: false, options: options);
+
+            await target.StartAsync(default);
+
+            Assert.True(await commitSignal.WaitAsync(TestTimeout), "Should commit the records before the first failed one");
+            Assert.True(await commitSignal.WaitAsync(TestTimeout), "Should commit the batch once the failed records succeed");
+
+            await target.StopAsync(default);
+
+            Assert.Equal(new long[] { 2, 5 }, committed.Take(2).Select(x => x.Offset.Value));
+            Assert.Equal(new[] { "1", "2", "3", "4" }, executions.First());
+            Assert.Equal(new[] { "2", "4" }, executions.Skip(1).First());
+        }
+
+        // ====================================================================
+        // Shared poller: messages are consumed and committed without a dedicated thread
+        // ====================================================================
+        [Fact]
+        public async Task SharedPoller_FunctionSucceeds_OffsetCommitted()
+        {
+            var (executor, consumer, committed, commitSignal) = CreateMocks();
+
+            var offset = 0L;
+            consumer.Setup(x => x.Consume(It.IsNotNull<TimeSpan>()))
+                .Returns(() =>
+                {
+                    if (offset < 3)
+                    {
+                        offset++;
+                        return CreateConsumeResult<Null, string>(offset.ToString(), 0, offset);
+                    }
+
+                    return null;
+                });
+
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .ReturnsAsync(new FunctionResult(true));
+
+            var options = new KafkaOptions { SharedPollerThreadCount = 1 };
+            var poller = new SharedConsumerPoller(options.SharedPollerThreadCount, NullLogger.Instance);
+            var target = CreateListener(executor, consumer, singleDispatch: false, options: options);
+            target.SharedPoller = poller;
+
+            await target.StartAsync(default);
+
+            Assert.True(await commitSignal.WaitAsync(TestTimeout), "Offset should be committed on success");
+            Assert.Equal(1, poller.ConsumerCount);
+
+            await target.StopAsync(default);
+
+            Assert.True(target.IsCompleted);
+            Assert.Equal(4, committed.Last().Offset);
+            consumer.Verify(x => x.Consume(TimeSpan.Zero), Times.AtLeastOnce());
+        }
+
         // ====================================================================
         // Batch-dispatch: Function succeeds → offset committed (regression)
         // ====================================================================
@@ -529,6 +719,30 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             Assert.True(options.CommitOnFailure);
             Assert.Equal(5, options.MaxRetries);
             Assert.Equal(50, options.SubscriberIdleBackoffMs);
+            Assert.Equal(1, options.MaxConcurrencyPerPartition);
+            Assert.Equal(0, options.ExecutorChannelLowWaterMark);
+            Assert.Equal(1, options.DeserializationWorkerCount);
+            Assert.False(options.AdaptiveBatchSize);
+            Assert.Equal(1, options.MinBatchSize);
+            Assert.Equal(0, options.TargetBatchLatencyMs);
+            Assert.Equal(0, options.MaxBatchBytes);
+            Assert.Null(options.PartitionAssignmentStrategy);
+            Assert.Equal(5000, options.RevokedPartitionDrainTimeoutMs);
+            Assert.False(options.StaticGroupMembership);
+            Assert.Equal(45000, options.StaticMembershipSessionTimeoutMs);
+            Assert.Equal(CommitStrategyType.Async, options.CommitStrategy);
+            Assert.Equal(100, options.CommitFlushIntervalMs);
+            Assert.Equal(1000, options.CommitFlushThreshold);
+            Assert.False(options.ExactlyOnceDelivery);
+            Assert.Equal(100, options.TransactionMaxInvocations);
+            Assert.Equal(100, options.TransactionCommitIntervalMs);
+            Assert.Equal(100, options.RetryInitialDelayMs);
+            Assert.Equal(10000, options.RetryMaxDelayMs);
+            Assert.Equal(0, options.SharedPollerThreadCount);
+            Assert.Equal(1, options.ConsumersPerInstance);
+            Assert.False(options.LowLatencyMode);
+            Assert.Equal(30000, options.ShutdownDrainTimeoutMs);
+            Assert.Equal(1, options.ProducerShardCount);
         }
 
         // ====================================================================
@@ -555,5 +769,215 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
 
             Assert.Throws<InvalidOperationException>(() => options.SubscriberIdleBackoffMs = -1);
         }
+
+        // ====================================================================
+        // KafkaOptions: MaxConcurrencyPerPartition validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_MaxConcurrencyPerPartition_RejectsNonPositive()
+        {
+            var options = new KafkaOptions();
+
+            options.MaxConcurrencyPerPartition = 8;
+            Assert.Equal(8, options.MaxConcurrencyPerPartition);
+
+            Assert.Throws<InvalidOperationException>(() => options.MaxConcurrencyPerPartition = 0);
+        }
+
+        // ====================================================================
+        // KafkaOptions: ExecutorChannelLowWaterMark validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_ExecutorChannelLowWaterMark_RejectsNegative()
+        {
+            var options = new KafkaOptions();
+
+            options.ExecutorChannelLowWaterMark = 2;
+            Assert.Equal(2, options.ExecutorChannelLowWaterMark);
+
+            Assert.Throws<InvalidOperationException>(() => options.ExecutorChannelLowWaterMark = -1);
+        }
+
+        // ====================================================================
+        // KafkaOptions: DeserializationWorkerCount validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_DeserializationWorkerCount_RejectsNonPositive()
+        {
+            var options = new KafkaOptions();
+
+            options.DeserializationWorkerCount = 4;
+            Assert.Equal(4, options.DeserializationWorkerCount);
+
+            Assert.Throws<InvalidOperationException>(() => options.DeserializationWorkerCount = 0);
+        }
+
+        // ====================================================================
+        // KafkaOptions: RevokedPartitionDrainTimeoutMs validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_RevokedPartitionDrainTimeoutMs_RejectsNegative()
+        {
+            var options = new KafkaOptions();
+
+            options.RevokedPartitionDrainTimeoutMs = 0;
+            Assert.Equal(0, options.RevokedPartitionDrainTimeoutMs);
+
+            Assert.Throws<InvalidOperationException>(() => options.RevokedPartitionDrainTimeoutMs = -1);
+        }
+
+        // ====================================================================
+        // KafkaOptions: StaticMembershipSessionTimeoutMs validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_StaticMembershipSessionTimeoutMs_RejectsNonPositive()
+        {
+            var options = new KafkaOptions();
+
+            options.StaticMembershipSessionTimeoutMs = 60000;
+            Assert.Equal(60000, options.StaticMembershipSessionTimeoutMs);
+
+            Assert.Throws<InvalidOperationException>(() => options.StaticMembershipSessionTimeoutMs = 0);
+        }
+
+        // ====================================================================
+        // KafkaOptions: coalescing commit validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_CommitFlush_RejectsNonPositive()
+        {
+            var options = new KafkaOptions();
+
+            options.CommitFlushIntervalMs = 250;
+            options.CommitFlushThreshold = 10;
+            Assert.Equal(250, options.CommitFlushIntervalMs);
+            Assert.Equal(10, options.CommitFlushThreshold);
+
+            Assert.Throws<InvalidOperationException>(() => options.CommitFlushIntervalMs = 0);
+            Assert.Throws<InvalidOperationException>(() => options.CommitFlushThreshold = 0);
+        }
+
+        // ====================================================================
+        // KafkaOptions: exactly-once delivery validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_Transaction_RejectsNonPositive()
+        {
+            var options = new KafkaOptions();
+
+            options.TransactionMaxInvocations = 500;
+            options.TransactionCommitIntervalMs = 50;
+            Assert.Equal(500, options.TransactionMaxInvocations);
+            Assert.Equal(50, options.TransactionCommitIntervalMs);
+
+            Assert.Throws<InvalidOperationException>(() => options.TransactionMaxInvocations = 0);
+            Assert.Throws<InvalidOperationException>(() => options.TransactionCommitIntervalMs = 0);
+        }
+
+        // ====================================================================
+        // KafkaOptions: retry backoff validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_RetryDelay_RejectsNegative()
+        {
+            var options = new KafkaOptions();
+
+            options.RetryInitialDelayMs = 0;
+            options.RetryMaxDelayMs = 0;
+            Assert.Equal(0, options.RetryInitialDelayMs);
+            Assert.Equal(0, options.RetryMaxDelayMs);
+
+            Assert.Throws<InvalidOperationException>(() => options.RetryInitialDelayMs = -1);
+            Assert.Throws<InvalidOperationException>(() => options.RetryMaxDelayMs = -1);
+        }
+
+        // ====================================================================
+        // KafkaOptions: SharedPollerThreadCount validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_SharedPollerThreadCount_RejectsNegative()
+        {
+            var options = new KafkaOptions();
+
+            options.SharedPollerThreadCount = 2;
+            Assert.Equal(2, options.SharedPollerThreadCount);
+
+            Assert.Throws<InvalidOperationException>(() => options.SharedPollerThreadCount = -1);
+        }
+
+        // ====================================================================
+        // KafkaOptions: ShutdownDrainTimeoutMs validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_ShutdownDrainTimeoutMs_RejectsNegative()
+        {
+            var options = new KafkaOptions();
+
+            options.ShutdownDrainTimeoutMs = 0;
+            Assert.Equal(0, options.ShutdownDrainTimeoutMs);
+
+            Assert.Throws<InvalidOperationException>(() => options.ShutdownDrainTimeoutMs = -1);
+        }
+
+        // ====================================================================
+        // KafkaOptions: ProducerShardCount validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_ProducerShardCount_RejectsNonPositive()
+        {
+            var options = new KafkaOptions();
+
+            options.ProducerShardCount = 4;
+            Assert.Equal(4, options.ProducerShardCount);
+
+            Assert.Throws<InvalidOperationException>(() => options.ProducerShardCount = 0);
+            Assert.Throws<InvalidOperationException>(() => options.ProducerShardCount = -1);
+        }
+
+        // ====================================================================
+        // KafkaOptions: ConsumersPerInstance validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_ConsumersPerInstance_RejectsNonPositive()
+        {
+            var options = new KafkaOptions();
+
+            options.ConsumersPerInstance = 4;
+            Assert.Equal(4, options.ConsumersPerInstance);
+
+            Assert.Throws<InvalidOperationException>(() => options.ConsumersPerInstance = 0);
+            Assert.Throws<InvalidOperationException>(() => options.ConsumersPerInstance = -1);
+        }
+
+        // ====================================================================
+        // KafkaOptions: adaptive batch sizing validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_AdaptiveBatchSizing_RejectsInvalidBounds()
+        {
+            var options = new KafkaOptions();
+
+            options.MinBatchSize = 8;
+            options.TargetBatchLatencyMs = 250;
+            Assert.Equal(8, options.MinBatchSize);
+            Assert.Equal(250, options.TargetBatchLatencyMs);
+
+            Assert.Throws<InvalidOperationException>(() => options.MinBatchSize = 0);
+            Assert.Throws<InvalidOperationException>(() => options.TargetBatchLatencyMs = -1);
+        }
+
+        // ====================================================================
+        // KafkaOptions: MaxBatchBytes validation
+        // ====================================================================
+        [Fact]
+        public void KafkaOptions_MaxBatchBytes_RejectsNegative()
+        {
+            var options = new KafkaOptions();
+
+            options.MaxBatchBytes = 1024 * 1024;
+            Assert.Equal(1024 * 1024, options.MaxBatchBytes);
+
+            Assert.Throws<InvalidOperationException>(() => options.MaxBatchBytes = -1);
+        }
     }
 }
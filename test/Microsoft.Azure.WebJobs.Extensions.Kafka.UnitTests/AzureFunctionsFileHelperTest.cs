@@ -170,5 +170,140 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
                 Directory.Delete(home, recursive: true);
             }
         }
+
+        [Fact]
+        public void GetHostInstanceId_Should_Prefer_Website_Instance_Id_Over_Container_Name()
+        {
+            AzureEnvironment.SetEnvironmentVariable(AzureFunctionsFileHelper.WebsiteInstanceIdEnvVarName, null);
+            AzureEnvironment.SetEnvironmentVariable(AzureFunctionsFileHelper.ContainerNameEnvVarName, null);
+            Assert.Null(AzureFunctionsFileHelper.GetHostInstanceId());
+
+            AzureEnvironment.SetEnvironmentVariable(AzureFunctionsFileHelper.ContainerNameEnvVarName, "container1");
+            Assert.Equal("container1", AzureFunctionsFileHelper.GetHostInstanceId());
+
+            AzureEnvironment.SetEnvironmentVariable(AzureFunctionsFileHelper.WebsiteInstanceIdEnvVarName, "instance1");
+            Assert.Equal("instance1", AzureFunctionsFileHelper.GetHostInstanceId());
+        }
+
+        [Fact]
+        public async Task When_StaticGroupMembership_Is_Enabled_Should_Set_Group_Instance_Id_And_Session_Timeout()
+        {
+            AzureEnvironment.SetEnvironmentVariable(AzureFunctionsFileHelper.WebsiteInstanceIdEnvVarName, "instance1");
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            var target = new KafkaListenerForTest<Ignore, string>(
+                new Mock<ITriggeredFunctionExecutor>().Object,
+                true,
+                new KafkaOptions() { StaticGroupMembership = true },
+                listenerConfig,
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: null
+                );
+
+            target.SetConsumer(new Mock<IConsumer<Ignore, string>>().Object);
+
+            await target.StartAsync(default);
+
+            // Same instance and function always produce the same id, other functions get another one
+            Assert.Equal(KafkaListener<Ignore, string>.CreateGroupInstanceId("instance1", "testId", 0), target.ConsumerConfig.GroupInstanceId);
+            Assert.StartsWith("instance1-", target.ConsumerConfig.GroupInstanceId);
+            Assert.NotEqual(target.ConsumerConfig.GroupInstanceId, KafkaListener<Ignore, string>.CreateGroupInstanceId("instance1", "otherFunction", 0));
+            Assert.Equal(45000, target.ConsumerConfig.SessionTimeoutMs);
+
+            await target.StopAsync(default);
+        }
+
+        [Fact]
+        public async Task When_StaticGroupMembership_Is_Enabled_Consumers_Of_The_Same_Trigger_Should_Get_Different_Group_Instance_Ids()
+        {
+            AzureEnvironment.SetEnvironmentVariable(AzureFunctionsFileHelper.WebsiteInstanceIdEnvVarName, "instance1");
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            var targets = new List<KafkaListenerForTest<Ignore, string>>();
+            for (var consumerIndex = 0; consumerIndex < 2; consumerIndex++)
+            {
+                var target = new KafkaListenerForTest<Ignore, string>(
+                    new Mock<ITriggeredFunctionExecutor>().Object,
+                    true,
+                    new KafkaOptions() { StaticGroupMembership = true, ConsumersPerInstance = 2 },
+                    listenerConfig,
+                    requiresKey: true,
+                    valueDeserializer: null,
+                    keyDeserializer: null,
+                    NullLogger.Instance,
+                    functionId: "testId",
+                    drainModeManager: null
+                    )
+                {
+                    ConsumerIndex = consumerIndex,
+                };
+
+                target.SetConsumer(new Mock<IConsumer<Ignore, string>>().Object);
+                await target.StartAsync(default);
+                targets.Add(target);
+            }
+
+            // A consumer joining with the id of another one would fence it
+            Assert.StartsWith("instance1-", targets[0].ConsumerConfig.GroupInstanceId);
+            Assert.NotEqual(targets[0].ConsumerConfig.GroupInstanceId, targets[1].ConsumerConfig.GroupInstanceId);
+            Assert.EndsWith("-1", targets[1].ConsumerConfig.GroupInstanceId);
+
+            foreach (var target in targets)
+            {
+                await target.StopAsync(default);
+            }
+        }
+
+        [Fact]
+        public async Task When_StaticGroupMembership_Is_Enabled_Without_Instance_Id_Should_Join_As_Dynamic_Member()
+        {
+            AzureEnvironment.SetEnvironmentVariable(AzureFunctionsFileHelper.WebsiteInstanceIdEnvVarName, null);
+            AzureEnvironment.SetEnvironmentVariable(AzureFunctionsFileHelper.ContainerNameEnvVarName, null);
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            var target = new KafkaListenerForTest<Ignore, string>(
+                new Mock<ITriggeredFunctionExecutor>().Object,
+                true,
+                new KafkaOptions() { StaticGroupMembership = true },
+                listenerConfig,
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: null
+                );
+
+            target.SetConsumer(new Mock<IConsumer<Ignore, string>>().Object);
+
+            await target.StartAsync(default);
+
+            Assert.Null(target.ConsumerConfig.GroupInstanceId);
+            Assert.Equal(10000, target.ConsumerConfig.SessionTimeoutMs);
+
+            await target.StopAsync(default);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System.Collections.Generic;
+using System.Linq;
+using System.Threading;
+using Confluent.Kafka;
+using Microsoft.Extensions.Logging.Abstractions;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class CoalescingCommitStrategyTest
+    {
+        private static readonly TopicPartition Partition0 = new TopicPartition("topic", 0);
+        private static readonly TopicPartition Partition1 = new TopicPartition("topic", 1);
+
+        private readonly Mock<IConsumer<Null, string>> consumer = new Mock<IConsumer<Null, string>>();
+        private readonly List<TopicPartitionOffset> stored = new List<TopicPartitionOffset>();
+        private readonly List<TopicPartitionOffset> committed = new List<TopicPartitionOffset>();
+
+        public CoalescingCommitStrategyTest()
+        {
+            this.consumer.Setup(x => x.StoreOffset(It.IsNotNull<TopicPartitionOffset>()))
+                .Callback<TopicPartitionOffset>(x => this.stored.Add(x));
+            this.consumer.Setup(x => x.Commit(It.IsAny<IEnumerable<TopicPartitionOffset>>()))
+                .Callback<IEnumerable<TopicPartitionOffset>>(x => this.committed.AddRange(x));
+        }
+
+        [Fact]
+        public void When_Flushed_Stores_Highest_Offset_Per_Partition()
+        {
+            using (var target = this.CreateStrategy(flushThreshold: 1000))
+            {
+                target.Commit(new[] { new TopicPartitionOffset(Partition0, 2) });
+                target.Commit(new[] { new TopicPartitionOffset(Partition0, 5), new TopicPartitionOffset(Partition1, 1) });
+                target.Commit(new[] { new TopicPartitionOffset(Partition0, 4) });
+                Assert.Empty(this.stored);
+
+                target.Flush();
+
+                Assert.Equal(2, this.stored.Count);
+                Assert.Equal(5, this.stored.Single(x => x.Partition == 0).Offset.Value);
+                Assert.Equal(1, this.stored.Single(x => x.Partition == 1).Offset.Value);
+
+                // Nothing pending, nothing stored
+                target.Flush();
+                Assert.Equal(2, this.stored.Count);
+            }
+        }
+
+        [Fact]
+        public void When_Threshold_Is_Reached_Flushes_Without_Waiting_For_Interval()
+        {
+            using (var target = this.CreateStrategy(flushThreshold: 3))
+            {
+                target.Commit(new[] { new TopicPartitionOffset(Partition0, 1) });
+                target.Commit(new[] { new TopicPartitionOffset(Partition0, 2) });
+                Assert.Empty(this.stored);
+
+                target.Commit(new[] { new TopicPartitionOffset(Partition0, 3) });
+
+                var storedOffset = Assert.Single(this.stored);
+                Assert.Equal(3, storedOffset.Offset.Value);
+            }
+        }
+
+        [Fact]
+        public void When_Partition_Is_Revoked_Commits_Final_Offset_And_Drops_Pending_Offset()
+        {
+            using (var target = this.CreateStrategy(flushThreshold: 1000))
+            {
+                target.Commit(new[] { new TopicPartitionOffset(Partition0, 7), new TopicPartitionOffset(Partition1, 3) });
+
+                target.CommitRevoked(new[] { new TopicPartitionOffset(Partition0, 7) });
+
+                var committedOffset = Assert.Single(this.committed);
+                Assert.Equal(Partition0, committedOffset.TopicPartition);
+                Assert.Equal(7, committedOffset.Offset.Value);
+
+                target.Flush();
+                var storedOffset = Assert.Single(this.stored);
+                Assert.Equal(Partition1, storedOffset.TopicPartition);
+            }
+        }
+
+        [Fact]
+        public void When_Partition_Is_Lost_Drops_Pending_Offset()
+        {
+            using (var target = this.CreateStrategy(flushThreshold: 1000))
+            {
+                target.Commit(new[] { new TopicPartitionOffset(Partition0, 7) });
+
+                target.Discard(new[] { Partition0 });
+                target.Flush();
+                target.Close();
+
+                Assert.Empty(this.stored);
+                Assert.Empty(this.committed);
+            }
+        }
+
+        [Fact]
+        public void When_Closed_Commits_Pending_Offsets_Synchronously()
+        {
+            using (var target = this.CreateStrategy(flushThreshold: 1000))
+            {
+                target.Commit(new[] { new TopicPartitionOffset(Partition0, 4), new TopicPartitionOffset(Partition1, 9) });
+
+                target.Close();
+
+                Assert.Empty(this.stored);
+                Assert.Equal(new[] { 4L, 9L }, this.committed.OrderBy(x => x.Partition.Value).Select(x => x.Offset.Value).ToArray());
+
+                // Offsets completed after close are not stored
+                target.Commit(new[] { new TopicPartitionOffset(Partition0, 5) });
+                target.Flush();
+                Assert.Empty(this.stored);
+            }
+        }
+
+        private CoalescingCommitStrategy<Null, string> CreateStrategy(int flushThreshold)
+        {
+            // Timer disabled, tests flush explicitly
+            return new CoalescingCommitStrategy<Null, string>(this.consumer.Object, "topic", Timeout.Infinite, flushThreshold, NullLogger.Instance);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Text;
+using System.Threading.Tasks;
+using Confluent.Kafka;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class DeadLetterPublisherTest
+    {
+        private readonly Mock<IKafkaProducerFactory> producerFactory = new Mock<IKafkaProducerFactory>();
+        private readonly List<KafkaProducerEntity> createdEntities = new List<KafkaProducerEntity>();
+
+        private DeadLetterPublisher CreatePublisher(Mock<IKafkaProducer> producer)
+        {
+            this.producerFactory.Setup(x => x.Create(It.IsAny<KafkaProducerEntity>()))
+                .Callback<KafkaProducerEntity>(this.createdEntities.Add)
+                .Returns(producer.Object);
+
+            return new DeadLetterPublisher(new KafkaProducerEntity
+            {
+                KafkaProducerFactory = this.producerFactory.Object,
+                Topic = "dead-letters",
+                KeyType = typeof(string),
+                ValueType = typeof(string),
+            });
+        }
+
+        private static KafkaEventData<string, string> CreateEvent(long offset)
+        {
+            var headers = new Headers();
+            headers.Add("correlation", Encoding.UTF8.GetBytes("abc"));
+            return new KafkaEventData<string, string>(new ConsumeResult<string, string>
+            {
+                Message = new Message<string, string> { Key = "key", Value = "value", Headers = headers, Timestamp = Timestamp.Default },
+                Topic = "topic",
+                Partition = 3,
+                Offset = offset,
+            });
+        }
+
+        [Fact]
+        public void CreateDeadLetter_Keeps_Message_And_Adds_Error_Headers()
+        {
+            var deadLetter = DeadLetterPublisher.CreateDeadLetter(CreateEvent(42), new AggregateException(new InvalidOperationException("boom")));
+
+            Assert.Equal("key", deadLetter.Key);
+            Assert.Equal("value", deadLetter.Value);
+            Assert.Equal("abc", Encoding.UTF8.GetString(deadLetter.Headers.GetFirst("correlation")));
+            Assert.Equal("boom", Encoding.UTF8.GetString(deadLetter.Headers.GetFirst(DeadLetterPublisher.ErrorHeader)));
+            Assert.Equal(typeof(InvalidOperationException).FullName, Encoding.UTF8.GetString(deadLetter.Headers.GetFirst(DeadLetterPublisher.ExceptionTypeHeader)));
+            Assert.Equal("topic", Encoding.UTF8.GetString(deadLetter.Headers.GetFirst(DeadLetterPublisher.TopicHeader)));
+            Assert.Equal("3", Encoding.UTF8.GetString(deadLetter.Headers.GetFirst(DeadLetterPublisher.PartitionHeader)));
+            Assert.Equal("42", Encoding.UTF8.GetString(deadLetter.Headers.GetFirst(DeadLetterPublisher.OffsetHeader)));
+        }
+
+        [Fact]
+        public async Task PublishAsync_Completes_Once_All_Messages_Are_Delivered()
+        {
+            var producer = new Mock<IKafkaProducer>();
+            var deliveries = new Queue<TaskCompletionSource<bool>>();
+            producer.Setup(x => x.ProduceAsync("dead-letters", It.IsAny<object>()))
+                .Returns(() =>
+                {
+                    var delivery = new TaskCompletionSource<bool>();
+                    deliveries.Enqueue(delivery);
+                    return delivery.Task;
+                });
+
+            using (var publisher = this.CreatePublisher(producer))
+            {
+                var publish = publisher.PublishAsync(new[] { CreateEvent(1), CreateEvent(2) }, new Exception("boom"));
+
+                // Both messages are produced before any delivery completes
+                Assert.Equal(2, deliveries.Count);
+                deliveries.Dequeue().SetResult(true);
+                Assert.False(publish.IsCompleted);
+
+                deliveries.Dequeue().SetResult(true);
+                await publish;
+            }
+
+            Assert.Single(this.createdEntities);
+            producer.Verify(x => x.Flush(), Times.Once());
+            producer.Verify(x => x.Dispose(), Times.Never());
+        }
+
+        [Fact]
+        public async Task Dispose_Does_Not_Dispose_Producer_Shared_With_Other_Publishers()
+        {
+            var producer = new Mock<IKafkaProducer>();
+            producer.Setup(x => x.ProduceAsync("dead-letters", It.IsAny<object>())).Returns(Task.CompletedTask);
+
+            // Listeners of the same trigger get the producer of the same dead-letter entity from the factory
+            var stopped = this.CreatePublisher(producer);
+            var draining = this.CreatePublisher(producer);
+            await stopped.PublishAsync(new[] { CreateEvent(1) }, new Exception("boom"));
+            stopped.Dispose();
+
+            await draining.PublishAsync(new[] { CreateEvent(2) }, new Exception("boom"));
+
+            producer.Verify(x => x.ProduceAsync("dead-letters", It.IsAny<object>()), Times.Exactly(2));
+            producer.Verify(x => x.Dispose(), Times.Never());
+            draining.Dispose();
+        }
+
+        [Fact]
+        public async Task PublishAsync_Undecoded_Message_Uses_Raw_Producer()
+        {
+            var producer = new Mock<IKafkaProducer>();
+            object produced = null;
+            producer.Setup(x => x.ProduceAsync("dead-letters", It.IsAny<object>()))
+                .Callback<string, object>((_, item) => produced = item)
+                .Returns(Task.CompletedTask);
+
+            var publisher = this.CreatePublisher(producer);
+            var consumeException = new ConsumeException(
+                new ConsumeResult<byte[], byte[]>
+                {
+                    Message = new Message<byte[], byte[]> { Value = Encoding.UTF8.GetBytes("garbage"), Timestamp = Timestamp.Default },
+                    Topic = "topic",
+                    Partition = 1,
+                    Offset = 7,
+                },
+                new Error(ErrorCode.Local_ValueDeserialization, "invalid data"));
+
+            await publisher.PublishAsync(new[] { UndecodedKafkaEventData.FromConsumeException(consumeException) }, null);
+
+            var entity = Assert.Single(this.createdEntities);
+            Assert.Equal(typeof(byte[]), entity.KeyType);
+            Assert.Equal(typeof(byte[]), entity.ValueType);
+
+            var deadLetter = Assert.IsAssignableFrom<IKafkaEventData>(produced);
+            Assert.Equal("garbage", Encoding.UTF8.GetString((byte[])deadLetter.Value));
+            Assert.Equal("7", Encoding.UTF8.GetString(deadLetter.Headers.GetFirst(DeadLetterPublisher.OffsetHeader)));
+            Assert.Equal(typeof(ConsumeException).FullName, Encoding.UTF8.GetString(deadLetter.Headers.GetFirst(DeadLetterPublisher.ExceptionTypeHeader)));
+        }
+
+        [Fact]
+        public async Task PublishAsync_After_Dispose_Throws()
+        {
+            var publisher = this.CreatePublisher(new Mock<IKafkaProducer>());
+            publisher.Dispose();
+
+            await Assert.ThrowsAsync<ObjectDisposedException>(() => publisher.PublishAsync(new[] { CreateEvent(1) }, null));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Linq;
+using System.Text;
+using System.Threading;
+using System.Threading.Tasks;
+using Confluent.Kafka;
+using Microsoft.Extensions.Logging.Abstractions;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class DeserializationPipelineTest
+    {
+        private class SlowStringDeserializer : IDeserializer<string>
+        {
+            private int inFlight;
+
+            public int MaxInFlight;
+
+            public int Calls;
+
+            public string Deserialize(ReadOnlySpan<byte> data, bool isNull, SerializationContext context)
+            {
+                Interlocked.Increment(ref this.Calls);
+                var current = Interlocked.Increment(ref this.inFlight);
+                int max;
+                while ((max = Volatile.Read(ref this.MaxInFlight)) < current && Interlocked.CompareExchange(ref this.MaxInFlight, current, max) != max)
+                {
+                }
+
+                var value = isNull ? null : Encoding.UTF8.GetString(data.ToArray());
+                Thread.Sleep(20);
+                Interlocked.Decrement(ref this.inFlight);
+
+                if (value == "poison")
+                {
+                    throw new InvalidOperationException("cannot decode");
+                }
+
+                return value;
+            }
+        }
+
+        private static DeserializationPipeline<Null, string> CreatePipeline(int workerCount, SlowStringDeserializer deserializer)
+        {
+            return new DeserializationPipeline<Null, string>(workerCount, deserializer, null, KafkaEventData<string>.CreateFrom, NullLogger.Instance);
+        }
+
+        private static IKafkaEventData Consume(DeserializationPipeline<Null, string> pipeline, string value, int partition, long offset)
+        {
+            // Consume runs the consumer deserializer before returning the result
+            pipeline.DeferredValueDeserializer.Deserialize(
+                value == null ? ReadOnlySpan<byte>.Empty : Encoding.UTF8.GetBytes(value),
+                value == null,
+                new SerializationContext(MessageComponentType.Value, "topic"));
+
+            return pipeline.Capture(new ConsumeResult<Null, string>
+            {
+                Message = new Message<Null, string>(),
+                Offset = offset,
+                Partition = partition,
+                Topic = "topic",
+            });
+        }
+
+        [Fact]
+        public void When_Capturing_Should_Only_Keep_Raw_Bytes()
+        {
+            var deserializer = new SlowStringDeserializer();
+            var pipeline = CreatePipeline(4, deserializer);
+
+            Assert.NotNull(pipeline.DeferredValueDeserializer);
+            Assert.Null(pipeline.DeferredKeyDeserializer);
+
+            var captured = Consume(pipeline, "message", 1, 10);
+
+            Assert.Equal(0, deserializer.Calls);
+            Assert.Equal("topic", captured.Topic);
+            Assert.Equal(1, captured.Partition);
+            Assert.Equal(10, captured.Offset);
+            Assert.Equal("message", Encoding.UTF8.GetString((byte[])captured.Value));
+        }
+
+        [Fact]
+        public async Task When_Decoding_On_Multiple_Workers_Should_Keep_Lane_Order()
+        {
+            var deserializer = new SlowStringDeserializer();
+            var pipeline = CreatePipeline(4, deserializer);
+
+            var items = Enumerable.Range(0, 32).Select(i => Consume(pipeline, $"message-{i}", 0, i)).ToArray();
+
+            var decoded = await pipeline.DecodeAsync(items, false, CancellationToken.None);
+
+            Assert.Same(items, decoded);
+            Assert.All(decoded, x => Assert.IsType<KafkaEventData<string>>(x));
+            Assert.Equal(Enumerable.Range(0, 32).Select(i => $"message-{i}"), decoded.Select(x => x.Value));
+            Assert.Equal(Enumerable.Range(0, 32).Select(i => (long)i), decoded.Select(x => x.Offset));
+            Assert.True(deserializer.MaxInFlight > 1, "Messages should be decoded concurrently");
+            Assert.True(deserializer.MaxInFlight <= 4, "Decoding should not exceed the worker count");
+        }
+
+        [Fact]
+        public async Task When_Lanes_Decode_Concurrently_Should_Not_Exceed_Worker_Count()
+        {
+            var deserializer = new SlowStringDeserializer();
+            var pipeline = CreatePipeline(2, deserializer);
+
+            var lanes = Enumerable.Range(0, 4)
+                .Select(partition => Enumerable.Range(0, 8).Select(i => Consume(pipeline, $"{partition}-{i}", partition, i)).ToArray())
+                .ToArray();
+
+            var decoded = await Task.WhenAll(lanes.Select(items => pipeline.DecodeAsync(items, false, CancellationToken.None)));
+
+            for (var partition = 0; partition < lanes.Length; partition++)
+            {
+                Assert.Equal(Enumerable.Range(0, 8).Select(i => $"{partition}-{i}"), decoded[partition].Select(x => x.Value));
+            }
+
+            Assert.True(deserializer.MaxInFlight <= 2, "Decoding should not exceed the worker count");
+        }
+
+        [Fact]
+        public async Task When_Message_Cannot_Be_Decoded_Should_Skip_It()
+        {
+            var pipeline = CreatePipeline(2, new SlowStringDeserializer());
+
+            var items = new[]
+            {
+                Consume(pipeline, "a", 0, 0),
+                Consume(pipeline, "poison", 0, 1),
+                Consume(pipeline, null, 0, 2),
+                Consume(pipeline, "b", 0, 3),
+            };
+
+            var decoded = await pipeline.DecodeAsync(items, false, CancellationToken.None);
+
+            Assert.Equal(new long[] { 0, 2, 3 }, decoded.Select(x => x.Offset));
+            Assert.Equal(new[] { "a", null, "b" }, decoded.Select(x => x.Value));
+        }
+
+        [Fact]
+        public async Task When_No_Message_Can_Be_Decoded_Should_Return_Null()
+        {
+            var pipeline = CreatePipeline(2, new SlowStringDeserializer());
+
+            var items = new[]
+            {
+                Consume(pipeline, "poison", 0, 0),
+                Consume(pipeline, "poison", 0, 1),
+            };
+
+            Assert.Null(await pipeline.DecodeAsync(items, false, CancellationToken.None));
+        }
+
+        [Fact]
+        public async Task When_Message_Cannot_Be_Decoded_Should_Keep_Raw_Record_In_Order()
+        {
+            var pipeline = CreatePipeline(2, new SlowStringDeserializer());
+
+            var items = new[]
+            {
+                Consume(pipeline, "a", 0, 0),
+                Consume(pipeline, "poison", 0, 1),
+                Consume(pipeline, "b", 0, 2),
+            };
+
+            var decoded = await pipeline.DecodeAsync(items, true, CancellationToken.None);
+
+            Assert.Equal(3, decoded.Length);
+            Assert.Equal("a", decoded[0].Value);
+            var undecoded = Assert.IsType<UndecodedKafkaEventData>(decoded[1]);
+            Assert.Equal(1, undecoded.Offset);
+            Assert.Equal("poison", Encoding.UTF8.GetString((byte[])undecoded.Value));
+            Assert.IsType<InvalidOperationException>(undecoded.Error);
+            Assert.Equal("b", decoded[2].Value);
+        }
+    }
+}
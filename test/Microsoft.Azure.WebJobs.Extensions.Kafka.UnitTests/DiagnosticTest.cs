@@ -1,10 +1,15 @@
 ﻿// Copyright (c) .NET Foundation. All rights reserved.
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
+using System;
 using System.Collections;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
 using System.Diagnostics;
+using System.Diagnostics.Metrics;
 using System.Linq;
 using System.Text;
+using Confluent.Kafka;
 using Xunit;
 
 namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
@@ -176,6 +181,67 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             return kafkaEvent;
         }
 
+        [Fact]
+        public void ProducerDeliveries_Should_Be_Recorded_Per_Topic_And_Error_Code()
+        {
+            var topic = "deliveries-" + Guid.NewGuid().ToString("N");
+            var measurements = new ConcurrentQueue<(string Instrument, double Value, string ErrorType)>();
+            using var meterListener = new MeterListener
+            {
+                InstrumentPublished = (instrument, listener) =>
+                {
+                    if (instrument.Meter == KafkaEventInstrumentation.Meter && instrument.Name.StartsWith("messaging.kafka.producer."))
+                    {
+                        listener.EnableMeasurementEvents(instrument);
+                    }
+                },
+            };
+
+            void OnMeasurement<T>(Instrument instrument, T value, ReadOnlySpan<KeyValuePair<string, object>> tags, object state)
+            {
+                string measurementTopic = null, errorType = null;
+                foreach (var tag in tags)
+                {
+                    if (tag.Key == ActivityTags.DestinationName)
+                    {
+                        measurementTopic = (string)tag.Value;
+                    }
+                    else if (tag.Key == ActivityTags.ErrorType)
+                    {
+                        errorType = (string)tag.Value;
+                    }
+                }
+
+                if (measurementTopic == topic)
+                {
+                    measurements.Enqueue((instrument.Name, Convert.ToDouble(value), errorType));
+                }
+            }
+
+            meterListener.SetMeasurementEventCallback<long>(OnMeasurement);
+            meterListener.SetMeasurementEventCallback<double>(OnMeasurement);
+            meterListener.Start();
+
+            var delivered = new DeliveryResult<Null, string>()
+            {
+                TopicPartitionOffset = new TopicPartitionOffset(topic, 0, 1),
+                Message = new Message<Null, string>() { Timestamp = new Timestamp(DateTime.UtcNow.AddMilliseconds(-50), TimestampType.CreateTime) },
+            };
+            var failed = new DeliveryResult<Null, string>()
+            {
+                TopicPartitionOffset = new TopicPartitionOffset(topic, 0, Offset.Unset),
+                Message = new Message<Null, string>(),
+            };
+
+            KafkaProducer<Null, string>.RecordDelivery(delivered, ErrorCode.NoError);
+            KafkaProducer<Null, string>.RecordDelivery(failed, ErrorCode.Local_MsgTimedOut);
+
+            Assert.Contains(measurements, x => x.Instrument == "messaging.kafka.producer.delivered_messages" && x.Value == 1);
+            Assert.Contains(measurements, x => x.Instrument == "messaging.kafka.producer.delivery.duration" && x.Value >= 50);
+            Assert.Contains(measurements, x => x.Instrument == "messaging.kafka.producer.delivery_errors" && x.ErrorType == nameof(ErrorCode.Local_MsgTimedOut));
+            Assert.Equal(3, measurements.Count);
+        }
+
         public void GetTraceIdAndSpanIdFromKafkaHeader(KafkaEventData<string, string> kafkaEvent, out string traceId, out string spanId)
         {
             kafkaEvent.Headers.TryGetFirst("traceparent", out var traceparentInBytes);
@@ -0,0 +1,110 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+using Confluent.Kafka;
+using Microsoft.Azure.WebJobs.Host.Executors;
+using Microsoft.Extensions.Logging.Abstractions;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class FunctionExecutorAllocationTest
+    {
+        private const int BatchSize = 64;
+        private const int PartitionCount = 4;
+
+        // Lane buffers are pooled, what is left is one TopicPartition per partition and flush plus channel bookkeeping
+        private const long MaxAllocatedBytesPerMessage = 32;
+
+        [Fact]
+        public async Task Flush_Of_Single_Item_Executor_Does_Not_Allocate_Per_Message()
+        {
+            var executedCount = 0;
+            var executor = new Mock<ITriggeredFunctionExecutor>();
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Callback(() => Interlocked.Increment(ref executedCount))
+                .ReturnsAsync(new FunctionResult(true));
+
+            var consumer = new Mock<IConsumer<Null, string>>();
+            var commitStrategy = new Mock<ICommitStrategy<Null, string>>();
+            var options = new KafkaOptions { MaxBatchSize = BatchSize, ExecutorChannelCapacity = 1000 };
+
+            using (var target = new SingleItemFunctionExecutor<Null, string>(executor.Object, consumer.Object, "group", options.ExecutorChannelCapacity, 50, commitStrategy.Object, NullLogger.Instance, null, options))
+            {
+                var rounds = 200;
+                var events = CreateEvents(BatchSize * rounds * 2);
+
+                // Warm up: opens the lanes and fills the pool
+                var nextEvent = this.AddAndFlush(target, events, 0, rounds);
+                WaitForExecutions(ref executedCount, nextEvent);
+
+                var allocatedBefore = GC.GetAllocatedBytesForCurrentThread();
+                nextEvent = this.AddAndFlush(target, events, nextEvent, rounds);
+                var allocated = GC.GetAllocatedBytesForCurrentThread() - allocatedBefore;
+
+                WaitForExecutions(ref executedCount, nextEvent);
+
+                var bytesPerMessage = allocated / (BatchSize * rounds);
+                Assert.True(bytesPerMessage <= MaxAllocatedBytesPerMessage, $"Allocated {bytesPerMessage} bytes per message");
+
+                await target.CloseAsync();
+            }
+        }
+
+        private int AddAndFlush(SingleItemFunctionExecutor<Null, string> target, IKafkaEventData[] events, int start, int rounds)
+        {
+            var next = start;
+            for (var round = 0; round < rounds; round++)
+            {
+                for (var i = 0; i < BatchSize; i++)
+                {
+                    target.Add(events[next++]);
+                }
+
+                target.Flush();
+
+                // Keep the lanes from filling up, paused partitions are covered elsewhere
+                while (target.HasPausedPartitions)
+                {
+                    Thread.Sleep(1);
+                    target.ResumeDrainedPartitions();
+                }
+            }
+
+            return next;
+        }
+
+        private static void WaitForExecutions(ref int executedCount, int expected)
+        {
+            var timeout = DateTime.UtcNow.AddSeconds(30);
+            while (Volatile.Read(ref executedCount) < expected)
+            {
+                Assert.True(DateTime.UtcNow < timeout, "Timed out waiting for the function executions");
+                Thread.Sleep(10);
+            }
+        }
+
+        private static IKafkaEventData[] CreateEvents(int count)
+        {
+            var offsets = new long[PartitionCount];
+            var events = new IKafkaEventData[count];
+            for (var i = 0; i < count; i++)
+            {
+                var partition = i % PartitionCount;
+                events[i] = new KafkaEventData<Null, string>(null, "value")
+                {
+                    Topic = "topic",
+                    Partition = partition,
+                    Offset = offsets[partition]++,
+                };
+            }
+
+            return events;
+        }
+    }
+}
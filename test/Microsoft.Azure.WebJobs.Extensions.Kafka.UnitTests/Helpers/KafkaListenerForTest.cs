@@ -21,6 +21,8 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
 
         public ConsumerConfig ConsumerConfig { get; private set; }
 
+        public int? PartitionCount { get; set; }
+
         public KafkaListenerForTest(ITriggeredFunctionExecutor executor,
             bool singleDispatch,
             KafkaOptions options,
@@ -49,6 +51,8 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
         public void SetConsumer(IConsumer<TKey, TValue> consumer) => this.consumer = consumer;
 
 
+        protected internal override int GetPartitionCount() => this.PartitionCount ?? base.GetPartitionCount();
+
         protected override ConsumerBuilder<TKey, TValue> CreateConsumerBuilder(ConsumerConfig config)
         {
             this.ConsumerConfig = config;
@@ -24,6 +24,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             Assert.Equal(int.MaxValue, attribute.MaxRetries);
             Assert.Equal(300_000, attribute.MessageTimeoutMs);
             Assert.Equal(5_000, attribute.RequestTimeoutMs);
+            Assert.Equal(DeliveryMode.FireAndForget, attribute.DeliveryMode);
+            Assert.Equal(MessageCompressionType.NotSet, attribute.CompressionType);
+            Assert.Equal(-1, attribute.CompressionLevel);
+            Assert.Equal(ProducerAcks.NotSet, attribute.Acks);
+            Assert.Equal(1_000_000, attribute.BatchSizeBytes);
         }
 
         [Fact]
@@ -43,6 +48,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             Assert.Equal("BrokerList", attribute.BrokerList);
             Assert.Equal(1, attribute.BatchSize);
             Assert.Equal(true, attribute.EnableIdempotence);
+            Assert.Equal(DeliveryMode.Confirmed, attribute.DeliveryMode);
+            Assert.Equal(MessageCompressionType.Zstd, attribute.CompressionType);
+            Assert.Equal(6, attribute.CompressionLevel);
+            Assert.Equal(ProducerAcks.Leader, attribute.Acks);
+            Assert.Equal(7, attribute.BatchSizeBytes);
             Assert.Equal(2, attribute.MaxMessageBytes);
             Assert.Equal(3, attribute.MaxRetries);
             Assert.Equal(4, attribute.MessageTimeoutMs);
@@ -74,6 +84,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
                 BrokerList = "BrokerList",
                 BatchSize = 1,
                 EnableIdempotence = true,
+                DeliveryMode = DeliveryMode.Confirmed,
+                CompressionType = MessageCompressionType.Zstd,
+                CompressionLevel = 6,
+                Acks = ProducerAcks.Leader,
+                BatchSizeBytes = 7,
                 MaxMessageBytes = 2,
                 MaxRetries = 3,
                 MessageTimeoutMs = 4,
@@ -2,6 +2,7 @@
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
 using Confluent.Kafka;
+using Microsoft.Azure.WebJobs.Host;
 using Microsoft.Azure.WebJobs.Host.Executors;
 using Microsoft.Azure.WebJobs.Host.Protocols;
 using Microsoft.Extensions.Logging.Abstractions;
@@ -35,6 +36,13 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             return res;
         }
 
+        private ConsumeResult<TKey, TValue> CreateConsumeResult<TKey, TValue>(TKey key, TValue value, int partition, long offset)
+        {
+            var res = CreateConsumeResult<TKey, TValue>(value, partition, offset);
+            res.Message.Key = key;
+            return res;
+        }
+
         [Fact]
         public async Task When_Using_SingleItem_Binding_10_Events_Should_Execute_Function_Ten_Times()
         {
@@ -163,6 +171,155 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             executor.Verify(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()), Times.Once);
         }
 
+        [Fact]
+        public async Task When_MaxBatchBytes_Is_Reached_Should_Release_Batch_Before_MaxBatchSize()
+        {
+            const int ExpectedEventCount = 10;
+
+            var executor = new Mock<ITriggeredFunctionExecutor>();
+            var consumer = new Mock<IConsumer<Null, string>>();
+
+            var offset = 0L;
+            consumer.Setup(x => x.Consume(It.IsNotNull<TimeSpan>()))
+                .Returns(() =>
+                {
+                    if (offset < ExpectedEventCount)
+                    {
+                        offset++;
+
+                        // 10 bytes per message
+                        return CreateConsumeResult<Null, string>(new string('x', 10), 0, offset);
+                    }
+
+                    return null;
+                });
+
+            var executorFinished = new SemaphoreSlim(0);
+            var processedItemCount = 0;
+            var batchSizes = new ConcurrentQueue<int>();
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Callback<TriggeredFunctionData, CancellationToken>((td, _) =>
+                {
+                    var triggerData = (KafkaTriggerInput)td.TriggerValue;
+                    batchSizes.Enqueue(triggerData.Events.Length);
+                    var alreadyProcessed = Interlocked.Add(ref processedItemCount, triggerData.Events.Length);
+                    if (alreadyProcessed == ExpectedEventCount)
+                    {
+                        executorFinished.Release();
+                    }
+                })
+                .ReturnsAsync(new FunctionResult(true));
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            var target = new KafkaListenerForTest<Null, string>(
+                executor.Object,
+                singleDispatch: false,
+                options: new KafkaOptions() { MaxBatchSize = 100, MaxBatchBytes = 25, ExecutorChannelCapacity = 10 },
+                listenerConfig,
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                logger: NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: null
+                );
+
+            target.SetConsumer(consumer.Object);
+
+            await target.StartAsync(default(CancellationToken));
+
+            Assert.True(await executorFinished.WaitAsync(TimeSpan.FromSeconds(5)));
+
+            await target.StopAsync(default(CancellationToken));
+
+            // A third message would exceed the 25 bytes budget
+            Assert.Equal(5, batchSizes.Count);
+            Assert.All(batchSizes, x => Assert.Equal(2, x));
+        }
+
+        [Fact]
+        public async Task When_Drain_Mode_Is_Enabled_Stopping_Should_Complete_Queued_Messages()
+        {
+            const int ExpectedEventCount = 3;
+
+            var executor = new Mock<ITriggeredFunctionExecutor>();
+            var consumer = new Mock<IConsumer<Ignore, string>>();
+
+            var offset = 0L;
+            consumer.Setup(x => x.Consume(It.IsNotNull<TimeSpan>()))
+                .Returns(() =>
+                {
+                    if (offset < ExpectedEventCount)
+                    {
+                        offset++;
+
+                        return CreateConsumeResult<Ignore, string>(offset.ToString(), 0, offset);
+                    }
+
+                    return null;
+                });
+
+            var firstExecutionStarted = new SemaphoreSlim(0);
+            var releaseFirstExecution = new TaskCompletionSource<bool>();
+            var executorCalls = 0;
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Returns<TriggeredFunctionData, CancellationToken>(async (_, __) =>
+                {
+                    if (Interlocked.Increment(ref executorCalls) == 1)
+                    {
+                        firstExecutionStarted.Release();
+                        await releaseFirstExecution.Task;
+                    }
+
+                    return new FunctionResult(true);
+                });
+
+            var drainModeManager = new Mock<IDrainModeManager>();
+            drainModeManager.Setup(x => x.IsDrainModeEnabled).Returns(true);
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            var target = new KafkaListenerForTest<Ignore, string>(
+                executor.Object,
+                singleDispatch: true,
+                options: new KafkaOptions(),
+                listenerConfig,
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                logger: NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: drainModeManager.Object
+                );
+
+            target.SetConsumer(consumer.Object);
+
+            await target.StartAsync(default(CancellationToken));
+
+            Assert.True(await firstExecutionStarted.WaitAsync(TimeSpan.FromSeconds(5)));
+
+            var stop = target.StopAsync(default(CancellationToken));
+            await Task.Delay(100);
+            Assert.False(stop.IsCompleted);
+
+            // The messages queued behind the execution in flight are executed instead of being dropped
+            releaseFirstExecution.SetResult(true);
+            await stop.WaitAsync(TimeSpan.FromSeconds(15));
+
+            Assert.Equal(ExpectedEventCount, executorCalls);
+        }
+
         [Theory]
         [InlineData(true)]
         [InlineData(false)]
@@ -423,6 +580,171 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             await target.StopAsync(default);
         }
 
+        [Fact]
+        public async Task When_LowLatencyMode_Is_Set_Should_Tune_Fetch_In_Consumer_Config()
+        {
+            var executor = new Mock<ITriggeredFunctionExecutor>();
+            var consumer = new Mock<IConsumer<Ignore, string>>();
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            var target = new KafkaListenerForTest<Ignore, string>(
+                executor.Object,
+                true,
+                new KafkaOptions() { LowLatencyMode = true },
+                listenerConfig,
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: null
+                );
+
+            target.SetConsumer(consumer.Object);
+
+            await target.StartAsync(default);
+
+            Assert.Equal(1, target.ConsumerConfig.FetchMinBytes);
+            Assert.Equal(KafkaListener<Ignore, string>.LowLatencyFetchWaitMaxMs, target.ConsumerConfig.FetchWaitMaxMs);
+            Assert.Equal(true, target.ConsumerConfig.SocketNagleDisable);
+
+            await target.StopAsync(default);
+        }
+
+        [Theory]
+        [InlineData(true)]
+        [InlineData(false)]
+        public async Task When_LowLatencyMode_Is_Set_Should_Execute_Once_Fetched_Messages_Are_Drained(bool singleDispatch)
+        {
+            var executor = new Mock<ITriggeredFunctionExecutor>();
+            var consumer = new Mock<IConsumer<Ignore, string>>();
+
+            // Consume blocks until a message arrives or the timeout elapses, like librdkafka does
+            var fetched = new ConcurrentQueue<ConsumeResult<Ignore, string>>();
+            var arrival = new SemaphoreSlim(0);
+            consumer.Setup(x => x.Consume(It.IsAny<TimeSpan>()))
+                .Returns((TimeSpan timeout) =>
+                {
+                    if (fetched.TryDequeue(out var result) || (arrival.Wait(timeout) && fetched.TryDequeue(out result)))
+                    {
+                        return result;
+                    }
+
+                    return null;
+                });
+
+            var executed = new SemaphoreSlim(0);
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Callback(() => executed.Release())
+                .ReturnsAsync(new FunctionResult(true));
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            // The batch window is far longer than the test, messages must not wait for it
+            var target = new KafkaListenerForTest<Ignore, string>(
+                executor.Object,
+                singleDispatch,
+                new KafkaOptions() { LowLatencyMode = true, SubscriberIntervalInSeconds = 60 },
+                listenerConfig,
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: null
+                );
+
+            target.SetConsumer(consumer.Object);
+
+            await target.StartAsync(default);
+
+            await Task.Delay(100);
+            fetched.Enqueue(CreateConsumeResult<Ignore, string>("1", 0, 1));
+            arrival.Release();
+
+            Assert.True(await executed.WaitAsync(TimeSpan.FromSeconds(5)));
+
+            // Wake the consumer up so it notices the listener stopping
+            arrival.Release(100);
+            await target.StopAsync(default);
+        }
+
+        [Fact]
+        public async Task When_Options_With_CooperativeSticky_Are_Set_Should_Be_Set_In_Consumer_Config()
+        {
+            var executor = new Mock<ITriggeredFunctionExecutor>();
+            var consumer = new Mock<IConsumer<Ignore, string>>();
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            var kafkaOptions = new KafkaOptions()
+            {
+                PartitionAssignmentStrategy = PartitionAssignmentStrategy.CooperativeSticky
+            };
+
+            var target = new KafkaListenerForTest<Ignore, string>(
+                executor.Object,
+                true,
+                kafkaOptions,
+                listenerConfig,
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: null
+                );
+
+            target.SetConsumer(consumer.Object);
+
+            await target.StartAsync(default);
+
+            Assert.Equal(PartitionAssignmentStrategy.CooperativeSticky, target.ConsumerConfig.PartitionAssignmentStrategy);
+
+            await target.StopAsync(default);
+        }
+
+        [Fact]
+        public void When_Creating_Transactional_Producer_Config_Should_Keep_Connection_Settings_Only()
+        {
+            var consumerConfig = new ConsumerConfig()
+            {
+                BootstrapServers = "testBroker",
+                GroupId = "group1",
+                EnableAutoCommit = true,
+                SessionTimeoutMs = 45000,
+                SaslMechanism = SaslMechanism.Plain,
+                SaslUsername = "myusername",
+                SecurityProtocol = SecurityProtocol.SaslSsl,
+            };
+
+            var producerConfig = KafkaListener<Null, string>.CreateTransactionalProducerConfig(consumerConfig);
+
+            Assert.Equal("testBroker", producerConfig.BootstrapServers);
+            Assert.Equal(SaslMechanism.Plain, producerConfig.SaslMechanism);
+            Assert.Equal("myusername", producerConfig.SaslUsername);
+            Assert.Equal(SecurityProtocol.SaslSsl, producerConfig.SecurityProtocol);
+            Assert.True(producerConfig.EnableIdempotence);
+            Assert.DoesNotContain(producerConfig, x => x.Key == "group.id" || x.Key == "enable.auto.commit" || x.Key == "session.timeout.ms");
+            Assert.Equal("group1-topic-3", KafkaListener<Null, string>.CreateTransactionalId("group1", new TopicPartition("topic", 3)));
+        }
+
         [Fact]
         public async Task When_Options_With_Ssal_Are_Set_Should_Be_Set_In_Consumer_Config()
         {
@@ -674,5 +996,275 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
 
             await target.StopAsync(default(CancellationToken));
         }
+
+        [Theory]
+        [InlineData(true)]
+        [InlineData(false)]
+        public async Task When_Partition_Is_Slow_Other_Partitions_Should_Keep_Processing_Following_Batches(bool singleDispatch)
+        {
+            var executor = new Mock<ITriggeredFunctionExecutor>();
+            var consumer = new Mock<IConsumer<Null, string>>();
+
+            DateTime? partitionDone0Time = null;
+            var partition0Done = new ManualResetEvent(false);
+
+            DateTime? partitionDone1Time = null;
+            var partition1Done = new ManualResetEvent(false);
+
+            consumer.Setup(x => x.StoreOffset(It.IsNotNull<TopicPartitionOffset>()))
+                .Callback<TopicPartitionOffset>((topicPartitionOffset) =>
+                {
+                    if (topicPartitionOffset.Partition == 0 && topicPartitionOffset.Offset == 2)
+                    {
+                        partitionDone0Time = DateTime.UtcNow;
+                        partition0Done.Set();
+                    }
+                    else if (topicPartitionOffset.Partition == 1 && topicPartitionOffset.Offset == 6)
+                    {
+                        partitionDone1Time = DateTime.UtcNow;
+                        partition1Done.Set();
+                    }
+                });
+
+            // Batches (max size 2): A1 | 23 | 45
+            consumer.SetupSequence(x => x.Consume(It.IsNotNull<TimeSpan>()))
+                .Returns(CreateConsumeResult<Null, string>("A", 0, 1))
+                .Returns(CreateConsumeResult<Null, string>("1", 1, 1))
+                .Returns(CreateConsumeResult<Null, string>("2", 1, 2))
+                .Returns(CreateConsumeResult<Null, string>("3", 1, 3))
+                .Returns(CreateConsumeResult<Null, string>("4", 1, 4))
+                .Returns(CreateConsumeResult<Null, string>("5", 1, 5))
+                .Returns((ConsumeResult<Null, string>)null);
+
+            executor.Setup(x => x.TryExecuteAsync(
+                It.Is<TriggeredFunctionData>(t => ((KafkaTriggerInput)t.TriggerValue).Events[0].Partition == 0),
+                It.IsAny<CancellationToken>()))
+                .ReturnsAsync(new FunctionResult(true), TimeSpan.FromSeconds(3));
+
+            executor.Setup(x => x.TryExecuteAsync(
+                It.Is<TriggeredFunctionData>(t => ((KafkaTriggerInput)t.TriggerValue).Events[0].Partition == 1),
+                It.IsAny<CancellationToken>()))
+                .ReturnsAsync(new FunctionResult(true));
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            var target = new KafkaListenerForTest<Null, string>(
+                executor.Object,
+                singleDispatch,
+                new KafkaOptions() { MaxBatchSize = 2 },
+                listenerConfig,
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: null
+                );
+
+            target.SetConsumer(consumer.Object);
+
+            await target.StartAsync(default);
+
+            Assert.True(partition1Done.WaitOne(TimeSpan.FromSeconds(5)));
+            Assert.True(partition0Done.WaitOne(TimeSpan.FromSeconds(5)));
+
+            Assert.True(partitionDone1Time < partitionDone0Time, "Partition 1 batches should not wait for partition 0");
+
+            await target.StopAsync(default(CancellationToken));
+        }
+
+        [Fact]
+        public async Task When_MaxConcurrencyPerPartition_Is_Set_Should_Run_Different_Keys_Concurrently_And_Keep_Key_Order()
+        {
+            var executor = new Mock<ITriggeredFunctionExecutor>();
+            var consumer = new Mock<IConsumer<string, string>>();
+
+            var committed = new ConcurrentQueue<long>();
+            var allCommitted = new ManualResetEvent(false);
+            consumer.Setup(x => x.StoreOffset(It.IsNotNull<TopicPartitionOffset>()))
+                .Callback<TopicPartitionOffset>((topicPartitionOffset) =>
+                {
+                    committed.Enqueue(topicPartitionOffset.Offset.Value);
+                    if (topicPartitionOffset.Offset == 6)
+                    {
+                        allCommitted.Set();
+                    }
+                });
+
+            consumer.SetupSequence(x => x.Consume(It.IsNotNull<TimeSpan>()))
+                .Returns(CreateConsumeResult("k1", "k1-0", 0, 0))
+                .Returns(CreateConsumeResult("k2", "k2-1", 0, 1))
+                .Returns(CreateConsumeResult("k1", "k1-2", 0, 2))
+                .Returns(CreateConsumeResult("k3", "k3-3", 0, 3))
+                .Returns(CreateConsumeResult("k2", "k2-4", 0, 4))
+                .Returns(CreateConsumeResult("k1", "k1-5", 0, 5))
+                .Returns((ConsumeResult<string, string>)null);
+
+            var inFlight = 0;
+            var maxInFlight = 0;
+            var executedByKey = new ConcurrentDictionary<string, ConcurrentQueue<string>>();
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Returns<TriggeredFunctionData, CancellationToken>(async (t, _) =>
+                {
+                    var ev = ((KafkaTriggerInput)t.TriggerValue).Events[0];
+                    var current = Interlocked.Increment(ref inFlight);
+                    InterlockedMax(ref maxInFlight, current);
+
+                    await Task.Delay(200);
+
+                    executedByKey.GetOrAdd((string)ev.Key, k => new ConcurrentQueue<string>()).Enqueue((string)ev.Value);
+                    Interlocked.Decrement(ref inFlight);
+                    return new FunctionResult(true);
+                });
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            var target = new KafkaListenerForTest<string, string>(
+                executor.Object,
+                singleDispatch: true,
+                new KafkaOptions() { MaxConcurrencyPerPartition = 4 },
+                listenerConfig,
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: null
+                );
+
+            target.SetConsumer(consumer.Object);
+
+            await target.StartAsync(default);
+
+            Assert.True(allCommitted.WaitOne(TimeSpan.FromSeconds(5)));
+
+            Assert.True(maxInFlight > 1, "Messages with different keys should run concurrently");
+            Assert.True(maxInFlight <= 4, "Concurrency should not exceed MaxConcurrencyPerPartition");
+            Assert.Equal(new[] { "k1-0", "k1-2", "k1-5" }, executedByKey["k1"].ToArray());
+            Assert.Equal(new[] { "k2-1", "k2-4" }, executedByKey["k2"].ToArray());
+
+            // Commits only move forward over completed offsets
+            var committedArray = committed.ToArray();
+            Assert.Equal(committedArray.OrderBy(x => x).ToArray(), committedArray);
+            Assert.Equal(6, committedArray.Last());
+
+            await target.StopAsync(default(CancellationToken));
+        }
+
+        [Fact]
+        public async Task When_Partition_Lane_Is_Full_Should_Pause_Partition_And_Resume_When_Drained()
+        {
+            var executor = new Mock<ITriggeredFunctionExecutor>();
+            var consumer = new Mock<IConsumer<Null, string>>();
+
+            var paused = new ConcurrentQueue<TopicPartition>();
+            var resumed = new ConcurrentQueue<TopicPartition>();
+            consumer.Setup(x => x.Pause(It.IsAny<System.Collections.Generic.IEnumerable<TopicPartition>>()))
+                .Callback<System.Collections.Generic.IEnumerable<TopicPartition>>(x => { foreach (var tp in x) paused.Enqueue(tp); });
+            consumer.Setup(x => x.Resume(It.IsAny<System.Collections.Generic.IEnumerable<TopicPartition>>()))
+                .Callback<System.Collections.Generic.IEnumerable<TopicPartition>>(x => { foreach (var tp in x) resumed.Enqueue(tp); });
+
+            var allCommitted = new ManualResetEvent(false);
+            consumer.Setup(x => x.StoreOffset(It.IsNotNull<TopicPartitionOffset>()))
+                .Callback<TopicPartitionOffset>((topicPartitionOffset) =>
+                {
+                    if (topicPartitionOffset.Offset == 5)
+                    {
+                        allCommitted.Set();
+                    }
+                });
+
+            var values = new[] { "A", "B", "C", "D", "E" };
+            var offset = 0;
+            var consumeCallsWhilePaused = 0;
+            consumer.Setup(x => x.Consume(It.IsNotNull<TimeSpan>()))
+                .Returns(() =>
+                {
+                    if (offset < values.Length)
+                    {
+                        var value = values[offset];
+                        return CreateConsumeResult<Null, string>(value, 0, offset++);
+                    }
+
+                    if (paused.Count > resumed.Count)
+                    {
+                        Interlocked.Increment(ref consumeCallsWhilePaused);
+                    }
+
+                    return null;
+                });
+
+            var executed = new ConcurrentQueue<string>();
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Returns<TriggeredFunctionData, CancellationToken>(async (t, _) =>
+                {
+                    await Task.Delay(300);
+                    executed.Enqueue(((KafkaTriggerInput)t.TriggerValue).Events[0].Value.ToString());
+                    return new FunctionResult(true);
+                });
+
+            var listenerConfig = new KafkaListenerConfiguration()
+            {
+                BrokerList = "testBroker",
+                Topic = "topic",
+                ConsumerGroup = "group1",
+            };
+
+            var target = new KafkaListenerForTest<Null, string>(
+                executor.Object,
+                singleDispatch: true,
+                new KafkaOptions() { MaxBatchSize = 1, ExecutorChannelCapacity = 1 },
+                listenerConfig,
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: null
+                );
+
+            target.SetConsumer(consumer.Object);
+
+            await target.StartAsync(default);
+
+            Assert.True(allCommitted.WaitOne(TimeSpan.FromSeconds(10)));
+
+            // Nothing is lost or reordered while the partition is paused
+            Assert.Equal(new[] { "A", "B", "C", "D", "E" }, executed.ToArray());
+
+            Assert.NotEmpty(paused);
+            Assert.All(paused, x => Assert.Equal(0, x.Partition.Value));
+            Assert.Equal(paused.Count, resumed.Count);
+
+            // The polling thread keeps polling while the partition is paused
+            Assert.True(consumeCallsWhilePaused > 0, "Consume should be called while the partition is paused");
+
+            await target.StopAsync(default(CancellationToken));
+        }
+
+        private static void InterlockedMax(ref int target, int value)
+        {
+            var current = Volatile.Read(ref target);
+            while (value > current)
+            {
+                var previous = Interlocked.CompareExchange(ref target, value, current);
+                if (previous == current)
+                {
+                    return;
+                }
+
+                current = previous;
+            }
+        }
     }
 }
\ No newline at end of file
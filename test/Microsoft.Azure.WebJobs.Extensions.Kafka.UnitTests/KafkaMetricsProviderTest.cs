@@ -140,6 +140,37 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             Assert.Equal(0, metrics.TotalLag);
         }
 
+        [Fact]
+        public async Task When_Subscribed_To_Several_Topics_Should_Aggregate_Lag_Per_Topic_Partition()
+        {
+            // Both topics have a partition 0, committed offsets must be matched by topic and partition
+            var regionA = new TopicPartition("events-region-a", new Partition(0));
+            var regionB = new TopicPartition("events-region-b", new Partition(0));
+            var localMetricsProvider = new KafkaMetricsProviderForTest<string, byte[]>(
+                "events-region-a,events-region-b",
+                new AdminClientConfig(),
+                consumer.Object,
+                NullLogger.Instance,
+                new List<TopicPartition> { regionA, regionB },
+                new List<TopicPartition> { regionA });
+
+            consumer.Setup(x => x.Committed(It.IsNotNull<IEnumerable<TopicPartition>>(), AnyTimeSpan))
+                .Returns(new List<TopicPartitionOffset>
+                {
+                    new TopicPartitionOffset(regionA, 90),
+                    new TopicPartitionOffset(regionB, 40),
+                });
+            consumer.Setup(x => x.GetWatermarkOffsets(regionA))
+                .Returns(new WatermarkOffsets(0, 100));
+            consumer.Setup(x => x.QueryWatermarkOffsets(regionB, AnyTimeSpan))
+                .Returns(new WatermarkOffsets(0, 100));
+
+            var metrics = await localMetricsProvider.GetMetricsAsync();
+
+            Assert.Equal(2, metrics.PartitionCount);
+            Assert.Equal(10 + 60, metrics.TotalLag);
+        }
+
         [Fact]
         public void KafkaMetricsProvider_Implements_IDisposable()
         {
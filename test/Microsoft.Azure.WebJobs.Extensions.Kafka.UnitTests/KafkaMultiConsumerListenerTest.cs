@@ -0,0 +1,85 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Threading;
+using System.Threading.Tasks;
+using Confluent.Kafka;
+using Microsoft.Azure.WebJobs.Host.Executors;
+using Microsoft.Extensions.Logging.Abstractions;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class KafkaMultiConsumerListenerTest
+    {
+        private readonly List<Mock<IConsumer<Ignore, string>>> consumers = new List<Mock<IConsumer<Ignore, string>>>();
+
+        private KafkaListenerForTest<Ignore, string> CreateListener(int consumersPerInstance, int partitionCount)
+        {
+            var consumer = new Mock<IConsumer<Ignore, string>>();
+            consumer.Setup(x => x.Consume(It.IsAny<TimeSpan>())).Returns((ConsumeResult<Ignore, string>)null);
+            this.consumers.Add(consumer);
+
+            var listener = new KafkaListenerForTest<Ignore, string>(
+                new Mock<ITriggeredFunctionExecutor>().Object,
+                singleDispatch: true,
+                options: new KafkaOptions() { ConsumersPerInstance = consumersPerInstance },
+                new KafkaListenerConfiguration()
+                {
+                    BrokerList = "testBroker",
+                    Topic = "topic",
+                    ConsumerGroup = "group1",
+                },
+                requiresKey: true,
+                valueDeserializer: null,
+                keyDeserializer: null,
+                logger: NullLogger.Instance,
+                functionId: "testId",
+                drainModeManager: null)
+            {
+                PartitionCount = partitionCount,
+            };
+
+            listener.SetConsumer(consumer.Object);
+            return listener;
+        }
+
+        [Theory]
+        [InlineData(4, 48, 4)]
+        [InlineData(4, 2, 2)]
+        [InlineData(3, 0, 3)] // partition count unknown
+        public async Task When_Started_Should_Run_One_Consumer_Per_Partition_Up_To_ConsumersPerInstance(int consumersPerInstance, int partitionCount, int expectedConsumerCount)
+        {
+            var target = new KafkaMultiConsumerListener<Ignore, string>(consumersPerInstance, _ => CreateListener(consumersPerInstance, partitionCount), NullLogger.Instance);
+
+            await target.StartAsync(default(CancellationToken));
+
+            Assert.Equal(expectedConsumerCount, target.Listeners.Count);
+            foreach (var consumer in this.consumers)
+            {
+                consumer.Verify(x => x.Subscribe(It.IsAny<IEnumerable<string>>()), Times.Once);
+            }
+
+            await target.StopAsync(default(CancellationToken));
+
+            foreach (var consumer in this.consumers)
+            {
+                consumer.Verify(x => x.Close(), Times.Once);
+            }
+        }
+
+        [Fact]
+        public void Scaling_Should_Be_Reported_By_First_Consumer()
+        {
+            var target = new KafkaMultiConsumerListener<Ignore, string>(4, _ => CreateListener(4, 8), NullLogger.Instance);
+
+            Assert.Single(target.Listeners);
+            Assert.Same(target.Listeners[0].GetMonitor(), target.GetMonitor());
+            Assert.Same(target.Listeners[0].GetTargetScaler(), target.GetTargetScaler());
+            Assert.Equal(4, ((KafkaGenericTargetScaler<Ignore, string>)target.GetTargetScaler()).ConsumersPerInstance);
+        }
+    }
+}
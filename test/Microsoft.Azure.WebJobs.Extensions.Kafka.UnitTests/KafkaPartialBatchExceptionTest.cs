@@ -0,0 +1,73 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using Microsoft.Azure.WebJobs.Host;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class KafkaPartialBatchExceptionTest
+    {
+        [Fact]
+        public void FirstFailedIndex_Fails_Remaining_Records()
+        {
+            var error = new FunctionInvocationException("Exception while executing function", new KafkaPartialBatchException(2));
+
+            Assert.True(KafkaPartialBatchException.TryGetFailedIndexes(error, 5, out var failedIndexes));
+            Assert.Equal(new[] { 2, 3, 4 }, failedIndexes);
+        }
+
+        [Fact]
+        public void FailedIndexes_Are_Sorted_And_Distinct()
+        {
+            var exception = new KafkaPartialBatchException(new[] { 7, 3, 7 });
+
+            Assert.Equal(3, exception.FirstFailedIndex);
+            Assert.Equal(new[] { 3, 7 }, exception.FailedIndexes);
+            Assert.Contains("kafka-failed-indexes=3,7", exception.Message);
+
+            Assert.True(KafkaPartialBatchException.TryGetFailedIndexes(new AggregateException(exception), 10, out var failedIndexes));
+            Assert.Equal(new[] { 3, 7 }, failedIndexes);
+        }
+
+        [Theory]
+        [InlineData("Result: Failure Exception: java.lang.RuntimeException: kafka-failed-indexes=4, 1", new[] { 1, 4 })]
+        [InlineData("Result: Failure Exception: Error: kafka-first-failed-index=3", new[] { 3, 4, 5 })]
+        public void Message_Marker_Of_Out_Of_Process_Worker_Is_Parsed(string message, int[] expected)
+        {
+            var error = new FunctionInvocationException("Exception while executing function", new Exception(message));
+
+            Assert.True(KafkaPartialBatchException.TryGetFailedIndexes(error, 6, out var failedIndexes));
+            Assert.Equal(expected, failedIndexes);
+        }
+
+        [Fact]
+        public void Message_Marker_Of_Inner_Exceptions_Is_Not_Parsed()
+        {
+            var error = new FunctionInvocationException(
+                "Exception while executing function",
+                new InvalidOperationException("boom", new Exception("kafka-failed-indexes=1")));
+
+            Assert.False(KafkaPartialBatchException.TryGetFailedIndexes(error, 6, out _));
+        }
+
+        [Fact]
+        public void Indexes_Outside_Batch_Fail_Whole_Batch()
+        {
+            Assert.False(KafkaPartialBatchException.TryGetFailedIndexes(new KafkaPartialBatchException(new[] { 1, 6 }), 6, out _));
+            Assert.False(KafkaPartialBatchException.TryGetFailedIndexes(new KafkaPartialBatchException(6), 6, out _));
+            Assert.False(KafkaPartialBatchException.TryGetFailedIndexes(new InvalidOperationException("boom"), 6, out _));
+            Assert.False(KafkaPartialBatchException.TryGetFailedIndexes(null, 6, out _));
+        }
+
+        [Fact]
+        public void Invalid_Indexes_Are_Rejected()
+        {
+            Assert.Throws<ArgumentOutOfRangeException>(() => new KafkaPartialBatchException(-1));
+            Assert.Throws<ArgumentOutOfRangeException>(() => new KafkaPartialBatchException(new[] { -1, 2 }));
+            Assert.Throws<ArgumentException>(() => new KafkaPartialBatchException(Array.Empty<int>()));
+            Assert.Throws<ArgumentNullException>(() => new KafkaPartialBatchException((int[])null));
+        }
+    }
+}
@@ -13,6 +13,7 @@ using Confluent.Kafka.SyncOverAsync;
 using Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests.Helpers;
 using Microsoft.Extensions.Configuration;
 using Microsoft.Extensions.Logging.Abstractions;
+using Microsoft.Extensions.Options;
 using Xunit;
 
 namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
@@ -82,6 +83,98 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             Assert.Null(typedProducer.ValueSerializer);
         }
 
+        [Fact]
+        public void When_Binding_Is_The_Same_Should_Reuse_Typed_Producer()
+        {
+            var attribute = new KafkaAttribute("brokers:9092", "myTopic");
+            KafkaProducerEntity CreateEntity(Type valueType) => new KafkaProducerEntity()
+            {
+                Attribute = attribute,
+                KeyType = typeof(Null),
+                ValueType = valueType,
+                Topic = "myTopic",
+            };
+
+            var factory = new KafkaProducerFactory(emptyConfiguration, new DefaultNameResolver(emptyConfiguration), NullLoggerFactory.Instance);
+            var producer = factory.Create(CreateEntity(typeof(string)));
+
+            // Each invocation creates its own entity for the binding
+            Assert.Same(producer, factory.Create(CreateEntity(typeof(string))));
+            Assert.NotSame(producer, factory.Create(CreateEntity(typeof(byte[]))));
+
+            var otherBinding = new KafkaProducerEntity()
+            {
+                Attribute = new KafkaAttribute("brokers:9092", "myTopic"),
+                KeyType = typeof(Null),
+                ValueType = typeof(string),
+                Topic = "myTopic",
+            };
+            Assert.NotSame(producer, factory.Create(otherBinding));
+        }
+
+        [Fact]
+        public void When_Shard_Count_Is_Set_Should_Spread_Over_Base_Producers()
+        {
+            var entity = new KafkaProducerEntity()
+            {
+                Attribute = new KafkaAttribute("brokers:9092", "myTopic"),
+                KeyType = typeof(string),
+                ValueType = typeof(string),
+                Topic = "myTopic",
+            };
+
+            var options = Options.Create(new KafkaOptions() { ProducerShardCount = 3 });
+            var factory = new KafkaProducerFactory(emptyConfiguration, new DefaultNameResolver(emptyConfiguration), NullLoggerFactory.Instance, options);
+            var producer = Assert.IsType<KafkaProducer<string, string>>(factory.Create(entity));
+
+            Assert.Equal(3, producer.ShardCount);
+        }
+
+        [Fact]
+        public void When_Key_Is_The_Same_Should_Select_Same_Shard()
+        {
+            for (var i = 0; i < 100; i++)
+            {
+                var key = "key" + i;
+                Assert.Equal(KafkaProducer<string, string>.GetShard(key, 4), KafkaProducer<string, string>.GetShard(new string(key.ToCharArray()), 4));
+                Assert.InRange(KafkaProducer<string, string>.GetShard(key, 4), 0, 3);
+
+                var bytes = BitConverter.GetBytes(i);
+                Assert.Equal(KafkaProducer<byte[], string>.GetShard(bytes, 4), KafkaProducer<byte[], string>.GetShard((byte[])bytes.Clone(), 4));
+            }
+
+            // Keys are spread over all shards
+            var shards = Enumerable.Range(0, 100).Select(x => KafkaProducer<byte[], string>.GetShard(BitConverter.GetBytes(x), 4)).Distinct();
+            Assert.Equal(4, shards.Count());
+        }
+
+        [Fact]
+        public void When_Configuration_Reloads_Should_Create_New_Typed_Producer()
+        {
+            var configuration = new ConfigurationBuilder().AddInMemoryCollection(new Dictionary<string, string>
+            {
+                { "Password", "secret" },
+            }).Build();
+
+            var entity = new KafkaProducerEntity()
+            {
+                Attribute = new KafkaAttribute("brokers:9092", "myTopic")
+                {
+                    Password = "Password",
+                },
+                ValueType = typeof(string),
+                Topic = "myTopic",
+            };
+
+            var factory = new KafkaProducerFactory(configuration, new DefaultNameResolver(configuration), NullLoggerFactory.Instance);
+            var producer = factory.Create(entity);
+            Assert.Same(producer, factory.Create(entity));
+
+            configuration.Reload();
+
+            Assert.NotSame(producer, factory.Create(entity));
+        }
+
         [Theory]
         [InlineData(typeof(System.String), typeof(Null), null, null)]
         [InlineData(typeof(System.String), typeof(System.String), null, null)]
@@ -231,6 +324,67 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             Assert.Equal("brokers:9092", config.BootstrapServers);
         }
 
+        [Fact]
+        public void GetProducerConfig_When_Compression_And_Acks_Not_Defined_Should_Use_Librdkafka_Defaults()
+        {
+            var entity = new KafkaProducerEntity()
+            {
+                Attribute = new KafkaAttribute("brokers:9092", "myTopic"),
+            };
+
+            var factory = new KafkaProducerFactory(emptyConfiguration, new DefaultNameResolver(emptyConfiguration), NullLoggerFactory.Instance);
+            var config = factory.GetProducerConfig(entity);
+            Assert.Null(config.CompressionType);
+            Assert.Null(config.CompressionLevel);
+            Assert.Null(config.Acks);
+            Assert.Equal(1_000_000, config.BatchSize);
+        }
+
+        [Theory]
+        [InlineData(MessageCompressionType.None, CompressionType.None)]
+        [InlineData(MessageCompressionType.Gzip, CompressionType.Gzip)]
+        [InlineData(MessageCompressionType.Snappy, CompressionType.Snappy)]
+        [InlineData(MessageCompressionType.Lz4, CompressionType.Lz4)]
+        [InlineData(MessageCompressionType.Zstd, CompressionType.Zstd)]
+        public void GetProducerConfig_When_Compression_Defined_Should_Contain_It(MessageCompressionType compressionType, CompressionType expected)
+        {
+            var entity = new KafkaProducerEntity()
+            {
+                Attribute = new KafkaAttribute("brokers:9092", "myTopic")
+                {
+                    CompressionType = compressionType,
+                    CompressionLevel = 3,
+                    Acks = ProducerAcks.Leader,
+                    BatchSizeBytes = 64_000,
+                },
+            };
+
+            var factory = new KafkaProducerFactory(emptyConfiguration, new DefaultNameResolver(emptyConfiguration), NullLoggerFactory.Instance);
+            var config = factory.GetProducerConfig(entity);
+            Assert.Equal(expected, config.CompressionType);
+            Assert.Equal(3, config.CompressionLevel);
+            Assert.Equal(Acks.Leader, config.Acks);
+            Assert.Equal(64_000, config.BatchSize);
+        }
+
+        [Theory]
+        [InlineData(ProducerAcks.All, Acks.All)]
+        [InlineData(ProducerAcks.None, Acks.None)]
+        [InlineData(ProducerAcks.Leader, Acks.Leader)]
+        public void GetProducerConfig_When_Acks_Defined_Should_Contain_Them(ProducerAcks acks, Acks expected)
+        {
+            var entity = new KafkaProducerEntity()
+            {
+                Attribute = new KafkaAttribute("brokers:9092", "myTopic")
+                {
+                    Acks = acks,
+                },
+            };
+
+            var factory = new KafkaProducerFactory(emptyConfiguration, new DefaultNameResolver(emptyConfiguration), NullLoggerFactory.Instance);
+            Assert.Equal(expected, factory.GetProducerConfig(entity).Acks);
+        }
+
         [Fact]
         public void GetProducerConfig_When_Auth_Defined_Should_Contain_Them()
         {
@@ -0,0 +1,66 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Text;
+using Confluent.Kafka;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class KafkaRecordSizeEstimatorTest
+    {
+        [Fact]
+        public void When_Record_Has_Key_Value_And_Headers_Should_Sum_Their_Sizes()
+        {
+            var eventData = new KafkaEventData<string, byte[]>("key", new byte[100]);
+            eventData.Headers.Add("h1", new byte[10]);
+            eventData.Headers.Add("h2", null);
+
+            // key (3) + value (100) + header keys (2 + 2) + header value (10)
+            Assert.Equal(117, KafkaRecordSizeEstimator.GetSize(eventData));
+        }
+
+        [Fact]
+        public void When_String_Is_Not_Ascii_Should_Count_Utf8_Bytes()
+        {
+            Assert.Equal(Encoding.UTF8.GetByteCount("héllo wörld"), KafkaRecordSizeEstimator.GetComponentSize("héllo wörld"));
+        }
+
+        [Fact]
+        public void When_Component_Is_Null_Size_Is_Zero()
+        {
+            Assert.Equal(0, KafkaRecordSizeEstimator.GetComponentSize(null));
+        }
+
+        [Fact]
+        public void When_Component_Is_A_Number_Should_Count_Fixed_Size_Encoding()
+        {
+            Assert.Equal(4, KafkaRecordSizeEstimator.GetComponentSize(42));
+            Assert.Equal(4, KafkaRecordSizeEstimator.GetComponentSize(4.2f));
+            Assert.Equal(8, KafkaRecordSizeEstimator.GetComponentSize(42L));
+            Assert.Equal(8, KafkaRecordSizeEstimator.GetComponentSize(4.2d));
+        }
+
+        [Fact]
+        public void When_Deserializer_Captures_Size_Should_Record_Raw_Length()
+        {
+            var deserializer = new SizeCapturingDeserializer<string>(Deserializers.Utf8);
+            var context = new SerializationContext(MessageComponentType.Value, "topic");
+
+            Assert.Equal("héllo", deserializer.Deserialize(Encoding.UTF8.GetBytes("héllo"), false, context));
+            Assert.Equal(6, deserializer.LastSize);
+
+            Assert.Null(deserializer.Deserialize(ReadOnlySpan<byte>.Empty, true, context));
+            Assert.Equal(0, deserializer.LastSize);
+        }
+
+        [Fact]
+        public void When_Component_Is_Complex_Should_Use_Wire_Json_Size()
+        {
+            var value = new { Id = 1, Name = "name" };
+
+            Assert.Equal(Encoding.UTF8.GetByteCount(KafkaRecordSizeEstimator.SerializeComplexValue(value)), KafkaRecordSizeEstimator.GetComponentSize(value));
+        }
+    }
+}
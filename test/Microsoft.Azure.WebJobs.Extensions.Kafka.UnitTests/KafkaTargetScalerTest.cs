@@ -106,6 +106,20 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
             Assert.Equal(expectedResult, actualResult);
         }
 
+        [Theory]
+        [InlineData(48, 48, 4, 12)]
+        [InlineData(48, 50, 4, 13)]
+        [InlineData(5, 48, 4, 5)]
+        [InlineData(10, 3, 8, 1)]
+        public void When_Instance_Runs_Several_Consumers_Limits_Target_To_Partitions_Per_Instance(int targetWorkerCount, long partitionCount, int consumersPerInstance, int expectedResult)
+        {
+            targetScaler.ConsumersPerInstance = consumersPerInstance;
+
+            var actualResult = targetScaler.ValidateWithPartitionCount(targetWorkerCount, partitionCount);
+
+            Assert.Equal(expectedResult, actualResult);
+        }
+
         [Theory]
         [InlineData(1L, 1, 2L, 2, 59)]
         [InlineData(1L, 1, 2L, 2, 30)]
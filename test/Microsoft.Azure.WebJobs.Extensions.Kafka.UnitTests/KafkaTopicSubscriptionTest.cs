@@ -0,0 +1,46 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class KafkaTopicSubscriptionTest
+    {
+        [Fact]
+        public void Parse_SingleTopic_ReturnsTopic()
+        {
+            Assert.Equal(new[] { "orders" }, KafkaTopicSubscription.Parse("orders"));
+        }
+
+        [Fact]
+        public void Parse_TopicList_ReturnsTrimmedDistinctTopics()
+        {
+            var topics = KafkaTopicSubscription.Parse(" orders-eu , orders-us,,orders-eu ,^orders-ap-.* ");
+
+            Assert.Equal(new[] { "orders-eu", "orders-us", "^orders-ap-.*" }, topics);
+        }
+
+        [Theory]
+        [InlineData(null)]
+        [InlineData("")]
+        [InlineData(" , ")]
+        public void Parse_Empty_ReturnsNoTopic(string topic)
+        {
+            Assert.Empty(KafkaTopicSubscription.Parse(topic));
+        }
+
+        [Fact]
+        public void CreatePattern_MatchesTopicNames()
+        {
+            Assert.True(KafkaTopicSubscription.IsPattern("^orders-.*"));
+            Assert.False(KafkaTopicSubscription.IsPattern("orders"));
+
+            var pattern = KafkaTopicSubscription.CreatePattern("^orders-.*");
+            Assert.Matches(pattern, "orders-eu");
+            Assert.DoesNotMatch(pattern, "payments-eu");
+            Assert.Throws<ArgumentException>(() => KafkaTopicSubscription.CreatePattern("orders"));
+        }
+    }
+}
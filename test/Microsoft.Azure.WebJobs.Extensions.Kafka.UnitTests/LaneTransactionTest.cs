@@ -0,0 +1,286 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Confluent.Kafka;
+using Microsoft.Azure.WebJobs.Host.Executors;
+using Microsoft.Extensions.Logging.Abstractions;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class LaneTransactionTest
+    {
+        private static readonly TopicPartition Partition0 = new TopicPartition("topic", 0);
+
+        private readonly Mock<IProducer<byte[], byte[]>> producer = new Mock<IProducer<byte[], byte[]>>();
+        private readonly ConcurrentQueue<TopicPartitionOffset> sentOffsets = new ConcurrentQueue<TopicPartitionOffset>();
+        private int createdProducers;
+
+        public LaneTransactionTest()
+        {
+            this.producer.Setup(x => x.SendOffsetsToTransaction(It.IsAny<IEnumerable<TopicPartitionOffset>>(), It.IsAny<IConsumerGroupMetadata>(), It.IsAny<TimeSpan>()))
+                .Callback<IEnumerable<TopicPartitionOffset>, IConsumerGroupMetadata, TimeSpan>((x, _, __) => { foreach (var tpo in x) this.sentOffsets.Enqueue(tpo); });
+        }
+
+        [Fact]
+        public void When_Committed_Sends_Highest_Offset_With_Transaction()
+        {
+            using (var target = this.CreateTransaction(maxInvocations: 100))
+            {
+                target.BeginExecution(0);
+                target.AddOffset(1);
+                target.AddOffset(3);
+                Assert.Equal(0, target.FirstOffset);
+
+                Assert.Equal(3, target.Commit());
+
+                this.producer.Verify(x => x.InitTransactions(It.IsAny<TimeSpan>()), Times.Once);
+                this.producer.Verify(x => x.BeginTransaction(), Times.Once);
+                this.producer.Verify(x => x.CommitTransaction(It.IsAny<TimeSpan>()), Times.Once);
+                var sentOffset = Assert.Single(this.sentOffsets);
+                Assert.Equal(Partition0, sentOffset.TopicPartition);
+                Assert.Equal(3, sentOffset.Offset.Value);
+
+                // Nothing executed since, nothing to commit
+                Assert.Equal(-1, target.Commit());
+                this.producer.Verify(x => x.BeginTransaction(), Times.Once);
+                Assert.Equal(-1, target.FirstOffset);
+            }
+        }
+
+        [Fact]
+        public void When_Max_Invocations_Reached_Is_Due()
+        {
+            using (var target = this.CreateTransaction(maxInvocations: 2))
+            {
+                target.BeginExecution(0);
+                target.AddOffset(1);
+                Assert.False(target.IsDue);
+
+                target.AddOffset(2);
+                Assert.True(target.IsDue);
+            }
+        }
+
+        [Fact]
+        public void When_Commit_Fails_Aborts_Transaction()
+        {
+            this.producer.Setup(x => x.CommitTransaction(It.IsAny<TimeSpan>()))
+                .Throws(new KafkaException(new Error(ErrorCode.RequestTimedOut)));
+
+            using (var target = this.CreateTransaction(maxInvocations: 100))
+            {
+                target.BeginExecution(5);
+                target.AddOffset(6);
+
+                Assert.Throws<KafkaException>(() => target.Commit());
+
+                this.producer.Verify(x => x.AbortTransaction(It.IsAny<TimeSpan>()), Times.Once);
+                Assert.Equal(-1, target.FirstOffset);
+                Assert.Equal(1, this.createdProducers);
+            }
+        }
+
+        [Fact]
+        public void When_Producer_Is_Fenced_Creates_New_Producer()
+        {
+            this.producer.SetupSequence(x => x.CommitTransaction(It.IsAny<TimeSpan>()))
+                .Throws(new KafkaException(new Error(ErrorCode.Local_Fenced, "fenced", true)))
+                .Pass();
+
+            using (var target = this.CreateTransaction(maxInvocations: 100))
+            {
+                target.BeginExecution(0);
+                target.AddOffset(1);
+                Assert.Throws<KafkaException>(() => target.Commit());
+
+                this.producer.Verify(x => x.AbortTransaction(It.IsAny<TimeSpan>()), Times.Never);
+                this.producer.Verify(x => x.Dispose(), Times.Once);
+
+                target.BeginExecution(0);
+                target.AddOffset(1);
+                Assert.Equal(1, target.Commit());
+
+                Assert.Equal(2, this.createdProducers);
+                this.producer.Verify(x => x.InitTransactions(It.IsAny<TimeSpan>()), Times.Exactly(2));
+            }
+        }
+
+        [Fact]
+        public void When_Closed_Does_Not_Open_Transactions()
+        {
+            using (var target = this.CreateTransaction(maxInvocations: 100))
+            {
+                target.Close();
+
+                Assert.Throws<InvalidOperationException>(() => target.ProducerHandle);
+                this.producer.Verify(x => x.BeginTransaction(), Times.Never);
+            }
+        }
+
+        [Fact]
+        public void When_Output_Producer_Is_Reused_Creates_It_Once_And_Disposes_It_On_Close()
+        {
+            using (var target = this.CreateTransaction(maxInvocations: 100))
+            {
+                var typedProducer = new Mock<IKafkaProducer>();
+                var createdTypedProducers = 0;
+                Func<Handle, IKafkaProducer> factory = _ =>
+                {
+                    createdTypedProducers++;
+                    return typedProducer.Object;
+                };
+
+                Assert.Same(typedProducer.Object, target.GetOrAddProducer("binding", factory));
+                Assert.Same(typedProducer.Object, target.GetOrAddProducer("binding", factory));
+                Assert.Equal(1, createdTypedProducers);
+                this.producer.Verify(x => x.BeginTransaction(), Times.Once);
+
+                target.Close();
+
+                typedProducer.Verify(x => x.Dispose(), Times.Once);
+                Assert.Throws<InvalidOperationException>(() => target.GetOrAddProducer("binding", factory));
+            }
+        }
+
+        [Fact]
+        public async Task When_Lane_Is_Idle_Commits_Invocations_In_One_Transaction()
+        {
+            var consumer = new Mock<IConsumer<Null, string>>();
+            var transactionsSeen = new ConcurrentQueue<LaneTransaction>();
+            var executor = CreateFunctionExecutor(_ => transactionsSeen.Enqueue(LaneTransaction.Current));
+
+            using (var target = this.CreateExecutor(executor, consumer))
+            {
+                target.Add(CreateEvent(0, "a"));
+                target.Add(CreateEvent(1, "b"));
+                target.Add(CreateEvent(2, "c"));
+                target.Flush();
+
+                await WaitForAsync(() => this.sentOffsets.Count == 1);
+
+                Assert.Equal(3, this.sentOffsets.Single().Offset.Value);
+                this.producer.Verify(x => x.BeginTransaction(), Times.Once);
+                this.producer.Verify(x => x.CommitTransaction(It.IsAny<TimeSpan>()), Times.Once);
+                consumer.Verify(x => x.StoreOffset(It.IsAny<TopicPartitionOffset>()), Times.Never);
+
+                // Invocations see the transaction of their lane
+                Assert.Equal(3, transactionsSeen.Count);
+                Assert.NotNull(transactionsSeen.First());
+                Assert.All(transactionsSeen, x => Assert.Same(transactionsSeen.First(), x));
+            }
+        }
+
+        [Fact]
+        public async Task When_Transaction_Aborts_Executes_Again_From_First_Offset()
+        {
+            this.producer.SetupSequence(x => x.CommitTransaction(It.IsAny<TimeSpan>()))
+                .Throws(new KafkaException(new Error(ErrorCode.RequestTimedOut)))
+                .Pass();
+
+            var consumer = new Mock<IConsumer<Null, string>>();
+            var seeks = new ConcurrentQueue<TopicPartitionOffset>();
+            consumer.Setup(x => x.Seek(It.IsAny<TopicPartitionOffset>())).Callback<TopicPartitionOffset>(x => seeks.Enqueue(x));
+            var executed = new ConcurrentQueue<string>();
+            var executor = CreateFunctionExecutor(x => executed.Enqueue(x));
+
+            using (var target = this.CreateExecutor(executor, consumer))
+            {
+                target.Add(CreateEvent(0, "a"));
+                target.Add(CreateEvent(1, "b"));
+                target.Flush();
+
+                // The polling thread applies the rewind
+                await WaitForAsync(() =>
+                {
+                    target.SeekRewoundPartitions();
+                    return !seeks.IsEmpty;
+                });
+
+                this.producer.Verify(x => x.AbortTransaction(It.IsAny<TimeSpan>()), Times.Once);
+                var seek = Assert.Single(seeks);
+                Assert.Equal(0, seek.Offset.Value);
+
+                // Fetched before the seek, dropped
+                target.Add(CreateEvent(2, "c"));
+                target.Flush();
+
+                // Delivered again after the seek
+                target.Add(CreateEvent(0, "a"));
+                target.Add(CreateEvent(1, "b"));
+                target.Flush();
+
+                await WaitForAsync(() => this.sentOffsets.Count == 2);
+
+                Assert.Equal(new[] { "a", "b", "a", "b" }, executed.ToArray());
+                Assert.Equal(new[] { 2L, 2L }, this.sentOffsets.Select(x => x.Offset.Value).ToArray());
+            }
+        }
+
+        private LaneTransaction CreateTransaction(int maxInvocations)
+        {
+            return new LaneTransaction(
+                Partition0,
+                "testBroker",
+                () =>
+                {
+                    this.createdProducers++;
+                    return this.producer.Object;
+                },
+                () => null,
+                maxInvocations,
+                60000,
+                TimeSpan.FromSeconds(1),
+                NullLogger.Instance);
+        }
+
+        private SingleItemFunctionExecutor<Null, string> CreateExecutor(Mock<ITriggeredFunctionExecutor> executor, Mock<IConsumer<Null, string>> consumer)
+        {
+            var options = new KafkaOptions() { ExecutorChannelCapacity = 10, ExactlyOnceDelivery = true };
+            var commitStrategy = new AsyncCommitStrategy<Null, string>(consumer.Object, NullLogger.Instance);
+            return new SingleItemFunctionExecutor<Null, string>(executor.Object, consumer.Object, "group1", options.ExecutorChannelCapacity, 50, commitStrategy, NullLogger.Instance, null, options)
+            {
+                LaneTransactionFactory = _ => this.CreateTransaction(maxInvocations: 100),
+            };
+        }
+
+        private static Mock<ITriggeredFunctionExecutor> CreateFunctionExecutor(Action<string> onExecute)
+        {
+            var executor = new Mock<ITriggeredFunctionExecutor>();
+            executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Returns<TriggeredFunctionData, CancellationToken>((t, _) =>
+                {
+                    onExecute(((KafkaTriggerInput)t.TriggerValue).GetSingleEventData().Value.ToString());
+                    return Task.FromResult(new FunctionResult(true));
+                });
+            return executor;
+        }
+
+        private static IKafkaEventData CreateEvent(long offset, string value)
+        {
+            return new KafkaEventData<Null, string>(null, value)
+            {
+                Topic = "topic",
+                Partition = 0,
+                Offset = offset,
+            };
+        }
+
+        private static async Task WaitForAsync(Func<bool> condition)
+        {
+            var timeout = DateTime.UtcNow.AddSeconds(10);
+            while (!condition())
+            {
+                Assert.True(DateTime.UtcNow < timeout, "Timed out waiting for the condition");
+                await Task.Delay(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System.Collections.Generic;
+using System.Linq;
+using Confluent.Kafka;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class OffsetTrackingCommitStrategyTest
+    {
+        [Fact]
+        public void When_Completed_Out_Of_Order_Commits_Lowest_Incomplete_Offset()
+        {
+            var committed = new List<TopicPartitionOffset>();
+            var inner = new Mock<ICommitStrategy<Null, string>>();
+            inner.Setup(x => x.Commit(It.IsAny<IEnumerable<TopicPartitionOffset>>()))
+                .Callback<IEnumerable<TopicPartitionOffset>>(x => committed.AddRange(x));
+
+            var target = new OffsetTrackingCommitStrategy<Null, string>(inner.Object);
+            var partition0 = new TopicPartition("topic", 0);
+            var partition1 = new TopicPartition("topic", 1);
+
+            for (var offset = 0; offset < 3; offset++)
+            {
+                target.Track(partition0, offset);
+                target.Track(partition1, offset);
+            }
+
+            Assert.Equal(-1, target.Complete(partition0, 1));
+            Assert.Equal(-1, target.Complete(partition1, 2));
+            Assert.Empty(committed);
+
+            Assert.Equal(2, target.Complete(partition0, 0));
+            Assert.Equal(1, target.Complete(partition1, 0));
+            Assert.Equal(3, target.Complete(partition0, 2));
+
+            Assert.Equal(new[] { 2L, 3L }, committed.Where(x => x.Partition == 0).Select(x => x.Offset.Value).ToArray());
+            Assert.Equal(new[] { 1L }, committed.Where(x => x.Partition == 1).Select(x => x.Offset.Value).ToArray());
+        }
+
+        [Fact]
+        public void When_Partition_Is_Reset_Completions_Are_Ignored()
+        {
+            var inner = new Mock<ICommitStrategy<Null, string>>();
+            var target = new OffsetTrackingCommitStrategy<Null, string>(inner.Object);
+            var partition = new TopicPartition("topic", 0);
+
+            target.Track(partition, 10);
+            target.Reset(partition);
+
+            Assert.Equal(-1, target.Complete(partition, 10));
+            inner.Verify(x => x.Commit(It.IsAny<IEnumerable<TopicPartitionOffset>>()), Times.Never);
+        }
+
+        [Fact]
+        public void Commit_Is_Forwarded_To_Inner_Strategy()
+        {
+            var inner = new Mock<ICommitStrategy<Null, string>>();
+            var target = new OffsetTrackingCommitStrategy<Null, string>(inner.Object);
+            var offsets = new[] { new TopicPartitionOffset("topic", 0, 5) };
+
+            target.Commit(offsets);
+
+            inner.Verify(x => x.Commit(offsets), Times.Once);
+        }
+    }
+}
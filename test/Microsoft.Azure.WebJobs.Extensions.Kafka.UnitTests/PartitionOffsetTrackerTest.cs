@@ -0,0 +1,244 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Linq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class PartitionOffsetTrackerTest
+    {
+        [Fact]
+        public void When_Nothing_Tracked_Watermark_Is_Unset()
+        {
+            var tracker = new PartitionOffsetTracker();
+
+            Assert.Equal(-1, tracker.Watermark);
+            Assert.Equal(0, tracker.PendingCount);
+            Assert.False(tracker.Complete(10));
+        }
+
+        [Fact]
+        public void When_Completed_In_Order_Watermark_Follows_Each_Completion()
+        {
+            var tracker = new PartitionOffsetTracker();
+            for (var offset = 100; offset < 105; offset++)
+            {
+                tracker.Track(offset);
+            }
+
+            Assert.Equal(100, tracker.Watermark);
+            Assert.Equal(5, tracker.PendingCount);
+
+            for (var offset = 100; offset < 105; offset++)
+            {
+                Assert.True(tracker.Complete(offset));
+                Assert.Equal(offset + 1, tracker.Watermark);
+            }
+
+            Assert.Equal(0, tracker.PendingCount);
+        }
+
+        [Fact]
+        public void When_Completed_Out_Of_Order_Watermark_Only_Moves_Over_Contiguous_Prefix()
+        {
+            var tracker = new PartitionOffsetTracker();
+            for (var offset = 0; offset < 5; offset++)
+            {
+                tracker.Track(offset);
+            }
+
+            Assert.False(tracker.Complete(2));
+            Assert.False(tracker.Complete(1));
+            Assert.Equal(0, tracker.Watermark);
+
+            Assert.True(tracker.Complete(0));
+            Assert.Equal(3, tracker.Watermark);
+
+            Assert.False(tracker.Complete(4));
+            Assert.Equal(3, tracker.Watermark);
+
+            Assert.True(tracker.Complete(3));
+            Assert.Equal(5, tracker.Watermark);
+        }
+
+        [Fact]
+        public void When_Offsets_Have_Gaps_Skipped_Offsets_Do_Not_Block_Watermark()
+        {
+            var tracker = new PartitionOffsetTracker();
+            tracker.Track(10);
+            tracker.Track(13);
+            tracker.Track(20);
+
+            Assert.True(tracker.Complete(10));
+            Assert.Equal(13, tracker.Watermark);
+
+            Assert.True(tracker.Complete(13));
+            Assert.Equal(20, tracker.Watermark);
+        }
+
+        [Fact]
+        public void When_Offsets_Have_Large_Gaps_Ring_Does_Not_Grow()
+        {
+            const long Gap = 1_000_000_000;
+            var tracker = new PartitionOffsetTracker(64);
+            var offsets = Enumerable.Range(0, 10).SelectMany(x => new[] { x * Gap, (x * Gap) + 1 }).ToArray();
+
+            foreach (var offset in offsets)
+            {
+                tracker.Track(offset);
+            }
+
+            Assert.Equal(64, tracker.Capacity);
+            Assert.Equal(offsets.Length, tracker.PendingCount);
+
+            // Offsets inside a gap were never tracked
+            Assert.False(tracker.Complete(Gap / 2));
+
+            // Completed in reverse order, the watermark jumps over all gaps at the last completion
+            for (var i = offsets.Length - 1; i > 0; i--)
+            {
+                Assert.False(tracker.Complete(offsets[i]));
+            }
+
+            Assert.Equal(0, tracker.Watermark);
+            Assert.True(tracker.Complete(0));
+            Assert.Equal(offsets.Last() + 1, tracker.Watermark);
+            Assert.Equal(0, tracker.PendingCount);
+        }
+
+        [Fact]
+        public void When_Gap_Follows_Pending_Offset_Watermark_Moves_To_Next_Tracked_Offset()
+        {
+            var tracker = new PartitionOffsetTracker(64);
+            tracker.Track(5);
+            tracker.Track(5_000_005);
+            tracker.Track(5_000_006);
+
+            Assert.False(tracker.Complete(5_000_006));
+            Assert.True(tracker.Complete(5));
+            Assert.Equal(5_000_005, tracker.Watermark);
+
+            Assert.True(tracker.Complete(5_000_005));
+            Assert.Equal(5_000_007, tracker.Watermark);
+            Assert.Equal(64, tracker.Capacity);
+        }
+
+        [Fact]
+        public void When_Completion_Is_Repeated_Or_Unknown_Is_Ignored()
+        {
+            var tracker = new PartitionOffsetTracker();
+            tracker.Track(0);
+            tracker.Track(1);
+
+            Assert.True(tracker.Complete(0));
+            Assert.False(tracker.Complete(0));
+            Assert.False(tracker.Complete(5));
+            Assert.Equal(1, tracker.Watermark);
+
+            // Already tracked offsets are ignored
+            tracker.Track(1);
+            tracker.Track(0);
+            Assert.Equal(1, tracker.PendingCount);
+        }
+
+        [Fact]
+        public void When_In_Flight_Exceeds_Capacity_Grows_And_Keeps_Completions()
+        {
+            var tracker = new PartitionOffsetTracker(64);
+            const int InFlight = 1000;
+
+            for (var offset = 0; offset < InFlight / 2; offset++)
+            {
+                tracker.Track(offset);
+            }
+
+            // Complete everything but the first one before growing
+            for (var offset = 1; offset < InFlight / 2; offset++)
+            {
+                tracker.Complete(offset);
+            }
+
+            for (var offset = InFlight / 2; offset < InFlight; offset++)
+            {
+                tracker.Track(offset);
+            }
+
+            Assert.True(tracker.Capacity >= InFlight);
+            Assert.Equal(0, tracker.Watermark);
+
+            Assert.True(tracker.Complete(0));
+            Assert.Equal(InFlight / 2, tracker.Watermark);
+        }
+
+        [Fact]
+        public void When_Ring_Wraps_Watermark_Is_Correct()
+        {
+            var tracker = new PartitionOffsetTracker(64);
+            var nextToTrack = 0L;
+            var nextToComplete = 0L;
+
+            // Keep 40 offsets in flight while moving across several laps of the ring
+            for (var lap = 0; lap < 20; lap++)
+            {
+                while (nextToTrack < nextToComplete + 40)
+                {
+                    tracker.Track(nextToTrack++);
+                }
+
+                // Complete 30 in reverse order, the watermark only moves on the last one
+                for (var offset = nextToComplete + 29; offset > nextToComplete; offset--)
+                {
+                    Assert.False(tracker.Complete(offset));
+                }
+
+                Assert.True(tracker.Complete(nextToComplete));
+                nextToComplete += 30;
+                Assert.Equal(nextToComplete, tracker.Watermark);
+            }
+
+            Assert.Equal(64, tracker.Capacity);
+        }
+
+        [Fact]
+        public void When_Completed_Randomly_Watermark_Matches_Lowest_Pending_Offset()
+        {
+            var random = new Random(7);
+            var tracker = new PartitionOffsetTracker(64);
+            var offsets = Enumerable.Range(0, 5000).Select(x => 1_000L + (x * 2)).ToArray();
+
+            foreach (var offset in offsets)
+            {
+                tracker.Track(offset);
+            }
+
+            var pending = offsets.ToList();
+            while (pending.Count > 0)
+            {
+                var index = random.Next(pending.Count);
+                tracker.Complete(pending[index]);
+                pending.RemoveAt(index);
+
+                var expected = pending.Count == 0 ? offsets.Last() + 1 : pending.Min();
+                Assert.Equal(expected, tracker.Watermark);
+            }
+        }
+
+        [Fact]
+        public void Reset_Forgets_Tracked_Offsets()
+        {
+            var tracker = new PartitionOffsetTracker();
+            tracker.Track(5);
+            tracker.Track(6);
+
+            tracker.Reset();
+
+            Assert.Equal(-1, tracker.Watermark);
+            Assert.False(tracker.Complete(5));
+
+            tracker.Track(3);
+            Assert.Equal(3, tracker.Watermark);
+        }
+    }
+}
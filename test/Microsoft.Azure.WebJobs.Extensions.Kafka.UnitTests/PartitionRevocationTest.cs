@@ -0,0 +1,268 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Confluent.Kafka;
+using Microsoft.Azure.WebJobs.Host.Executors;
+using Microsoft.Extensions.Logging.Abstractions;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class PartitionRevocationTest
+    {
+        private static readonly TopicPartition Partition0 = new TopicPartition("topic", 0);
+        private static readonly TopicPartition Partition1 = new TopicPartition("topic", 1);
+
+        private readonly Mock<ITriggeredFunctionExecutor> executor = new Mock<ITriggeredFunctionExecutor>();
+        private readonly Mock<IConsumer<Null, string>> consumer = new Mock<IConsumer<Null, string>>();
+        private readonly ConcurrentQueue<TopicPartitionOffset> stored = new ConcurrentQueue<TopicPartitionOffset>();
+        private readonly ConcurrentQueue<TopicPartitionOffset> committed = new ConcurrentQueue<TopicPartitionOffset>();
+        private readonly ConcurrentQueue<string> executed = new ConcurrentQueue<string>();
+        private readonly SemaphoreSlim slowExecutionStarted = new SemaphoreSlim(0);
+        private readonly TaskCompletionSource<bool> releaseSlowExecution = new TaskCompletionSource<bool>(TaskCreationOptions.RunContinuationsAsynchronously);
+
+        public PartitionRevocationTest()
+        {
+            this.consumer.Setup(x => x.StoreOffset(It.IsNotNull<TopicPartitionOffset>()))
+                .Callback<TopicPartitionOffset>(x => this.stored.Enqueue(x));
+            this.consumer.Setup(x => x.Commit(It.IsAny<IEnumerable<TopicPartitionOffset>>()))
+                .Callback<IEnumerable<TopicPartitionOffset>>(x => { foreach (var tpo in x) this.committed.Enqueue(tpo); });
+
+            // "slow" ignores cancellation, like a function that does not observe the token
+            this.executor.Setup(x => x.TryExecuteAsync(It.IsNotNull<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Returns<TriggeredFunctionData, CancellationToken>(async (t, _) =>
+                {
+                    var value = ((KafkaTriggerInput)t.TriggerValue).GetSingleEventData().Value.ToString();
+                    if (value == "slow")
+                    {
+                        this.slowExecutionStarted.Release();
+                        await this.releaseSlowExecution.Task;
+                    }
+
+                    this.executed.Enqueue(value);
+                    return new FunctionResult(true);
+                });
+        }
+
+        [Fact]
+        public async Task When_Partition_Is_Revoked_Should_Drain_In_Flight_Execution_And_Commit_Final_Offset()
+        {
+            using (var target = this.CreateExecutor(revokedPartitionDrainTimeoutMs: 10000))
+            {
+                target.Add(CreateEvent(0, 0, "slow"));
+                target.Add(CreateEvent(0, 1, "not started"));
+                target.Add(CreateEvent(1, 0, "p1-0"));
+                target.Flush();
+
+                Assert.True(await this.slowExecutionStarted.WaitAsync(TimeSpan.FromSeconds(10)));
+
+                var revoke = Task.Run(() => target.OnPartitionsRevoked(new[] { Partition0 }));
+                await Task.Delay(100);
+                Assert.False(revoke.IsCompleted);
+
+                this.releaseSlowExecution.SetResult(true);
+                await revoke.WaitAsync(TimeSpan.FromSeconds(10));
+
+                // Only the execution in flight completed, its offset was committed synchronously
+                Assert.Contains("slow", this.executed);
+                Assert.DoesNotContain("not started", this.executed);
+                Assert.Equal(new[] { 1L }, this.committed.Where(x => x.Partition == 0).Select(x => x.Offset.Value).ToArray());
+
+                // Other partitions keep processing
+                target.Add(CreateEvent(1, 1, "p1-1"));
+                target.Flush();
+                await WaitForAsync(() => this.stored.Any(x => x.Partition == 1 && x.Offset == 2));
+                Assert.Equal(new[] { "p1-0", "p1-1" }, this.executed.Where(x => x.StartsWith("p1")).ToArray());
+            }
+        }
+
+        [Fact]
+        public async Task When_Partition_Is_Revoked_During_Keyed_Batch_Should_Not_Start_Waiting_Messages()
+        {
+            using (var target = this.CreateExecutor(revokedPartitionDrainTimeoutMs: 10000, maxConcurrencyPerPartition: 2))
+            {
+                // Both slow executions take the two execution slots of the partition
+                target.Add(CreateKeyedEvent(0, 0, "a", "slow"));
+                target.Add(CreateKeyedEvent(0, 1, "b", "slow"));
+                target.Add(CreateKeyedEvent(0, 2, "c", "waiting for a slot"));
+                target.Add(CreateKeyedEvent(0, 3, "a", "waiting for its key"));
+                target.Flush();
+
+                Assert.True(await this.slowExecutionStarted.WaitAsync(TimeSpan.FromSeconds(10)));
+                Assert.True(await this.slowExecutionStarted.WaitAsync(TimeSpan.FromSeconds(10)));
+
+                var revoke = Task.Run(() => target.OnPartitionsRevoked(new[] { Partition0 }));
+                await Task.Delay(100);
+                Assert.False(revoke.IsCompleted);
+
+                this.releaseSlowExecution.SetResult(true);
+                await revoke.WaitAsync(TimeSpan.FromSeconds(10));
+
+                // Messages not started before the revoke are left to the new owner instead of being executed twice
+                Assert.Equal(new[] { "slow", "slow" }, this.executed.ToArray());
+                Assert.Equal(new[] { 2L }, this.committed.Where(x => x.Partition == 0).Select(x => x.Offset.Value).ToArray());
+            }
+        }
+
+        [Fact]
+        public async Task When_Drain_Timeout_Expires_Late_Completion_Should_Not_Commit()
+        {
+            using (var target = this.CreateExecutor(revokedPartitionDrainTimeoutMs: 100))
+            {
+                target.Add(CreateEvent(0, 0, "slow"));
+                target.Flush();
+
+                Assert.True(await this.slowExecutionStarted.WaitAsync(TimeSpan.FromSeconds(10)));
+
+                target.OnPartitionsRevoked(new[] { Partition0 });
+                Assert.Empty(this.committed);
+
+                this.releaseSlowExecution.SetResult(true);
+                await WaitForAsync(() => this.executed.Contains("slow"));
+                await Task.Delay(100);
+
+                Assert.DoesNotContain(this.stored, x => x.Partition == 0);
+                Assert.Empty(this.committed);
+            }
+        }
+
+        [Fact]
+        public async Task When_Polling_Thread_Is_Shared_Revocation_Should_Not_Wait_For_Configured_Drain_Timeout()
+        {
+            using (var target = this.CreateExecutor(revokedPartitionDrainTimeoutMs: 10000))
+            {
+                // Set by the listener when the trigger is polled by a SharedConsumerPoller
+                target.RevokedPartitionDrainTimeoutMs = (int)SharedConsumerPoller.MaxRevokedPartitionDrainTimeout.TotalMilliseconds;
+                target.Add(CreateEvent(0, 0, "slow"));
+                target.Flush();
+
+                Assert.True(await this.slowExecutionStarted.WaitAsync(TimeSpan.FromSeconds(10)));
+
+                var stopwatch = Stopwatch.StartNew();
+                target.OnPartitionsRevoked(new[] { Partition0 });
+                Assert.True(stopwatch.ElapsedMilliseconds < 5000, $"Revocation took {stopwatch.ElapsedMilliseconds}ms");
+                Assert.Empty(this.committed);
+
+                this.releaseSlowExecution.SetResult(true);
+            }
+        }
+
+        [Fact]
+        public async Task When_Partition_Is_Lost_Should_Not_Commit()
+        {
+            using (var target = this.CreateExecutor(revokedPartitionDrainTimeoutMs: 10000))
+            {
+                target.Add(CreateEvent(0, 0, "slow"));
+                target.Flush();
+
+                Assert.True(await this.slowExecutionStarted.WaitAsync(TimeSpan.FromSeconds(10)));
+
+                // Does not wait for the execution in flight
+                target.OnPartitionsLost(new[] { Partition0 });
+
+                this.releaseSlowExecution.SetResult(true);
+                await WaitForAsync(() => this.executed.Contains("slow"));
+                await Task.Delay(100);
+
+                Assert.DoesNotContain(this.stored, x => x.Partition == 0);
+                Assert.Empty(this.committed);
+            }
+        }
+
+        [Fact]
+        public async Task When_Stopping_Should_Drain_All_Partitions_And_Commit_Completed_Offsets()
+        {
+            using (var target = this.CreateExecutor(revokedPartitionDrainTimeoutMs: 0))
+            {
+                target.Add(CreateEvent(0, 0, "slow"));
+                target.Add(CreateEvent(0, 1, "not started"));
+                target.Add(CreateEvent(1, 0, "p1-0"));
+                target.Flush();
+
+                Assert.True(await this.slowExecutionStarted.WaitAsync(TimeSpan.FromSeconds(10)));
+                await WaitForAsync(() => this.executed.Contains("p1-0"));
+
+                // Waiting for the executions in flight does not block the caller
+                var drain = target.DrainAsync(10000);
+                Assert.False(drain.IsCompleted);
+                await Task.Delay(100);
+                Assert.False(drain.IsCompleted);
+
+                this.releaseSlowExecution.SetResult(true);
+                Assert.Equal(0, await drain.WaitAsync(TimeSpan.FromSeconds(10)));
+
+                // Completed offsets of every partition are committed synchronously, queued batches are dropped
+                Assert.DoesNotContain("not started", this.executed);
+                Assert.Equal(new[] { 1L }, this.committed.Where(x => x.Partition == 0).Select(x => x.Offset.Value).ToArray());
+                Assert.Equal(new[] { 1L }, this.committed.Where(x => x.Partition == 1).Select(x => x.Offset.Value).ToArray());
+            }
+        }
+
+        [Fact]
+        public async Task When_Stopping_And_Drain_Timeout_Expires_Should_Report_Abandoned_Messages()
+        {
+            using (var target = this.CreateExecutor(revokedPartitionDrainTimeoutMs: 10000))
+            {
+                target.Add(CreateEvent(0, 0, "slow"));
+                target.Flush();
+
+                Assert.True(await this.slowExecutionStarted.WaitAsync(TimeSpan.FromSeconds(10)));
+
+                Assert.Equal(1, await target.DrainAsync(100));
+                Assert.Empty(this.committed);
+
+                this.releaseSlowExecution.SetResult(true);
+                await WaitForAsync(() => this.executed.Contains("slow"));
+                await Task.Delay(100);
+
+                Assert.DoesNotContain(this.stored, x => x.Partition == 0);
+                Assert.Empty(this.committed);
+            }
+        }
+
+        private SingleItemFunctionExecutor<Null, string> CreateExecutor(int revokedPartitionDrainTimeoutMs, int maxConcurrencyPerPartition = 1)
+        {
+            var options = new KafkaOptions() { ExecutorChannelCapacity = 10, RevokedPartitionDrainTimeoutMs = revokedPartitionDrainTimeoutMs, MaxConcurrencyPerPartition = maxConcurrencyPerPartition };
+            var commitStrategy = new AsyncCommitStrategy<Null, string>(this.consumer.Object, NullLogger.Instance);
+            return new SingleItemFunctionExecutor<Null, string>(this.executor.Object, this.consumer.Object, "group1", options.ExecutorChannelCapacity, 50, commitStrategy, NullLogger.Instance, null, options);
+        }
+
+        private static IKafkaEventData CreateEvent(int partition, long offset, string value)
+        {
+            return new KafkaEventData<Null, string>(null, value)
+            {
+                Topic = "topic",
+                Partition = partition,
+                Offset = offset,
+            };
+        }
+
+        private static IKafkaEventData CreateKeyedEvent(int partition, long offset, string key, string value)
+        {
+            return new KafkaEventData<string, string>(key, value)
+            {
+                Topic = "topic",
+                Partition = partition,
+                Offset = offset,
+            };
+        }
+
+        private static async Task WaitForAsync(Func<bool> condition)
+        {
+            var timeout = DateTime.UtcNow.AddSeconds(10);
+            while (!condition())
+            {
+                Assert.True(DateTime.UtcNow < timeout, "Timed out waiting for the condition");
+                await Task.Delay(10);
+            }
+        }
+    }
+}
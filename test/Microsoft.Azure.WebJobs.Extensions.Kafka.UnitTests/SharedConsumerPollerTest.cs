@@ -0,0 +1,155 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Microsoft.Extensions.Logging.Abstractions;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class SharedConsumerPollerTest
+    {
+        private static readonly TimeSpan TestTimeout = TimeSpan.FromSeconds(30);
+
+        private class FakeConsumer : IPolledConsumer
+        {
+            private readonly ConcurrentQueue<int> messages = new ConcurrentQueue<int>();
+            private volatile bool stopRequested;
+            private volatile bool isCompleted;
+
+            public ConcurrentDictionary<int, byte> PollingThreads { get; } = new ConcurrentDictionary<int, byte>();
+
+            public SemaphoreSlim Consumed { get; } = new SemaphoreSlim(0);
+
+            public bool IsCompleted => this.isCompleted;
+
+            public int PollCount;
+
+            public void Publish(int message) => this.messages.Enqueue(message);
+
+            public void Stop() => this.stopRequested = true;
+
+            public bool Poll()
+            {
+                Interlocked.Increment(ref this.PollCount);
+                this.PollingThreads.TryAdd(Thread.CurrentThread.ManagedThreadId, 0);
+                if (this.stopRequested)
+                {
+                    this.isCompleted = true;
+                    return false;
+                }
+
+                var consumed = false;
+                while (this.messages.TryDequeue(out _))
+                {
+                    consumed = true;
+                    this.Consumed.Release();
+                }
+
+                return consumed;
+            }
+        }
+
+        private static async Task WaitUntilAsync(Func<bool> condition)
+        {
+            var deadline = DateTime.UtcNow + TestTimeout;
+            while (!condition())
+            {
+                Assert.True(DateTime.UtcNow < deadline, "Condition not met in time");
+                await Task.Delay(10);
+            }
+        }
+
+        [Fact]
+        public async Task Consumers_Are_Spread_Over_Threads_And_Keep_Their_Thread()
+        {
+            var target = new SharedConsumerPoller(2, NullLogger.Instance);
+            var consumers = Enumerable.Range(0, 6).Select(_ => new FakeConsumer()).ToArray();
+            foreach (var consumer in consumers)
+            {
+                target.Add(consumer);
+            }
+
+            Assert.Equal(2, target.ThreadCount);
+            Assert.Equal(6, target.ConsumerCount);
+
+            for (var i = 0; i < 20; i++)
+            {
+                foreach (var consumer in consumers)
+                {
+                    consumer.Publish(i);
+                }
+
+                await Task.Delay(5);
+            }
+
+            foreach (var consumer in consumers)
+            {
+                for (var i = 0; i < 20; i++)
+                {
+                    Assert.True(await consumer.Consumed.WaitAsync(TestTimeout), "Message should be consumed");
+                }
+
+                Assert.Single(consumer.PollingThreads);
+            }
+
+            Assert.Equal(2, consumers.SelectMany(x => x.PollingThreads.Keys).Distinct().Count());
+
+            foreach (var consumer in consumers)
+            {
+                consumer.Stop();
+            }
+
+            await WaitUntilAsync(() => target.ConsumerCount == 0);
+        }
+
+        [Fact]
+        public async Task Completed_Consumer_Is_No_Longer_Polled()
+        {
+            var target = new SharedConsumerPoller(1, NullLogger.Instance);
+            var stopped = new FakeConsumer();
+            var running = new FakeConsumer();
+            target.Add(stopped);
+            target.Add(running);
+
+            stopped.Stop();
+            await WaitUntilAsync(() => target.ConsumerCount == 1);
+
+            var pollCount = stopped.PollCount;
+            running.Publish(1);
+            Assert.True(await running.Consumed.WaitAsync(TestTimeout), "Remaining consumer should still be polled");
+            Assert.Equal(pollCount, stopped.PollCount);
+
+            running.Stop();
+            await WaitUntilAsync(() => target.ConsumerCount == 0);
+        }
+
+        [Fact]
+        public async Task Thread_Restarts_When_Consumer_Is_Added_After_Last_Completed()
+        {
+            var target = new SharedConsumerPoller(1, NullLogger.Instance);
+            var first = new FakeConsumer();
+            target.Add(first);
+            first.Stop();
+            await WaitUntilAsync(() => target.ConsumerCount == 0);
+
+            var second = new FakeConsumer();
+            target.Add(second);
+            second.Publish(1);
+
+            Assert.True(await second.Consumed.WaitAsync(TestTimeout), "Consumer added after the thread exited should be polled");
+            second.Stop();
+            await WaitUntilAsync(() => target.ConsumerCount == 0);
+        }
+
+        [Fact]
+        public void ThreadCount_Must_Be_Positive()
+        {
+            Assert.Throws<ArgumentOutOfRangeException>(() => new SharedConsumerPoller(0, NullLogger.Instance));
+        }
+    }
+}
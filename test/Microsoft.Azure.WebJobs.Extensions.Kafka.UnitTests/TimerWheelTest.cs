@@ -0,0 +1,85 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Diagnostics;
+using System.Threading;
+using System.Threading.Tasks;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests
+{
+    public class TimerWheelTest
+    {
+        private static readonly TimeSpan TestTimeout = TimeSpan.FromSeconds(30);
+
+        [Fact]
+        public async Task When_Delay_Elapses_Task_Completes()
+        {
+            using (var target = new TimerWheel(TimeSpan.FromMilliseconds(10), 16))
+            {
+                var stopwatch = Stopwatch.StartNew();
+                var delay = target.Delay(TimeSpan.FromMilliseconds(100), CancellationToken.None);
+                Assert.Equal(1, target.PendingCount);
+
+                Assert.Same(delay, await Task.WhenAny(delay, Task.Delay(TestTimeout)));
+                Assert.True(stopwatch.ElapsedMilliseconds >= 90, $"Completed after {stopwatch.ElapsedMilliseconds}ms");
+                Assert.Equal(0, target.PendingCount);
+            }
+        }
+
+        [Fact]
+        public async Task When_Delay_Is_Longer_Than_Wheel_Waits_Several_Rounds()
+        {
+            // 8 slots of 10ms, a 200ms delay needs the wheel to turn more than twice
+            using (var target = new TimerWheel(TimeSpan.FromMilliseconds(10), 8))
+            {
+                var stopwatch = Stopwatch.StartNew();
+                var longDelay = target.Delay(TimeSpan.FromMilliseconds(200), CancellationToken.None);
+                var shortDelay = target.Delay(TimeSpan.FromMilliseconds(20), CancellationToken.None);
+
+                await shortDelay;
+                Assert.False(longDelay.IsCompleted);
+
+                Assert.Same(longDelay, await Task.WhenAny(longDelay, Task.Delay(TestTimeout)));
+                Assert.True(stopwatch.ElapsedMilliseconds >= 190, $"Completed after {stopwatch.ElapsedMilliseconds}ms");
+            }
+        }
+
+        [Fact]
+        public async Task When_Cancelled_Task_Is_Cancelled()
+        {
+            using (var target = new TimerWheel(TimeSpan.FromMilliseconds(10), 16))
+            using (var cancellationTokenSource = new CancellationTokenSource())
+            {
+                var delay = target.Delay(TimeSpan.FromMinutes(1), cancellationTokenSource.Token);
+
+                cancellationTokenSource.Cancel();
+
+                await Assert.ThrowsAnyAsync<OperationCanceledException>(() => delay);
+            }
+        }
+
+        [Fact]
+        public async Task When_Disposed_Pending_Delays_Are_Cancelled()
+        {
+            var target = new TimerWheel(TimeSpan.FromMilliseconds(10), 16);
+            var delay = target.Delay(TimeSpan.FromMinutes(1), CancellationToken.None);
+
+            target.Dispose();
+
+            await Assert.ThrowsAnyAsync<OperationCanceledException>(() => delay);
+            Assert.Throws<ObjectDisposedException>(() => target.Delay(TimeSpan.FromSeconds(1), CancellationToken.None));
+        }
+
+        [Fact]
+        public void When_Delay_Is_Zero_Completes_Immediately()
+        {
+            using (var target = new TimerWheel(TimeSpan.FromMilliseconds(10), 16))
+            {
+                Assert.True(target.Delay(TimeSpan.Zero, CancellationToken.None).IsCompleted);
+                Assert.Equal(0, target.PendingCount);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+﻿// Copyright (c) .NET Foundation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Threading.Tasks;
+using Confluent.Kafka;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests.output
+{
+    public class DeliveryConfirmationTest
+    {
+        private static DeliveryReport<Null, string> CreateReport(ErrorCode errorCode = ErrorCode.NoError)
+        {
+            return new DeliveryReport<Null, string>()
+            {
+                TopicPartitionOffset = new TopicPartitionOffset("topic", 0, 1),
+                Error = new Error(errorCode),
+            };
+        }
+
+        [Fact]
+        public async Task When_All_Messages_Are_Delivered_Should_Complete()
+        {
+            var confirmation = new DeliveryConfirmation<Null, string>();
+            confirmation.Add();
+            confirmation.Add();
+            confirmation.Handler(CreateReport());
+
+            var task = confirmation.Seal();
+            Assert.False(task.IsCompleted);
+
+            confirmation.Handler(CreateReport());
+            await task;
+            Assert.Equal(2, confirmation.Produced);
+            Assert.Equal(0, confirmation.Failed);
+        }
+
+        [Fact]
+        public async Task When_Reports_Arrive_Before_Seal_Should_Complete_On_Seal()
+        {
+            var confirmation = new DeliveryConfirmation<Null, string>();
+            confirmation.Add();
+            confirmation.Handler(CreateReport());
+
+            await confirmation.Seal();
+        }
+
+        [Fact]
+        public async Task When_Nothing_Was_Produced_Should_Complete()
+        {
+            await new DeliveryConfirmation<Null, string>().Seal();
+        }
+
+        [Fact]
+        public async Task When_A_Message_Is_Not_Delivered_Should_Fail_Once_All_Reports_Arrived()
+        {
+            var confirmation = new DeliveryConfirmation<Null, string>();
+            confirmation.Add();
+            confirmation.Add();
+            var task = confirmation.Seal();
+
+            confirmation.Handler(CreateReport(ErrorCode.Local_MsgTimedOut));
+            Assert.False(task.IsCompleted);
+
+            confirmation.Handler(CreateReport());
+            var exception = await Assert.ThrowsAsync<ProduceException<Null, string>>(() => task);
+            Assert.Equal(ErrorCode.Local_MsgTimedOut, exception.Error.Code);
+            Assert.Equal(1, confirmation.Failed);
+        }
+
+        [Fact]
+        public async Task When_Producing_Stops_Should_Fail_After_Produced_Messages_Are_Confirmed()
+        {
+            var confirmation = new DeliveryConfirmation<Null, string>();
+            confirmation.Add();
+
+            // Second message could not be produced
+            confirmation.Add();
+            confirmation.Remove();
+            confirmation.Fail(new KafkaException(ErrorCode.Local_QueueFull));
+
+            var task = confirmation.Seal();
+            Assert.False(task.IsCompleted);
+            Assert.Equal(1, confirmation.Produced);
+
+            confirmation.Handler(CreateReport());
+            var exception = await Assert.ThrowsAsync<KafkaException>(() => task);
+            Assert.Equal(ErrorCode.Local_QueueFull, exception.Error.Code);
+        }
+    }
+}
@@ -47,5 +47,38 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kafka.UnitTests.output
             Task task = kafkaProducerEntity.SendAndCreateEntityIfNotExistsAsync<object>(eventList, Guid.NewGuid(), CancellationToken.None);
             Assert.True(task.IsCompleted);
         }
+
+        [Fact]
+        public async Task SendAndCreateEntityIfNotExistsAsync_confirmed_waits_for_all_deliveries()
+        {
+            KafkaProducerEntity kafkaProducerEntity = new KafkaProducerEntity();
+            kafkaProducerEntity.KafkaProducerFactory = kafkaProducerFactory.Object;
+            kafkaProducerEntity.Attribute = new KafkaAttribute("brokers:9092", "topic") { DeliveryMode = DeliveryMode.Confirmed };
+            kafkaProducerFactory.Setup(e => e.Create(It.IsAny<KafkaProducerEntity>())).Returns(kafkaProducer.Object);
+            var deliveries = new List<TaskCompletionSource<bool>>();
+            kafkaProducer.Setup(e => e.ProduceAsync(It.IsAny<string>(), It.IsAny<object>())).Returns(() =>
+            {
+                var delivery = new TaskCompletionSource<bool>();
+                deliveries.Add(delivery);
+                return delivery.Task;
+            });
+            List<KafkaEventData<string>> eventList = new List<KafkaEventData<string>>();
+            for (int i = 0; i < 3; i++)
+            {
+                eventList.Add(new KafkaEventData<string>("testVal"));
+            }
+
+            Task task = kafkaProducerEntity.SendAndCreateEntityIfNotExistsAsync<object>(eventList, Guid.NewGuid(), CancellationToken.None);
+
+            // All messages are produced before any delivery is confirmed
+            Assert.Equal(3, deliveries.Count);
+            kafkaProducer.Verify(e => e.Produce(It.IsAny<string>(), It.IsAny<object>()), Times.Never());
+            deliveries[0].SetResult(true);
+            deliveries[2].SetResult(true);
+            Assert.False(task.IsCompleted);
+
+            deliveries[1].SetException(new InvalidOperationException("delivery failed"));
+            await Assert.ThrowsAsync<InvalidOperationException>(() => task);
+        }
     }
 }